@@ -0,0 +1,224 @@
+package com.zancocho.audiotool.client;
+
+import com.zancocho.audiotool.exception.AudioToolException;
+import com.zancocho.audiotool.mp3.Mp3Encoder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jose A.H
+ *
+ * AudioToolClientBenchmark: the operations of AudioToolClient on synthetic audio (a chord with some noise) of several
+ * lengths and formats. The inputs are generated in the setup: a wav and a mp3 file in a temporary folder, and their
+ * bytes for the operations on streams, which write to a stream that discards the result, so the disk is only
+ * measured by the operations on files.
+ *
+ * Besides ops/s, the "realTime" score is the speed as a multiple of real time: seconds of input audio per second.
+ * The gradle task adds the GC profiler, which reports the allocation rate (gc.alloc.rate.norm is bytes per operation).
+ *
+ * ./gradlew jmh -PjmhArgs="AudioToolClientBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class AudioToolClientBenchmark {
+
+    private static final String WAV_NAME = "benchmark";
+    private static final String MP3_NAME = "benchmark_mp3";
+    private static final String RESULT_NAME = "benchmark_result";
+
+    @Param({"10", "60"})
+    public int seconds;
+
+    @Param({"44100-2", "22050-1"})
+    public String format;
+
+    private AudioToolClient client;
+    private File folder;
+    private String filePath;
+    private byte[] wav;
+    private byte[] mp3;
+
+    /**
+     * RealTime: seconds of input audio processed, reported as a rate per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RealTime {
+        public double realTime;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            realTime = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        client = AudioToolClient.getInstance();
+        client.setEncoderProfile(Mp3Encoder.Profile.BALANCED);
+        client.setDecodedAudioCache(null);
+
+        folder = Files.createTempDirectory("audiotool-benchmark").toFile();
+        filePath = folder.getAbsolutePath() + File.separator;
+
+        String[] rateAndChannels = format.split("-");
+        AudioFormat audioFormat = new AudioFormat(Integer.parseInt(rateAndChannels[0]), 16, Integer.parseInt(rateAndChannels[1]), true, false);
+        byte[] pcm = createPcm(audioFormat, seconds);
+
+        File wavFile = new File(filePath + WAV_NAME + ".wav");
+        AudioSystem.write(createStream(audioFormat, pcm), AudioFileFormat.Type.WAVE, wavFile);
+        wav = Files.readAllBytes(wavFile.toPath());
+
+        File mp3File = new File(filePath + MP3_NAME + ".mp3");
+        new Mp3Encoder(Mp3Encoder.Profile.BALANCED).encode(createStream(audioFormat, pcm), mp3File);
+        mp3 = Files.readAllBytes(mp3File.toPath());
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    /**
+     * createPcm: a chord of three sines with noise 30 dB below, so the encoder works as on music and not on a
+     * single tone or on white noise.
+     * @param audioFormat
+     * @param seconds
+     * @return
+     */
+    private static byte[] createPcm(AudioFormat audioFormat, int seconds) {
+        int channels = audioFormat.getChannels();
+        int frames = Math.round(audioFormat.getSampleRate()) * seconds;
+        double[] frequencies = {220, 277.18, 329.63};
+        Random random = new Random(42);
+        byte[] pcm = new byte[frames * audioFormat.getFrameSize()];
+        for(int frame = 0; frame < frames; frame++){
+            double time = frame / audioFormat.getSampleRate();
+            for(int channel = 0; channel < channels; channel++){
+                double value = random.nextGaussian() * 300;
+                for(double frequency : frequencies){
+                    value += 3000 * Math.sin(2 * Math.PI * (frequency + channel) * time);
+                }
+                int index = 2 * (frame * channels + channel);
+                pcm[index] = (byte) (int) value;
+                pcm[index + 1] = (byte) ((int) value >> 8);
+            }
+        }
+        return pcm;
+    }
+
+    private static AudioInputStream createStream(AudioFormat audioFormat, byte[] pcm) {
+        return new AudioInputStream(new ByteArrayInputStream(pcm), audioFormat, pcm.length / audioFormat.getFrameSize());
+    }
+
+    @Benchmark
+    public void decode(RealTime counter) throws AudioToolException {
+        client.convertMp3ToWav(new ByteArrayInputStream(mp3), new NullOutputStream());
+        counter.realTime += seconds;
+    }
+
+    @Benchmark
+    public void encode(RealTime counter) throws AudioToolException {
+        client.joinAudio(Collections.singletonList(new ByteArrayInputStream(wav)), AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.MP3, new NullOutputStream());
+        counter.realTime += seconds;
+    }
+
+    @Benchmark
+    public void cutWav(RealTime counter) throws AudioToolException {
+        client.cutAudio(new ByteArrayInputStream(wav), AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, new NullOutputStream(), 1.5, seconds / 2.0);
+        counter.realTime += seconds / 2.0;
+    }
+
+    @Benchmark
+    public void cutMp3ToWav(RealTime counter) throws AudioToolException {
+        client.cutAudio(new ByteArrayInputStream(mp3), AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, new NullOutputStream(), 1.5, seconds / 2.0);
+        counter.realTime += seconds / 2.0;
+    }
+
+    @Benchmark
+    public String cutMp3ToMp3File(RealTime counter) throws AudioToolException {
+        // frames are copied, nothing is decoded or encoded
+        String result = client.cutAudio(MP3_NAME, RESULT_NAME, AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.MP3, filePath, 1.5, seconds / 2.0);
+        counter.realTime += seconds / 2.0;
+        return result;
+    }
+
+    @Benchmark
+    public float durationWavFile() throws AudioToolException {
+        return client.getDurationAudio(WAV_NAME, AudioToolClient.AudioType.WAV, filePath);
+    }
+
+    @Benchmark
+    public float durationMp3File() throws AudioToolException {
+        return client.getDurationAudio(MP3_NAME, AudioToolClient.AudioType.MP3, filePath);
+    }
+
+    @Benchmark
+    public float durationMp3Stream(RealTime counter) throws AudioToolException {
+        float durationInSeconds = client.getDurationAudio(new ByteArrayInputStream(mp3), AudioToolClient.AudioType.MP3);
+        counter.realTime += seconds;
+        return durationInSeconds;
+    }
+
+    @Benchmark
+    public void blendAudioWithOffset(RealTime counter) throws AudioToolException {
+        client.blendAudioWithOffset(new ByteArrayInputStream(wav), new ByteArrayInputStream(wav), AudioToolClient.AudioType.WAV,
+                AudioToolClient.AudioType.WAV, new NullOutputStream(), 1, seconds);
+        counter.realTime += seconds;
+    }
+
+    @Benchmark
+    public void blendAudioWithOffsetToMp3(RealTime counter) throws AudioToolException {
+        client.blendAudioWithOffset(new ByteArrayInputStream(wav), new ByteArrayInputStream(wav), AudioToolClient.AudioType.WAV,
+                AudioToolClient.AudioType.MP3, new NullOutputStream(), 1, seconds);
+        counter.realTime += seconds;
+    }
+
+    /**
+     * NullOutputStream: discard the result, the disk is not part of the measure.
+     */
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
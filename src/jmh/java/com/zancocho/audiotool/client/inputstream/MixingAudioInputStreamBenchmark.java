@@ -0,0 +1,113 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jose A.H
+ *
+ * MixingAudioInputStreamBenchmark: frames per second mixed by the block mixer (MixingAudioInputStream) against the
+ * frame by frame mixer it replaced (LegacyMixingAudioInputStream). The score of every benchmark is in frames/s.
+ *
+ * ./gradlew jmh -PjmhArgs="MixingAudioInputStreamBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixingAudioInputStreamBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FRAMES = SAMPLE_RATE * 10;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    @Param({"PCM16_LE", "PCM16_BE", "PCM24_LE", "PCM32_LE", "FLOAT32_LE"})
+    public String format;
+
+    @Param({"2", "4"})
+    public int inputs;
+
+    private AudioFormat audioFormat;
+    private byte[][] inputData;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setup() {
+        audioFormat = createFormat(format);
+        inputData = new byte[inputs][];
+        Random random = new Random(42);
+        for(int i = 0; i < inputs; i++){
+            inputData[i] = new byte[FRAMES * audioFormat.getFrameSize()];
+            random.nextBytes(inputData[i]);
+        }
+        readBuffer = new byte[READ_BUFFER_SIZE - READ_BUFFER_SIZE % audioFormat.getFrameSize()];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long blockMixer() throws IOException {
+        return drain(new MixingAudioInputStream(audioFormat, createInputs()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long legacyMixer() throws IOException {
+        // The legacy mixer has no float support: it writes silence, but its frame by frame loop is still measured.
+        return drain(new LegacyMixingAudioInputStream(audioFormat, createInputs()));
+    }
+
+    private List<AudioInputStream> createInputs() {
+        List<AudioInputStream> list = new ArrayList<>();
+        for(byte[] data : inputData){
+            list.add(new AudioInputStream(new ByteArrayInputStream(data), audioFormat, FRAMES));
+        }
+        return list;
+    }
+
+    private long drain(AudioInputStream audioInputStream) throws IOException {
+        long total = 0;
+        int read;
+        while((read = audioInputStream.read(readBuffer, 0, readBuffer.length)) > 0){
+            total += read;
+        }
+        return total;
+    }
+
+    static AudioFormat createFormat(String format) {
+        switch (format) {
+            case "PCM16_LE":
+                return new AudioFormat(SAMPLE_RATE, 16, 2, true, false);
+            case "PCM16_BE":
+                return new AudioFormat(SAMPLE_RATE, 16, 2, true, true);
+            case "PCM24_LE":
+                return new AudioFormat(SAMPLE_RATE, 24, 2, true, false);
+            case "PCM32_LE":
+                return new AudioFormat(SAMPLE_RATE, 32, 2, true, false);
+            case "FLOAT32_LE":
+                return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, SAMPLE_RATE, 32, 2, 8, SAMPLE_RATE, false);
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import com.zancocho.audiotool.mp3.Mp3Encoder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jose A.H
+ *
+ * ParallelMp3DecoderBenchmark: speed of the parallel mp3 decoder (ParallelMp3AudioInputStream) with a pool of 1, 2, 4
+ * and 8 threads, against the sequential decoder (Mp3AudioInputStream), on 60 seconds of a stereo chord encoded in the
+ * setup. The speedup of a number of threads is its "realTime" score divided by the one of the sequential benchmark;
+ * the parallel benchmark with 1 thread measures the cost of the warm up frames of every segment.
+ *
+ * ./gradlew jmh -PjmhArgs="ParallelMp3DecoderBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ParallelMp3DecoderBenchmark {
+
+    private static final int SECONDS = 60;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private File mp3File;
+    private byte[] readBuffer;
+
+    /**
+     * RealTime: seconds of audio decoded, reported as a rate per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RealTime {
+        public double realTime;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            realTime = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        pool = new ForkJoinPool(threads);
+        readBuffer = new byte[READ_BUFFER_SIZE];
+
+        // a chord with some noise, so the frames use the bit reservoir as music does
+        AudioFormat audioFormat = new AudioFormat(44100, 16, 2, true, false);
+        int frames = 44100 * SECONDS;
+        byte[] pcm = new byte[frames * audioFormat.getFrameSize()];
+        Random random = new Random(42);
+        for(int i = 0; i < frames * 2; i++){
+            double time = (i / 2) / 44100.0;
+            double value = random.nextGaussian() * 300 + 3000 * (Math.sin(2 * Math.PI * 220 * time)
+                    + Math.sin(2 * Math.PI * 277.18 * time) + Math.sin(2 * Math.PI * 329.63 * time));
+            pcm[2 * i] = (byte) (int) value;
+            pcm[2 * i + 1] = (byte) ((int) value >> 8);
+        }
+
+        mp3File = File.createTempFile("audiotool-benchmark", ".mp3");
+        new Mp3Encoder(Mp3Encoder.Profile.BALANCED).encode(new AudioInputStream(new ByteArrayInputStream(pcm), audioFormat, frames), mp3File);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+        mp3File.delete();
+    }
+
+    @Benchmark
+    public long sequential(RealTime counter) throws IOException, UnsupportedAudioFileException {
+        long total = drain(Mp3AudioInputStream.getAudioInputStream(mp3File));
+        counter.realTime += SECONDS;
+        return total;
+    }
+
+    @Benchmark
+    public long parallel(RealTime counter) throws IOException, UnsupportedAudioFileException {
+        long total = drain(ParallelMp3AudioInputStream.getAudioInputStream(mp3File, pool, ParallelMp3AudioInputStream.DEFAULT_SEGMENT_FRAMES));
+        counter.realTime += SECONDS;
+        return total;
+    }
+
+    private long drain(AudioInputStream audioInputStream) throws IOException {
+        try (AudioInputStream input = audioInputStream) {
+            long total = 0;
+            int read;
+            while((read = input.read(readBuffer, 0, readBuffer.length)) > 0){
+                total += read;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jose A.H
+ *
+ * SequenceAudioInputStreamBenchmark: frames per second joined by SequenceAudioInputStream, for the formats of
+ * MixingAudioInputStreamBenchmark. The same number of frames is split in 2 to 32 inputs, so the cost of moving from
+ * one input to the next is measured too. The score is in frames/s.
+ *
+ * ./gradlew jmh -PjmhArgs="SequenceAudioInputStreamBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceAudioInputStreamBenchmark {
+
+    private static final int FRAMES = 44100 * 10;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    @Param({"PCM16_LE", "PCM24_LE", "FLOAT32_LE"})
+    public String format;
+
+    @Param({"2", "32"})
+    public int inputs;
+
+    private AudioFormat audioFormat;
+    private byte[][] inputData;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setup() {
+        audioFormat = MixingAudioInputStreamBenchmark.createFormat(format);
+        inputData = new byte[inputs][];
+        Random random = new Random(42);
+        for(int i = 0; i < inputs; i++){
+            inputData[i] = new byte[FRAMES / inputs * audioFormat.getFrameSize()];
+            random.nextBytes(inputData[i]);
+        }
+        readBuffer = new byte[READ_BUFFER_SIZE - READ_BUFFER_SIZE % audioFormat.getFrameSize()];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long sequence() throws IOException {
+        List<AudioInputStream> list = new ArrayList<>();
+        for(byte[] data : inputData){
+            list.add(new AudioInputStream(new ByteArrayInputStream(data), audioFormat, data.length / audioFormat.getFrameSize()));
+        }
+
+        AudioInputStream audioInputStream = new SequenceAudioInputStream(audioFormat, list);
+        long total = 0;
+        int read;
+        while((read = audioInputStream.read(readBuffer, 0, readBuffer.length)) > 0){
+            total += read;
+        }
+        return total;
+    }
+}
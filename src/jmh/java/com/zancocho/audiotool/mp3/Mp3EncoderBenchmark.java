@@ -0,0 +1,108 @@
+package com.zancocho.audiotool.mp3;
+
+import com.zancocho.audiotool.client.inputstream.Mp3AudioInputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jose A.H
+ *
+ * Mp3EncoderBenchmark: encoding speed of every Mp3Encoder profile on the bundled audio1.mp3 and audio2.mp3. The
+ * files are decoded once in the setup, so only the encoder is measured.
+ *
+ * The "realTime" score is the speed as a multiple of real time: seconds of audio encoded per second.
+ *
+ * ./gradlew jmh -PjmhArgs="Mp3EncoderBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class Mp3EncoderBenchmark {
+
+    @Param({"FAST", "BALANCED", "ARCHIVE"})
+    public Mp3Encoder.Profile profile;
+
+    @Param({"audio1.mp3", "audio2.mp3"})
+    public String source;
+
+    private AudioFormat audioFormat;
+    private byte[] pcm;
+    private double durationInSeconds;
+    private Mp3Encoder encoder;
+
+    /**
+     * RealTime: seconds of audio encoded, reported as a rate per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RealTime {
+        public double realTime;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            realTime = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException, UnsupportedAudioFileException {
+        try (InputStream inputStream = Mp3EncoderBenchmark.class.getClassLoader().getResourceAsStream(source);
+             AudioInputStream audioInputStream = Mp3AudioInputStream.getAudioInputStream(inputStream)) {
+            audioFormat = audioInputStream.getFormat();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while((read = audioInputStream.read(buffer)) > 0){
+                outputStream.write(buffer, 0, read);
+            }
+            pcm = outputStream.toByteArray();
+        }
+        durationInSeconds = (double) pcm.length / audioFormat.getFrameSize() / audioFormat.getFrameRate();
+        encoder = new Mp3Encoder(profile);
+    }
+
+    @Benchmark
+    public long encode(RealTime counter) throws IOException {
+        AudioInputStream audioInputStream = new AudioInputStream(new ByteArrayInputStream(pcm), audioFormat, pcm.length / audioFormat.getFrameSize());
+        long samples = encoder.encode(audioInputStream, new NullOutputStream());
+        counter.realTime += durationInSeconds;
+        return samples;
+    }
+
+    /**
+     * NullOutputStream: discard the mp3 frames, the disk is not part of the measure.
+     */
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
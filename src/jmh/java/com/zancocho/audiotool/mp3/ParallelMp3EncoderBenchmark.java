@@ -0,0 +1,121 @@
+package com.zancocho.audiotool.mp3;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jose A.H
+ *
+ * ParallelMp3EncoderBenchmark: speed of the chunked encoder (Mp3Encoder with a ForkJoinPool) with a pool of 1, 2, 4
+ * and 8 threads, against the encoder in the calling thread, on 60 seconds of a stereo chord with the BALANCED
+ * profile. The speedup of a number of threads is its "realTime" score divided by the one of the sequential
+ * benchmark; the parallel benchmark with 1 thread measures the cost of the overlap of the chunks.
+ *
+ * ./gradlew jmh -PjmhArgs="ParallelMp3EncoderBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ParallelMp3EncoderBenchmark {
+
+    private static final int SECONDS = 60;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private AudioFormat audioFormat;
+    private byte[] pcm;
+
+    /**
+     * RealTime: seconds of audio encoded, reported as a rate per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RealTime {
+        public double realTime;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            realTime = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        pool = new ForkJoinPool(threads);
+
+        // a chord with some noise, so the encoder works as on music
+        audioFormat = new AudioFormat(44100, 16, 2, true, false);
+        int frames = 44100 * SECONDS;
+        pcm = new byte[frames * audioFormat.getFrameSize()];
+        Random random = new Random(42);
+        for(int i = 0; i < frames * 2; i++){
+            double time = (i / 2) / 44100.0;
+            double value = random.nextGaussian() * 300 + 3000 * (Math.sin(2 * Math.PI * 220 * time)
+                    + Math.sin(2 * Math.PI * 277.18 * time) + Math.sin(2 * Math.PI * 329.63 * time));
+            pcm[2 * i] = (byte) (int) value;
+            pcm[2 * i + 1] = (byte) ((int) value >> 8);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public long sequential(RealTime counter) throws IOException {
+        long samples = new Mp3Encoder(Mp3Encoder.Profile.BALANCED).encode(createStream(), new NullOutputStream());
+        counter.realTime += SECONDS;
+        return samples;
+    }
+
+    @Benchmark
+    public long parallel(RealTime counter) throws IOException {
+        long samples = new Mp3Encoder(Mp3Encoder.Profile.BALANCED, pool).encode(createStream(), new NullOutputStream());
+        counter.realTime += SECONDS;
+        return samples;
+    }
+
+    private AudioInputStream createStream() {
+        return new AudioInputStream(new ByteArrayInputStream(pcm), audioFormat, pcm.length / audioFormat.getFrameSize());
+    }
+
+    /**
+     * NullOutputStream: discard the mp3 frames, the disk is not part of the measure.
+     */
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.zancocho.audiotool.client;
+
+import com.zancocho.audiotool.client.inputstream.Mp3AudioInputStream;
+import com.zancocho.audiotool.exception.AudioToolException;
+import com.zancocho.audiotool.metrics.AudioMetrics;
+import com.zancocho.audiotool.metrics.NoOpAudioMetrics;
+import com.zancocho.audiotool.mp3.Mp3Encoder;
+import com.zancocho.audiotool.mp3.Mp3Info;
+import com.zancocho.audiotool.util.TempWorkspace;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author Jose A.H
+ *
+ * AudioBatch: run a list of jobs on a work stealing pool (ForkJoinPool) and return the result or the error of every
+ * job, in the order of the list. A failed job does not stop the batch.
+ *
+ * A mp3 file that is used by more than one job is decoded only once: its PCM is kept in memory while there are jobs
+ * left that use it, and the jobs read it from there. The jobs that share a file are run close to each other, so the
+ * PCM is released soon. The PCM kept in memory is limited to maxDecodedBytes: when the limit is reached, no more
+ * jobs are started until the running jobs release some PCM. A file bigger than the limit is not shared, every job
+ * decodes it while it reads it.
+ *
+ * With a DecodedAudioCache, the mp3 files are read from the cache instead, and the cache decides what is kept in
+ * memory.
+ *
+ * Every job is rendered by its own AudioPipeline (SequenceAudioInputStream and MixingFloatSource).
+ */
+public class AudioBatch {
+
+    public static final long DEFAULT_MAX_DECODED_BYTES = 256L * 1024 * 1024;
+
+    private final int parallelism;
+    private final long maxDecodedBytes;
+    private final Mp3Encoder.Profile encoderProfile;
+    private final DecodedAudioCache cache;
+    private final AudioMetrics metrics;
+    private final TempWorkspace workspace;
+
+    /**
+     * AudioBatch: one thread per core, DEFAULT_MAX_DECODED_BYTES of shared PCM and the BALANCED mp3 profile.
+     */
+    public AudioBatch() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_DECODED_BYTES, Mp3Encoder.Profile.BALANCED);
+    }
+
+    public AudioBatch(int parallelism, long maxDecodedBytes, Mp3Encoder.Profile encoderProfile) {
+        this(parallelism, maxDecodedBytes, encoderProfile, null);
+    }
+
+    /**
+     * AudioBatch: batch that reads the mp3 files from the cache.
+     * @param parallelism
+     * @param maxDecodedBytes not used with a cache
+     * @param encoderProfile
+     * @param cache null for no cache
+     */
+    public AudioBatch(int parallelism, long maxDecodedBytes, Mp3Encoder.Profile encoderProfile, DecodedAudioCache cache) {
+        this(parallelism, maxDecodedBytes, encoderProfile, cache, NoOpAudioMetrics.getInstance());
+    }
+
+    /**
+     * AudioBatch: batch that records the stages of every job in the metrics.
+     * @param parallelism
+     * @param maxDecodedBytes not used with a cache
+     * @param encoderProfile
+     * @param cache null for no cache
+     * @param metrics
+     */
+    public AudioBatch(int parallelism, long maxDecodedBytes, Mp3Encoder.Profile encoderProfile, DecodedAudioCache cache, AudioMetrics metrics) {
+        this(parallelism, maxDecodedBytes, encoderProfile, cache, metrics, new TempWorkspace());
+    }
+
+    /**
+     * AudioBatch: batch that writes the results of the jobs through the workspace, so the quota is shared by the
+     * jobs that run at the same time.
+     * @param parallelism
+     * @param maxDecodedBytes not used with a cache
+     * @param encoderProfile
+     * @param cache null for no cache
+     * @param metrics
+     * @param workspace
+     */
+    public AudioBatch(int parallelism, long maxDecodedBytes, Mp3Encoder.Profile encoderProfile, DecodedAudioCache cache, AudioMetrics metrics,
+                      TempWorkspace workspace) {
+        if(parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be at least 1");
+        if(encoderProfile == null)
+            throw new IllegalArgumentException("The encoder profile is required");
+
+        this.parallelism = parallelism;
+        this.maxDecodedBytes = Math.max(0, maxDecodedBytes);
+        this.encoderProfile = encoderProfile;
+        this.cache = cache;
+        this.metrics = metrics == null ? NoOpAudioMetrics.getInstance() : metrics;
+        this.workspace = workspace == null ? new TempWorkspace() : workspace;
+    }
+
+    /**
+     * run: run the jobs and wait for all of them. If the thread is interrupted, the jobs that were not started get
+     * an error.
+     * @param jobs
+     * @return the result of every job, in the order of the list
+     */
+    public List<AudioJobResult> run(List<AudioJob> jobs) {
+        return new BatchRun(jobs).run();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public long getMaxDecodedBytes() {
+        return maxDecodedBytes;
+    }
+
+    public Mp3Encoder.Profile getEncoderProfile() {
+        return encoderProfile;
+    }
+
+    public DecodedAudioCache getCache() {
+        return cache;
+    }
+
+    public AudioMetrics getMetrics() {
+        return metrics;
+    }
+
+    public TempWorkspace getWorkspace() {
+        return workspace;
+    }
+
+    /**
+     * BatchRun: the state of one run. The jobs are submitted by the calling thread, which waits when the shared
+     * PCM is over the limit, so the workers of the pool never wait for memory.
+     */
+    private class BatchRun {
+
+        private final List<AudioJob> jobs;
+        private final AudioJobResult[] results;
+        // shared mp3 files, in the order of their first use
+        private final Map<File, SharedSource> sharedSources = new LinkedHashMap<>();
+
+        private final Object lock = new Object();
+        // bytes of PCM reserved by the shared sources, guarded by lock
+        private long decodedBytes;
+        // jobs submitted and not finished, guarded by lock
+        private int jobsInFlight;
+
+        BatchRun(List<AudioJob> jobs) {
+            this.jobs = new ArrayList<>(jobs);
+            this.results = new AudioJobResult[jobs.size()];
+        }
+
+        List<AudioJobResult> run() {
+            findSharedSources();
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                for(int index : getOrder()){
+                    AudioJob job = jobs.get(index);
+                    List<SharedSource> shared = getSharedSources(job);
+                    reserve(shared);
+                    pool.execute(() -> runJob(index, job, shared));
+                }
+                awaitJobs();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+
+            } finally {
+                pool.shutdown();
+            }
+
+            List<AudioJobResult> list = new ArrayList<>();
+            synchronized(lock){
+                for(int i = 0; i < results.length; i++){
+                    list.add(results[i] != null ? results[i] : new AudioJobResult(jobs.get(i), null, new AudioToolException("The batch was interrupted")));
+                }
+            }
+            return list;
+        }
+
+        /**
+         * findSharedSources: the mp3 files used by more than one job and small enough to be kept in memory.
+         */
+        private void findSharedSources() {
+            if(cache != null)
+                return;
+
+            Map<File, Integer> uses = new LinkedHashMap<>();
+            for(AudioJob job : jobs){
+                if(AudioToolClient.AudioType.MP3.equals(job.getAudioType())){
+                    for(File file : job.getSourceFiles()){
+                        uses.merge(file, 1, Integer::sum);
+                    }
+                }
+            }
+
+            for(Map.Entry<File, Integer> entry : uses.entrySet()){
+                if(entry.getValue() < 2)
+                    continue;
+
+                long estimatedBytes = estimateDecodedBytes(entry.getKey());
+                if(estimatedBytes > 0 && estimatedBytes <= maxDecodedBytes && estimatedBytes <= Integer.MAX_VALUE)
+                    sharedSources.put(entry.getKey(), new SharedSource(entry.getKey(), entry.getValue(), estimatedBytes));
+            }
+        }
+
+        /**
+         * getOrder: the jobs that share a file are moved next to the first job that uses it, so the PCM of the file
+         * is released soon. The other jobs keep their order.
+         * @return
+         */
+        private List<Integer> getOrder() {
+            Map<SharedSource, Integer> firstUse = new HashMap<>();
+            int[] keys = new int[jobs.size()];
+            List<Integer> order = new ArrayList<>();
+            for(int i = 0; i < jobs.size(); i++){
+                keys[i] = i;
+                for(SharedSource sharedSource : getSharedSources(jobs.get(i))){
+                    firstUse.putIfAbsent(sharedSource, i);
+                    keys[i] = Math.min(keys[i], firstUse.get(sharedSource));
+                }
+                order.add(i);
+            }
+
+            order.sort(Comparator.comparingInt(i -> keys[i]));
+            return order;
+        }
+
+        private List<SharedSource> getSharedSources(AudioJob job) {
+            List<SharedSource> shared = new ArrayList<>();
+            if(AudioToolClient.AudioType.MP3.equals(job.getAudioType())){
+                for(File file : job.getSourceFiles()){
+                    SharedSource sharedSource = sharedSources.get(file);
+                    if(sharedSource != null)
+                        shared.add(sharedSource);
+                }
+            }
+            return shared;
+        }
+
+        /**
+         * reserve: reserve the PCM of the shared sources of a job that are not in memory yet. Wait while the limit
+         * is reached and there are jobs running. If no job is running, the sources that are not used by this job are
+         * released (they will be decoded again by their next job); a job that needs more than the limit alone runs
+         * anyway.
+         * @param shared
+         * @throws InterruptedException
+         */
+        private void reserve(List<SharedSource> shared) throws InterruptedException {
+            synchronized(lock){
+                long bytes = 0;
+                for(SharedSource sharedSource : shared){
+                    if(!sharedSource.reserved)
+                        bytes += sharedSource.estimatedBytes;
+                }
+
+                while(decodedBytes + bytes > maxDecodedBytes && jobsInFlight > 0){
+                    lock.wait();
+                }
+
+                if(decodedBytes + bytes > maxDecodedBytes){
+                    for(SharedSource sharedSource : sharedSources.values()){
+                        if(sharedSource.reserved && !shared.contains(sharedSource))
+                            sharedSource.evict();
+                    }
+                }
+
+                for(SharedSource sharedSource : shared){
+                    if(!sharedSource.reserved){
+                        sharedSource.reserved = true;
+                        sharedSource.reservedBytes = sharedSource.estimatedBytes;
+                        decodedBytes += sharedSource.estimatedBytes;
+                    }
+                }
+                jobsInFlight++;
+            }
+        }
+
+        private void awaitJobs() throws InterruptedException {
+            synchronized(lock){
+                while(jobsInFlight > 0){
+                    lock.wait();
+                }
+            }
+        }
+
+        private void runJob(int index, AudioJob job, List<SharedSource> shared) {
+            AudioJobResult result;
+            try {
+                String path = job.render(new Mp3Encoder(encoderProfile), file -> {
+                    SharedSource sharedSource = sharedSources.get(file);
+                    return sharedSource != null ? sharedSource.getPipeline() : AudioPipeline.source(file, job.getAudioType(), cache);
+                }, metrics, workspace);
+                result = new AudioJobResult(job, path, null);
+
+            } catch (AudioToolException e) {
+                result = new AudioJobResult(job, null, e);
+
+            } catch (RuntimeException e) {
+                result = new AudioJobResult(job, null, new AudioToolException(e.toString()));
+            }
+
+            for(SharedSource sharedSource : shared){
+                sharedSource.release();
+            }
+
+            synchronized(lock){
+                results[index] = result;
+                jobsInFlight--;
+                lock.notifyAll();
+            }
+        }
+
+        /**
+         * SharedSource: a mp3 file used by several jobs. It is decoded by the first job that reads it and released
+         * after the last one.
+         */
+        private class SharedSource {
+
+            private final File file;
+            private final long estimatedBytes;
+
+            // guarded by lock
+            private int jobsLeft;
+            private boolean reserved;
+            private long reservedBytes;
+
+            // guarded by this
+            private AudioFormat audioFormat;
+            private byte[] pcm;
+            private boolean failed;
+
+            SharedSource(File file, int jobsLeft, long estimatedBytes) {
+                this.file = file;
+                this.jobsLeft = jobsLeft;
+                this.estimatedBytes = estimatedBytes;
+            }
+
+            /**
+             * getPipeline: the decoded PCM, decoded now if this is the first job. If the file cannot be decoded, the
+             * job reads the file and gets the error of the decoder.
+             * @return
+             */
+            synchronized AudioPipeline getPipeline() {
+                if(pcm == null && !failed)
+                    decode();
+
+                return failed ? AudioPipeline.source(file, AudioToolClient.AudioType.MP3) : AudioPipeline.source(audioFormat, pcm);
+            }
+
+            private void decode() {
+                try (AudioInputStream audioInputStream = Mp3AudioInputStream.getAudioInputStream(file)) {
+                    byte[] buffer = new byte[(int) estimatedBytes];
+                    int length = 0;
+                    int read;
+                    while((read = audioInputStream.read(buffer, length, buffer.length - length)) >= 0){
+                        length += read;
+                        if(length == buffer.length){
+                            if(audioInputStream.read() < 0)
+                                break;
+                            // more samples than the headers said, the decoded PCM is not shared
+                            throw new IOException("Unexpected length of the decoded mp3");
+                        }
+                    }
+                    audioFormat = audioInputStream.getFormat();
+                    pcm = length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+
+                } catch (IOException | UnsupportedAudioFileException e) {
+                    failed = true;
+                }
+
+                synchronized(lock){
+                    long bytes = failed ? 0 : pcm.length;
+                    decodedBytes += bytes - reservedBytes;
+                    reservedBytes = bytes;
+                    lock.notifyAll();
+                }
+            }
+
+            void release() {
+                boolean last;
+                synchronized(lock){
+                    last = --jobsLeft == 0;
+                    if(last && reserved){
+                        reserved = false;
+                        decodedBytes -= reservedBytes;
+                        reservedBytes = 0;
+                    }
+                }
+                if(last){
+                    synchronized(this){
+                        pcm = null;
+                    }
+                }
+            }
+
+            /**
+             * evict: release the PCM before the last job, called only when no job is running.
+             */
+            void evict() {
+                reserved = false;
+                decodedBytes -= reservedBytes;
+                reservedBytes = 0;
+                synchronized(this){
+                    pcm = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * estimateDecodedBytes: size of the decoded PCM of a mp3 file (16 bit samples), from its headers.
+     * @param file
+     * @return the size, 0 if the file cannot be read
+     */
+    private static long estimateDecodedBytes(File file) {
+        try {
+            Mp3Info mp3Info = Mp3Info.read(file);
+            return mp3Info.getTotalSamples() * mp3Info.getChannels() * 2;
+        } catch (IOException | UnsupportedAudioFileException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.zancocho.audiotool.client;
+
+import com.zancocho.audiotool.exception.AudioToolException;
+import com.zancocho.audiotool.metrics.AudioMetrics;
+import com.zancocho.audiotool.mp3.Mp3Encoder;
+import com.zancocho.audiotool.mp3.Mp3Splicer;
+import com.zancocho.audiotool.util.TempWorkspace;
+import com.zancocho.audiotool.wav.WavTransfer;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * @author Jose A.H
+ *
+ * AudioJob: descriptor of one operation of the client (join, blend, blend with offset or cut), so a list of them
+ * can be run as a batch by AudioBatch. The job is only validated when it runs, an invalid job gives an error in its
+ * own AudioJobResult and the rest of the batch is not affected.
+ *
+ * AudioToolClient runs its operations through the same descriptors, so a job in a batch gives the same result as
+ * the call to the client.
+ */
+public class AudioJob {
+
+    public static enum Type {
+        JOIN,
+        BLEND,
+        BLEND_WITH_OFFSET,
+        CUT,
+    };
+
+    private final Type type;
+    private final List<String> audioNames;
+    private final String fileNameResult;
+    private final AudioToolClient.AudioType audioType;
+    private final AudioToolClient.AudioType audioTypeResult;
+    private final String filePath;
+    private final double startSecond;
+    private final double totalSeconds;
+
+    private AudioJob(Type type, List<String> audioNames, String fileNameResult, AudioToolClient.AudioType audioType,
+                     AudioToolClient.AudioType audioTypeResult, String filePath, double startSecond, double totalSeconds) {
+        this.type = type;
+        this.audioNames = audioNames == null ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<>(audioNames));
+        this.fileNameResult = fileNameResult;
+        this.audioType = audioType;
+        this.audioTypeResult = audioTypeResult;
+        this.filePath = filePath;
+        this.startSecond = startSecond;
+        this.totalSeconds = totalSeconds;
+    }
+
+    /**
+     * join: join the audio files in the order of the list (see AudioToolClient.joinAudio).
+     * @param audioNames
+     * @param fileNameResult
+     * @param audioType
+     * @param audioTypeResult
+     * @param filePath
+     * @return
+     */
+    public static AudioJob join(List<String> audioNames, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath) {
+        return new AudioJob(Type.JOIN, audioNames, fileNameResult, audioType, audioTypeResult, filePath, 0, 0);
+    }
+
+    /**
+     * blend: overlap the audio files (see AudioToolClient.blendAudio).
+     * @param audioNames
+     * @param fileNameResult
+     * @param audioType
+     * @param audioTypeResult
+     * @param filePath
+     * @return
+     */
+    public static AudioJob blend(List<String> audioNames, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath) {
+        return new AudioJob(Type.BLEND, audioNames, fileNameResult, audioType, audioTypeResult, filePath, 0, 0);
+    }
+
+    /**
+     * blendWithOffset: overlap the audio with the background, padded with startSecond of silence and cut to
+     * totalSeconds (see AudioToolClient.blendAudioWithOffset).
+     * @param audioName
+     * @param audioBackground
+     * @param fileNameResult
+     * @param audioType
+     * @param audioTypeResult
+     * @param filePath
+     * @param startSecond
+     * @param totalSeconds
+     * @return
+     */
+    public static AudioJob blendWithOffset(String audioName, String audioBackground, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds) {
+        return new AudioJob(Type.BLEND_WITH_OFFSET, Arrays.asList(audioName, audioBackground), fileNameResult, audioType, audioTypeResult, filePath, startSecond, totalSeconds);
+    }
+
+    /**
+     * cut: keep totalSeconds of the audio from startSecond (see AudioToolClient.cutAudio).
+     * @param audioName
+     * @param fileNameResult
+     * @param audioType
+     * @param audioTypeResult
+     * @param filePath
+     * @param startSecond
+     * @param totalSeconds
+     * @return
+     */
+    public static AudioJob cut(String audioName, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath, double startSecond, double totalSeconds) {
+        return new AudioJob(Type.CUT, Collections.singletonList(audioName), fileNameResult, audioType, audioTypeResult, filePath, startSecond, totalSeconds);
+    }
+
+    /**
+     * getSourceFiles: the audio files read by the job, once each.
+     * @return
+     */
+    List<File> getSourceFiles() {
+        List<File> files = new ArrayList<>();
+        if(audioType == null)
+            return files;
+
+        for(String audioName : audioNames){
+            File file = getSourceFile(audioName);
+            if(!files.contains(file))
+                files.add(file);
+        }
+        return files;
+    }
+
+    private File getSourceFile(String audioName) {
+        return new File(filePath + audioName + (audioType.equals(AudioToolClient.AudioType.MP3) ? ".mp3" : ".wav")).getAbsoluteFile();
+    }
+
+    /**
+     * render: build the pipeline of the job and write the result.
+     * @param encoder
+     * @param cache cache of decoded mp3 files, null for no cache
+     * @param metrics
+     * @param workspace workspace of the job file
+     * @return the path of the result
+     * @throws AudioToolException
+     */
+    String render(Mp3Encoder encoder, DecodedAudioCache cache, AudioMetrics metrics, TempWorkspace workspace) throws AudioToolException {
+        return render(encoder, file -> AudioPipeline.source(file, audioType, cache), metrics, workspace);
+    }
+
+    /**
+     * render: build the pipeline of the job, with the sources given by the function, and write the result.
+     * @param encoder
+     * @param sources pipeline source for every file of getSourceFiles
+     * @param metrics the stages are recorded under the name of the type of the job
+     * @param workspace workspace of the job file
+     * @return the path of the result
+     * @throws AudioToolException
+     */
+    String render(Mp3Encoder encoder, Function<File, AudioPipeline> sources, AudioMetrics metrics, TempWorkspace workspace) throws AudioToolException {
+
+        if(audioType == null || (!audioType.equals(AudioToolClient.AudioType.WAV) && !audioType.equals(AudioToolClient.AudioType.MP3)))
+            throw new AudioToolException("Audio format not supported");
+
+        if(audioNames.isEmpty())
+            throw new AudioToolException("No audio files to process");
+
+        if(isTransfer()){
+            String path = transfer(metrics, workspace);
+            if(path != null)
+                return path;
+        }
+
+        List<AudioPipeline> pipelines = new ArrayList<>();
+        for(String audioName : audioNames){
+            pipelines.add(sources.apply(getSourceFile(audioName)));
+        }
+
+        return build(type, pipelines, startSecond, totalSeconds).render(fileNameResult, audioTypeResult, filePath, encoder, metrics, type.name(), workspace);
+    }
+
+    /**
+     * build: the pipeline of a job of the given type over the pipelines of its sources, in the order of the job.
+     * @param type
+     * @param pipelines
+     * @param startSecond
+     * @param totalSeconds
+     * @return
+     */
+    static AudioPipeline build(Type type, List<AudioPipeline> pipelines, double startSecond, double totalSeconds) {
+        AudioPipeline pipeline;
+        switch(type){
+            case JOIN:
+                pipeline = pipelines.get(0).concat(pipelines.subList(1, pipelines.size()).toArray(new AudioPipeline[0]));
+                break;
+            case BLEND:
+                pipeline = pipelines.get(0).mix(pipelines.subList(1, pipelines.size()).toArray(new AudioPipeline[0]));
+                break;
+            case BLEND_WITH_OFFSET:
+                // the background is cut, padded with generated silence and mixed in a single pass
+                pipeline = pipelines.get(0).mix(pipelines.get(1).cut(0, totalSeconds).pad((float) startSecond));
+                break;
+            default:
+                pipeline = pipelines.get(0).cut(startSecond, totalSeconds);
+                break;
+        }
+
+        return pipeline;
+    }
+
+    /**
+     * isTransfer: true if the result of the job is only byte ranges of its inputs (a cut or a join from wav to wav or
+     * from mp3 to mp3).
+     * @return
+     */
+    private boolean isTransfer() {
+        return (type.equals(Type.CUT) || type.equals(Type.JOIN)) && audioType.equals(audioTypeResult);
+    }
+
+    /**
+     * transfer: write the result with WavTransfer or Mp3Splicer, the samples or the frames are copied by the kernel
+     * and nothing is decoded or encoded. If the inputs do not have the same format, or cannot be read, nothing is
+     * written and the job is rendered by the pipeline, which gives the same error as without this path.
+     * @param metrics the copy is recorded as the stage "transfer"
+     * @param workspace workspace of the job file, which reserves the size of the sources
+     * @return the path of the result, null if it was not written
+     * @throws AudioToolException
+     */
+    private String transfer(AudioMetrics metrics, TempWorkspace workspace) throws AudioToolException {
+        long startNanos = System.nanoTime();
+        boolean mp3 = audioType.equals(AudioToolClient.AudioType.MP3);
+        File target = new File(filePath + fileNameResult + (mp3 ? ".mp3" : ".wav"));
+        File jobFile = null;
+
+        try {
+            List<File> sources = new ArrayList<>();
+            long expectedBytes = 0;
+            for(String audioName : audioNames){
+                File source = getSourceFile(audioName);
+                sources.add(source);
+                expectedBytes += source.length();
+            }
+
+            jobFile = workspace.createFile(target, expectedBytes);
+            boolean written;
+            if(type.equals(Type.CUT))
+                written = mp3 ? Mp3Splicer.cut(sources.get(0), startSecond, totalSeconds, jobFile) : WavTransfer.cut(sources.get(0), startSecond, totalSeconds, jobFile);
+            else
+                written = mp3 ? Mp3Splicer.join(sources, jobFile) : WavTransfer.join(sources, jobFile);
+            if(!written)
+                return null;
+
+            long bytes = jobFile.length();
+            workspace.commit(jobFile, target);
+            jobFile = null;
+
+            if(metrics.isEnabled()){
+                // the bytes are copied from the sources to the result
+                long nanos = System.nanoTime() - startNanos;
+                metrics.recordStage(type.name(), "transfer", nanos, 0, bytes);
+                metrics.recordOperation(type.name(), nanos, bytes, bytes, bytes);
+            }
+            return target.getPath();
+
+        } catch (IOException | UnsupportedAudioFileException e) {
+            return null;
+
+        } finally {
+            if(jobFile != null)
+                workspace.delete(jobFile);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public List<String> getAudioNames() {
+        return audioNames;
+    }
+
+    public String getFileNameResult() {
+        return fileNameResult;
+    }
+
+    public AudioToolClient.AudioType getAudioType() {
+        return audioType;
+    }
+
+    public AudioToolClient.AudioType getAudioTypeResult() {
+        return audioTypeResult;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + audioNames + " -> " + fileNameResult;
+    }
+}
@@ -0,0 +1,50 @@
+package com.zancocho.audiotool.client;
+
+import com.zancocho.audiotool.exception.AudioToolException;
+
+/**
+ * @author Jose A.H
+ *
+ * AudioJobResult: outcome of one job of a batch, the path of the result or the error of the job.
+ */
+public class AudioJobResult {
+
+    private final AudioJob job;
+    private final String result;
+    private final AudioToolException error;
+
+    AudioJobResult(AudioJob job, String result, AudioToolException error) {
+        this.job = job;
+        this.result = result;
+        this.error = error;
+    }
+
+    public AudioJob getJob() {
+        return job;
+    }
+
+    /**
+     * getResult: path of the result, null if the job failed.
+     * @return
+     */
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * getError: error of the job, null if the job succeeded.
+     * @return
+     */
+    public AudioToolException getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return job + (isSuccess() ? ": " + result : " failed: " + error.getMessage());
+    }
+}
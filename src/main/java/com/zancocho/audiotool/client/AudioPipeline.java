@@ -0,0 +1,1109 @@
+package com.zancocho.audiotool.client;
+
+import com.zancocho.audiotool.client.inputstream.AudioFormatConverter;
+import com.zancocho.audiotool.client.inputstream.ByteBufferAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.CutFloatSource;
+import com.zancocho.audiotool.client.inputstream.FloatAudioBuffer;
+import com.zancocho.audiotool.client.inputstream.FloatAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.FloatAudioSource;
+import com.zancocho.audiotool.client.inputstream.FloatSampleCodec;
+import com.zancocho.audiotool.client.inputstream.GainAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.GainFloatSource;
+import com.zancocho.audiotool.client.inputstream.MappedWavAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.MixingAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.MixingFloatSource;
+import com.zancocho.audiotool.client.inputstream.Mp3AudioInputStream;
+import com.zancocho.audiotool.client.inputstream.SequenceAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.SequenceFloatSource;
+import com.zancocho.audiotool.client.inputstream.SilenceAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.SilenceFloatSource;
+import com.zancocho.audiotool.client.inputstream.SoftLimiter;
+import com.zancocho.audiotool.exception.AudioToolException;
+import com.zancocho.audiotool.metrics.AudioMetrics;
+import com.zancocho.audiotool.metrics.NoOpAudioMetrics;
+import com.zancocho.audiotool.mp3.Mp3Encoder;
+import com.zancocho.audiotool.mp3.Mp3Info;
+import com.zancocho.audiotool.util.TempWorkspace;
+import com.zancocho.audiotool.wav.WavHeader;
+import com.zancocho.audiotool.wav.WavStreamWriter;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author Jose A.H
+ *
+ * AudioPipeline: fluent and lazy description of an audio job (source, cut, pad, concat, mix, gain, encode).
+ * Every method returns a new pipeline and nothing is opened until render or open is called. Then the whole graph is
+ * built as a chain of AudioInputStream and the result is written in one streaming pass, without intermediate files.
+ *
+ * A pipeline can be rendered more than once, also from several threads at the same time: the sources are opened
+ * again on every render and the result is written to a unique job file that is moved to the target at the end.
+ *
+ * The gain of a pipeline that is mixed is applied by the mixer, so the sum is clamped (or limited with limit) only
+ * once, after all the inputs are added.
+ *
+ * The mix and gain stages work on float samples (FloatAudioSource), and a cut, pad or concat of a float stage stays
+ * in float (CutFloatSource, SilenceFloatSource, SequenceFloatSource). The bytes are converted to float when they
+ * leave the source or a byte stage (a format conversion, or a cut, pad or concat of a source) and back to bytes when
+ * they reach the encoder. Chained float stages pass the samples in float, so a gain or a sum over full scale is only
+ * clamped at the end of the chain (e.g. gain, cut, pad and mix).
+ *
+ * AudioPipeline.source("voice", AudioType.MP3, path)
+ *      .mix(AudioPipeline.source("background", AudioType.MP3, path).cut(0, 30).pad(5))
+ *      .render("result", AudioType.MP3, path);
+ */
+public class AudioPipeline {
+
+    // sizes to estimate a result: 320 kbps, the largest mp3 frame (320 kbps at 32000 Hz) and the header of a wav file
+    private static final int MP3_BYTES_PER_SECOND = 192000 / 8;
+    private static final int MAX_MP3_FRAME_BYTES = 1441;
+    private static final int WAV_HEADER_BYTES = 44;
+
+    /**
+     * Stage: a node of the graph. It opens its input stages and returns the resulting stream. Every stream opened
+     * from a file is added to the graph so it can be closed after the render.
+     */
+    private interface Stage {
+        AudioInputStream open(Graph graph) throws IOException, UnsupportedAudioFileException;
+    }
+
+    // name of the stage in the metrics
+    private final String name;
+    private final Stage stage;
+    private final float gain;
+    // inputs of a mix node, null for any other node
+    private final AudioPipeline[] mixInputs;
+
+    private AudioPipeline(String name, Stage stage) {
+        this(name, stage, 1.0f, null);
+    }
+
+    private AudioPipeline(String name, Stage stage, float gain, AudioPipeline[] mixInputs) {
+        this.name = name;
+        this.stage = stage;
+        this.gain = gain;
+        this.mixInputs = mixInputs;
+    }
+
+    /**
+     * source: an audio file (wav or mp3) in the folder filePath. MP3 files are decoded on demand.
+     * @param audioName
+     * @param audioType
+     * @param filePath
+     * @return
+     */
+    public static AudioPipeline source(String audioName, AudioToolClient.AudioType audioType, String filePath) {
+        return source(new File(filePath + audioName + (AudioToolClient.AudioType.MP3.equals(audioType) ? ".mp3" : ".wav")), audioType);
+    }
+
+    /**
+     * source: an audio file (wav or mp3). MP3 files are decoded on demand.
+     * @param file
+     * @param audioType
+     * @return
+     */
+    public static AudioPipeline source(File file, AudioToolClient.AudioType audioType) {
+        return source(file, audioType, null);
+    }
+
+    /**
+     * source: an audio file (wav or mp3). MP3 files are read from the cache, and decoded into it the first time.
+     * @param file
+     * @param audioType
+     * @param cache null for no cache
+     * @return
+     */
+    public static AudioPipeline source(File file, AudioToolClient.AudioType audioType, DecodedAudioCache cache) {
+        if(audioType == null)
+            throw new IllegalArgumentException("Audio format not supported");
+
+        return new AudioPipeline(getSourceName(audioType), new FileSource(file, audioType, cache));
+    }
+
+    /**
+     * source: an audio stream (wav or mp3), e.g. the body of a HTTP request. MP3 streams are decoded on demand. A
+     * stream can only be read once, so a pipeline with this source can only be rendered once. The stream is not
+     * closed.
+     * @param inputStream
+     * @param audioType
+     * @return
+     */
+    public static AudioPipeline source(InputStream inputStream, AudioToolClient.AudioType audioType) {
+        if(audioType == null)
+            throw new IllegalArgumentException("Audio format not supported");
+
+        return new AudioPipeline(getSourceName(audioType), new StreamSource(inputStream, audioType));
+    }
+
+    /**
+     * source: an audio channel (wav or mp3). See source(InputStream, AudioType).
+     * @param channel
+     * @param audioType
+     * @return
+     */
+    public static AudioPipeline source(ReadableByteChannel channel, AudioToolClient.AudioType audioType) {
+        return source(Channels.newInputStream(channel), audioType);
+    }
+
+    /**
+     * source: decoded PCM in memory, in the given format. The array is not copied and must not be modified.
+     * @param audioFormat
+     * @param pcm
+     * @return
+     */
+    public static AudioPipeline source(AudioFormat audioFormat, byte[] pcm) {
+        return source(audioFormat, ByteBuffer.wrap(pcm));
+    }
+
+    /**
+     * source: decoded PCM in a buffer (heap, direct or mapped), in the given format. The bytes between the position
+     * and the limit are read, the buffer is not copied and must not be modified.
+     * @param audioFormat
+     * @param pcm
+     * @return
+     */
+    public static AudioPipeline source(AudioFormat audioFormat, ByteBuffer pcm) {
+        return new AudioPipeline("read", graph -> new ByteBufferAudioInputStream(pcm, audioFormat));
+    }
+
+    /**
+     * silence: generated silence in the given format.
+     * @param audioFormat
+     * @param seconds
+     * @return
+     */
+    public static AudioPipeline silence(AudioFormat audioFormat, float seconds) {
+        return new AudioPipeline("silence", graph -> SilenceAudioInputStream.ofSeconds(audioFormat, seconds));
+    }
+
+    /**
+     * cut: keep totalSeconds of audio from startSecond. The bounds are rounded to the nearest sample frame. When
+     * this pipeline is a file source, the file is opened at the start position (see FileSource), so the cost
+     * depends on the length of the clip and not on the position in the file.
+     * @param startSecond
+     * @param totalSeconds
+     * @return
+     */
+    public AudioPipeline cut(double startSecond, double totalSeconds) {
+        return new AudioPipeline("cut", graph -> {
+            AudioInputStream audioInputStream = openAt(graph, startSecond);
+            AudioFormat audioFormat = audioInputStream.getFormat();
+
+            long framesOfAudioToCopy = Math.round(totalSeconds * audioFormat.getFrameRate());
+            // a cut past the end is as long as the audio left, so the wav header gets the real length
+            if(audioInputStream.getFrameLength() != AudioSystem.NOT_SPECIFIED)
+                framesOfAudioToCopy = Math.min(framesOfAudioToCopy, audioInputStream.getFrameLength());
+            if(audioInputStream instanceof FloatAudioInputStream){
+                FloatAudioSource source = FloatAudioInputStream.toSource(audioInputStream);
+                return new FloatAudioInputStream(new CutFloatSource(source, 0, framesOfAudioToCopy), audioFormat);
+            }
+            return new AudioInputStream(audioInputStream, audioFormat, framesOfAudioToCopy);
+        });
+    }
+
+    /**
+     * pad: add seconds of silence before the audio. The silence of a float stage is added in float.
+     * @param seconds
+     * @return
+     */
+    public AudioPipeline pad(float seconds) {
+        if(seconds <= 0)
+            return this;
+
+        return new AudioPipeline("pad", graph -> {
+            AudioInputStream audioInputStream = openWithGain(graph);
+            AudioFormat audioFormat = audioInputStream.getFormat();
+
+            if(audioInputStream instanceof FloatAudioInputStream){
+                List<FloatAudioSource> sources = new ArrayList<>();
+                sources.add(SilenceFloatSource.ofSeconds(audioFormat, seconds));
+                sources.add(FloatAudioInputStream.toSource(audioInputStream));
+                return new FloatAudioInputStream(new SequenceFloatSource(sources), audioFormat);
+            }
+
+            List<AudioInputStream> list = new ArrayList<>();
+            list.add(SilenceAudioInputStream.ofSeconds(audioFormat, seconds));
+            list.add(audioInputStream);
+
+            return new SequenceAudioInputStream(audioFormat, list);
+        });
+    }
+
+    /**
+     * concat: play the given pipelines after this one. The format of this pipeline is used, the pipelines in
+     * another format are converted (see AudioFormatConverter). If any of the pipelines is a float stage, they are
+     * joined in float.
+     * @param pipelines
+     * @return
+     */
+    public AudioPipeline concat(AudioPipeline... pipelines) {
+        return new AudioPipeline("join", graph -> {
+            AudioInputStream audioInputStream = openWithGain(graph);
+            AudioFormat audioFormat = audioInputStream.getFormat();
+
+            List<AudioInputStream> list = new ArrayList<>();
+            list.add(audioInputStream);
+            boolean floatInput = audioInputStream instanceof FloatAudioInputStream;
+            for(AudioPipeline pipeline : pipelines){
+                AudioInputStream input = convert(graph, pipeline.openWithGain(graph), audioFormat);
+                floatInput |= input instanceof FloatAudioInputStream;
+                list.add(input);
+            }
+
+            if(floatInput && FloatSampleCodec.isSupported(audioFormat)){
+                List<FloatAudioSource> sources = new ArrayList<>();
+                for(AudioInputStream input : list){
+                    sources.add(FloatAudioInputStream.toSource(input));
+                }
+                return new FloatAudioInputStream(new SequenceFloatSource(sources), audioFormat);
+            }
+            return new SequenceAudioInputStream(audioFormat, list);
+        });
+    }
+
+    /**
+     * mix: overlap the given pipelines with this one. The format of this pipeline is used, the pipelines in another
+     * format are converted (see AudioFormatConverter). The samples are clamped to the range of the format.
+     * @param pipelines
+     * @return
+     */
+    public AudioPipeline mix(AudioPipeline... pipelines) {
+        AudioPipeline[] inputs = new AudioPipeline[pipelines.length + 1];
+        inputs[0] = this;
+        System.arraycopy(pipelines, 0, inputs, 1, pipelines.length);
+
+        return new AudioPipeline("mix", graph -> openMix(inputs, graph, null, 0), 1.0f, inputs);
+    }
+
+    /**
+     * gain: multiply the samples by a linear gain. If the pipeline is mixed, the gain is applied by the mixer.
+     * @param gain
+     * @return
+     */
+    public AudioPipeline gain(float gain) {
+        return new AudioPipeline(name, stage, this.gain * gain, gain == 1.0f ? mixInputs : null);
+    }
+
+    /**
+     * limit: attenuate the result by headroomDecibels and apply a lookahead soft limiter (SoftLimiter with the
+     * default settings), so the peaks never clip. On a mix, the limiter is applied to the sum of the inputs before
+     * it is converted back to the sample format.
+     * @param headroomDecibels
+     * @return
+     */
+    public AudioPipeline limit(float headroomDecibels) {
+        return limit(headroomDecibels, new SoftLimiter());
+    }
+
+    /**
+     * limit: attenuate the result by headroomDecibels and apply the given limiter settings.
+     * @param headroomDecibels
+     * @param limiter
+     * @return
+     */
+    public AudioPipeline limit(float headroomDecibels, SoftLimiter limiter) {
+        AudioPipeline[] inputs = mixInputs != null ? mixInputs : new AudioPipeline[]{ this };
+
+        // a limiter keeps state, so every render gets its own copy
+        return new AudioPipeline("limit", graph -> openMix(inputs, graph, limiter.copy(), headroomDecibels));
+    }
+
+    /**
+     * open: build the graph and return the resulting stream. Closing it closes every source.
+     * @return
+     * @throws AudioToolException
+     */
+    public AudioInputStream open() throws AudioToolException {
+        Graph graph = new Graph(null, null);
+        try {
+            AudioInputStream audioInputStream = openWithGain(graph);
+            return new PipelineAudioInputStream(audioInputStream, graph);
+
+        } catch (IOException | UnsupportedAudioFileException e) {
+            graph.close();
+            throw new AudioToolException(e.getMessage());
+        }
+    }
+
+    /**
+     * render: build the graph and write the result to filePath + fileNameResult in one pass. MP3 results are
+     * encoded with the BALANCED profile.
+     * @param fileNameResult
+     * @param audioTypeResult
+     * @param filePath
+     * @return the path of the result
+     * @throws AudioToolException
+     */
+    public String render(String fileNameResult, AudioToolClient.AudioType audioTypeResult, String filePath) throws AudioToolException {
+        return render(fileNameResult, audioTypeResult, filePath, Mp3Encoder.Profile.BALANCED);
+    }
+
+    /**
+     * render: build the graph and write the result to filePath + fileNameResult in one pass. MP3 results are
+     * encoded with the given profile.
+     * @param fileNameResult
+     * @param audioTypeResult
+     * @param filePath
+     * @param encoderProfile
+     * @return the path of the result
+     * @throws AudioToolException
+     */
+    public String render(String fileNameResult, AudioToolClient.AudioType audioTypeResult, String filePath, Mp3Encoder.Profile encoderProfile) throws AudioToolException {
+        return render(fileNameResult, audioTypeResult, filePath, encoderProfile, NoOpAudioMetrics.getInstance(), null);
+    }
+
+    /**
+     * render: build the graph and write the result to filePath + fileNameResult in one pass, and record the time,
+     * frames and bytes of every stage in the metrics, under the name of the operation.
+     * @param fileNameResult
+     * @param audioTypeResult
+     * @param filePath
+     * @param encoderProfile
+     * @param metrics
+     * @param operation
+     * @return the path of the result
+     * @throws AudioToolException
+     */
+    public String render(String fileNameResult, AudioToolClient.AudioType audioTypeResult, String filePath, Mp3Encoder.Profile encoderProfile,
+                         AudioMetrics metrics, String operation) throws AudioToolException {
+        return render(fileNameResult, audioTypeResult, filePath, new Mp3Encoder(encoderProfile), metrics, operation);
+    }
+
+    /**
+     * render: build the graph and write the result to filePath + fileNameResult in one pass, with metrics. MP3
+     * results are encoded with the given encoder, e.g. a parallel one.
+     * @param fileNameResult
+     * @param audioTypeResult
+     * @param filePath
+     * @param encoder
+     * @param metrics
+     * @param operation
+     * @return the path of the result
+     * @throws AudioToolException
+     */
+    public String render(String fileNameResult, AudioToolClient.AudioType audioTypeResult, String filePath, Mp3Encoder encoder,
+                         AudioMetrics metrics, String operation) throws AudioToolException {
+        return render(fileNameResult, audioTypeResult, filePath, encoder, metrics, operation, new TempWorkspace());
+    }
+
+    /**
+     * render: build the graph and write the result to filePath + fileNameResult in one pass, with metrics. The
+     * result is written to a file of the workspace, which reserves its expected size (and the rest while it is
+     * written), and moved to the target when it is complete; the file is deleted if the render fails.
+     * @param fileNameResult
+     * @param audioTypeResult
+     * @param filePath
+     * @param encoder
+     * @param metrics
+     * @param operation
+     * @param workspace
+     * @return the path of the result
+     * @throws AudioToolException
+     */
+    public String render(String fileNameResult, AudioToolClient.AudioType audioTypeResult, String filePath, Mp3Encoder encoder,
+                         AudioMetrics metrics, String operation, TempWorkspace workspace) throws AudioToolException {
+        Graph graph = new Graph(metrics, operation);
+        File target = new File(filePath + fileNameResult + (audioTypeResult.equals(AudioToolClient.AudioType.MP3) ? ".mp3" : ".wav"));
+        File jobFile = null;
+
+        try {
+            AudioInputStream audioInputStream = openWithGain(graph);
+
+            jobFile = workspace.createFile(target, estimateBytes(audioInputStream, audioTypeResult));
+            graph.startOutput();
+            if(audioTypeResult.equals(AudioToolClient.AudioType.MP3)) {
+                encoder.encode(audioInputStream, workspace.openOutputStream(jobFile), jobFile);
+            } else {
+                WavStreamWriter.write(audioInputStream, workspace.openOutputStream(jobFile), jobFile);
+            }
+            long bytes = jobFile.length();
+            graph.endOutput(audioTypeResult, audioInputStream, bytes);
+            workspace.commit(jobFile, target);
+            jobFile = null;
+            // the result is written to the job file, which is moved to the target
+            graph.record(bytes, bytes);
+
+        } catch (IOException | UnsupportedAudioFileException e) {
+            throw new AudioToolException(e.getMessage());
+
+        } finally {
+            graph.close();
+
+            if(jobFile != null)
+                workspace.delete(jobFile);
+        }
+
+        return target.getPath();
+    }
+
+    /**
+     * estimateBytes: size of the result, to reserve it in the workspace. MP3 results are estimated at 192 kbps,
+     * about the average bitrate of -V 2, plus the tag frame; a bigger result reserves the rest while it is written.
+     * 0 if the length of the stream is not known.
+     * @param audioInputStream
+     * @param audioTypeResult
+     * @return
+     */
+    private static long estimateBytes(AudioInputStream audioInputStream, AudioToolClient.AudioType audioTypeResult) {
+        long frames = audioInputStream.getFrameLength();
+        AudioFormat audioFormat = audioInputStream.getFormat();
+        if(frames == AudioSystem.NOT_SPECIFIED || audioFormat.getFrameSize() == AudioSystem.NOT_SPECIFIED)
+            return 0;
+
+        if(audioTypeResult.equals(AudioToolClient.AudioType.MP3))
+            return (long) (frames / audioFormat.getFrameRate() * MP3_BYTES_PER_SECOND) + 2 * MAX_MP3_FRAME_BYTES;
+        return WAV_HEADER_BYTES + frames * audioFormat.getFrameSize();
+    }
+
+    /**
+     * render: build the graph and write the result to the output stream in one pass, without touching the file
+     * system. MP3 results are encoded with the given profile, their first frame is left empty because the Xing/LAME
+     * tag can only be written to a file. WAV results with an unknown length (e.g. from mp3 sources) get the sizes
+     * of a streaming header (see WavStreamWriter). The output stream is flushed but not closed.
+     * @param outputStream
+     * @param audioTypeResult
+     * @param encoderProfile
+     * @throws AudioToolException
+     */
+    public void render(OutputStream outputStream, AudioToolClient.AudioType audioTypeResult, Mp3Encoder.Profile encoderProfile) throws AudioToolException {
+        render(outputStream, audioTypeResult, encoderProfile, NoOpAudioMetrics.getInstance(), null);
+    }
+
+    /**
+     * render: build the graph and write the result to the output stream, and record the time, frames and bytes of
+     * every stage in the metrics, under the name of the operation. See render(OutputStream, AudioType, Profile).
+     * @param outputStream
+     * @param audioTypeResult
+     * @param encoderProfile
+     * @param metrics
+     * @param operation
+     * @throws AudioToolException
+     */
+    public void render(OutputStream outputStream, AudioToolClient.AudioType audioTypeResult, Mp3Encoder.Profile encoderProfile,
+                       AudioMetrics metrics, String operation) throws AudioToolException {
+        render(outputStream, audioTypeResult, new Mp3Encoder(encoderProfile), metrics, operation);
+    }
+
+    /**
+     * render: build the graph and write the result to the output stream, with metrics. MP3 results are encoded with
+     * the given encoder. See render(OutputStream, AudioType, Profile).
+     * @param outputStream
+     * @param audioTypeResult
+     * @param encoder
+     * @param metrics
+     * @param operation
+     * @throws AudioToolException
+     */
+    public void render(OutputStream outputStream, AudioToolClient.AudioType audioTypeResult, Mp3Encoder encoder,
+                       AudioMetrics metrics, String operation) throws AudioToolException {
+        Graph graph = new Graph(metrics, operation);
+
+        try {
+            AudioInputStream audioInputStream = openWithGain(graph);
+
+            CountingOutputStream countingOutputStream = graph.isMeasured() ? new CountingOutputStream(outputStream) : null;
+            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(countingOutputStream != null ? countingOutputStream : outputStream);
+            graph.startOutput();
+            if(audioTypeResult.equals(AudioToolClient.AudioType.MP3)) {
+                encoder.encode(audioInputStream, bufferedOutputStream);
+            } else {
+                WavStreamWriter.write(audioInputStream, bufferedOutputStream);
+            }
+            bufferedOutputStream.flush();
+
+            if(countingOutputStream != null){
+                graph.endOutput(audioTypeResult, audioInputStream, countingOutputStream.getCount());
+                graph.record(countingOutputStream.getCount(), 0);
+            }
+
+        } catch (IOException | UnsupportedAudioFileException e) {
+            throw new AudioToolException(e.getMessage());
+
+        } finally {
+            graph.close();
+        }
+    }
+
+    /**
+     * render: build the graph and write the result to the channel. See render(OutputStream, AudioType, Profile).
+     * @param channel
+     * @param audioTypeResult
+     * @param encoderProfile
+     * @throws AudioToolException
+     */
+    public void render(WritableByteChannel channel, AudioToolClient.AudioType audioTypeResult, Mp3Encoder.Profile encoderProfile) throws AudioToolException {
+        render(Channels.newOutputStream(channel), audioTypeResult, encoderProfile);
+    }
+
+    /**
+     * render: build the graph and write the result to the channel, with metrics. See render(OutputStream, AudioType,
+     * Profile, AudioMetrics, String).
+     * @param channel
+     * @param audioTypeResult
+     * @param encoderProfile
+     * @param metrics
+     * @param operation
+     * @throws AudioToolException
+     */
+    public void render(WritableByteChannel channel, AudioToolClient.AudioType audioTypeResult, Mp3Encoder.Profile encoderProfile,
+                       AudioMetrics metrics, String operation) throws AudioToolException {
+        render(Channels.newOutputStream(channel), audioTypeResult, encoderProfile, metrics, operation);
+    }
+
+    /**
+     * openWithGain: open the stage and apply the gain of this pipeline.
+     * @param graph
+     * @return
+     */
+    private AudioInputStream openWithGain(Graph graph) throws IOException, UnsupportedAudioFileException {
+        return openAt(graph, 0);
+    }
+
+    /**
+     * openAt: open the stage at startSecond and apply the gain of this pipeline. A file source seeks to the
+     * position, any other stage is read and discarded up to it (in float for a float stage, see CutFloatSource).
+     * @param graph
+     * @param startSecond
+     * @return
+     */
+    private AudioInputStream openAt(Graph graph, double startSecond) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream audioInputStream;
+        if(stage instanceof FileSource){
+            audioInputStream = ((FileSource) stage).open(graph, startSecond);
+        } else {
+            audioInputStream = stage.open(graph);
+            AudioFormat audioFormat = audioInputStream.getFormat();
+            long startFrame = Math.round(startSecond * audioFormat.getFrameRate());
+            if(!(audioInputStream instanceof FloatAudioInputStream))
+                skipFully(audioInputStream, startFrame * audioFormat.getFrameSize());
+            else if(startFrame > 0)
+                audioInputStream = new FloatAudioInputStream(new CutFloatSource(FloatAudioInputStream.toSource(audioInputStream),
+                        startFrame, AudioSystem.NOT_SPECIFIED), audioFormat);
+        }
+        audioInputStream = graph.measure(name, audioInputStream, isSource());
+        return gain == 1.0f ? audioInputStream : graph.measure("gain", applyGain(audioInputStream, gain), false);
+    }
+
+    /**
+     * applyGain: the gain as a float stage, so it is not converted to bytes when the next stage is a float stage
+     * too. The formats without float samples (A-law, u-law, 32 bit PCM) use GainAudioInputStream.
+     * @param audioInputStream
+     * @param gain
+     * @return
+     */
+    private static AudioInputStream applyGain(AudioInputStream audioInputStream, float gain) {
+        AudioFormat audioFormat = audioInputStream.getFormat();
+        if(!FloatSampleCodec.isSupported(audioFormat))
+            return new GainAudioInputStream(audioInputStream, gain);
+
+        return new FloatAudioInputStream(new GainFloatSource(FloatAudioInputStream.toSource(audioInputStream), gain), audioFormat);
+    }
+
+    /**
+     * openMix: mix the inputs in the format of the first one, the other inputs are converted to it. The gain of every
+     * input is applied by the mixer. The inputs are mixed in float (MixingFloatSource), the formats without float
+     * samples (A-law, u-law, 32 bit PCM) with MixingAudioInputStream.
+     * @param inputs
+     * @param graph
+     * @param limiter null for no limiter
+     * @param headroomDecibels
+     * @return
+     */
+    private static AudioInputStream openMix(AudioPipeline[] inputs, Graph graph,
+                                            SoftLimiter limiter, float headroomDecibels) throws IOException, UnsupportedAudioFileException {
+        List<AudioInputStream> list = new ArrayList<>();
+        for(AudioPipeline pipeline : inputs){
+            AudioInputStream audioInputStream = graph.measure(pipeline.name, pipeline.stage.open(graph), pipeline.isSource());
+            list.add(list.isEmpty() ? audioInputStream : convert(graph, audioInputStream, list.get(0).getFormat()));
+        }
+
+        AudioFormat audioFormat = list.get(0).getFormat();
+        if(FloatSampleCodec.isSupported(audioFormat)){
+            List<FloatAudioSource> sources = new ArrayList<>();
+            List<Float> gains = new ArrayList<>();
+            for(int i = 0; i < inputs.length; i++){
+                sources.add(FloatAudioInputStream.toSource(list.get(i)));
+                gains.add(inputs[i].gain);
+            }
+
+            MixingFloatSource mixingFloatSource = new MixingFloatSource(sources, gains);
+            if(headroomDecibels != 0)
+                mixingFloatSource.setHeadroom(headroomDecibels);
+            if(limiter != null)
+                mixingFloatSource.setLimiter(limiter);
+            return new FloatAudioInputStream(mixingFloatSource, audioFormat);
+        }
+
+        MixingAudioInputStream mixingAudioInputStream = new MixingAudioInputStream(audioFormat, list);
+        for(int i = 0; i < inputs.length; i++){
+            if(inputs[i].gain != 1.0f)
+                mixingAudioInputStream.setGain(list.get(i), inputs[i].gain);
+        }
+        if(headroomDecibels != 0)
+            mixingAudioInputStream.setHeadroom(headroomDecibels);
+        if(limiter != null)
+            mixingAudioInputStream.setLimiter(limiter);
+
+        return mixingAudioInputStream;
+    }
+
+    /**
+     * convert: the stream in the format, measured as a stage of its own when it has to be converted.
+     * @param graph
+     * @param audioInputStream
+     * @param audioFormat
+     * @return
+     */
+    private static AudioInputStream convert(Graph graph, AudioInputStream audioInputStream, AudioFormat audioFormat) throws IOException {
+        AudioInputStream converted = AudioFormatConverter.convert(audioInputStream, audioFormat);
+        return converted == audioInputStream ? converted : graph.measure("convert", converted, false);
+    }
+
+    private static String getSourceName(AudioToolClient.AudioType audioType) {
+        return AudioToolClient.AudioType.MP3.equals(audioType) ? "decode" : "read";
+    }
+
+    private boolean isSource() {
+        return stage instanceof FileSource || stage instanceof StreamSource;
+    }
+
+    /**
+     * skipFully: skip bytes until the requested amount is skipped or the stream ends.
+     * @param audioInputStream
+     * @param bytes
+     * @throws IOException
+     */
+    private static void skipFully(AudioInputStream audioInputStream, long bytes) throws IOException {
+        while(bytes > 0){
+            long skipped = audioInputStream.skip(bytes);
+            if(skipped <= 0)
+                return;
+            bytes -= skipped;
+        }
+    }
+
+    /**
+     * FileSource: a wav or mp3 file that can be opened at any position. A PCM wav file is memory mapped and opened
+     * at the position of the first frame (see MappedWavAudioInputStream). A mp3 file is opened at the mp3 frame that
+     * contains the position, with a few frames of warm up for the bit reservoir (see Mp3AudioInputStream). With a
+     * cache, a mp3 file is read from its decoded PCM and the position is only a skip.
+     */
+    private static class FileSource implements Stage {
+
+        private final File file;
+        private final AudioToolClient.AudioType audioType;
+        private final DecodedAudioCache cache;
+
+        FileSource(File file, AudioToolClient.AudioType audioType, DecodedAudioCache cache) {
+            this.file = file;
+            this.audioType = audioType;
+            this.cache = cache;
+        }
+
+        @Override
+        public AudioInputStream open(Graph graph) throws IOException, UnsupportedAudioFileException {
+            return open(graph, 0);
+        }
+
+        AudioInputStream open(Graph graph, double startSecond) throws IOException, UnsupportedAudioFileException {
+            AudioInputStream audioInputStream = audioType.equals(AudioToolClient.AudioType.MP3)
+                    ? openMp3(startSecond)
+                    : openWav(startSecond);
+            graph.add(audioInputStream);
+            return audioInputStream;
+        }
+
+        private AudioInputStream openMp3(double startSecond) throws IOException, UnsupportedAudioFileException {
+            AudioInputStream cachedAudioInputStream = cache == null ? null : cache.open(file, audioType);
+            if(cachedAudioInputStream != null){
+                AudioFormat audioFormat = cachedAudioInputStream.getFormat();
+                skipFully(cachedAudioInputStream, Math.round(startSecond * audioFormat.getFrameRate()) * audioFormat.getFrameSize());
+                return cachedAudioInputStream;
+            }
+
+            if(startSecond <= 0)
+                return Mp3AudioInputStream.getAudioInputStream(file);
+
+            int sampleRate = Mp3Info.readFirstFrameHeader(file).getSampleRate();
+            return Mp3AudioInputStream.getAudioInputStream(file, Math.round(startSecond * sampleRate));
+        }
+
+        private AudioInputStream openWav(double startSecond) throws IOException, UnsupportedAudioFileException {
+            MappedWavAudioInputStream mappedAudioInputStream;
+            try {
+                mappedAudioInputStream = MappedWavAudioInputStream.getAudioInputStream(file);
+            } catch (UnsupportedAudioFileException e) {
+                // compressed samples, decoded by AudioSystem
+                AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(file);
+                AudioFormat audioFormat = audioInputStream.getFormat();
+                skipFully(audioInputStream, Math.round(startSecond * audioFormat.getFrameRate()) * audioFormat.getFrameSize());
+                return audioInputStream;
+            }
+
+            WavHeader wavHeader = mappedAudioInputStream.getWavHeader();
+            long startFrame = Math.min(Math.max(0, Math.round(startSecond * wavHeader.getSampleRate())), wavHeader.getFrameLength());
+            skipFully(mappedAudioInputStream, startFrame * wavHeader.getBlockAlign());
+
+            // the frame length of the result is the length from the start position
+            return new AudioInputStream(mappedAudioInputStream, wavHeader.getAudioFormat(), wavHeader.getFrameLength() - startFrame);
+        }
+    }
+
+    /**
+     * StreamSource: a wav or mp3 stream. It can only be opened once, a position is reached by reading the stream.
+     */
+    private static class StreamSource implements Stage {
+
+        private final InputStream inputStream;
+        private final AudioToolClient.AudioType audioType;
+        private final AtomicBoolean opened = new AtomicBoolean();
+
+        StreamSource(InputStream inputStream, AudioToolClient.AudioType audioType) {
+            this.inputStream = inputStream;
+            this.audioType = audioType;
+        }
+
+        @Override
+        public AudioInputStream open(Graph graph) throws IOException, UnsupportedAudioFileException {
+            if(opened.getAndSet(true))
+                throw new IOException("The audio stream can only be read once");
+
+            // closing the decoded stream must not close the stream of the caller
+            InputStream sourceStream = new FilterInputStream(inputStream) {
+                @Override
+                public void close() {
+                }
+            };
+
+            AudioInputStream audioInputStream = audioType.equals(AudioToolClient.AudioType.MP3)
+                    ? Mp3AudioInputStream.getAudioInputStream(sourceStream)
+                    : AudioSystem.getAudioInputStream(new BufferedInputStream(sourceStream));
+            graph.add(audioInputStream);
+            return audioInputStream;
+        }
+    }
+
+    /**
+     * Graph: the streams opened by a render, which are closed after it. With metrics, every stage is wrapped in a
+     * MeasuredAudioInputStream (a MeasuredFloatSource for the float stages) and the measures are recorded when the
+     * render ends. Without them, measure returns the same stream and nothing is added to the reads.
+     */
+    private static class Graph {
+
+        private final List<AudioInputStream> openedStreams = new ArrayList<>();
+        // null when nothing is measured
+        private final AudioMetrics metrics;
+        private final String operation;
+        private final List<MeasuredAudioInputStream> measuredStreams = new ArrayList<>();
+        private final List<MeasuredFloatSource> measuredSources = new ArrayList<>();
+        private final long startNanos = System.nanoTime();
+        // time of the reads of the measured streams, see MeasuredAudioInputStream.read
+        private long nestedNanos;
+        private long outputStartNanos;
+
+        Graph(AudioMetrics metrics, String operation) {
+            this.metrics = metrics != null && metrics.isEnabled() ? metrics : null;
+            this.operation = operation == null ? "RENDER" : operation;
+        }
+
+        void add(AudioInputStream audioInputStream) {
+            openedStreams.add(audioInputStream);
+        }
+
+        boolean isMeasured() {
+            return metrics != null;
+        }
+
+        /**
+         * measure: the stream of a stage, wrapped to measure it when there are metrics.
+         * @param stage
+         * @param audioInputStream
+         * @param source true if the stage reads a source, its bytes are the bytes read by the operation
+         * @return
+         */
+        AudioInputStream measure(String stage, AudioInputStream audioInputStream, boolean source) {
+            if(metrics == null)
+                return audioInputStream;
+
+            // a float stage is measured in float, so the next float stage still reads it without conversion
+            if(audioInputStream instanceof FloatAudioInputStream){
+                MeasuredFloatSource measuredFloatSource = new MeasuredFloatSource(stage, FloatAudioInputStream.toSource(audioInputStream),
+                        audioInputStream.getFormat().getFrameSize(), source, this);
+                measuredSources.add(measuredFloatSource);
+                return new FloatAudioInputStream(measuredFloatSource, audioInputStream.getFormat());
+            }
+
+            MeasuredAudioInputStream measuredAudioInputStream = new MeasuredAudioInputStream(stage, audioInputStream, source, this);
+            measuredStreams.add(measuredAudioInputStream);
+            return measuredAudioInputStream;
+        }
+
+        void startOutput() {
+            outputStartNanos = System.nanoTime();
+            nestedNanos = 0;
+        }
+
+        /**
+         * endOutput: record the encoder or the writer as a stage, its time is the time of the output without the
+         * reads of the graph. For mp3, the real time factor of the encoder is recorded too.
+         * @param audioTypeResult
+         * @param audioInputStream the stream that was written
+         * @param bytes bytes of the result
+         */
+        void endOutput(AudioToolClient.AudioType audioTypeResult, AudioInputStream audioInputStream, long bytes) {
+            if(metrics == null)
+                return;
+
+            long frames;
+            if(audioInputStream instanceof MeasuredAudioInputStream)
+                frames = ((MeasuredAudioInputStream) audioInputStream).getFrames();
+            else if(audioInputStream instanceof FloatAudioInputStream && ((FloatAudioInputStream) audioInputStream).getSource() instanceof MeasuredFloatSource)
+                frames = ((MeasuredFloatSource) ((FloatAudioInputStream) audioInputStream).getSource()).frames;
+            else
+                return;
+
+            long nanos = System.nanoTime() - outputStartNanos - nestedNanos;
+            boolean mp3 = audioTypeResult.equals(AudioToolClient.AudioType.MP3);
+            metrics.recordStage(operation, mp3 ? "encode" : "write", nanos, frames, bytes);
+
+            float frameRate = audioInputStream.getFormat().getFrameRate();
+            if(mp3 && frames > 0 && frameRate > 0)
+                metrics.recordEncoderRealTimeFactor(operation, nanos / 1e9 / (frames / frameRate));
+        }
+
+        /**
+         * record: record every stage and the operation.
+         * @param bytesWritten
+         * @param tempFileBytes
+         */
+        void record(long bytesWritten, long tempFileBytes) {
+            if(metrics == null)
+                return;
+
+            long bytesRead = 0;
+            for(MeasuredAudioInputStream measuredAudioInputStream : measuredStreams){
+                metrics.recordStage(operation, measuredAudioInputStream.stage, measuredAudioInputStream.nanos,
+                        measuredAudioInputStream.getFrames(), measuredAudioInputStream.bytes);
+                if(measuredAudioInputStream.isSource)
+                    bytesRead += measuredAudioInputStream.bytes;
+            }
+            for(MeasuredFloatSource measuredFloatSource : measuredSources){
+                long bytes = measuredFloatSource.frames * measuredFloatSource.frameSize;
+                metrics.recordStage(operation, measuredFloatSource.stage, measuredFloatSource.nanos, measuredFloatSource.frames, bytes);
+                if(measuredFloatSource.isSource)
+                    bytesRead += bytes;
+            }
+            metrics.recordOperation(operation, System.nanoTime() - startNanos, bytesRead, bytesWritten, tempFileBytes);
+        }
+
+        void close() {
+            for(AudioInputStream audioInputStream : openedStreams){
+                try {
+                    audioInputStream.close();
+                } catch (IOException e) {
+                    // the stream is no longer needed
+                }
+            }
+        }
+    }
+
+    /**
+     * MeasuredAudioInputStream: counts the bytes of a stage and the time of its reads and skips, without the time
+     * of the measured stages it reads from. The reads of a render are nested calls on one thread, so the time of
+     * the inner reads is passed to the outer one in Graph.nestedNanos.
+     */
+    private static class MeasuredAudioInputStream extends AudioInputStream {
+
+        private final String stage;
+        private final AudioInputStream source;
+        private final boolean isSource;
+        private final Graph graph;
+        private long nanos;
+        private long bytes;
+
+        MeasuredAudioInputStream(String stage, AudioInputStream source, boolean isSource, Graph graph) {
+            super(source, source.getFormat(), source.getFrameLength());
+            this.stage = stage;
+            this.source = source;
+            this.isSource = isSource;
+            this.graph = graph;
+        }
+
+        long getFrames() {
+            int frameSize = getFormat().getFrameSize();
+            return frameSize > 0 ? bytes / frameSize : 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new IOException("cannot read a single byte if frame size > 1");
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            long outerNanos = graph.nestedNanos;
+            graph.nestedNanos = 0;
+            try {
+                int read = source.read(b, off, len);
+                if(read > 0)
+                    bytes += read;
+                return read;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                nanos += elapsed - graph.nestedNanos;
+                graph.nestedNanos = outerNanos + elapsed;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long start = System.nanoTime();
+            long outerNanos = graph.nestedNanos;
+            graph.nestedNanos = 0;
+            try {
+                return source.skip(n);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                nanos += elapsed - graph.nestedNanos;
+                graph.nestedNanos = outerNanos + elapsed;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return source.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    /**
+     * MeasuredFloatSource: MeasuredAudioInputStream for a float stage. It counts frames, the bytes of the stage are
+     * the bytes of its frames in the format of its output.
+     */
+    private static class MeasuredFloatSource implements FloatAudioSource {
+
+        private final String stage;
+        private final FloatAudioSource source;
+        private final int frameSize;
+        private final boolean isSource;
+        private final Graph graph;
+        private long nanos;
+        private long frames;
+
+        MeasuredFloatSource(String stage, FloatAudioSource source, int frameSize, boolean isSource, Graph graph) {
+            this.stage = stage;
+            this.source = source;
+            this.frameSize = frameSize;
+            this.isSource = isSource;
+            this.graph = graph;
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return source.getFormat();
+        }
+
+        @Override
+        public long getFrameLength() {
+            return source.getFrameLength();
+        }
+
+        @Override
+        public int read(FloatAudioBuffer buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            long outerNanos = graph.nestedNanos;
+            graph.nestedNanos = 0;
+            try {
+                int read = source.read(buffer, offset, length);
+                if(read > 0)
+                    frames += read;
+                return read;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                nanos += elapsed - graph.nestedNanos;
+                graph.nestedNanos = outerNanos + elapsed;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    /**
+     * CountingOutputStream: counts the bytes written to the output stream of a render.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * PipelineAudioInputStream: result of open. Closing it closes all the streams opened by the graph.
+     */
+    private static class PipelineAudioInputStream extends AudioInputStream {
+
+        private final Graph graph;
+
+        PipelineAudioInputStream(AudioInputStream audioInputStream, Graph graph) {
+            super(audioInputStream, audioInputStream.getFormat(), audioInputStream.getFrameLength());
+            this.graph = graph;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            graph.close();
+        }
+    }
+}
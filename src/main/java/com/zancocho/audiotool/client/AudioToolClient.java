@@ -1,22 +1,34 @@
 package com.zancocho.audiotool.client;
 
-import com.zancocho.audiotool.client.inputstream.MixingAudioInputStream;
-import com.zancocho.audiotool.client.inputstream.SequenceAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.ParallelMp3AudioInputStream;
 import com.zancocho.audiotool.exception.AudioToolException;
+import com.zancocho.audiotool.metrics.AudioMetrics;
+import com.zancocho.audiotool.metrics.NoOpAudioMetrics;
+import com.zancocho.audiotool.mp3.Mp3Encoder;
+import com.zancocho.audiotool.mp3.Mp3Info;
 import com.zancocho.audiotool.util.FileUtil;
-import javazoom.jl.converter.Converter;
-import javazoom.jl.decoder.JavaLayerException;
+import com.zancocho.audiotool.util.TempWorkspace;
+import com.zancocho.audiotool.wav.WavHeader;
+import com.zancocho.audiotool.wav.WavStreamWriter;
 
 import javax.sound.sampled.*;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Jose A.H
@@ -25,10 +37,26 @@ import java.util.Random;
  * so the audio files need to be in your machine and folder.
  *
  * Support WAV and MP3 files.
+ *
+ * The client is thread safe: every operation opens its own streams and writes its result to a unique job file
+ * that is moved to the result path at the end, so jobs can run at the same time, also on the same source files.
+ * The async methods run the operations on a pool with one thread per core.
  */
 public class AudioToolClient implements IAudioToolClient {
 
-    private FileUtil fileUtil;
+    private final FileUtil fileUtil;
+
+    private final ExecutorService executor;
+
+    private volatile Mp3Encoder.Profile encoderProfile = Mp3Encoder.Profile.BALANCED;
+
+    private volatile boolean parallelEncoding;
+
+    private volatile DecodedAudioCache decodedAudioCache;
+
+    private volatile AudioMetrics metrics = NoOpAudioMetrics.getInstance();
+
+    private volatile TempWorkspace workspace = new TempWorkspace();
 
     public static enum AudioType {
         WAV,
@@ -37,14 +65,108 @@ public class AudioToolClient implements IAudioToolClient {
 
     private static final AudioToolClient instance = new AudioToolClient();
 
+    // name in the metrics of the conversion from mp3 to wav, the other operations use the type of their job
+    private static final String CONVERT_OPERATION = "CONVERT";
+
+    /**
+     * AudioToolTask: an operation of the client, run by the executor of the async methods.
+     */
+    private interface AudioToolTask<T> {
+        T call() throws AudioToolException;
+    }
+
     private AudioToolClient(){
         fileUtil = FileUtil.getInstance();
+        executor = createExecutor(Runtime.getRuntime().availableProcessors());
     }
 
     public static AudioToolClient getInstance(){
         return instance;
     }
 
+    /**
+     * setEncoderProfile: profile of the mp3 encoder used for every MP3 result of this client.
+     * @param encoderProfile
+     */
+    @Override
+    public void setEncoderProfile(Mp3Encoder.Profile encoderProfile) {
+        if(encoderProfile == null)
+            throw new IllegalArgumentException("The encoder profile is required");
+
+        this.encoderProfile = encoderProfile;
+    }
+
+    @Override
+    public Mp3Encoder.Profile getEncoderProfile() {
+        return encoderProfile;
+    }
+
+    /**
+     * setParallelEncoding: encode the MP3 results in chunks on all the cores (the common ForkJoinPool), see
+     * Mp3Encoder. The batches keep one encoder per job, they already run on all the cores.
+     * @param parallelEncoding
+     */
+    @Override
+    public void setParallelEncoding(boolean parallelEncoding) {
+        this.parallelEncoding = parallelEncoding;
+    }
+
+    @Override
+    public boolean isParallelEncoding() {
+        return parallelEncoding;
+    }
+
+    private Mp3Encoder createEncoder() {
+        return new Mp3Encoder(encoderProfile, parallelEncoding ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * setWorkspace: workspace of the job files of every operation of this client, e.g. a workspace in /dev/shm with a
+     * quota. Null for the default, the job files are created next to the results. The workspace is not closed by the
+     * client.
+     * @param workspace
+     */
+    @Override
+    public void setWorkspace(TempWorkspace workspace) {
+        this.workspace = workspace == null ? new TempWorkspace() : workspace;
+    }
+
+    @Override
+    public TempWorkspace getWorkspace() {
+        return workspace;
+    }
+
+    /**
+     * setDecodedAudioCache: cache of decoded mp3 files used by every operation of this client, so the files that
+     * are used again and again are decoded only once. Null (the default) for no cache.
+     * @param decodedAudioCache
+     */
+    @Override
+    public void setDecodedAudioCache(DecodedAudioCache decodedAudioCache) {
+        this.decodedAudioCache = decodedAudioCache;
+    }
+
+    @Override
+    public DecodedAudioCache getDecodedAudioCache() {
+        return decodedAudioCache;
+    }
+
+    /**
+     * setMetrics: metrics that record the time, frames and bytes of every stage of the operations of this client
+     * (see AudioMetrics), e.g. a HistogramAudioMetrics. Null for NoOpAudioMetrics (the default): the stages are not
+     * measured at all.
+     * @param metrics
+     */
+    @Override
+    public void setMetrics(AudioMetrics metrics) {
+        this.metrics = metrics == null ? NoOpAudioMetrics.getInstance() : metrics;
+    }
+
+    @Override
+    public AudioMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * convertMp3ToWav: convert a mp3 file to wav.
      * @param fileName
@@ -55,18 +177,8 @@ public class AudioToolClient implements IAudioToolClient {
      */
     @Override
     public String convertMp3ToWav(String fileName, String fileNameResult, String filePath) throws AudioToolException {
-        fileUtil = FileUtil.getInstance();
-
-        try {
-
-            Converter myConverter1 = new Converter();
-            myConverter1.convert(filePath + fileName + ".mp3",filePath + fileNameResult + ".wav");
 
-        } catch (JavaLayerException e) {
-            throw new AudioToolException(e.getMessage());
-        }
-
-        return filePath + fileNameResult + ".wav";
+        return convertMp3ToWav(filePath + fileName + ".mp3", new File(filePath + fileNameResult + ".wav"));
     }
 
     /**
@@ -80,17 +192,27 @@ public class AudioToolClient implements IAudioToolClient {
     @Override
     public File convertInputStreamToMp3(InputStream inputStream, String fileName, String filePath) throws AudioToolException {
         File file = new File(filePath + fileName + ".mp3");
+        TempWorkspace workspace = this.workspace;
+        File jobFile = null;
 
         try {
-            try (FileOutputStream outputStream = new FileOutputStream(file, false)) {
+            jobFile = workspace.createFile(file, 0);
+            try (OutputStream outputStream = workspace.openOutputStream(jobFile)) {
                 int read;
                 byte[] bytes = new byte[8192];
                 while ((read = inputStream.read(bytes)) != -1) {
                     outputStream.write(bytes, 0, read);
                 }
             }
+            workspace.commit(jobFile, file);
+            jobFile = null;
+
         } catch (IOException e) {
             throw new AudioToolException(e.getMessage());
+
+        } finally {
+            if(jobFile != null)
+                workspace.delete(jobFile);
         }
 
         return file;
@@ -105,22 +227,59 @@ public class AudioToolClient implements IAudioToolClient {
      * @throws AudioToolException
      */
     public String convertMp3ToWavFromResources(String fileName, String fileNameResult, String resultPath) throws AudioToolException {
-        fileUtil = FileUtil.getInstance();
 
         try {
             String mp3File1 = fileUtil.getFilePathFromResources(fileName + ".mp3");
 
-            Converter myConverter1 = new Converter();
-            myConverter1.convert(mp3File1, resultPath + fileNameResult + ".wav");
+            return convertMp3ToWav(mp3File1, new File(resultPath + fileNameResult + ".wav"));
 
         } catch (URISyntaxException e) {
             throw new AudioToolException(e.getMessage());
+        }
+    }
 
-        } catch (JavaLayerException e) {
+    /**
+     * convertMp3ToWav: decode the mp3 file to a job file and move it to the wav file. The frames are decoded in
+     * parallel segments (ParallelMp3AudioInputStream), the samples are the same as decoding them in order.
+     * @param mp3Path
+     * @param wavFile
+     * @return
+     * @throws AudioToolException
+     */
+    private String convertMp3ToWav(String mp3Path, File wavFile) throws AudioToolException {
+        AudioMetrics metrics = this.metrics;
+        TempWorkspace workspace = this.workspace;
+        long startNanos = System.nanoTime();
+        File jobFile = null;
+
+        try {
+            // 16 bits per sample and the 44 bytes of the wav header
+            Mp3Info mp3Info = Mp3Info.read(new File(mp3Path));
+            jobFile = workspace.createFile(wavFile, 44 + mp3Info.getTotalSamples() * mp3Info.getChannels() * 2);
+
+            try (AudioInputStream audioInputStream = ParallelMp3AudioInputStream.getAudioInputStream(new File(mp3Path))) {
+                WavStreamWriter.write(audioInputStream, workspace.openOutputStream(jobFile), jobFile);
+            }
+
+            long bytes = jobFile.length();
+            workspace.commit(jobFile, wavFile);
+            jobFile = null;
+
+            if(metrics.isEnabled()){
+                long nanos = System.nanoTime() - startNanos;
+                metrics.recordStage(CONVERT_OPERATION, "decode", nanos, 0, bytes);
+                metrics.recordOperation(CONVERT_OPERATION, nanos, new File(mp3Path).length(), bytes, bytes);
+            }
+
+        } catch (IOException | UnsupportedAudioFileException e) {
             throw new AudioToolException(e.getMessage());
+
+        } finally {
+            if(jobFile != null)
+                workspace.delete(jobFile);
         }
 
-        return resultPath + fileNameResult + ".wav";
+        return wavFile.getPath();
     }
 
     /**
@@ -137,406 +296,538 @@ public class AudioToolClient implements IAudioToolClient {
     @Override
     public String joinAudio(String audioName1, String audioName2, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath) throws AudioToolException {
 
-        if(audioType == null || (!audioType.equals(AudioType.WAV) && !audioType.equals(AudioType.MP3)))
-            throw new AudioToolException("Audio format not supported");
+        return joinAudio(Arrays.asList(audioName1, audioName2), fileNameResult, audioType, audioTypeResult, filePath);
+    }
 
-        List<String> tempFiles = new ArrayList<>();
+    /**
+     * joinAudio: join any number of audio files, in the order of the list. All of them are streamed in one pass
+     * into the result, so joining n files reads and writes every file once.
+     * @param audioNames
+     * @param fileNameResult
+     * @param audioType
+     * @param audioTypeResult
+     * @param filePath
+     * @return
+     * @throws AudioToolException
+     */
+    @Override
+    public String joinAudio(List<String> audioNames, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath) throws AudioToolException {
 
-        try {
+        return AudioJob.join(audioNames, fileNameResult, audioType, audioTypeResult, filePath).render(createEncoder(), decodedAudioCache, metrics, workspace);
+    }
 
-            if(audioType.equals(AudioType.MP3)) {
-                this.convertMp3ToWav(audioName1, audioName1, filePath);
-                this.convertMp3ToWav(audioName2, audioName2, filePath);
+    /**
+     * blendAudio: overlap two audio files
+     * @param audioName1
+     * @param audioName2
+     * @param fileNameResult
+     * @param audioType
+     * @param audioTypeResult
+     * @param filePath
+     * @return
+     * @throws AudioToolException
+     */
+    @Override
+    public String blendAudio(String audioName1, String audioName2, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath) throws AudioToolException {
 
-                tempFiles.add(filePath + audioName1 + ".wav");
-                tempFiles.add(filePath + audioName2 + ".wav");
-            }
+        return blendAudio(Arrays.asList(audioName1, audioName2), fileNameResult, audioType, audioTypeResult, filePath);
+    }
 
-            File wavFile1 = new File(filePath + audioName1 + ".wav");
-            File wavFile2 = new File(filePath + audioName2 + ".wav");
+    /**
+     * blendAudio: overlap any number of audio files in one pass. The result is as long as the longest one.
+     * @param audioNames
+     * @param fileNameResult
+     * @param audioType
+     * @param audioTypeResult
+     * @param filePath
+     * @return
+     * @throws AudioToolException
+     */
+    @Override
+    public String blendAudio(List<String> audioNames, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath) throws AudioToolException {
 
-            AudioInputStream audio1 = AudioSystem.getAudioInputStream(wavFile1);
-            AudioInputStream audio2 = AudioSystem.getAudioInputStream(wavFile2);
+        return AudioJob.blend(audioNames, fileNameResult, audioType, audioTypeResult, filePath).render(createEncoder(), decodedAudioCache, metrics, workspace);
+    }
 
-            Collection list=new ArrayList();
-            list.add(audio1);
-            list.add(audio2);
+    /**
+     * blendAudioWithOffset: overlap two audio files but also add silent seconds to the audio background cut it as well.
+     * The background is cut, padded with generated silence and mixed in a single pass, without intermediate files.
+     * @param audioName
+     * @param audioBackground
+     * @param fileNameResult
+     * @param audioType
+     * @param audioTypeResult
+     * @param filePath
+     * @param startSecond
+     * @param totalSeconds
+     * @return
+     * @throws AudioToolException
+     */
+    @Override
+    public String blendAudioWithOffset(String audioName, String audioBackground, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds) throws AudioToolException {
+
+        return AudioJob.blendWithOffset(audioName, audioBackground, fileNameResult, audioType, audioTypeResult, filePath, startSecond, totalSeconds).render(createEncoder(), decodedAudioCache, metrics, workspace);
+    }
 
-            AudioFormat audioFormat = audio1.getFormat();
+    /**
+     * getDurationAudio: return the duration of an MP3 or WAV audio. Only the headers are read: the RIFF header
+     * for WAV and the Xing/Info/VBRI tag or the frame headers for MP3.
+     * @param audioName
+     * @param audioType
+     * @param filePath
+     * @return
+     * @throws AudioToolException
+     */
+    @Override
+    public float getDurationAudio(String audioName, AudioType audioType, String filePath) throws AudioToolException {
 
-            AudioInputStream audioInputStream = new SequenceAudioInputStream(audioFormat, list);
+        if(audioType == null || (!audioType.equals(AudioType.WAV) && !audioType.equals(AudioType.MP3)))
+            throw new AudioToolException("Audio format not supported");
 
-            File fileOut = new File(filePath + fileNameResult + ".wav");
-            AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, fileOut);
+        float durationInSeconds = 0.0f;
 
-            if(audioTypeResult.equals(AudioType.MP3)) {
-                File target = new File(filePath + fileNameResult + ".mp3");
-                convertWavFileToMp3File(fileOut, target);
-                tempFiles.add(filePath + fileNameResult + ".wav");
-            }
+        try {
 
-        } catch (UnsupportedAudioFileException e) {
-            throw new AudioToolException(e.getMessage());
+            if(audioType.equals(AudioType.MP3))
+                durationInSeconds = Mp3Info.read(new File(filePath + audioName + ".mp3")).getDurationInSeconds();
+            else
+                durationInSeconds = WavHeader.read(new File(filePath + audioName + ".wav")).getDurationInSeconds();
 
-        } catch (IOException e) {
+        } catch (IOException | UnsupportedAudioFileException e) {
             throw new AudioToolException(e.getMessage());
         }
 
-        if(!tempFiles.isEmpty()){
-            FileUtil fileUtil = FileUtil.getInstance();
-            fileUtil.deleteFilesFromDirectory(tempFiles);
-        }
-
-        return filePath + fileNameResult + (audioTypeResult.equals(AudioType.MP3) ? ".mp3" : ".wav");
+        return durationInSeconds;
     }
 
     /**
-     * joinAudioSilent: join two audio files but the first one is an audio silent from the folder resources
-     * @param audioSilent
-     * @param audioName2
+     * cutAudio: cut an audio file by giving a start second and the total duration.
+     * @param audioName
      * @param fileNameResult
      * @param audioType
      * @param audioTypeResult
      * @param filePath
+     * @param startSecond
+     * @param totalSeconds
      * @return
      * @throws AudioToolException
      */
-    private String joinAudioSilent(String audioSilent, String audioName2, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath) throws AudioToolException {
-
-        if(audioType == null || (!audioType.equals(AudioType.WAV) && !audioType.equals(AudioType.MP3)))
-            throw new AudioToolException("Audio format not supported");
-
-        List<String> tempFiles = new ArrayList<>();
-
-        try {
+    @Override
+    public String cutAudio(String audioName, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds) throws AudioToolException {
+        return cutAudio(audioName, fileNameResult, audioType, audioTypeResult, filePath, (double) startSecond, (double) totalSeconds);
+    }
 
-            if(audioType.equals(AudioType.MP3)) {
-                this.convertMp3ToWav(audioName2, audioName2, filePath);
-                tempFiles.add(filePath + audioName2 + ".wav");
-            }
+    /**
+     * cutAudio: cut an audio file with bounds in fractions of a second, rounded to the nearest sample frame. The
+     * source is opened at the start position: a WAV file by its file position and a MP3 file at the nearest mp3
+     * frame, so only the clip is decoded.
+     * @param audioName
+     * @param fileNameResult
+     * @param audioType
+     * @param audioTypeResult
+     * @param filePath
+     * @param startSecond
+     * @param totalSeconds
+     * @return
+     * @throws AudioToolException
+     */
+    @Override
+    public String cutAudio(String audioName, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath, double startSecond, double totalSeconds) throws AudioToolException {
 
-            fileUtil = FileUtil.getInstance();
+        return AudioJob.cut(audioName, fileNameResult, audioType, audioTypeResult, filePath, startSecond, totalSeconds).render(createEncoder(), decodedAudioCache, metrics, workspace);
+    }
 
-            File wavAudioSilentFile = new File(fileUtil.getFilePathFromResources(audioSilent + ".wav"));
-            File wavFile2 = new File(filePath + audioName2 + ".wav");
+    /**
+     * convertMp3ToWav: decode a mp3 stream to a wav stream, without touching the file system. The streams are not
+     * closed.
+     * @param mp3Stream
+     * @param wavStream
+     * @throws AudioToolException
+     */
+    @Override
+    public void convertMp3ToWav(InputStream mp3Stream, OutputStream wavStream) throws AudioToolException {
 
-            AudioInputStream audio1 = AudioSystem.getAudioInputStream(wavAudioSilentFile);
-            AudioInputStream audio2 = AudioSystem.getAudioInputStream(wavFile2);
+        renderStreams(AudioJob.Type.JOIN, CONVERT_OPERATION, Collections.singletonList(mp3Stream), AudioType.MP3, AudioType.WAV, wavStream, 0, 0);
+    }
 
-            Collection list=new ArrayList();
-            list.add(audio1);
-            list.add(audio2);
+    @Override
+    public void convertMp3ToWav(ReadableByteChannel mp3Channel, WritableByteChannel wavChannel) throws AudioToolException {
 
-            AudioFormat audioFormat = audio1.getFormat();
+        convertMp3ToWav(Channels.newInputStream(mp3Channel), Channels.newOutputStream(wavChannel));
+    }
 
-            AudioInputStream audioInputStream = new SequenceAudioInputStream(audioFormat, list);
+    /**
+     * joinAudio: join audio streams, in the order of the list, and write the result to the output stream. Nothing
+     * is written to the file system. The streams are not closed.
+     * @param audioStreams
+     * @param audioType
+     * @param audioTypeResult
+     * @param outputStream
+     * @throws AudioToolException
+     */
+    @Override
+    public void joinAudio(List<InputStream> audioStreams, AudioType audioType, AudioType audioTypeResult, OutputStream outputStream) throws AudioToolException {
 
-            File fileOut = new File(filePath + fileNameResult + ".wav");
-            AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, fileOut);
+        renderStreams(AudioJob.Type.JOIN, AudioJob.Type.JOIN.name(), audioStreams, audioType, audioTypeResult, outputStream, 0, 0);
+    }
 
-            if(audioTypeResult.equals(AudioType.MP3)) {
-                File target = new File(filePath + fileNameResult + ".mp3");
-                convertWavFileToMp3File(fileOut, target);
-                tempFiles.add(filePath + fileNameResult + ".wav");
-            }
+    @Override
+    public void joinAudio(List<ReadableByteChannel> audioChannels, AudioType audioType, AudioType audioTypeResult, WritableByteChannel channel) throws AudioToolException {
 
-        } catch (UnsupportedAudioFileException e) {
-            throw new AudioToolException(e.getMessage());
+        joinAudio(toInputStreams(audioChannels), audioType, audioTypeResult, Channels.newOutputStream(channel));
+    }
 
-        } catch (IOException e) {
-            throw new AudioToolException(e.getMessage());
+    /**
+     * blendAudio: overlap audio streams and write the result to the output stream. Nothing is written to the file
+     * system. The streams are not closed.
+     * @param audioStreams
+     * @param audioType
+     * @param audioTypeResult
+     * @param outputStream
+     * @throws AudioToolException
+     */
+    @Override
+    public void blendAudio(List<InputStream> audioStreams, AudioType audioType, AudioType audioTypeResult, OutputStream outputStream) throws AudioToolException {
 
-        } catch (URISyntaxException e) {
-            throw new AudioToolException(e.getMessage());
-        }
+        renderStreams(AudioJob.Type.BLEND, AudioJob.Type.BLEND.name(), audioStreams, audioType, audioTypeResult, outputStream, 0, 0);
+    }
 
-        if(!tempFiles.isEmpty()){
-            FileUtil fileUtil = FileUtil.getInstance();
-            fileUtil.deleteFilesFromDirectory(tempFiles);
-        }
+    @Override
+    public void blendAudio(List<ReadableByteChannel> audioChannels, AudioType audioType, AudioType audioTypeResult, WritableByteChannel channel) throws AudioToolException {
 
-        return filePath + fileNameResult + (audioTypeResult.equals(AudioType.MP3) ? ".mp3" : ".wav");
+        blendAudio(toInputStreams(audioChannels), audioType, audioTypeResult, Channels.newOutputStream(channel));
     }
 
     /**
-     * blendAudio: overlap two audio files
-     * @param audioName1
-     * @param audioName2
-     * @param fileNameResult
+     * blendAudioWithOffset: overlap the audio stream with the background stream, padded with startSecond of
+     * silence and cut to totalSeconds, and write the result to the output stream. The streams are not closed.
+     * @param audioStream
+     * @param audioBackgroundStream
      * @param audioType
      * @param audioTypeResult
-     * @param filePath
-     * @return
+     * @param outputStream
+     * @param startSecond
+     * @param totalSeconds
      * @throws AudioToolException
      */
     @Override
-    public String blendAudio(String audioName1, String audioName2, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath) throws AudioToolException {
-
-        if(audioType == null || (!audioType.equals(AudioType.WAV) && !audioType.equals(AudioType.MP3)))
-            throw new AudioToolException("Audio format not supported");
-
-        List<String> tempFiles = new ArrayList<>();
+    public void blendAudioWithOffset(InputStream audioStream, InputStream audioBackgroundStream, AudioType audioType, AudioType audioTypeResult, OutputStream outputStream, int startSecond, int totalSeconds) throws AudioToolException {
 
-        try {
+        renderStreams(AudioJob.Type.BLEND_WITH_OFFSET, AudioJob.Type.BLEND_WITH_OFFSET.name(), Arrays.asList(audioStream, audioBackgroundStream), audioType, audioTypeResult, outputStream, startSecond, totalSeconds);
+    }
 
-            if(audioType.equals(AudioType.MP3)) {
-                this.convertMp3ToWav(audioName1, audioName1, filePath);
-                this.convertMp3ToWav(audioName2, audioName2, filePath);
+    @Override
+    public void blendAudioWithOffset(ReadableByteChannel audioChannel, ReadableByteChannel audioBackgroundChannel, AudioType audioType, AudioType audioTypeResult, WritableByteChannel channel, int startSecond, int totalSeconds) throws AudioToolException {
 
-                tempFiles.add(filePath + audioName1 + ".wav");
-                tempFiles.add(filePath + audioName2 + ".wav");
-            }
+        blendAudioWithOffset(Channels.newInputStream(audioChannel), Channels.newInputStream(audioBackgroundChannel), audioType, audioTypeResult, Channels.newOutputStream(channel), startSecond, totalSeconds);
+    }
 
-            File wavFile1 = new File(filePath + audioName1 + ".wav");
-            File wavFile2 = new File(filePath + audioName2 + ".wav");
+    /**
+     * cutAudio: cut an audio stream and write the result to the output stream. The stream is read (and a mp3 stream
+     * decoded) up to the start position, the rest of it is not read. The streams are not closed.
+     * @param audioStream
+     * @param audioType
+     * @param audioTypeResult
+     * @param outputStream
+     * @param startSecond
+     * @param totalSeconds
+     * @throws AudioToolException
+     */
+    @Override
+    public void cutAudio(InputStream audioStream, AudioType audioType, AudioType audioTypeResult, OutputStream outputStream, double startSecond, double totalSeconds) throws AudioToolException {
 
-            AudioInputStream audio1 = AudioSystem.getAudioInputStream(wavFile1);
-            AudioInputStream audio2 = AudioSystem.getAudioInputStream(wavFile2);
+        renderStreams(AudioJob.Type.CUT, AudioJob.Type.CUT.name(), Collections.singletonList(audioStream), audioType, audioTypeResult, outputStream, startSecond, totalSeconds);
+    }
 
-            Collection list=new ArrayList();
-            list.add(audio2);
-            list.add(audio1);
+    @Override
+    public void cutAudio(ReadableByteChannel audioChannel, AudioType audioType, AudioType audioTypeResult, WritableByteChannel channel, double startSecond, double totalSeconds) throws AudioToolException {
 
-            AudioFormat audioFormat = audio1.getFormat();
+        cutAudio(Channels.newInputStream(audioChannel), audioType, audioTypeResult, Channels.newOutputStream(channel), startSecond, totalSeconds);
+    }
 
-            MixingAudioInputStream audioInputStream = new MixingAudioInputStream(audioFormat, list);
+    /**
+     * getDurationAudio: return the duration of an audio stream. A stream has no index, so it is read to the end: a
+     * WAV stream is read and a MP3 stream is decoded. The stream is not closed.
+     * @param audioStream
+     * @param audioType
+     * @return
+     * @throws AudioToolException
+     */
+    @Override
+    public float getDurationAudio(InputStream audioStream, AudioType audioType) throws AudioToolException {
 
-            File fileOut = new File(filePath + fileNameResult + ".wav");
-            AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, fileOut);
+        if(audioType == null || (!audioType.equals(AudioType.WAV) && !audioType.equals(AudioType.MP3)))
+            throw new AudioToolException("Audio format not supported");
 
-            if(audioTypeResult.equals(AudioType.MP3)) {
-                File target = new File(filePath + fileNameResult + ".mp3");
-                convertWavFileToMp3File(fileOut, target);
-                tempFiles.add(filePath + fileNameResult + ".wav");
+        try (AudioInputStream audioInputStream = AudioPipeline.source(audioStream, audioType).open()) {
+            AudioFormat audioFormat = audioInputStream.getFormat();
+            // read, not skipped: the skip of some streams goes past the end
+            byte[] buffer = new byte[64 * 1024];
+            long bytes = 0;
+            int read;
+            while((read = audioInputStream.read(buffer)) > 0){
+                bytes += read;
             }
+            return (float) (bytes / audioFormat.getFrameSize()) / audioFormat.getFrameRate();
 
-        } catch (IOException | UnsupportedAudioFileException e) {
+        } catch (IOException e) {
             throw new AudioToolException(e.getMessage());
         }
+    }
 
-        if(!tempFiles.isEmpty()){
-            FileUtil fileUtil = FileUtil.getInstance();
-            fileUtil.deleteFilesFromDirectory(tempFiles);
-        }
+    @Override
+    public float getDurationAudio(ReadableByteChannel audioChannel, AudioType audioType) throws AudioToolException {
 
-        return filePath + fileNameResult + (audioTypeResult.equals(AudioType.MP3) ? ".mp3" : ".wav");
+        return getDurationAudio(Channels.newInputStream(audioChannel), audioType);
     }
 
     /**
-     * blendAudioWithOffset: overlap two audio files but also add silent seconds to the audio background cut it as well
-     * @param audioName
-     * @param audioBackground
-     * @param fileNameResult
+     * renderStreams: build the pipeline of a job over audio streams and write the result to the output stream.
+     * @param type
+     * @param operation name of the operation in the metrics
+     * @param audioStreams
      * @param audioType
      * @param audioTypeResult
-     * @param filePath
+     * @param outputStream
      * @param startSecond
      * @param totalSeconds
-     * @return
      * @throws AudioToolException
      */
-    @Override
-    public String blendAudioWithOffset(String audioName, String audioBackground, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds) throws AudioToolException {
+    private void renderStreams(AudioJob.Type type, String operation, List<InputStream> audioStreams, AudioType audioType, AudioType audioTypeResult,
+                               OutputStream outputStream, double startSecond, double totalSeconds) throws AudioToolException {
 
-        if(audioType == null || (!audioType.equals(AudioType.WAV) && !audioType.equals(AudioType.MP3)))
+        if(audioType == null || audioTypeResult == null || (!audioType.equals(AudioType.WAV) && !audioType.equals(AudioType.MP3)))
             throw new AudioToolException("Audio format not supported");
 
-        String audioBackgroundModif = null;
-        List<String> tempFiles = new ArrayList<>();
-
-        try {
-
-            if(audioType.equals(AudioType.MP3)) {
-                this.convertMp3ToWav(audioName, audioName, filePath);
-                this.convertMp3ToWav(audioBackground, audioBackground, filePath);
+        if(audioStreams == null || audioStreams.isEmpty())
+            throw new AudioToolException("No audio files to process");
 
-                tempFiles.add(filePath + audioName + ".wav");
-                tempFiles.add(filePath + audioBackground + ".wav");
-            }
-
-            // Cut audio background:
-            audioBackgroundModif = audioBackground + "_modif";
-            this.cutAudio(audioBackground, audioBackgroundModif, AudioType.WAV, AudioType.WAV, filePath, 0, totalSeconds);
-
-            // Add silent to audio background:
-            if(startSecond > 0){
-                //join seconds to audioBackground - calculate list of silence audios.
-                int[] arrayAudioSilent = AudioToolClient.getArrayAudioSilent(startSecond);
-                for(int i = 0; i < arrayAudioSilent.length; i++){
-                    if(arrayAudioSilent[i] > 0){
-                        while(arrayAudioSilent[i] > 0){
-                            String silenceAudio = null;
-                            switch (i){
-                                case 4:
-                                    silenceAudio = "silence_10s";
-                                    break;
-                                case 3:
-                                    silenceAudio = "silence_5s";
-                                    break;
-                                case 2:
-                                    silenceAudio = "silence_3s";
-                                    break;
-                                case 1:
-                                    silenceAudio = "silence_2s";
-                                    break;
-                                case 0:
-                                    silenceAudio = "silence_1s";
-                                    break;
-                            }
-                            String tempAudioName = audioBackgroundModif + "_" + i + "_" + arrayAudioSilent[i];
-                            joinAudioSilent(silenceAudio, audioBackgroundModif, tempAudioName, AudioType.WAV, AudioType.WAV, filePath);
-                            audioBackgroundModif = tempAudioName;
-                            tempFiles.add(filePath + tempAudioName + ".wav");
-                            arrayAudioSilent[i] = arrayAudioSilent[i] - 1;
-                        }
-                    }
-                }
-            }
-
-            blendAudio(audioName, audioBackgroundModif, fileNameResult, AudioType.WAV, audioTypeResult, filePath);
+        List<AudioPipeline> pipelines = new ArrayList<>();
+        for(InputStream audioStream : audioStreams){
+            pipelines.add(AudioPipeline.source(audioStream, audioType));
+        }
 
-            if(!tempFiles.isEmpty()){
-                FileUtil fileUtil = FileUtil.getInstance();
-                fileUtil.deleteFilesFromDirectory(tempFiles);
-            }
+        AudioJob.build(type, pipelines, startSecond, totalSeconds).render(outputStream, audioTypeResult, createEncoder(), metrics, operation);
+    }
 
-        } catch (AudioToolException e) {
-            throw e;
+    private static List<InputStream> toInputStreams(List<ReadableByteChannel> channels) {
+        List<InputStream> inputStreams = new ArrayList<>();
+        for(ReadableByteChannel channel : channels){
+            inputStreams.add(Channels.newInputStream(channel));
         }
+        return inputStreams;
+    }
 
-        return filePath + fileNameResult + (audioTypeResult.equals(AudioType.MP3) ? ".mp3" : ".wav");
+    /**
+     * runBatch: run the jobs on a work stealing pool with one thread per core (see AudioBatch). The mp3 files used
+     * by several jobs are decoded once. MP3 results are encoded with the profile of this client.
+     * @param jobs
+     * @return the result or the error of every job, in the order of the list
+     */
+    @Override
+    public List<AudioJobResult> runBatch(List<AudioJob> jobs) {
+        return new AudioBatch(Runtime.getRuntime().availableProcessors(), AudioBatch.DEFAULT_MAX_DECODED_BYTES, encoderProfile, decodedAudioCache, metrics, workspace).run(jobs);
+    }
 
+    @Override
+    public CompletableFuture<String> convertMp3ToWavAsync(String fileName, String fileNameResult, String filePath) {
+        return submit(() -> convertMp3ToWav(fileName, fileNameResult, filePath));
     }
 
     /**
-     * getDurationAudio: return the duration of an MP3 or WAV audio.
-     * @param audioName
-     * @param audioType
+     * convertInputStreamToMp3Async: the input stream is read by the thread of the job, so it must not be used
+     * until the future is completed.
+     * @param inputStream
+     * @param fileName
      * @param filePath
      * @return
-     * @throws AudioToolException
      */
     @Override
-    public float getDurationAudio(String audioName, AudioType audioType, String filePath) throws AudioToolException {
-
-        if(audioType == null || (!audioType.equals(AudioType.WAV) && !audioType.equals(AudioType.MP3)))
-            throw new AudioToolException("Audio format not supported");
-
-        float durationInSeconds = 0.0f;
-        List<String> tempFiles = new ArrayList<>();
+    public CompletableFuture<File> convertInputStreamToMp3Async(InputStream inputStream, String fileName, String filePath) {
+        return submit(() -> convertInputStreamToMp3(inputStream, fileName, filePath));
+    }
 
-        try {
+    @Override
+    public CompletableFuture<String> joinAudioAsync(String audioName1, String audioName2, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath) {
+        return submit(() -> joinAudio(audioName1, audioName2, fileNameResult, audioType, audioTypeResult, filePath));
+    }
 
-            if(audioType.equals(AudioType.MP3)){
-                this.convertMp3ToWav(audioName, audioName, filePath);
-                tempFiles.add(filePath + audioName + ".wav");
-            }
+    @Override
+    public CompletableFuture<String> joinAudioAsync(List<String> audioNames, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath) {
+        return submit(() -> joinAudio(audioNames, fileNameResult, audioType, audioTypeResult, filePath));
+    }
 
-            File wavFile = new File(filePath + audioName + ".wav");
-            AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(wavFile);
+    @Override
+    public CompletableFuture<String> blendAudioAsync(String audioName1, String audioName2, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath) {
+        return submit(() -> blendAudio(audioName1, audioName2, fileNameResult, audioType, audioTypeResult, filePath));
+    }
 
-            AudioFormat audioFormat = audioInputStream.getFormat();
+    @Override
+    public CompletableFuture<String> blendAudioAsync(List<String> audioNames, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath) {
+        return submit(() -> blendAudio(audioNames, fileNameResult, audioType, audioTypeResult, filePath));
+    }
 
-            long audioFileLength = wavFile.length();
-            int frameSize = audioFormat.getFrameSize();
-            float frameRate = audioFormat.getFrameRate();
-            durationInSeconds = (audioFileLength / (frameSize * frameRate));
+    @Override
+    public CompletableFuture<String> blendAudioWithOffsetAsync(String audioName, String audioBackground, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds) {
+        return submit(() -> blendAudioWithOffset(audioName, audioBackground, fileNameResult, audioType, audioTypeResult, filePath, startSecond, totalSeconds));
+    }
 
-        } catch (IOException | UnsupportedAudioFileException e) {
-            throw new AudioToolException(e.getMessage());
-        }
+    @Override
+    public CompletableFuture<Float> getDurationAudioAsync(String audioName, AudioType audioType, String filePath) {
+        return submit(() -> getDurationAudio(audioName, audioType, filePath));
+    }
 
-        if(!tempFiles.isEmpty()){
-            FileUtil fileUtil = FileUtil.getInstance();
-            fileUtil.deleteFilesFromDirectory(tempFiles);
-        }
+    @Override
+    public CompletableFuture<String> cutAudioAsync(String audioName, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds) {
+        return submit(() -> cutAudio(audioName, fileNameResult, audioType, audioTypeResult, filePath, startSecond, totalSeconds));
+    }
 
-        return durationInSeconds;
+    @Override
+    public CompletableFuture<String> cutAudioAsync(String audioName, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath, double startSecond, double totalSeconds) {
+        return submit(() -> cutAudio(audioName, fileNameResult, audioType, audioTypeResult, filePath, startSecond, totalSeconds));
     }
 
     /**
-     * cutAudio: cut an audio file by giving a start second and the total duration.
-     * @param audioName
-     * @param fileNameResult
-     * @param audioType
-     * @param audioTypeResult
-     * @param filePath
-     * @param startSecond
-     * @param totalSeconds
+     * convertMp3ToWavAsync: as with convertInputStreamToMp3Async, the streams and channels of this method and of the
+     * other async methods that take them are read and written by the thread of the job, so they must not be used
+     * until the future is completed.
+     * @param mp3Stream
+     * @param wavStream
      * @return
-     * @throws AudioToolException
      */
     @Override
-    public String cutAudio(String audioName, String fileNameResult, AudioType audioType, AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds) throws AudioToolException {
+    public CompletableFuture<Void> convertMp3ToWavAsync(InputStream mp3Stream, OutputStream wavStream) {
+        return submit(() -> {
+            convertMp3ToWav(mp3Stream, wavStream);
+            return null;
+        });
+    }
 
-        if(audioType == null || (!audioType.equals(AudioType.WAV) && !audioType.equals(AudioType.MP3)))
-            throw new AudioToolException("Audio format not supported");
+    @Override
+    public CompletableFuture<Void> convertMp3ToWavAsync(ReadableByteChannel mp3Channel, WritableByteChannel wavChannel) {
+        return submit(() -> {
+            convertMp3ToWav(mp3Channel, wavChannel);
+            return null;
+        });
+    }
 
-        AudioInputStream inputStream = null;
-        AudioInputStream shortenedStream = null;
-        List<String> tempFiles = new ArrayList<>();
+    @Override
+    public CompletableFuture<Void> joinAudioAsync(List<InputStream> audioStreams, AudioType audioType, AudioType audioTypeResult, OutputStream outputStream) {
+        return submit(() -> {
+            joinAudio(audioStreams, audioType, audioTypeResult, outputStream);
+            return null;
+        });
+    }
 
-        try {
+    @Override
+    public CompletableFuture<Void> joinAudioAsync(List<ReadableByteChannel> audioChannels, AudioType audioType, AudioType audioTypeResult, WritableByteChannel channel) {
+        return submit(() -> {
+            joinAudio(audioChannels, audioType, audioTypeResult, channel);
+            return null;
+        });
+    }
 
-            if(audioType.equals(AudioType.MP3)) {
-                this.convertMp3ToWav(audioName, audioName, filePath);
-                tempFiles.add(filePath + audioName + ".wav");
-            }
+    @Override
+    public CompletableFuture<Void> blendAudioAsync(List<InputStream> audioStreams, AudioType audioType, AudioType audioTypeResult, OutputStream outputStream) {
+        return submit(() -> {
+            blendAudio(audioStreams, audioType, audioTypeResult, outputStream);
+            return null;
+        });
+    }
 
-            File wavFile = new File(filePath + audioName + ".wav");
-            AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(wavFile);
+    @Override
+    public CompletableFuture<Void> blendAudioAsync(List<ReadableByteChannel> audioChannels, AudioType audioType, AudioType audioTypeResult, WritableByteChannel channel) {
+        return submit(() -> {
+            blendAudio(audioChannels, audioType, audioTypeResult, channel);
+            return null;
+        });
+    }
 
-            AudioFormat audioFormat = audioInputStream.getFormat();
+    @Override
+    public CompletableFuture<Void> blendAudioWithOffsetAsync(InputStream audioStream, InputStream audioBackgroundStream, AudioType audioType, AudioType audioTypeResult, OutputStream outputStream, int startSecond, int totalSeconds) {
+        return submit(() -> {
+            blendAudioWithOffset(audioStream, audioBackgroundStream, audioType, audioTypeResult, outputStream, startSecond, totalSeconds);
+            return null;
+        });
+    }
 
-            inputStream = AudioSystem.getAudioInputStream(wavFile);
+    @Override
+    public CompletableFuture<Void> blendAudioWithOffsetAsync(ReadableByteChannel audioChannel, ReadableByteChannel audioBackgroundChannel, AudioType audioType, AudioType audioTypeResult, WritableByteChannel channel, int startSecond, int totalSeconds) {
+        return submit(() -> {
+            blendAudioWithOffset(audioChannel, audioBackgroundChannel, audioType, audioTypeResult, channel, startSecond, totalSeconds);
+            return null;
+        });
+    }
 
-            int bytesPerSecond = audioFormat.getFrameSize() * (int)audioFormat.getFrameRate();
-            inputStream.skip(startSecond * bytesPerSecond);
-            long framesOfAudioToCopy = totalSeconds * (int)audioFormat.getFrameRate();
-            shortenedStream = new AudioInputStream(inputStream, audioFormat, framesOfAudioToCopy);
+    @Override
+    public CompletableFuture<Void> cutAudioAsync(InputStream audioStream, AudioType audioType, AudioType audioTypeResult, OutputStream outputStream, double startSecond, double totalSeconds) {
+        return submit(() -> {
+            cutAudio(audioStream, audioType, audioTypeResult, outputStream, startSecond, totalSeconds);
+            return null;
+        });
+    }
 
-            File fileOut = new File(filePath + fileNameResult + ".wav");
-            AudioSystem.write(shortenedStream, AudioFileFormat.Type.WAVE, fileOut);
+    @Override
+    public CompletableFuture<Void> cutAudioAsync(ReadableByteChannel audioChannel, AudioType audioType, AudioType audioTypeResult, WritableByteChannel channel, double startSecond, double totalSeconds) {
+        return submit(() -> {
+            cutAudio(audioChannel, audioType, audioTypeResult, channel, startSecond, totalSeconds);
+            return null;
+        });
+    }
 
-            if(audioTypeResult.equals(AudioType.MP3)) {
-                File target = new File(filePath + fileNameResult + ".mp3");
-                convertWavFileToMp3File(fileOut, target);
-                tempFiles.add(filePath + fileNameResult + ".wav");
-            }
+    @Override
+    public CompletableFuture<Float> getDurationAudioAsync(InputStream audioStream, AudioType audioType) {
+        return submit(() -> getDurationAudio(audioStream, audioType));
+    }
 
-        } catch (IOException | UnsupportedAudioFileException e) {
-            throw new AudioToolException(e.getMessage());
-        }
+    @Override
+    public CompletableFuture<Float> getDurationAudioAsync(ReadableByteChannel audioChannel, AudioType audioType) {
+        return submit(() -> getDurationAudio(audioChannel, audioType));
+    }
 
-        if(!tempFiles.isEmpty()){
-            FileUtil fileUtil = FileUtil.getInstance();
-            fileUtil.deleteFilesFromDirectory(tempFiles);
-        }
+    /**
+     * runBatchAsync: the batch is submitted from a thread of the client pool and runs on its own pool.
+     * @param jobs
+     * @return
+     */
+    @Override
+    public CompletableFuture<List<AudioJobResult>> runBatchAsync(List<AudioJob> jobs) {
+        return submit(() -> runBatch(jobs));
+    }
 
-        return filePath + fileNameResult + (audioTypeResult.equals(AudioType.MP3) ? ".mp3" : ".wav");
+    /**
+     * submit: run the task on the executor. The future is completed with the result of the task or with the
+     * AudioToolException (or runtime exception) that it threw.
+     * @param task
+     * @param <T>
+     * @return
+     */
+    private <T> CompletableFuture<T> submit(AudioToolTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (AudioToolException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
     }
 
     /**
-     * convertWavFileToMp3File: convert a wav file to mp3. It uses the library:
-     * https://github.com/Sciss/jump3r
-     * @param source
-     * @param target
-     * @throws AudioToolException
+     * createExecutor: pool with a fixed number of threads for the async methods. The jobs are CPU bound (decoding,
+     * mixing and encoding), so more threads than cores only add contention. The threads are daemon threads, the
+     * pool does not keep the JVM alive.
+     * @param threads
+     * @return
      */
-    private static void convertWavFileToMp3File(File source, File target) throws AudioToolException {
-        String[] mp3Args = { "--preset","standard",
-                "-q","0",
-                "-m","s",
-                source.getAbsolutePath(),
-                target.getAbsolutePath()
-        };
-        de.sciss.jump3r.Main m = new de.sciss.jump3r.Main();
-        try {
-            m.run(mp3Args);
-        }
-        catch(Exception e) {
-            throw new AudioToolException("ERROR processing MP3: " + e.getMessage());
-        }
+    private static ExecutorService createExecutor(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "audio-tool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
@@ -544,7 +835,9 @@ public class AudioToolClient implements IAudioToolClient {
      * required for the input seconds
      * @param seconds
      * @return
+     * @deprecated the silence is generated by SilenceAudioInputStream, the resource files are no longer needed.
      */
+    @Deprecated
     public static int[] getArrayAudioSilent(int seconds){
         int[] arrayAudioSilent = new int[5];
         for(int i = 0; i < arrayAudioSilent.length; i++){
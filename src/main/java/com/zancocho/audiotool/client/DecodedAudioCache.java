@@ -0,0 +1,375 @@
+package com.zancocho.audiotool.client;
+
+import com.zancocho.audiotool.client.inputstream.ByteBufferAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.Mp3AudioInputStream;
+import com.zancocho.audiotool.mp3.Mp3Info;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * @author Jose A.H
+ *
+ * DecodedAudioCache: cache of decoded mp3 files, so the beds and jingles that are used again and again are decoded
+ * only once. An entry is found by the path, the modification time and the length of the file and by the audio type,
+ * so a file that changes is decoded again.
+ *
+ * The cache holds up to maxBytes of PCM. When a new entry does not fit, the least recently used entries are evicted.
+ * A file bigger than maxBytes is not cached, it is decoded while it is read as without a cache.
+ *
+ * The PCM can be kept in the heap, in direct memory (off heap) or in a spill file mapped in memory, so a large cache
+ * does not add to the heap or to the garbage collection. The spill files are deleted once they are mapped.
+ *
+ * The cache is thread safe. When several threads ask for the same file at the same time, it is decoded once and the
+ * other threads wait for it.
+ */
+public class DecodedAudioCache {
+
+    public static enum Storage {
+        HEAP,
+        OFF_HEAP,
+        MAPPED_FILE,
+    };
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final long maxBytes;
+    private final Storage storage;
+    private final File spillDirectory;
+
+    // guarded by this, in access order for the LRU eviction
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<Entry>> loading = new HashMap<>();
+    private long bytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * DecodedAudioCache: cache in the heap.
+     * @param maxBytes
+     */
+    public DecodedAudioCache(long maxBytes) {
+        this(maxBytes, Storage.HEAP);
+    }
+
+    /**
+     * DecodedAudioCache: cache with the given storage. The spill files of MAPPED_FILE are created in the temporary
+     * folder of the system.
+     * @param maxBytes
+     * @param storage
+     */
+    public DecodedAudioCache(long maxBytes, Storage storage) {
+        this(maxBytes, storage, null);
+    }
+
+    /**
+     * DecodedAudioCache: cache with the given storage and folder for the spill files (null for the temporary folder
+     * of the system).
+     * @param maxBytes
+     * @param storage
+     * @param spillDirectory
+     */
+    public DecodedAudioCache(long maxBytes, Storage storage, File spillDirectory) {
+        if(storage == null)
+            throw new IllegalArgumentException("The storage is required");
+
+        this.maxBytes = Math.max(0, maxBytes);
+        this.storage = storage;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * open: decoded stream of the file, read from the cache. The file is decoded and cached if it is not in the
+     * cache yet.
+     * @param file
+     * @param audioType
+     * @return the stream, or null if the file is too big for the cache
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public AudioInputStream open(File file, AudioToolClient.AudioType audioType) throws IOException, UnsupportedAudioFileException {
+        Entry entry = get(file, audioType);
+        return entry == null ? null : new ByteBufferAudioInputStream(entry.pcm, entry.audioFormat);
+    }
+
+    /**
+     * get: the entry of the file, decoded now if it is not in the cache.
+     * @param file
+     * @param audioType
+     * @return the entry, or null if the file is too big for the cache
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    private Entry get(File file, AudioToolClient.AudioType audioType) throws IOException, UnsupportedAudioFileException {
+        if(!AudioToolClient.AudioType.MP3.equals(audioType))
+            throw new UnsupportedAudioFileException("Only mp3 files are decoded by the cache");
+
+        File absoluteFile = file.getAbsoluteFile();
+        Key key = new Key(absoluteFile.getPath(), absoluteFile.lastModified(), absoluteFile.length(), audioType);
+
+        CompletableFuture<Entry> future;
+        boolean load = false;
+        synchronized(this){
+            Entry entry = entries.get(key);
+            if(entry != null){
+                hitCount++;
+                return entry;
+            }
+
+            future = loading.get(key);
+            if(future == null){
+                missCount++;
+                future = new CompletableFuture<>();
+                loading.put(key, future);
+                load = true;
+            } else {
+                // decoded by another thread, it is read from the cache
+                hitCount++;
+            }
+        }
+
+        if(!load)
+            return join(future);
+
+        Entry entry = null;
+        try {
+            entry = decode(absoluteFile);
+            future.complete(entry);
+            return entry;
+
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+
+        } finally {
+            synchronized(this){
+                loading.remove(key);
+                if(entry != null)
+                    put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * put: add the entry and evict the least recently used entries until the cache fits in maxBytes.
+     * @param key
+     * @param entry
+     */
+    private void put(Key key, Entry entry) {
+        entries.put(key, entry);
+        bytes += entry.size;
+
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while(bytes > maxBytes && iterator.hasNext()){
+            Map.Entry<Key, Entry> eldest = iterator.next();
+            if(eldest.getKey().equals(key))
+                continue;
+
+            iterator.remove();
+            bytes -= eldest.getValue().size;
+            evictionCount++;
+        }
+    }
+
+    private static Entry join(CompletableFuture<Entry> future) throws IOException, UnsupportedAudioFileException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException)
+                throw (IOException) cause;
+            if(cause instanceof UnsupportedAudioFileException)
+                throw (UnsupportedAudioFileException) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * decode: decode the whole file into the storage of the cache.
+     * @param file
+     * @return the entry, or null if the file is too big for the cache
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    private Entry decode(File file) throws IOException, UnsupportedAudioFileException {
+        Mp3Info mp3Info = Mp3Info.read(file);
+        long estimatedBytes = mp3Info.getTotalSamples() * mp3Info.getChannels() * 2;
+        if(estimatedBytes > maxBytes || estimatedBytes > Integer.MAX_VALUE)
+            return null;
+
+        try (AudioInputStream audioInputStream = Mp3AudioInputStream.getAudioInputStream(file)) {
+            ByteBuffer pcm = storage.equals(Storage.MAPPED_FILE)
+                    ? decodeToMappedFile(audioInputStream)
+                    : decodeToBuffer(audioInputStream, (int) estimatedBytes);
+
+            if(pcm == null)
+                return null;
+            return new Entry(audioInputStream.getFormat(), pcm);
+        }
+    }
+
+    private ByteBuffer decodeToBuffer(AudioInputStream audioInputStream, int estimatedBytes) throws IOException {
+        ByteBuffer pcm = allocate(estimatedBytes);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int read;
+        while((read = audioInputStream.read(buffer)) > 0){
+            if(pcm.remaining() < read){
+                // more samples than the headers said
+                long capacity = Math.max((long) pcm.capacity() * 3 / 2, (long) pcm.position() + read);
+                if(capacity > maxBytes || capacity > Integer.MAX_VALUE)
+                    return null;
+
+                ByteBuffer larger = allocate((int) capacity);
+                pcm.flip();
+                larger.put(pcm);
+                pcm = larger;
+            }
+            pcm.put(buffer, 0, read);
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return storage.equals(Storage.OFF_HEAP) ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private ByteBuffer decodeToMappedFile(AudioInputStream audioInputStream) throws IOException {
+        File spillFile = spillDirectory == null
+                ? Files.createTempFile("audio-tool-", ".pcm").toFile()
+                : Files.createTempFile(spillDirectory.toPath(), "audio-tool-", ".pcm").toFile();
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(spillFile, "rw")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            int read;
+            while((read = audioInputStream.read(buffer.array())) > 0){
+                buffer.limit(read);
+                while(buffer.hasRemaining()){
+                    channel.write(buffer);
+                }
+                buffer.clear();
+                if(channel.size() > maxBytes)
+                    return null;
+            }
+
+            // the mapping stays valid after the file is closed and deleted
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+        } finally {
+            if(!spillFile.delete())
+                spillFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * clear: remove all the entries. The counters are not reset.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * getSize: bytes of PCM in the cache.
+     * @return
+     */
+    public synchronized long getSize() {
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DecodedAudioCache[" + storage + ", " + bytes + "/" + maxBytes + " bytes, " + entries.size() + " entries, "
+                + hitCount + " hits, " + missCount + " misses, " + evictionCount + " evictions]";
+    }
+
+    /**
+     * Key: path, modification time and length of the file and the audio type.
+     */
+    private static class Key {
+
+        private final String path;
+        private final long lastModified;
+        private final long length;
+        private final AudioToolClient.AudioType audioType;
+
+        Key(String path, long lastModified, long length, AudioToolClient.AudioType audioType) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.audioType = audioType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof Key))
+                return false;
+
+            Key key = (Key) o;
+            return lastModified == key.lastModified && length == key.length && path.equals(key.path) && audioType == key.audioType;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified, length, audioType);
+        }
+    }
+
+    /**
+     * Entry: decoded PCM of a file and its format.
+     */
+    private static class Entry {
+
+        private final AudioFormat audioFormat;
+        private final ByteBuffer pcm;
+        private final long size;
+
+        Entry(AudioFormat audioFormat, ByteBuffer pcm) {
+            this.audioFormat = audioFormat;
+            this.pcm = pcm;
+            this.size = pcm.capacity();
+        }
+    }
+}
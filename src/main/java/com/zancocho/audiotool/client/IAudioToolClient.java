@@ -1,23 +1,129 @@
 package com.zancocho.audiotool.client;
 
 import com.zancocho.audiotool.exception.AudioToolException;
+import com.zancocho.audiotool.metrics.AudioMetrics;
+import com.zancocho.audiotool.mp3.Mp3Encoder;
+import com.zancocho.audiotool.util.TempWorkspace;
 
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface IAudioToolClient {
+    public void setEncoderProfile(Mp3Encoder.Profile encoderProfile);
+
+    public Mp3Encoder.Profile getEncoderProfile();
+
+    public void setParallelEncoding(boolean parallelEncoding);
+
+    public boolean isParallelEncoding();
+
+    public void setDecodedAudioCache(DecodedAudioCache decodedAudioCache);
+
+    public DecodedAudioCache getDecodedAudioCache();
+
+    public void setMetrics(AudioMetrics metrics);
+
+    public AudioMetrics getMetrics();
+
+    public void setWorkspace(TempWorkspace workspace);
+
+    public TempWorkspace getWorkspace();
+
     public String convertMp3ToWav(String fileName, String fileResultName, String filePath) throws AudioToolException;
 
     public File convertInputStreamToMp3(InputStream inputStream, String fileName, String filePath) throws AudioToolException;
 
     public String joinAudio(String audioName1, String audioName2, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath) throws AudioToolException;
 
+    public String joinAudio(List<String> audioNames, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath) throws AudioToolException;
+
     public String blendAudio(String audioName1, String audioName2, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath) throws AudioToolException;
 
+    public String blendAudio(List<String> audioNames, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath) throws AudioToolException;
+
     public String blendAudioWithOffset(String audioName, String audioBackground, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds) throws AudioToolException;
 
     public float getDurationAudio(String audioName, AudioToolClient.AudioType audioType, String filePath) throws AudioToolException;
 
     public String cutAudio(String audioName, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds) throws AudioToolException;
 
+    public String cutAudio(String audioName, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath, double startSecond, double totalSeconds) throws AudioToolException;
+
+    public void convertMp3ToWav(InputStream mp3Stream, OutputStream wavStream) throws AudioToolException;
+
+    public void convertMp3ToWav(ReadableByteChannel mp3Channel, WritableByteChannel wavChannel) throws AudioToolException;
+
+    public void joinAudio(List<InputStream> audioStreams, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, OutputStream outputStream) throws AudioToolException;
+
+    public void joinAudio(List<ReadableByteChannel> audioChannels, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, WritableByteChannel channel) throws AudioToolException;
+
+    public void blendAudio(List<InputStream> audioStreams, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, OutputStream outputStream) throws AudioToolException;
+
+    public void blendAudio(List<ReadableByteChannel> audioChannels, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, WritableByteChannel channel) throws AudioToolException;
+
+    public void blendAudioWithOffset(InputStream audioStream, InputStream audioBackgroundStream, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, OutputStream outputStream, int startSecond, int totalSeconds) throws AudioToolException;
+
+    public void blendAudioWithOffset(ReadableByteChannel audioChannel, ReadableByteChannel audioBackgroundChannel, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, WritableByteChannel channel, int startSecond, int totalSeconds) throws AudioToolException;
+
+    public void cutAudio(InputStream audioStream, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, OutputStream outputStream, double startSecond, double totalSeconds) throws AudioToolException;
+
+    public void cutAudio(ReadableByteChannel audioChannel, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, WritableByteChannel channel, double startSecond, double totalSeconds) throws AudioToolException;
+
+    public float getDurationAudio(InputStream audioStream, AudioToolClient.AudioType audioType) throws AudioToolException;
+
+    public float getDurationAudio(ReadableByteChannel audioChannel, AudioToolClient.AudioType audioType) throws AudioToolException;
+
+    public List<AudioJobResult> runBatch(List<AudioJob> jobs);
+
+    public CompletableFuture<String> convertMp3ToWavAsync(String fileName, String fileResultName, String filePath);
+
+    public CompletableFuture<File> convertInputStreamToMp3Async(InputStream inputStream, String fileName, String filePath);
+
+    public CompletableFuture<String> joinAudioAsync(String audioName1, String audioName2, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath);
+
+    public CompletableFuture<String> joinAudioAsync(List<String> audioNames, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath);
+
+    public CompletableFuture<String> blendAudioAsync(String audioName1, String audioName2, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath);
+
+    public CompletableFuture<String> blendAudioAsync(List<String> audioNames, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath);
+
+    public CompletableFuture<String> blendAudioWithOffsetAsync(String audioName, String audioBackground, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds);
+
+    public CompletableFuture<Float> getDurationAudioAsync(String audioName, AudioToolClient.AudioType audioType, String filePath);
+
+    public CompletableFuture<String> cutAudioAsync(String audioName, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath, int startSecond, int totalSeconds);
+
+    public CompletableFuture<String> cutAudioAsync(String audioName, String fileNameResult, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, String filePath, double startSecond, double totalSeconds);
+
+    public CompletableFuture<Void> convertMp3ToWavAsync(InputStream mp3Stream, OutputStream wavStream);
+
+    public CompletableFuture<Void> convertMp3ToWavAsync(ReadableByteChannel mp3Channel, WritableByteChannel wavChannel);
+
+    public CompletableFuture<Void> joinAudioAsync(List<InputStream> audioStreams, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, OutputStream outputStream);
+
+    public CompletableFuture<Void> joinAudioAsync(List<ReadableByteChannel> audioChannels, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, WritableByteChannel channel);
+
+    public CompletableFuture<Void> blendAudioAsync(List<InputStream> audioStreams, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, OutputStream outputStream);
+
+    public CompletableFuture<Void> blendAudioAsync(List<ReadableByteChannel> audioChannels, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, WritableByteChannel channel);
+
+    public CompletableFuture<Void> blendAudioWithOffsetAsync(InputStream audioStream, InputStream audioBackgroundStream, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, OutputStream outputStream, int startSecond, int totalSeconds);
+
+    public CompletableFuture<Void> blendAudioWithOffsetAsync(ReadableByteChannel audioChannel, ReadableByteChannel audioBackgroundChannel, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, WritableByteChannel channel, int startSecond, int totalSeconds);
+
+    public CompletableFuture<Void> cutAudioAsync(InputStream audioStream, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, OutputStream outputStream, double startSecond, double totalSeconds);
+
+    public CompletableFuture<Void> cutAudioAsync(ReadableByteChannel audioChannel, AudioToolClient.AudioType audioType, AudioToolClient.AudioType audioTypeResult, WritableByteChannel channel, double startSecond, double totalSeconds);
+
+    public CompletableFuture<Float> getDurationAudioAsync(InputStream audioStream, AudioToolClient.AudioType audioType);
+
+    public CompletableFuture<Float> getDurationAudioAsync(ReadableByteChannel audioChannel, AudioToolClient.AudioType audioType);
+
+    public CompletableFuture<List<AudioJobResult>> runBatchAsync(List<AudioJob> jobs);
+
 }
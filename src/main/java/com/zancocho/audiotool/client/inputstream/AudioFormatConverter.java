@@ -0,0 +1,65 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+
+/**
+ * @author Jose A.H
+ *
+ * AudioFormatConverter: convert an audio stream to another PCM format while it is read, so inputs with different
+ * sample rates, channels or sample sizes can be joined and mixed in one pass. The channels are converted with
+ * ChannelMixAudioInputStream and the sample rate with ResamplingAudioInputStream, on 16 bit PCM. The sample size
+ * and byte order are converted by AudioSystem.
+ */
+public class AudioFormatConverter {
+
+    private AudioFormatConverter() {
+    }
+
+    /**
+     * convert: the stream in the target format, or the same stream if it already has that format.
+     * @param audioInputStream
+     * @param targetFormat
+     * @return
+     * @throws IOException if the format cannot be converted
+     */
+    public static AudioInputStream convert(AudioInputStream audioInputStream, AudioFormat targetFormat) throws IOException {
+        AudioFormat sourceFormat = audioInputStream.getFormat();
+        if(sourceFormat.matches(targetFormat))
+            return audioInputStream;
+
+        try {
+            AudioInputStream converted = toPcm16(audioInputStream);
+
+            // down-mix before and up-mix after the resampler, so it filters the fewest channels
+            int channels = targetFormat.getChannels();
+            if(channels < sourceFormat.getChannels())
+                converted = new ChannelMixAudioInputStream(converted, channels);
+
+            if(Math.round(sourceFormat.getSampleRate()) != Math.round(targetFormat.getSampleRate()))
+                converted = new ResamplingAudioInputStream(converted, targetFormat.getSampleRate());
+
+            if(channels > sourceFormat.getChannels())
+                converted = new ChannelMixAudioInputStream(converted, channels);
+
+            if(!converted.getFormat().matches(targetFormat))
+                converted = AudioSystem.getAudioInputStream(targetFormat, converted);
+
+            return converted;
+
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Audio format not supported: " + sourceFormat + " to " + targetFormat);
+        }
+    }
+
+    private static AudioInputStream toPcm16(AudioInputStream audioInputStream) {
+        AudioFormat audioFormat = audioInputStream.getFormat();
+        if(ResamplingAudioInputStream.isPcm16(audioFormat))
+            return audioInputStream;
+
+        AudioFormat pcm16 = new AudioFormat(audioFormat.getSampleRate(), 16, audioFormat.getChannels(), true, false);
+        return AudioSystem.getAudioInputStream(pcm16, audioInputStream);
+    }
+}
@@ -0,0 +1,104 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.InvalidMarkException;
+
+/**
+ * @author Jose A.H
+ *
+ * ByteBufferAudioInputStream: audio stream over PCM that is already in a ByteBuffer (a heap array, direct memory or a
+ * memory mapped file). Nothing is copied until it is read, skip, mark and reset only move the position.
+ *
+ * Every stream reads its own view of the buffer, so many streams can read the same buffer at the same time.
+ */
+public class ByteBufferAudioInputStream extends AudioInputStream {
+
+    private final ByteBufferInputStream byteBufferInputStream;
+
+    /**
+     * ByteBufferAudioInputStream: stream over the bytes between the position and the limit of the buffer. The
+     * buffer itself is not modified.
+     * @param buffer
+     * @param audioFormat
+     */
+    public ByteBufferAudioInputStream(ByteBuffer buffer, AudioFormat audioFormat) {
+        this(new ByteBufferInputStream(buffer.duplicate()), audioFormat);
+    }
+
+    private ByteBufferAudioInputStream(ByteBufferInputStream byteBufferInputStream, AudioFormat audioFormat) {
+        super(byteBufferInputStream, audioFormat, byteBufferInputStream.buffer.remaining() / audioFormat.getFrameSize());
+        this.byteBufferInputStream = byteBufferInputStream;
+    }
+
+    /**
+     * getBuffer: read only view of the bytes that are left to read. The view is not consumed by the stream.
+     * @return
+     */
+    public ByteBuffer getBuffer() {
+        return byteBufferInputStream.buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * ByteBufferInputStream: InputStream over a ByteBuffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(len == 0)
+                return 0;
+            if(!buffer.hasRemaining())
+                return -1;
+
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            try {
+                buffer.reset();
+            } catch (InvalidMarkException e) {
+                throw new IOException("Resetting to invalid mark");
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * @author Jose A.H
+ *
+ * ChannelMixAudioInputStream: change the number of channels of 16 bit little endian PCM while it is read. Mono is
+ * copied to every channel (up-mix) and any number of channels is averaged to mono (down-mix), so a stereo source
+ * keeps its level when it is mixed with a mono one. Between other layouts, every output channel takes the input
+ * channel with the same index, modulo the number of input channels.
+ */
+public class ChannelMixAudioInputStream extends AudioInputStream {
+
+    private final AudioInputStream source;
+    private final int sourceChannels;
+    private final int targetChannels;
+    private byte[] readBuffer = new byte[0];
+
+    /**
+     * ChannelMixAudioInputStream: convert the source to the number of channels.
+     * @param source 16 bit signed little endian PCM
+     * @param channels
+     */
+    public ChannelMixAudioInputStream(AudioInputStream source, int channels) {
+        super(new ByteArrayInputStream(new byte[0]),
+                new AudioFormat(source.getFormat().getSampleRate(), 16, channels, true, false),
+                source.getFrameLength());
+
+        if(!ResamplingAudioInputStream.isPcm16(source.getFormat()))
+            throw new IllegalArgumentException("Only the channels of 16 bit little endian PCM can be mixed: " + source.getFormat());
+        if(channels <= 0)
+            throw new IllegalArgumentException("Number of channels not supported: " + channels);
+
+        this.source = source;
+        this.sourceChannels = source.getFormat().getChannels();
+        this.targetChannels = channels;
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new IOException("cannot read a single byte if frame size > 1");
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int sourceFrameSize = 2 * sourceChannels;
+        int targetFrameSize = 2 * targetChannels;
+        int frames = len / targetFrameSize;
+        if(frames == 0)
+            return 0;
+
+        if(readBuffer.length < frames * sourceFrameSize)
+            readBuffer = new byte[frames * sourceFrameSize];
+
+        // whole frames only
+        int bytes = ResamplingAudioInputStream.readFrames(source, readBuffer, 0, frames * sourceFrameSize, sourceFrameSize);
+        int framesRead = bytes / sourceFrameSize;
+        if(framesRead == 0)
+            return -1;
+
+        for(int frame = 0; frame < framesRead; frame++){
+            int sourceOffset = frame * sourceFrameSize;
+            int targetOffset = off + frame * targetFrameSize;
+
+            if(targetChannels == 1){
+                int sum = 0;
+                for(int channel = 0; channel < sourceChannels; channel++){
+                    sum += readSample(readBuffer, sourceOffset + 2 * channel);
+                }
+                writeSample(b, targetOffset, Math.round((float) sum / sourceChannels));
+            } else {
+                for(int channel = 0; channel < targetChannels; channel++){
+                    writeSample(b, targetOffset + 2 * channel, readSample(readBuffer, sourceOffset + 2 * (channel % sourceChannels)));
+                }
+            }
+        }
+        return framesRead * targetFrameSize;
+    }
+
+    private static int readSample(byte[] buffer, int offset) {
+        return (short) ((buffer[offset] & 0xFF) | (buffer[offset + 1] << 8));
+    }
+
+    private static void writeSample(byte[] buffer, int offset, int sample) {
+        buffer[offset] = (byte) sample;
+        buffer[offset + 1] = (byte) (sample >> 8);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        int sourceFrameSize = 2 * sourceChannels;
+        long bytes = n / (2 * targetChannels) * sourceFrameSize;
+        long skipped = 0;
+        while(skipped < bytes){
+            long count = source.skip(bytes - skipped);
+            if(count <= 0)
+                break;
+            skipped += count;
+        }
+
+        // the rest of a frame skipped in part is read, so the next read starts at a frame
+        int partialBytes = (int) (skipped % sourceFrameSize);
+        if(partialBytes != 0){
+            byte[] frame = new byte[sourceFrameSize];
+            if(ResamplingAudioInputStream.readFrames(source, frame, partialBytes, sourceFrameSize, sourceFrameSize) == sourceFrameSize)
+                skipped += sourceFrameSize - partialBytes;
+        }
+        return skipped / sourceFrameSize * 2 * targetChannels;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return source.available() / (2 * sourceChannels) * (2 * targetChannels);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,86 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+
+/**
+ * @author Jose A.H
+ *
+ * CutFloatSource: a part of a float stage, frameLength frames from startFrame. The frames before startFrame are read
+ * and discarded on the first read, there is no position to seek to in a float stage.
+ */
+public class CutFloatSource implements FloatAudioSource {
+
+    private final FloatAudioSource source;
+    private final long startFrame;
+    private final long frameLength;
+    private long framesToSkip;
+    private long position;
+
+    /**
+     * CutFloatSource: frameLength frames of the source from startFrame.
+     * @param source
+     * @param startFrame
+     * @param frameLength AudioSystem.NOT_SPECIFIED to keep the source up to its end
+     */
+    public CutFloatSource(FloatAudioSource source, long startFrame, long frameLength) {
+        this.source = source;
+        this.startFrame = startFrame;
+        this.frameLength = frameLength;
+        this.framesToSkip = startFrame;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return source.getFormat();
+    }
+
+    @Override
+    public long getFrameLength() {
+        long sourceLength = source.getFrameLength();
+        if(sourceLength == AudioSystem.NOT_SPECIFIED)
+            return frameLength;
+
+        long framesLeft = Math.max(0, sourceLength - startFrame);
+        return frameLength == AudioSystem.NOT_SPECIFIED ? framesLeft : Math.min(frameLength, framesLeft);
+    }
+
+    @Override
+    public int read(FloatAudioBuffer buffer, int offset, int frames) throws IOException {
+        if(frames == 0)
+            return 0;
+        if(framesToSkip > 0)
+            skip();
+
+        int framesToRead = frameLength == AudioSystem.NOT_SPECIFIED ? frames : (int) Math.min(frames, frameLength - position);
+        if(framesToRead <= 0)
+            return -1;
+
+        int read = source.read(buffer, offset, framesToRead);
+        if(read > 0)
+            position += read;
+        return read;
+    }
+
+    private void skip() throws IOException {
+        FloatAudioBufferPool pool = FloatAudioBufferPool.getInstance();
+        FloatAudioBuffer skipBuffer = pool.acquire(getFormat().getChannels(), FloatAudioBufferPool.BLOCK_FRAMES);
+        try {
+            while(framesToSkip > 0){
+                int read = source.read(skipBuffer, 0, (int) Math.min(framesToSkip, FloatAudioBufferPool.BLOCK_FRAMES));
+                if(read < 0)
+                    break;
+                framesToSkip -= read;
+            }
+            framesToSkip = 0;
+        } finally {
+            pool.release(skipBuffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
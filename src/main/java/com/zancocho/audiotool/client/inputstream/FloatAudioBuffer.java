@@ -0,0 +1,64 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import java.util.Arrays;
+
+/**
+ * @author Jose A.H
+ *
+ * FloatAudioBuffer: block of samples passed between the float stages (FloatAudioSource), one float array per channel.
+ * The samples are normalized: full scale is 1.0, but a stage can go past it, the samples are only clamped when they
+ * are converted to bytes at the output (FloatAudioInputStream). The buffers are reused with FloatAudioBufferPool.
+ */
+public class FloatAudioBuffer {
+
+    private final float[][] samples;
+    private final int capacity;
+
+    public FloatAudioBuffer(int channels, int capacity) {
+        if(channels < 1 || capacity < 1)
+            throw new IllegalArgumentException("A buffer must have at least one channel and one frame");
+
+        this.samples = new float[channels][capacity];
+        this.capacity = capacity;
+    }
+
+    /**
+     * getChannel: the samples of one channel.
+     * @param channel
+     * @return
+     */
+    public float[] getChannel(int channel) {
+        return samples[channel];
+    }
+
+    /**
+     * getSamples: the samples of all the channels, indexed by channel and frame.
+     * @return
+     */
+    public float[][] getSamples() {
+        return samples;
+    }
+
+    public int getChannels() {
+        return samples.length;
+    }
+
+    /**
+     * getCapacity: number of frames of every channel.
+     * @return
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * clear: set the frames to silence.
+     * @param offset
+     * @param frames
+     */
+    public void clear(int offset, int frames) {
+        for(float[] channel : samples){
+            Arrays.fill(channel, offset, offset + frames, 0.0f);
+        }
+    }
+}
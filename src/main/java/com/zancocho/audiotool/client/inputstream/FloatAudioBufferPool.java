@@ -0,0 +1,76 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Jose A.H
+ *
+ * FloatAudioBufferPool: free buffers of the float stages, by number of channels and capacity, so a render does not
+ * allocate new buffers for every stage. It is thread safe and holds at most MAX_POOLED_BUFFERS buffers, the rest
+ * are left to the garbage collector.
+ */
+public class FloatAudioBufferPool {
+
+    // frames of the buffers of the stages, 4096 frames are 93 ms at 44100 Hz
+    public static final int BLOCK_FRAMES = 4096;
+
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final FloatAudioBufferPool instance = new FloatAudioBufferPool();
+
+    private final Map<Long, Queue<FloatAudioBuffer>> buffers = new ConcurrentHashMap<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private FloatAudioBufferPool() {
+    }
+
+    public static FloatAudioBufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * acquire: a free buffer of the given size, a new one if there is none. The samples are not cleared.
+     * @param channels
+     * @param capacity
+     * @return
+     */
+    public FloatAudioBuffer acquire(int channels, int capacity) {
+        Queue<FloatAudioBuffer> queue = buffers.get(getKey(channels, capacity));
+        FloatAudioBuffer buffer = queue != null ? queue.poll() : null;
+        if(buffer == null)
+            return new FloatAudioBuffer(channels, capacity);
+
+        pooledBuffers.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * release: give back a buffer that is no longer used.
+     * @param buffer
+     */
+    public void release(FloatAudioBuffer buffer) {
+        if(buffer == null || pooledBuffers.incrementAndGet() > MAX_POOLED_BUFFERS){
+            if(buffer != null)
+                pooledBuffers.decrementAndGet();
+            return;
+        }
+
+        buffers.computeIfAbsent(getKey(buffer.getChannels(), buffer.getCapacity()), key -> new ConcurrentLinkedQueue<>()).add(buffer);
+    }
+
+    /**
+     * getPooledBuffers: number of free buffers.
+     * @return
+     */
+    public int getPooledBuffers() {
+        return pooledBuffers.get();
+    }
+
+    private static Long getKey(int channels, int capacity) {
+        return ((long) channels << 32) | capacity;
+    }
+}
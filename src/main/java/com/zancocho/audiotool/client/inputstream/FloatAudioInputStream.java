@@ -0,0 +1,128 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * @author Jose A.H
+ *
+ * FloatAudioInputStream: the output of the float pipeline, converts the samples of a float stage to the bytes of a
+ * PCM format while it is read, for the encoder or the writer. The samples are rounded and clamped to the range of
+ * the format only here.
+ *
+ * A float stage that reads another float stage takes its source with toSource, so the samples stay in float
+ * between the stages and the bytes are converted once at each end of the chain.
+ */
+public class FloatAudioInputStream extends AudioInputStream {
+
+    private final FloatAudioSource source;
+    private final FloatSampleCodec codec;
+    private final int frameSize;
+    private FloatAudioBuffer buffer;
+    private boolean started;
+    private boolean ended;
+
+    /**
+     * FloatAudioInputStream: the samples of the source in the given format, which must have the sample rate and the
+     * channels of the source.
+     * @param source
+     * @param audioFormat
+     */
+    public FloatAudioInputStream(FloatAudioSource source, AudioFormat audioFormat) {
+        super(new ByteArrayInputStream(new byte[0]), audioFormat, source.getFrameLength());
+        if(audioFormat.getChannels() != source.getFormat().getChannels())
+            throw new IllegalArgumentException("The format must have the channels of the source: " + audioFormat);
+
+        this.source = source;
+        this.codec = FloatSampleCodec.forFormat(audioFormat);
+        this.frameSize = audioFormat.getFrameSize();
+    }
+
+    /**
+     * toSource: the float stage of a stream. A FloatAudioInputStream that was not read yet gives its source, so no
+     * conversion is done; any other PCM stream is converted with a PcmFloatSource.
+     * @param audioInputStream
+     * @return
+     */
+    public static FloatAudioSource toSource(AudioInputStream audioInputStream) {
+        if(audioInputStream instanceof FloatAudioInputStream && !((FloatAudioInputStream) audioInputStream).started){
+            FloatAudioInputStream floatAudioInputStream = (FloatAudioInputStream) audioInputStream;
+            floatAudioInputStream.started = true;
+            return floatAudioInputStream.source;
+        }
+        return new PcmFloatSource(audioInputStream);
+    }
+
+    public FloatAudioSource getSource() {
+        return source;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(frameSize != 1)
+            throw new IOException("cannot read a single byte if frame size > 1");
+
+        byte[] data = new byte[1];
+        return read(data, 0, 1) <= 0 ? -1 : data[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        started = true;
+        int frames = Math.min(len / frameSize, FloatAudioBufferPool.BLOCK_FRAMES);
+        if(ended)
+            return -1;
+        if(frames == 0)
+            return 0;
+
+        if(buffer == null)
+            buffer = FloatAudioBufferPool.getInstance().acquire(getFormat().getChannels(), FloatAudioBufferPool.BLOCK_FRAMES);
+
+        int read = source.read(buffer, 0, frames);
+        if(read < 0){
+            ended = true;
+            release();
+            return -1;
+        }
+
+        codec.encode(buffer, 0, read, b, off);
+        return read * frameSize;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipBuffer = new byte[(int) Math.min(n - n % frameSize, 64 * 1024)];
+        long skipped = 0;
+        while(skipped < n - n % frameSize){
+            int read = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, n - n % frameSize - skipped));
+            if(read < 0)
+                break;
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void release() {
+        FloatAudioBufferPool.getInstance().release(buffer);
+        buffer = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ended = true;
+        release();
+        source.close();
+    }
+}
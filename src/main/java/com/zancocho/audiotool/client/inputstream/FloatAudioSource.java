@@ -0,0 +1,37 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * @author Jose A.H
+ *
+ * FloatAudioSource: a stage of the float pipeline. The stages pass FloatAudioBuffer blocks between them, so the
+ * bytes are converted to float once when they are read (PcmFloatSource) and back to bytes once when they are
+ * written (FloatAudioInputStream), however many stages there are in between.
+ */
+public interface FloatAudioSource extends Closeable {
+
+    /**
+     * getFormat: the format of the bytes of the source, for its sample rate and channels.
+     * @return
+     */
+    AudioFormat getFormat();
+
+    /**
+     * getFrameLength: number of frames of the source, AudioSystem.NOT_SPECIFIED if it is not known.
+     * @return
+     */
+    long getFrameLength();
+
+    /**
+     * read: read up to frames frames into the buffer, from offset on.
+     * @param buffer
+     * @param offset
+     * @param frames
+     * @return the number of frames read, -1 at the end
+     * @throws IOException
+     */
+    int read(FloatAudioBuffer buffer, int offset, int frames) throws IOException;
+}
@@ -0,0 +1,212 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * @author Jose A.H
+ *
+ * FloatSampleCodec: conversion between the bytes of a PCM format and the normalized samples of a FloatAudioBuffer.
+ * The loop of the format is chosen once, when the codec is created. Integer samples are divided by the full scale of
+ * their size (32768 for 16 bits), so a 16 bit sample and any gain or sum of 16 bit samples are exact in float; they
+ * are rounded and clamped to the range of the format only when they are encoded. Float samples are not clamped.
+ *
+ * 32 bit integer PCM is not supported: the 24 bit mantissa of a float cannot hold its samples, so it stays on the
+ * byte stages (MixingAudioInputStream sums it exactly in long).
+ */
+public class FloatSampleCodec {
+
+    private static final int FORMAT_UNSUPPORTED = 0;
+    private static final int FORMAT_PCM8_SIGNED = 1;
+    private static final int FORMAT_PCM8_UNSIGNED = 2;
+    private static final int FORMAT_PCM16_LE = 3;
+    private static final int FORMAT_PCM16_BE = 4;
+    private static final int FORMAT_PCM24 = 5;
+    private static final int FORMAT_FLOAT32 = 6;
+
+    private final int sampleFormat;
+    private final int channels;
+    private final int sampleSize;
+    private final boolean bigEndian;
+
+    private FloatSampleCodec(int sampleFormat, AudioFormat audioFormat) {
+        this.sampleFormat = sampleFormat;
+        this.channels = audioFormat.getChannels();
+        this.sampleSize = audioFormat.getFrameSize() / audioFormat.getChannels();
+        this.bigEndian = audioFormat.isBigEndian();
+    }
+
+    /**
+     * forFormat: the codec of a PCM format.
+     * @param audioFormat
+     * @return
+     * @throws IllegalArgumentException if the format is not supported, see isSupported
+     */
+    public static FloatSampleCodec forFormat(AudioFormat audioFormat) {
+        int sampleFormat = getSampleFormat(audioFormat);
+        if(sampleFormat == FORMAT_UNSUPPORTED)
+            throw new IllegalArgumentException("Float samples are only supported for PCM: " + audioFormat);
+
+        return new FloatSampleCodec(sampleFormat, audioFormat);
+    }
+
+    /**
+     * isSupported: true for signed PCM of 8 to 24 bits, unsigned PCM of 8 bits and 32 bit float, in both byte
+     * orders.
+     * @param audioFormat
+     * @return
+     */
+    public static boolean isSupported(AudioFormat audioFormat) {
+        return getSampleFormat(audioFormat) != FORMAT_UNSUPPORTED;
+    }
+
+    private static int getSampleFormat(AudioFormat audioFormat) {
+        int channels = audioFormat.getChannels();
+        int frameSize = audioFormat.getFrameSize();
+        if(channels <= 0 || frameSize <= 0 || frameSize % channels != 0)
+            return FORMAT_UNSUPPORTED;
+
+        int sampleSize = frameSize / channels;
+        AudioFormat.Encoding encoding = audioFormat.getEncoding();
+        if(encoding.equals(AudioFormat.Encoding.PCM_SIGNED)){
+            switch (sampleSize) {
+                case 1:
+                    return FORMAT_PCM8_SIGNED;
+                case 2:
+                    return audioFormat.isBigEndian() ? FORMAT_PCM16_BE : FORMAT_PCM16_LE;
+                case 3:
+                    return FORMAT_PCM24;
+            }
+        } else if(encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED) && sampleSize == 1){
+            return FORMAT_PCM8_UNSIGNED;
+        } else if(encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && sampleSize == 4){
+            return FORMAT_FLOAT32;
+        }
+        return FORMAT_UNSUPPORTED;
+    }
+
+    /**
+     * decode: convert the interleaved frames of the bytes to the planar samples of the buffer.
+     * @param bytes
+     * @param byteOffset
+     * @param buffer
+     * @param offset first frame of the buffer
+     * @param frames
+     */
+    public void decode(byte[] bytes, int byteOffset, FloatAudioBuffer buffer, int offset, int frames) {
+        float[][] samples = buffer.getSamples();
+        int position = byteOffset;
+        switch (sampleFormat) {
+            case FORMAT_PCM16_LE:
+                for(int frame = offset; frame < offset + frames; frame++){
+                    for(int channel = 0; channel < channels; channel++, position += 2){
+                        samples[channel][frame] = (short) ((bytes[position] & 0xFF) | (bytes[position + 1] << 8)) / 32768.0f;
+                    }
+                }
+                break;
+            case FORMAT_PCM16_BE:
+                for(int frame = offset; frame < offset + frames; frame++){
+                    for(int channel = 0; channel < channels; channel++, position += 2){
+                        samples[channel][frame] = (short) ((bytes[position] << 8) | (bytes[position + 1] & 0xFF)) / 32768.0f;
+                    }
+                }
+                break;
+            default:
+                for(int frame = offset; frame < offset + frames; frame++){
+                    for(int channel = 0; channel < channels; channel++, position += sampleSize){
+                        samples[channel][frame] = decodeSample(bytes, position);
+                    }
+                }
+                break;
+        }
+    }
+
+    private float decodeSample(byte[] bytes, int position) {
+        switch (sampleFormat) {
+            case FORMAT_PCM8_SIGNED:
+                return bytes[position] / 128.0f;
+            case FORMAT_PCM8_UNSIGNED:
+                return ((bytes[position] & 0xFF) - 128) / 128.0f;
+            case FORMAT_PCM24:
+                return (readInt(bytes, position, 3) << 8 >> 8) / 8388608.0f;
+            default:
+                return Float.intBitsToFloat(readInt(bytes, position, 4));
+        }
+    }
+
+    private int readInt(byte[] bytes, int position, int size) {
+        int value = 0;
+        for(int i = 0; i < size; i++){
+            int b = bytes[position + (bigEndian ? i : size - 1 - i)] & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    /**
+     * encode: convert the planar samples of the buffer to interleaved frames of bytes. Integer samples are rounded
+     * and clamped to the range of the format.
+     * @param buffer
+     * @param offset first frame of the buffer
+     * @param frames
+     * @param bytes
+     * @param byteOffset
+     */
+    public void encode(FloatAudioBuffer buffer, int offset, int frames, byte[] bytes, int byteOffset) {
+        float[][] samples = buffer.getSamples();
+        int position = byteOffset;
+        switch (sampleFormat) {
+            case FORMAT_PCM16_LE:
+                for(int frame = offset; frame < offset + frames; frame++){
+                    for(int channel = 0; channel < channels; channel++, position += 2){
+                        int sample = clamp(Math.round(samples[channel][frame] * 32768.0f), Short.MIN_VALUE, Short.MAX_VALUE);
+                        bytes[position] = (byte) sample;
+                        bytes[position + 1] = (byte) (sample >> 8);
+                    }
+                }
+                break;
+            case FORMAT_PCM16_BE:
+                for(int frame = offset; frame < offset + frames; frame++){
+                    for(int channel = 0; channel < channels; channel++, position += 2){
+                        int sample = clamp(Math.round(samples[channel][frame] * 32768.0f), Short.MIN_VALUE, Short.MAX_VALUE);
+                        bytes[position] = (byte) (sample >> 8);
+                        bytes[position + 1] = (byte) sample;
+                    }
+                }
+                break;
+            default:
+                for(int frame = offset; frame < offset + frames; frame++){
+                    for(int channel = 0; channel < channels; channel++, position += sampleSize){
+                        encodeSample(samples[channel][frame], bytes, position);
+                    }
+                }
+                break;
+        }
+    }
+
+    private void encodeSample(float sample, byte[] bytes, int position) {
+        switch (sampleFormat) {
+            case FORMAT_PCM8_SIGNED:
+                bytes[position] = (byte) clamp(Math.round(sample * 128.0f), Byte.MIN_VALUE, Byte.MAX_VALUE);
+                break;
+            case FORMAT_PCM8_UNSIGNED:
+                bytes[position] = (byte) (clamp(Math.round(sample * 128.0f), Byte.MIN_VALUE, Byte.MAX_VALUE) + 128);
+                break;
+            case FORMAT_PCM24:
+                writeInt(clamp(Math.round(sample * 8388608.0f), -0x800000, 0x7FFFFF), bytes, position, 3);
+                break;
+            default:
+                writeInt(Float.floatToRawIntBits(sample), bytes, position, 4);
+                break;
+        }
+    }
+
+    private void writeInt(int value, byte[] bytes, int position, int size) {
+        for(int i = 0; i < size; i++){
+            bytes[position + (bigEndian ? size - 1 - i : i)] = (byte) (value >> (8 * i));
+        }
+    }
+
+    private static int clamp(int sample, int min, int max) {
+        return sample < min ? min : (sample > max ? max : sample);
+    }
+}
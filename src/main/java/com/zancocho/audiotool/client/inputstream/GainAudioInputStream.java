@@ -0,0 +1,94 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import org.tritonus.share.sampled.TConversionTool;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+
+/**
+ * @author Jose A.H
+ *
+ * GainAudioInputStream: multiply every sample of a PCM stream by a linear gain while it is read. Samples that go
+ * past the range of the format are clamped instead of wrapping around.
+ */
+public class GainAudioInputStream extends AudioInputStream {
+
+    private final float gain;
+    private final int sampleSize;
+    private final boolean bigEndian;
+    private final boolean floatEncoding;
+
+    public GainAudioInputStream(AudioInputStream audioInputStream, float gain) {
+        super(audioInputStream, audioInputStream.getFormat(), audioInputStream.getFrameLength());
+
+        AudioFormat audioFormat = audioInputStream.getFormat();
+        AudioFormat.Encoding encoding = audioFormat.getEncoding();
+        this.floatEncoding = encoding.equals(AudioFormat.Encoding.PCM_FLOAT);
+        if(!encoding.equals(AudioFormat.Encoding.PCM_SIGNED) && !(floatEncoding && audioFormat.getSampleSizeInBits() == 32))
+            throw new IllegalArgumentException("Gain is only supported for signed PCM and 32 bit float: " + audioFormat);
+
+        this.gain = gain;
+        this.sampleSize = audioFormat.getFrameSize() / audioFormat.getChannels();
+        this.bigEndian = audioFormat.isBigEndian();
+    }
+
+    /**
+     * fromDecibels: linear gain of a value in decibels.
+     * @param decibels
+     * @return
+     */
+    public static float fromDecibels(float decibels) {
+        return (float) Math.pow(10.0, decibels / 20.0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(getFormat().getFrameSize() != 1)
+            throw new IOException("cannot read a single byte if frame size > 1");
+
+        byte[] data = new byte[1];
+        return read(data, 0, 1) <= 0 ? -1 : data[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int bytesRead = super.read(buffer, offset, length);
+        if(bytesRead > 0 && gain != 1.0f)
+            applyGain(buffer, offset, bytesRead);
+        return bytesRead;
+    }
+
+    private void applyGain(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        for(int i = offset; i + sampleSize <= end; i += sampleSize){
+            switch (sampleSize) {
+                case 1:
+                    buffer[i] = (byte) clamp(Math.round(buffer[i] * gain), Byte.MIN_VALUE, Byte.MAX_VALUE);
+                    break;
+                case 2:
+                    int sample16 = TConversionTool.bytesToInt16(buffer, i, bigEndian);
+                    TConversionTool.intToBytes16(clamp(Math.round(sample16 * gain), Short.MIN_VALUE, Short.MAX_VALUE), buffer, i, bigEndian);
+                    break;
+                case 3:
+                    int sample24 = TConversionTool.bytesToInt24(buffer, i, bigEndian);
+                    TConversionTool.intToBytes24(clamp(Math.round(sample24 * gain), -0x800000, 0x7FFFFF), buffer, i, bigEndian);
+                    break;
+                case 4:
+                    int sample32 = TConversionTool.bytesToInt32(buffer, i, bigEndian);
+                    if(floatEncoding){
+                        float floatSample = Float.intBitsToFloat(sample32) * gain;
+                        TConversionTool.intToBytes32(Float.floatToRawIntBits(floatSample), buffer, i, bigEndian);
+                    } else {
+                        long longSample = Math.round((double) sample32 * gain);
+                        TConversionTool.intToBytes32((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, longSample)), buffer, i, bigEndian);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private static int clamp(int sample, int min, int max) {
+        return sample < min ? min : (sample > max ? max : sample);
+    }
+}
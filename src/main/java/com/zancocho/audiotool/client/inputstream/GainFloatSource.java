@@ -0,0 +1,53 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/**
+ * @author Jose A.H
+ *
+ * GainFloatSource: multiply the samples of a float stage by a linear gain. Nothing is clamped, the samples over full
+ * scale are kept for the next stages (e.g. a limiter) and only clamped at the output.
+ */
+public class GainFloatSource implements FloatAudioSource {
+
+    private final FloatAudioSource source;
+    private final float gain;
+
+    public GainFloatSource(FloatAudioSource source, float gain) {
+        this.source = source;
+        this.gain = gain;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return source.getFormat();
+    }
+
+    @Override
+    public long getFrameLength() {
+        return source.getFrameLength();
+    }
+
+    @Override
+    public int read(FloatAudioBuffer buffer, int offset, int frames) throws IOException {
+        int read = source.read(buffer, offset, frames);
+        if(read > 0 && gain != 1.0f){
+            for(float[] channel : buffer.getSamples()){
+                for(int i = offset; i < offset + read; i++){
+                    channel[i] *= gain;
+                }
+            }
+        }
+        return read;
+    }
+
+    public float getGain() {
+        return gain;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
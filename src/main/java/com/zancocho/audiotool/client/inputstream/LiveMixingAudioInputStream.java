@@ -0,0 +1,414 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Jose A.H
+ *
+ * LiveMixingAudioInputStream: mixer of live inputs that never ends, e.g. the voices and the music of a radio
+ * stream. The inputs are added and removed while the mixer is read, and every input is fed by its producer thread
+ * with write, which puts the bytes in a lock-free queue of the input and never blocks. The thread that reads the
+ * mixer mixes the inputs with MixingAudioInputStream in blocks of a fixed number of frames.
+ *
+ * An input that has not enough bytes for a block (an underrun) is completed with silence, the mix does not wait for
+ * it. The queue of an input holds at most maxLatencyFrames, so an input is never more than that behind the mix; the
+ * bytes that do not fit are rejected by write.
+ *
+ * When the mixer is paced, a block is not mixed before its time on a clock that starts with the first block, so the
+ * blocks come out at the rate of the audio. The time of a block is counted from the start and not from the previous
+ * block, so the clock does not drift. If the reader is late, the late blocks are mixed at once until the clock is
+ * caught up.
+ *
+ * LiveMixingAudioInputStream mixer = new LiveMixingAudioInputStream(audioFormat, 1024, true);
+ * LiveMixingAudioInputStream.LiveInput voice = mixer.addInput(44100, 1.0f);
+ * voice.write(bytes, 0, length); // from the producer thread
+ * mixer.read(block); // from the mixing thread
+ */
+public class LiveMixingAudioInputStream extends AudioInputStream {
+
+    // 1024 frames are 23 ms at 44100 Hz
+    public static final int DEFAULT_BLOCK_FRAMES = 1024;
+
+    private final BlockInputStream blockInputStream;
+
+    /**
+     * LiveMixingAudioInputStream: mixer of live inputs in the given PCM format.
+     * @param audioFormat format of the inputs and the mix
+     * @param blockFrames frames mixed at a time
+     * @param paced mix the blocks at the rate of the audio, false to mix them as fast as they are read
+     */
+    public LiveMixingAudioInputStream(AudioFormat audioFormat, int blockFrames, boolean paced) {
+        this(new BlockInputStream(audioFormat, blockFrames, paced), audioFormat);
+    }
+
+    private LiveMixingAudioInputStream(BlockInputStream blockInputStream, AudioFormat audioFormat) {
+        super(blockInputStream, audioFormat, AudioSystem.NOT_SPECIFIED);
+        this.blockInputStream = blockInputStream;
+    }
+
+    /**
+     * addInput: add an input to the mix, it is mixed from the next block on.
+     * @param maxLatencyFrames maximum frames in the queue of the input
+     * @param gain linear gain of the input
+     * @return the input, to write its bytes
+     */
+    public LiveInput addInput(int maxLatencyFrames, float gain) {
+        if(maxLatencyFrames < 1)
+            throw new IllegalArgumentException("The latency must be at least one frame");
+        if(blockInputStream.closed)
+            throw new IllegalStateException("The mixer is closed");
+
+        LiveInput input = new LiveInput(blockInputStream, getFormat(), maxLatencyFrames);
+        blockInputStream.inputs.add(input);
+        blockInputStream.mixer.addAudioInputStream(input.audioInputStream, gain);
+        return input;
+    }
+
+    /**
+     * removeInput: remove an input from the mix at the next block, the bytes in its queue are dropped. To play them
+     * before the input is removed, close the input.
+     * @param input
+     */
+    public void removeInput(LiveInput input) {
+        input.removed = true;
+        blockInputStream.inputs.remove(input);
+    }
+
+    /**
+     * setHeadroom: attenuation of the mix in decibels, see MixingAudioInputStream. It must be set before the first
+     * read.
+     * @param decibels
+     */
+    public void setHeadroom(float decibels) {
+        blockInputStream.mixer.setHeadroom(decibels);
+    }
+
+    /**
+     * setLimiter: limiter of the mix, see MixingAudioInputStream. It must be set before the first read.
+     * @param limiter
+     */
+    public void setLimiter(SoftLimiter limiter) {
+        blockInputStream.mixer.setLimiter(limiter);
+    }
+
+    /**
+     * getInputCount: number of inputs that are mixed, without the ones that were removed or ended.
+     * @return
+     */
+    public int getInputCount() {
+        return blockInputStream.inputs.size();
+    }
+
+    /**
+     * getInputs: the inputs that are mixed.
+     * @return
+     */
+    public Set<LiveInput> getInputs() {
+        return Collections.unmodifiableSet(blockInputStream.inputs);
+    }
+
+    public int getBlockFrames() {
+        return blockInputStream.blockFrames;
+    }
+
+    public boolean isPaced() {
+        return blockInputStream.paced;
+    }
+
+    /**
+     * getBlockCount: number of blocks mixed.
+     * @return
+     */
+    public long getBlockCount() {
+        return blockInputStream.blockCount.get();
+    }
+
+    /**
+     * getLateBlockCount: number of blocks mixed more than one block after their time, because the reader was late.
+     * @return
+     */
+    public long getLateBlockCount() {
+        return blockInputStream.lateBlockCount.get();
+    }
+
+    /**
+     * LiveInput: an input of the mixer. The bytes are written by a producer thread in the format of the mixer; the
+     * frames that are split between two writes are mixed when they are complete.
+     */
+    public static class LiveInput {
+
+        private final BlockInputStream owner;
+        private final int frameSize;
+        private final byte[] silentFrame;
+        private final int maxQueuedBytes;
+        private final AudioInputStream audioInputStream;
+
+        // written bytes, in order: the chunks are only taken by the mixing thread
+        private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+        // bytes reserved by the producers, to enforce the maximum latency
+        private final AtomicInteger reservedBytes = new AtomicInteger();
+        // bytes of the chunks that are in the queue, that the mixing thread can take
+        private final AtomicInteger queuedBytes = new AtomicInteger();
+        private final AtomicLong underrunFrames = new AtomicLong();
+        private volatile boolean closed;
+        private volatile boolean removed;
+
+        // chunk taken by the mixing thread
+        private byte[] chunk;
+        private int chunkPosition;
+
+        private LiveInput(BlockInputStream owner, AudioFormat audioFormat, int maxLatencyFrames) {
+            this.owner = owner;
+            this.frameSize = audioFormat.getFrameSize();
+            this.silentFrame = SilenceAudioInputStream.getSilentFrame(audioFormat);
+            this.maxQueuedBytes = (int) Math.min(Integer.MAX_VALUE, (long) maxLatencyFrames * frameSize);
+            this.audioInputStream = new AudioInputStream(new QueueInputStream(), audioFormat, AudioSystem.NOT_SPECIFIED);
+        }
+
+        /**
+         * write: add the bytes to the queue of the input. It never blocks, the bytes that do not fit in the maximum
+         * latency are not written.
+         * @param b
+         * @param off
+         * @param len
+         * @return the number of bytes written, 0 if the queue is full or the input is closed
+         */
+        public int write(byte[] b, int off, int len) {
+            if(closed || removed || len <= 0)
+                return 0;
+
+            int reserved;
+            int count;
+            do {
+                reserved = reservedBytes.get();
+                count = Math.min(len, maxQueuedBytes - reserved);
+                if(count <= 0)
+                    return 0;
+            } while(!reservedBytes.compareAndSet(reserved, reserved + count));
+
+            byte[] copy = new byte[count];
+            System.arraycopy(b, off, copy, 0, count);
+            queue.add(copy);
+            queuedBytes.addAndGet(count);
+            return count;
+        }
+
+        /**
+         * close: end of the input. The bytes in its queue are mixed and then the input is removed from the mixer.
+         */
+        public void close() {
+            closed = true;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * getQueuedFrames: frames written and not mixed yet, the latency of the input.
+         * @return
+         */
+        public int getQueuedFrames() {
+            return queuedBytes.get() / frameSize;
+        }
+
+        /**
+         * getUnderrunFrames: frames that were mixed as silence because the input had no bytes for them.
+         * @return
+         */
+        public long getUnderrunFrames() {
+            return underrunFrames.get();
+        }
+
+        /**
+         * take: copy the next bytes of the queue, only called by the mixing thread.
+         * @param b
+         * @param off
+         * @param len not more than queuedBytes
+         */
+        private void take(byte[] b, int off, int len) {
+            int total = 0;
+            while(total < len){
+                if(chunk == null || chunkPosition == chunk.length){
+                    chunk = queue.poll();
+                    chunkPosition = 0;
+                }
+                int count = Math.min(len - total, chunk.length - chunkPosition);
+                System.arraycopy(chunk, chunkPosition, b, off + total, count);
+                chunkPosition += count;
+                total += count;
+            }
+            queuedBytes.addAndGet(-len);
+            reservedBytes.addAndGet(-len);
+        }
+
+        /**
+         * QueueInputStream: the bytes of the input for the mixer. The whole frames of the queue are read and the
+         * rest of the request is silence, until the input is closed and its queue is empty or it is removed.
+         */
+        private class QueueInputStream extends InputStream {
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if(removed)
+                    return end();
+
+                // closed is read first, the bytes written before the input was closed are in queuedBytes then
+                boolean ended = closed;
+                int queued = queuedBytes.get();
+                if(ended && queued < frameSize)
+                    return end();
+
+                int frames = len / frameSize;
+                int queuedFrames = Math.min(frames, queued / frameSize);
+                take(b, off, queuedFrames * frameSize);
+                if(ended)
+                    return queuedFrames * frameSize;
+
+                for(int frame = queuedFrames; frame < frames; frame++){
+                    System.arraycopy(silentFrame, 0, b, off + frame * frameSize, frameSize);
+                }
+                if(frames > queuedFrames)
+                    underrunFrames.addAndGet(frames - queuedFrames);
+                return frames * frameSize;
+            }
+
+            private int end() {
+                owner.inputs.remove(LiveInput.this);
+                queue.clear();
+                chunk = null;
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * BlockInputStream: the mix, in blocks of blockFrames. A silent input that never ends is always mixed, so
+     * there is a block of silence when there is no input.
+     */
+    private static class BlockInputStream extends InputStream {
+
+        private final MixingAudioInputStream mixer;
+        private final Set<LiveInput> inputs = ConcurrentHashMap.newKeySet();
+        private final int blockFrames;
+        private final long blockNanos;
+        private final float frameRate;
+        private final boolean paced;
+        private final AtomicLong blockCount = new AtomicLong();
+        private final AtomicLong lateBlockCount = new AtomicLong();
+        private volatile boolean closed;
+
+        private final byte[] block;
+        private int blockPosition;
+        private int blockLength;
+        private long startNanos;
+
+        BlockInputStream(AudioFormat audioFormat, int blockFrames, boolean paced) {
+            if(blockFrames < 1)
+                throw new IllegalArgumentException("A block must have at least one frame");
+            if(audioFormat.getFrameRate() <= 0)
+                throw new IllegalArgumentException("Audio format without a frame rate: " + audioFormat);
+
+            this.mixer = new MixingAudioInputStream(audioFormat,
+                    Collections.singletonList(new SilenceAudioInputStream(audioFormat, AudioSystem.NOT_SPECIFIED)));
+            this.blockFrames = blockFrames;
+            this.frameRate = audioFormat.getFrameRate();
+            this.blockNanos = (long) (blockFrames * 1_000_000_000.0 / frameRate);
+            this.paced = paced;
+            this.block = new byte[blockFrames * audioFormat.getFrameSize()];
+            this.blockPosition = block.length;
+            this.blockLength = block.length;
+        }
+
+        /**
+         * nextBlock: wait for the time of the next block and mix it.
+         * @throws IOException
+         */
+        private void nextBlock() throws IOException {
+            long count = blockCount.get();
+            if(paced){
+                long now = System.nanoTime();
+                if(count == 0)
+                    startNanos = now;
+
+                long deadline = startNanos + (long) (count * blockFrames * 1_000_000_000.0 / frameRate);
+                if(now - deadline > blockNanos)
+                    lateBlockCount.incrementAndGet();
+                while(now < deadline){
+                    LockSupport.parkNanos(deadline - now);
+                    if(Thread.interrupted())
+                        throw new InterruptedIOException("The mixer was interrupted");
+                    now = System.nanoTime();
+                }
+            }
+
+            // the limiter drops its latency at the start, so a read can give less than a block
+            int length = 0;
+            while(length < block.length){
+                int read = mixer.read(block, length, block.length - length);
+                if(read < 0)
+                    throw new IOException("ERROR mixing live inputs: the mix ended");
+                length += read;
+            }
+            blockPosition = 0;
+            blockLength = length;
+            blockCount.incrementAndGet();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(closed)
+                return -1;
+            if(blockPosition == blockLength)
+                nextBlock();
+            return block[blockPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(closed)
+                return -1;
+            if(len == 0)
+                return 0;
+
+            if(blockPosition == blockLength)
+                nextBlock();
+            int count = Math.min(len, blockLength - blockPosition);
+            System.arraycopy(block, blockPosition, b, off, count);
+            blockPosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return closed ? 0 : blockLength - blockPosition;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            for(LiveInput input : inputs){
+                input.removed = true;
+            }
+            inputs.clear();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import com.zancocho.audiotool.wav.WavHeader;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Jose A.H
+ *
+ * MappedWavAudioInputStream: PCM or float wav file read from the memory mapping of its data chunk. The samples are
+ * copied only once, from the page cache to the buffer of the reader, instead of through the buffered streams of
+ * AudioSystem. skip, mark and reset only move the position, so opening a long file at any position is O(1).
+ *
+ * The data chunk is mapped in segments of 1 GB when they are first read, so files of any size can be read. The
+ * samples can also be taken as a direct ByteBuffer (getBuffer) without any copy.
+ */
+public class MappedWavAudioInputStream extends AudioInputStream {
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final WavHeader wavHeader;
+    private final MappedInputStream mappedInputStream;
+
+    private MappedWavAudioInputStream(WavHeader wavHeader, MappedInputStream mappedInputStream) {
+        super(mappedInputStream, wavHeader.getAudioFormat(), wavHeader.getFrameLength());
+        this.wavHeader = wavHeader;
+        this.mappedInputStream = mappedInputStream;
+    }
+
+    /**
+     * getAudioInputStream: open a PCM or IEEE float wav file.
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException if the file is not a wav file or its samples are compressed
+     */
+    public static MappedWavAudioInputStream getAudioInputStream(File file) throws IOException, UnsupportedAudioFileException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            WavHeader wavHeader = WavHeader.read(channel);
+            if(!wavHeader.isPcm() && !wavHeader.isFloat())
+                throw new UnsupportedAudioFileException("Only PCM and float wav files can be mapped");
+
+            long dataLength = wavHeader.getFrameLength() * wavHeader.getBlockAlign();
+            return new MappedWavAudioInputStream(wavHeader, new MappedInputStream(channel, wavHeader.getDataOffset(), dataLength));
+
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public WavHeader getWavHeader() {
+        return wavHeader;
+    }
+
+    /**
+     * getBuffer: read only direct view of the frames left to read, up to 2 GB. The position of the stream does not
+     * change.
+     * @return
+     * @throws IOException
+     */
+    public ByteBuffer getBuffer() throws IOException {
+        return getBuffer(Integer.MAX_VALUE / format.getFrameSize());
+    }
+
+    /**
+     * getBuffer: read only direct view of the next frames, or of the frames left if there are less. The position of
+     * the stream does not change.
+     * @param frames
+     * @return
+     * @throws IOException
+     */
+    public ByteBuffer getBuffer(int frames) throws IOException {
+        return mappedInputStream.map((long) frames * format.getFrameSize());
+    }
+
+    /**
+     * MappedInputStream: InputStream over the data chunk. The position is a long, the segment that contains it is
+     * mapped when it is first read.
+     */
+    private static class MappedInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long dataOffset;
+        private final long dataLength;
+        private final MappedByteBuffer[] segments;
+        private long position;
+        private long markPosition = -1;
+
+        MappedInputStream(FileChannel channel, long dataOffset, long dataLength) {
+            this.channel = channel;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.segments = new MappedByteBuffer[(int) ((dataLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        }
+
+        private MappedByteBuffer getSegment(int index) throws IOException {
+            if(segments[index] == null){
+                long offset = index * SEGMENT_SIZE;
+                segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + offset, Math.min(SEGMENT_SIZE, dataLength - offset));
+            }
+            return segments[index];
+        }
+
+        /**
+         * map: direct view of the next bytes, mapped as one buffer.
+         * @param length
+         * @return
+         * @throws IOException
+         */
+        ByteBuffer map(long length) throws IOException {
+            long size = Math.max(0, Math.min(length, dataLength - position));
+            int index = (int) (position / SEGMENT_SIZE);
+            int offset = (int) (position % SEGMENT_SIZE);
+            if(size > 0 && offset + size <= SEGMENT_SIZE){
+                ByteBuffer view = getSegment(index).duplicate();
+                view.position(offset).limit((int) (offset + size));
+                return view.slice().asReadOnlyBuffer();
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + position, size).asReadOnlyBuffer();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(position >= dataLength)
+                return -1;
+
+            int value = getSegment((int) (position / SEGMENT_SIZE)).get((int) (position % SEGMENT_SIZE)) & 0xFF;
+            position++;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+            if(position >= dataLength)
+                return -1;
+
+            int total = 0;
+            while(total < len && position < dataLength){
+                ByteBuffer segment = getSegment((int) (position / SEGMENT_SIZE)).duplicate();
+                segment.position((int) (position % SEGMENT_SIZE));
+
+                int count = Math.min(len - total, segment.remaining());
+                segment.get(b, off + total, count);
+                position += count;
+                total += count;
+            }
+            return total;
+        }
+
+        @Override
+        public long skip(long n) {
+            long count = Math.max(0, Math.min(n, dataLength - position));
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, dataLength - position);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            markPosition = position;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            if(markPosition < 0)
+                throw new IOException("Resetting to invalid mark");
+            position = markPosition;
+        }
+
+        /**
+         * close: close the channel. The mapped segments are released by the garbage collector.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
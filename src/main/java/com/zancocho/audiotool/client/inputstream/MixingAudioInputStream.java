@@ -41,9 +41,14 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -54,7 +59,62 @@ public class MixingAudioInputStream
 
     private static final boolean DEBUG = false;
 
-    private List m_audioInputStreamList;
+    /*
+     Sample formats with a specialized mixing loop.
+     */
+    private static final int FORMAT_UNSUPPORTED = 0;
+    private static final int FORMAT_PCM8_SIGNED = 1;
+    private static final int FORMAT_PCM8_UNSIGNED = 2;
+    private static final int FORMAT_PCM16_LE = 3;
+    private static final int FORMAT_PCM16_BE = 4;
+    private static final int FORMAT_PCM24_LE = 5;
+    private static final int FORMAT_PCM24_BE = 6;
+    private static final int FORMAT_PCM32_LE = 7;
+    private static final int FORMAT_PCM32_BE = 8;
+    private static final int FORMAT_FLOAT32_LE = 9;
+    private static final int FORMAT_FLOAT32_BE = 10;
+    private static final int FORMAT_ALAW = 11;
+    private static final int FORMAT_ULAW = 12;
+
+    private List<AudioInputStream> m_audioInputStreamList;
+
+    /*
+     Streams added while the mixer is read, from any thread, with their
+     gain. The reading thread moves them to the list at the start of
+     every read, so the list itself is only used by that thread.
+     */
+    private final Queue<AddedStream> m_addedStreams = new ConcurrentLinkedQueue<AddedStream>();
+
+    private final int m_nChannels;
+    private final int m_nFrameSize;
+    private final int m_nSampleFormat;
+
+    /*
+     Range of the samples of the format, used to clamp the mix instead of
+     letting it wrap around.
+     */
+    private final int m_nMinSample;
+    private final int m_nMaxSample;
+
+    /*
+     Per input gain, master gain (headroom) and optional limiter. When
+     none of them is set, integer samples are mixed exactly in a long
+     accumulator; otherwise they are mixed in float.
+     */
+    private final Map<AudioInputStream, Float> m_gains = new IdentityHashMap<AudioInputStream, Float>();
+    private float m_fMasterGain = 1.0f;
+    private SoftLimiter m_limiter;
+    private int m_nLimiterFramesToDrop;
+    private int m_nLimiterFramesToFlush;
+
+    /*
+     Buffers reused between calls to read(byte[], int, int).
+     */
+    private byte[] m_abReadBuffer = new byte[0];
+    private int[] m_anSampleBuffer = new int[0];
+    private float[] m_afSampleBuffer = new float[0];
+    private long[] m_alMixBuffer = new long[0];
+    private float[] m_afMixBuffer = new float[0];
 
     public MixingAudioInputStream(AudioFormat audioFormat, Collection audioInputStreams) {
         super(new ByteArrayInputStream(new byte[0]),
@@ -63,7 +123,12 @@ public class MixingAudioInputStream
         if (DEBUG) {
             out("MixingAudioInputStream.<init>(): begin");
         }
-        m_audioInputStreamList = new ArrayList(audioInputStreams);
+        m_nChannels = audioFormat.getChannels();
+        m_nFrameSize = audioFormat.getFrameSize();
+        m_nSampleFormat = getSampleFormat(audioFormat);
+        m_nMinSample = getMinSample(m_nSampleFormat);
+        m_nMaxSample = -(m_nMinSample + 1);
+        m_audioInputStreamList = new ArrayList<AudioInputStream>(audioInputStreams);
         if (DEBUG) {
             out("MixingAudioInputStream.<init>(): stream list:");
             for (int i = 0; i < m_audioInputStreamList.size(); i++) {
@@ -125,124 +190,492 @@ public class MixingAudioInputStream
         return (byte) (nSample & 0xFF);
     }
 
+    /**
+     * Sets the linear gain applied to one of the input streams before it
+     * is mixed.
+     */
+    public void setGain(AudioInputStream stream, float fGain) {
+        m_gains.put(stream, Float.valueOf(fGain));
+    }
+
+    /**
+     * Adds an input stream to the mix. Unlike the other setters, it can be
+     * called from any thread while the mixer is read: the stream is mixed
+     * from the next read on.
+     */
+    public void addAudioInputStream(AudioInputStream stream, float fGain) {
+        m_addedStreams.add(new AddedStream(stream, fGain));
+    }
+
+    /**
+     * Sets the headroom in decibels: the mix is attenuated by this amount
+     * before the limiter and the conversion back to the sample format.
+     */
+    public void setHeadroom(float fDecibels) {
+        m_fMasterGain = (float) Math.pow(10.0, -fDecibels / 20.0);
+    }
+
+    /**
+     * Sets a limiter that is applied to the mix before it is converted
+     * back to the sample format. It must be set before the first read.
+     * The output keeps the same length: the latency of the limiter is
+     * removed at the start and flushed at the end.
+     */
+    public void setLimiter(SoftLimiter limiter) {
+        m_limiter = limiter;
+        if (m_limiter != null) {
+            m_limiter.init(m_nChannels, getFormat().getFrameRate());
+            m_nLimiterFramesToDrop = m_limiter.getLatencyFrames();
+        }
+    }
+
+    /**
+     * Mixes whole blocks: every input stream is read once per call into a
+     * reusable buffer, and the samples are converted with a loop
+     * specialized for the sample format, which is chosen once in the
+     * constructor. Incomplete reads are completed until the block is full
+     * or the stream ends. The number of bytes returned is the length of
+     * the longest input in this block. Samples out of range are clamped.
+     */
     public int read(byte[] abData, int nOffset, int nLength)
             throws IOException {
         if (DEBUG) {
             out("MixingAudioInputStream.read(byte[], int, int): begin");
             out("MixingAudioInputStream.read(byte[], int, int): requested length: " + nLength);
         }
-        int nChannels = getFormat().getChannels();
-        int nFrameSize = getFormat().getFrameSize();
+        if (m_nSampleFormat == FORMAT_UNSUPPORTED) {
+            throw new IOException("Audio format not supported for mixing: " + getFormat());
+        }
+        int nFrames = nLength / m_nFrameSize;
+        if (nFrames == 0) {
+            return 0;
+        }
+        addStreams();
+        ensureCapacity(nFrames * m_nFrameSize, nFrames * m_nChannels);
+        boolean bFloatMix = isFloatMix();
+
+        int nFramesOut = 0;
+        while (nFramesOut == 0) {
+            if (m_audioInputStreamList.isEmpty()) {
+                if (m_limiter == null || m_nLimiterFramesToFlush == 0) {
+                    return -1;
+                }
+                /*
+                 Flush the samples still delayed in the limiter.
+                 */
+                nFramesOut = Math.min(nFrames, m_nLimiterFramesToFlush);
+                Arrays.fill(m_afMixBuffer, 0, nFramesOut * m_nChannels, 0.0f);
+                m_limiter.process(m_afMixBuffer, nFramesOut, getFullScale());
+                m_nLimiterFramesToFlush -= nFramesOut;
+                break;
+            }
+            int nFramesMixed = mixBlock(nFrames, bFloatMix);
+            if (nFramesMixed == 0) {
+                continue;
+            }
+            nFramesOut = nFramesMixed;
+            if (bFloatMix) {
+                nFramesOut = processFloatMix(nFramesMixed);
+            }
+        }
+        writeSamples(abData, nOffset, nFramesOut * m_nChannels, bFloatMix);
+        if (DEBUG) {
+            out("MixingAudioInputStream.read(byte[], int, int): end");
+        }
+        return nFramesOut * m_nFrameSize;
+    }
+
+    private void addStreams() {
+        AddedStream added;
+        while ((added = m_addedStreams.poll()) != null) {
+            if (added.m_fGain != 1.0f) {
+                setGain(added.m_stream, added.m_fGain);
+            }
+            m_audioInputStreamList.add(added.m_stream);
+        }
+    }
+
+    private boolean isFloatMix() {
+        return isFloatFormat() || !m_gains.isEmpty() || m_fMasterGain != 1.0f || m_limiter != null;
+    }
+
+    /**
+     * Reads one block from every input stream and adds it to the mix
+     * buffer. Returns the number of frames of the longest input.
+     */
+    private int mixBlock(int nFrames, boolean bFloatMix)
+            throws IOException {
+        int nBytes = nFrames * m_nFrameSize;
+        int nSamples = nFrames * m_nChannels;
+        if (bFloatMix) {
+            Arrays.fill(m_afMixBuffer, 0, nSamples, 0.0f);
+        } else {
+            Arrays.fill(m_alMixBuffer, 0, nSamples, 0L);
+        }
+
+        int nMaxFramesRead = 0;
+        Iterator streamIterator = m_audioInputStreamList.iterator();
+        while (streamIterator.hasNext()) {
+            AudioInputStream stream = (AudioInputStream) streamIterator.next();
+            int nBytesRead = readFully(stream, m_abReadBuffer, nBytes);
+            if (DEBUG) {
+                out("MixingAudioInputStream.read(byte[], int, int): bytes read: " + nBytesRead);
+            }
+            float fGain = getGain(stream);
+            if (nBytesRead < nBytes) {
+                /*
+                 The end of the current stream has been signaled.
+                 We remove it from the list of streams. Its gain is
+                 still applied to the last frames it returned.
+                 */
+                streamIterator.remove();
+                m_gains.remove(stream);
+            }
+            int nFramesRead = nBytesRead / m_nFrameSize;
+            if (nFramesRead == 0) {
+                continue;
+            }
+            int nSamplesRead = nFramesRead * m_nChannels;
+            if (isFloatFormat()) {
+                decodeFloatSamples(m_abReadBuffer, nSamplesRead, m_afSampleBuffer);
+                for (int i = 0; i < nSamplesRead; i++) {
+                    m_afMixBuffer[i] += m_afSampleBuffer[i] * fGain;
+                }
+            } else if (bFloatMix) {
+                decodeSamples(m_abReadBuffer, nSamplesRead, m_anSampleBuffer);
+                for (int i = 0; i < nSamplesRead; i++) {
+                    m_afMixBuffer[i] += m_anSampleBuffer[i] * fGain;
+                }
+            } else {
+                decodeSamples(m_abReadBuffer, nSamplesRead, m_anSampleBuffer);
+                for (int i = 0; i < nSamplesRead; i++) {
+                    m_alMixBuffer[i] += m_anSampleBuffer[i];
+                }
+            }
+            nMaxFramesRead = Math.max(nMaxFramesRead, nFramesRead);
+        }
+        return nMaxFramesRead;
+    }
+
+    /**
+     * Applies the master gain and the limiter to the float mix. Returns
+     * the number of frames left once the limiter latency is removed.
+     */
+    private int processFloatMix(int nFrames) {
+        int nSamples = nFrames * m_nChannels;
+        if (m_fMasterGain != 1.0f) {
+            for (int i = 0; i < nSamples; i++) {
+                m_afMixBuffer[i] *= m_fMasterGain;
+            }
+        }
+        if (m_limiter == null) {
+            return nFrames;
+        }
+        m_limiter.process(m_afMixBuffer, nFrames, getFullScale());
+        int nFramesToDrop = Math.min(nFrames, m_nLimiterFramesToDrop);
+        if (nFramesToDrop > 0) {
+            System.arraycopy(m_afMixBuffer, nFramesToDrop * m_nChannels, m_afMixBuffer, 0, (nFrames - nFramesToDrop) * m_nChannels);
+            m_nLimiterFramesToDrop -= nFramesToDrop;
+            m_nLimiterFramesToFlush += nFramesToDrop;
+        }
+        return nFrames - nFramesToDrop;
+    }
+
+    private float getGain(AudioInputStream stream) {
+        Float gain = m_gains.get(stream);
+        return gain == null ? 1.0f : gain.floatValue();
+    }
+
+    /**
+     * Value of a sample at 0 dBFS.
+     */
+    private float getFullScale() {
+        return isFloatFormat() ? 1.0f : -(float) m_nMinSample;
+    }
+
+    private static int getSampleFormat(AudioFormat audioFormat) {
+        int nChannels = audioFormat.getChannels();
+        int nFrameSize = audioFormat.getFrameSize();
+        if (nChannels <= 0 || nFrameSize <= 0 || nFrameSize % nChannels != 0) {
+            return FORMAT_UNSUPPORTED;
+        }
         /*
          This value is in bytes. Note that it is the storage size.
          It may be four bytes for 24 bit samples.
          */
         int nSampleSize = nFrameSize / nChannels;
-        boolean bBigEndian = getFormat().isBigEndian();
-        AudioFormat.Encoding encoding = getFormat().getEncoding();
-        if (DEBUG) {
-            out("MixingAudioInputStream.read(byte[], int, int): channels: " + nChannels);
-            out("MixingAudioInputStream.read(byte[], int, int): frame size: " + nFrameSize);
-            out("MixingAudioInputStream.read(byte[], int, int): sample size (bytes, storage size): " + nSampleSize);
-            out("MixingAudioInputStream.read(byte[], int, int): big endian: " + bBigEndian);
-            out("MixingAudioInputStream.read(byte[], int, int): encoding: " + encoding);
-        }
-        byte[] abBuffer = new byte[nFrameSize];
-        int[] anMixedSamples = new int[nChannels];
-        for (int nFrameBoundry = 0; nFrameBoundry < nLength; nFrameBoundry += nFrameSize) {
-            if (DEBUG) {
-                out("MixingAudioInputStream.read(byte[], int, int): frame boundry: " + nFrameBoundry);
+        boolean bBigEndian = audioFormat.isBigEndian();
+        AudioFormat.Encoding encoding = audioFormat.getEncoding();
+        if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED)) {
+            switch (nSampleSize) {
+                case 1:
+                    return FORMAT_PCM8_SIGNED;
+                case 2:
+                    return bBigEndian ? FORMAT_PCM16_BE : FORMAT_PCM16_LE;
+                case 3:
+                    return bBigEndian ? FORMAT_PCM24_BE : FORMAT_PCM24_LE;
+                case 4:
+                    return bBigEndian ? FORMAT_PCM32_BE : FORMAT_PCM32_LE;
+            }
+        } else if (encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED) && nSampleSize == 1) {
+            return FORMAT_PCM8_UNSIGNED;
+        } else if (encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && nSampleSize == 4) {
+            return bBigEndian ? FORMAT_FLOAT32_BE : FORMAT_FLOAT32_LE;
+        } else if (encoding.equals(AudioFormat.Encoding.ALAW) && nSampleSize == 1) {
+            return FORMAT_ALAW;
+        } else if (encoding.equals(AudioFormat.Encoding.ULAW) && nSampleSize == 1) {
+            return FORMAT_ULAW;
+        }
+        return FORMAT_UNSUPPORTED;
+    }
+
+    private static int getMinSample(int nSampleFormat) {
+        switch (nSampleFormat) {
+            case FORMAT_PCM8_SIGNED:
+            case FORMAT_PCM8_UNSIGNED:
+                return Byte.MIN_VALUE;
+            case FORMAT_PCM24_LE:
+            case FORMAT_PCM24_BE:
+                return -0x800000;
+            case FORMAT_PCM32_LE:
+            case FORMAT_PCM32_BE:
+                return Integer.MIN_VALUE;
+            default:
+                /*
+                 16 bit, and the 16 bit linear values of A-law and u-law.
+                 */
+                return Short.MIN_VALUE;
+        }
+    }
+
+    private void ensureCapacity(int nBytes, int nSamples) {
+        if (m_abReadBuffer.length < nBytes) {
+            m_abReadBuffer = new byte[nBytes];
+        }
+        if (m_anSampleBuffer.length < nSamples) {
+            m_anSampleBuffer = new int[nSamples];
+            m_afSampleBuffer = new float[nSamples];
+            m_alMixBuffer = new long[nSamples];
+            m_afMixBuffer = new float[nSamples];
+        }
+    }
+
+    private boolean isFloatFormat() {
+        return m_nSampleFormat == FORMAT_FLOAT32_LE || m_nSampleFormat == FORMAT_FLOAT32_BE;
+    }
+
+    /**
+     * Reads until nLength bytes are read or the stream ends. A read of 0 bytes is
+     * retried after a yield, at most MAX_EMPTY_READS times in a row, so a stream
+     * that stalls fails instead of blocking the mixing thread forever.
+     */
+    private static int readFully(AudioInputStream stream, byte[] abBuffer, int nLength)
+            throws IOException {
+        int nTotal = 0;
+        int nEmptyReads = 0;
+        while (nTotal < nLength) {
+            int nBytesRead = stream.read(abBuffer, nTotal, nLength - nTotal);
+            if (nBytesRead == -1) {
+                break;
             }
-            for (int i = 0; i < nChannels; i++) {
-                anMixedSamples[i] = 0;
+            if (nBytesRead > 0) {
+                nEmptyReads = 0;
+            } else if (++nEmptyReads > ResamplingAudioInputStream.MAX_EMPTY_READS) {
+                throw new IOException("ERROR reading audio: the source returns no data");
+            } else {
+                Thread.yield();
             }
-            Iterator streamIterator = m_audioInputStreamList.iterator();
-            while (streamIterator.hasNext()) {
-                AudioInputStream stream = (AudioInputStream) streamIterator.next();
-                if (DEBUG) {
-                    out("MixingAudioInputStream.read(byte[], int, int): AudioInputStream: " + stream);
+            nTotal += nBytesRead;
+        }
+        return nTotal;
+    }
+
+    private void decodeSamples(byte[] ab, int nSamples, int[] an) {
+        switch (m_nSampleFormat) {
+            case FORMAT_PCM16_LE:
+                for (int i = 0, j = 0; i < nSamples; i++, j += 2) {
+                    an[i] = (short) ((ab[j] & 0xFF) | (ab[j + 1] << 8));
+                }
+                break;
+            case FORMAT_PCM16_BE:
+                for (int i = 0, j = 0; i < nSamples; i++, j += 2) {
+                    an[i] = (short) ((ab[j] << 8) | (ab[j + 1] & 0xFF));
+                }
+                break;
+            case FORMAT_PCM24_LE:
+                for (int i = 0, j = 0; i < nSamples; i++, j += 3) {
+                    an[i] = (ab[j] & 0xFF) | ((ab[j + 1] & 0xFF) << 8) | (ab[j + 2] << 16);
+                }
+                break;
+            case FORMAT_PCM24_BE:
+                for (int i = 0, j = 0; i < nSamples; i++, j += 3) {
+                    an[i] = (ab[j] << 16) | ((ab[j + 1] & 0xFF) << 8) | (ab[j + 2] & 0xFF);
+                }
+                break;
+            case FORMAT_PCM32_LE:
+                for (int i = 0, j = 0; i < nSamples; i++, j += 4) {
+                    an[i] = (ab[j] & 0xFF) | ((ab[j + 1] & 0xFF) << 8) | ((ab[j + 2] & 0xFF) << 16) | (ab[j + 3] << 24);
+                }
+                break;
+            case FORMAT_PCM32_BE:
+                for (int i = 0, j = 0; i < nSamples; i++, j += 4) {
+                    an[i] = (ab[j] << 24) | ((ab[j + 1] & 0xFF) << 16) | ((ab[j + 2] & 0xFF) << 8) | (ab[j + 3] & 0xFF);
                 }
-                int nBytesRead = stream.read(abBuffer, 0, nFrameSize);
-                if (DEBUG) {
-                    out("MixingAudioInputStream.read(byte[], int, int): bytes read: " + nBytesRead);
+                break;
+            case FORMAT_PCM8_SIGNED:
+                for (int i = 0; i < nSamples; i++) {
+                    an[i] = ab[i];
                 }
+                break;
+            case FORMAT_PCM8_UNSIGNED:
+                for (int i = 0; i < nSamples; i++) {
+                    an[i] = (ab[i] & 0xFF) - 128;
+                }
+                break;
+            case FORMAT_ALAW:
+                for (int i = 0; i < nSamples; i++) {
+                    an[i] = TConversionTool.alaw2linear(ab[i]);
+                }
+                break;
+            case FORMAT_ULAW:
+                for (int i = 0; i < nSamples; i++) {
+                    an[i] = TConversionTool.ulaw2linear(ab[i]);
+                }
+                break;
+        }
+    }
+
+    private void decodeFloatSamples(byte[] ab, int nSamples, float[] af) {
+        if (m_nSampleFormat == FORMAT_FLOAT32_LE) {
+            for (int i = 0, j = 0; i < nSamples; i++, j += 4) {
+                af[i] = Float.intBitsToFloat((ab[j] & 0xFF) | ((ab[j + 1] & 0xFF) << 8) | ((ab[j + 2] & 0xFF) << 16) | (ab[j + 3] << 24));
+            }
+        } else {
+            for (int i = 0, j = 0; i < nSamples; i++, j += 4) {
+                af[i] = Float.intBitsToFloat((ab[j] << 24) | ((ab[j + 1] & 0xFF) << 16) | ((ab[j + 2] & 0xFF) << 8) | (ab[j + 3] & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * Converts the mix buffer back to the sample format. Integer samples
+     * are clamped to the range of the format.
+     */
+    private void writeSamples(byte[] abData, int nOffset, int nSamples, boolean bFloatMix) {
+        if (isFloatFormat()) {
+            encodeFloatSamples(m_afMixBuffer, abData, nOffset, nSamples);
+            return;
+        }
+        int[] an = m_anSampleBuffer;
+        if (bFloatMix) {
+            for (int i = 0; i < nSamples; i++) {
                 /*
-                 TODO: we have to handle incomplete reads.
+                 Math.round() saturates at the int range, the clamp
+                 does the rest.
                  */
-                if (nBytesRead == -1) {
-                    /*
-                     The end of the current stream has been signaled.
-                     We remove it from the list of streams.
-                     */
-                    streamIterator.remove();
-                    continue;
-                }
-                for (int nChannel = 0; nChannel < nChannels; nChannel++) {
-                    int nBufferOffset = nChannel * nSampleSize;
-                    int nSampleToAdd = 0;
-                    if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED)) {
-                        switch (nSampleSize) {
-                            case 1:
-                                nSampleToAdd = abBuffer[nBufferOffset];
-                                break;
-                            case 2:
-                                nSampleToAdd = TConversionTool.bytesToInt16(abBuffer, nBufferOffset, bBigEndian);
-                                break;
-                            case 3:
-                                nSampleToAdd = TConversionTool.bytesToInt24(abBuffer, nBufferOffset, bBigEndian);
-                                break;
-                            case 4:
-                                nSampleToAdd = TConversionTool.bytesToInt32(abBuffer, nBufferOffset, bBigEndian);
-                                break;
-                        }
-                    } // TODO: pcm unsigned
-                    else if (encoding.equals(AudioFormat.Encoding.ALAW)) {
-                        nSampleToAdd = TConversionTool.alaw2linear(abBuffer[nBufferOffset]);
-                    } else if (encoding.equals(AudioFormat.Encoding.ULAW)) {
-                        nSampleToAdd = TConversionTool.ulaw2linear(abBuffer[nBufferOffset]);
-                    }
-                    anMixedSamples[nChannel] += nSampleToAdd;
-                } // loop over channels
-            } // loop over streams
-            if (DEBUG) {
-                out("MixingAudioInputStream.read(byte[], int, int): starting to write to buffer passed by caller");
+                int nSample = Math.round(m_afMixBuffer[i]);
+                an[i] = nSample < m_nMinSample ? m_nMinSample : (nSample > m_nMaxSample ? m_nMaxSample : nSample);
+            }
+        } else {
+            for (int i = 0; i < nSamples; i++) {
+                long lSample = m_alMixBuffer[i];
+                an[i] = (int) (lSample < m_nMinSample ? m_nMinSample : (lSample > m_nMaxSample ? m_nMaxSample : lSample));
             }
-            for (int nChannel = 0; nChannel < nChannels; nChannel++) {
-                if (DEBUG) {
-                    out("MixingAudioInputStream.read(byte[], int, int): channel: " + nChannel);
+        }
+        encodeSamples(an, abData, nOffset, nSamples);
+    }
+
+    private void encodeSamples(int[] an, byte[] abData, int nOffset, int nSamples) {
+        switch (m_nSampleFormat) {
+            case FORMAT_PCM16_LE:
+                for (int i = 0, j = nOffset; i < nSamples; i++, j += 2) {
+                    int nSample = an[i];
+                    abData[j] = (byte) nSample;
+                    abData[j + 1] = (byte) (nSample >> 8);
                 }
-                int nBufferOffset = nOffset + nFrameBoundry /* * nFrameSize*/ + nChannel * nSampleSize;
-                if (DEBUG) {
-                    out("MixingAudioInputStream.read(byte[], int, int): buffer offset: " + nBufferOffset);
+                break;
+            case FORMAT_PCM16_BE:
+                for (int i = 0, j = nOffset; i < nSamples; i++, j += 2) {
+                    int nSample = an[i];
+                    abData[j] = (byte) (nSample >> 8);
+                    abData[j + 1] = (byte) nSample;
                 }
-                if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED)) {
-                    switch (nSampleSize) {
-                        case 1:
-                            abData[nBufferOffset] = (byte) anMixedSamples[nChannel];
-                            break;
-                        case 2:
-                            TConversionTool.intToBytes16(anMixedSamples[nChannel], abData, nBufferOffset, bBigEndian);
-                            break;
-                        case 3:
-                            TConversionTool.intToBytes24(anMixedSamples[nChannel], abData, nBufferOffset, bBigEndian);
-                            break;
-                        case 4:
-                            TConversionTool.intToBytes32(anMixedSamples[nChannel], abData, nBufferOffset, bBigEndian);
-                            break;
-                    }
-                } // TODO: pcm unsigned
-                else if (encoding.equals(AudioFormat.Encoding.ALAW)) {
-                    abData[nBufferOffset] = TConversionTool.linear2alaw((short) anMixedSamples[nChannel]);
-                } else if (encoding.equals(AudioFormat.Encoding.ULAW)) {
-                    abData[nBufferOffset] = TConversionTool.linear2ulaw(anMixedSamples[nChannel]);
+                break;
+            case FORMAT_PCM24_LE:
+                for (int i = 0, j = nOffset; i < nSamples; i++, j += 3) {
+                    int nSample = an[i];
+                    abData[j] = (byte) nSample;
+                    abData[j + 1] = (byte) (nSample >> 8);
+                    abData[j + 2] = (byte) (nSample >> 16);
                 }
-            } // (final) loop over channels
-        } // loop over frames
-        if (DEBUG) {
-            out("MixingAudioInputStream.read(byte[], int, int): end");
+                break;
+            case FORMAT_PCM24_BE:
+                for (int i = 0, j = nOffset; i < nSamples; i++, j += 3) {
+                    int nSample = an[i];
+                    abData[j] = (byte) (nSample >> 16);
+                    abData[j + 1] = (byte) (nSample >> 8);
+                    abData[j + 2] = (byte) nSample;
+                }
+                break;
+            case FORMAT_PCM32_LE:
+                for (int i = 0, j = nOffset; i < nSamples; i++, j += 4) {
+                    int nSample = an[i];
+                    abData[j] = (byte) nSample;
+                    abData[j + 1] = (byte) (nSample >> 8);
+                    abData[j + 2] = (byte) (nSample >> 16);
+                    abData[j + 3] = (byte) (nSample >> 24);
+                }
+                break;
+            case FORMAT_PCM32_BE:
+                for (int i = 0, j = nOffset; i < nSamples; i++, j += 4) {
+                    int nSample = an[i];
+                    abData[j] = (byte) (nSample >> 24);
+                    abData[j + 1] = (byte) (nSample >> 16);
+                    abData[j + 2] = (byte) (nSample >> 8);
+                    abData[j + 3] = (byte) nSample;
+                }
+                break;
+            case FORMAT_PCM8_SIGNED:
+                for (int i = 0; i < nSamples; i++) {
+                    abData[nOffset + i] = (byte) an[i];
+                }
+                break;
+            case FORMAT_PCM8_UNSIGNED:
+                for (int i = 0; i < nSamples; i++) {
+                    abData[nOffset + i] = (byte) (an[i] + 128);
+                }
+                break;
+            case FORMAT_ALAW:
+                for (int i = 0; i < nSamples; i++) {
+                    abData[nOffset + i] = TConversionTool.linear2alaw((short) an[i]);
+                }
+                break;
+            case FORMAT_ULAW:
+                for (int i = 0; i < nSamples; i++) {
+                    abData[nOffset + i] = TConversionTool.linear2ulaw(an[i]);
+                }
+                break;
+        }
+    }
+
+    private void encodeFloatSamples(float[] af, byte[] abData, int nOffset, int nSamples) {
+        if (m_nSampleFormat == FORMAT_FLOAT32_LE) {
+            for (int i = 0, j = nOffset; i < nSamples; i++, j += 4) {
+                int nSample = Float.floatToRawIntBits(af[i]);
+                abData[j] = (byte) nSample;
+                abData[j + 1] = (byte) (nSample >> 8);
+                abData[j + 2] = (byte) (nSample >> 16);
+                abData[j + 3] = (byte) (nSample >> 24);
+            }
+        } else {
+            for (int i = 0, j = nOffset; i < nSamples; i++, j += 4) {
+                int nSample = Float.floatToRawIntBits(af[i]);
+                abData[j] = (byte) (nSample >> 24);
+                abData[j + 1] = (byte) (nSample >> 16);
+                abData[j + 2] = (byte) (nSample >> 8);
+                abData[j + 3] = (byte) nSample;
+            }
         }
-        // TODO: return a useful value
-        return nLength;
     }
 
     /**
@@ -321,4 +754,17 @@ public class MixingAudioInputStream
     private static void out(String strMessage) {
         System.out.println(strMessage);
     }
+
+    /*
+     A stream added with addAudioInputStream and its gain.
+     */
+    private static class AddedStream {
+        private final AudioInputStream m_stream;
+        private final float m_fGain;
+
+        private AddedStream(AudioInputStream stream, float fGain) {
+            m_stream = stream;
+            m_fGain = fGain;
+        }
+    }
 }
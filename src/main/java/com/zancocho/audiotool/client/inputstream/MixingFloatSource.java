@@ -0,0 +1,218 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Jose A.H
+ *
+ * MixingFloatSource: mix float stages with the same sample rate and channels, as MixingAudioInputStream does with
+ * bytes. Every input is read into a pooled buffer and added to the mix with its gain; the sum is not clamped, so
+ * there is no overflow whatever the number of inputs, and the headroom and the limiter are applied to it before it
+ * is converted to bytes at the output. The length of the mix is the length of the longest input.
+ */
+public class MixingFloatSource implements FloatAudioSource {
+
+    private final AudioFormat audioFormat;
+    private final List<FloatAudioSource> inputs;
+    private final List<Float> gains;
+    // all the inputs, to close them after they end
+    private final List<FloatAudioSource> allInputs;
+    private final long frameLength;
+    private float masterGain = 1.0f;
+    private SoftLimiter limiter;
+    private int limiterFramesToDrop;
+    private int limiterFramesToFlush;
+    private FloatAudioBuffer inputBuffer;
+
+    /**
+     * MixingFloatSource: mix of the inputs in the format of the first one.
+     * @param inputs
+     * @param gains linear gain of every input
+     */
+    public MixingFloatSource(List<FloatAudioSource> inputs, List<Float> gains) {
+        if(inputs.isEmpty() || inputs.size() != gains.size())
+            throw new IllegalArgumentException("Every input of the mix needs a gain");
+
+        this.audioFormat = inputs.get(0).getFormat();
+        for(FloatAudioSource input : inputs){
+            if(input.getFormat().getChannels() != audioFormat.getChannels())
+                throw new IllegalArgumentException("The inputs of the mix must have the same channels: " + input.getFormat());
+        }
+
+        this.inputs = new ArrayList<>(inputs);
+        this.gains = new ArrayList<>(gains);
+        this.allInputs = new ArrayList<>(inputs);
+
+        long length = 0;
+        for(FloatAudioSource input : inputs){
+            if(input.getFrameLength() == AudioSystem.NOT_SPECIFIED){
+                length = AudioSystem.NOT_SPECIFIED;
+                break;
+            }
+            length = Math.max(length, input.getFrameLength());
+        }
+        this.frameLength = length;
+    }
+
+    /**
+     * setHeadroom: attenuate the mix by decibels.
+     * @param decibels
+     */
+    public void setHeadroom(float decibels) {
+        masterGain = (float) Math.pow(10.0, -decibels / 20.0);
+    }
+
+    /**
+     * setLimiter: limiter applied to the mix. It must be set before the first read. The mix keeps the same length:
+     * the latency of the limiter is removed at the start and flushed at the end.
+     * @param limiter
+     */
+    public void setLimiter(SoftLimiter limiter) {
+        this.limiter = limiter;
+        if(limiter != null){
+            limiter.init(audioFormat.getChannels(), audioFormat.getFrameRate());
+            limiterFramesToDrop = limiter.getLatencyFrames();
+        }
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return audioFormat;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    @Override
+    public int read(FloatAudioBuffer buffer, int offset, int frames) throws IOException {
+        if(frames == 0)
+            return 0;
+
+        int framesOut = 0;
+        while(framesOut == 0){
+            if(inputs.isEmpty()){
+                if(limiter == null || limiterFramesToFlush == 0){
+                    release();
+                    return -1;
+                }
+                // flush the samples still delayed in the limiter
+                framesOut = Math.min(frames, limiterFramesToFlush);
+                buffer.clear(offset, framesOut);
+                limiter.process(buffer, offset, framesOut);
+                limiterFramesToFlush -= framesOut;
+                break;
+            }
+
+            int framesMixed = mixBlock(buffer, offset, frames);
+            if(framesMixed > 0)
+                framesOut = processMix(buffer, offset, framesMixed);
+        }
+        return framesOut;
+    }
+
+    /**
+     * mixBlock: read the same block from every input and add it to the buffer. The inputs that end are removed.
+     * @param buffer
+     * @param offset
+     * @param frames
+     * @return the number of frames of the longest input
+     * @throws IOException
+     */
+    private int mixBlock(FloatAudioBuffer buffer, int offset, int frames) throws IOException {
+        int channels = audioFormat.getChannels();
+        int blockFrames = Math.min(frames, FloatAudioBufferPool.BLOCK_FRAMES);
+        if(inputBuffer == null)
+            inputBuffer = FloatAudioBufferPool.getInstance().acquire(channels, FloatAudioBufferPool.BLOCK_FRAMES);
+        buffer.clear(offset, blockFrames);
+
+        float[][] mix = buffer.getSamples();
+        float[][] samples = inputBuffer.getSamples();
+        int maxFramesRead = 0;
+        for(int index = 0; index < inputs.size(); index++){
+            int framesRead = readFully(inputs.get(index), blockFrames);
+            float gain = gains.get(index);
+            for(int channel = 0; channel < channels; channel++){
+                float[] mixChannel = mix[channel];
+                float[] inputChannel = samples[channel];
+                for(int i = 0; i < framesRead; i++){
+                    mixChannel[offset + i] += inputChannel[i] * gain;
+                }
+            }
+            maxFramesRead = Math.max(maxFramesRead, framesRead);
+
+            if(framesRead < blockFrames){
+                inputs.remove(index);
+                gains.remove(index);
+                index--;
+            }
+        }
+        return maxFramesRead;
+    }
+
+    private int readFully(FloatAudioSource input, int frames) throws IOException {
+        int total = 0;
+        while(total < frames){
+            int read = input.read(inputBuffer, total, frames - total);
+            if(read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * processMix: apply the headroom and the limiter to the mix.
+     * @param buffer
+     * @param offset
+     * @param frames
+     * @return the number of frames left once the latency of the limiter is removed
+     */
+    private int processMix(FloatAudioBuffer buffer, int offset, int frames) {
+        if(masterGain != 1.0f){
+            for(float[] channel : buffer.getSamples()){
+                for(int i = offset; i < offset + frames; i++){
+                    channel[i] *= masterGain;
+                }
+            }
+        }
+        if(limiter == null)
+            return frames;
+
+        limiter.process(buffer, offset, frames);
+        int framesToDrop = Math.min(frames, limiterFramesToDrop);
+        if(framesToDrop > 0){
+            for(float[] channel : buffer.getSamples()){
+                System.arraycopy(channel, offset + framesToDrop, channel, offset, frames - framesToDrop);
+            }
+            limiterFramesToDrop -= framesToDrop;
+            limiterFramesToFlush += framesToDrop;
+        }
+        return frames - framesToDrop;
+    }
+
+    private void release() {
+        FloatAudioBufferPool.getInstance().release(inputBuffer);
+        inputBuffer = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        release();
+        IOException exception = null;
+        for(FloatAudioSource input : allInputs){
+            try {
+                input.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if(exception != null)
+            throw exception;
+    }
+}
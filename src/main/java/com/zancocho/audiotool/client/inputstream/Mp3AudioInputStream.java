@@ -0,0 +1,263 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import com.zancocho.audiotool.mp3.Mp3FrameIndex;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Jose A.H
+ *
+ * Mp3AudioInputStream: decode a mp3 stream on demand with jlayer. Every call to read decodes only the mp3 frames
+ * needed to fill the buffer, so the samples can be passed to SequenceAudioInputStream or MixingAudioInputStream
+ * without writing a wav file to disk.
+ *
+ * The output format is the same one that jlayer's Converter writes: 16 bit signed little endian PCM with the
+ * sample rate and channels of the first mp3 frame.
+ */
+public class Mp3AudioInputStream extends AudioInputStream {
+
+    private final DecodingInputStream decodingInputStream;
+
+    private Mp3AudioInputStream(DecodingInputStream decodingInputStream, AudioFormat audioFormat) {
+        super(decodingInputStream, audioFormat, AudioSystem.NOT_SPECIFIED);
+        this.decodingInputStream = decodingInputStream;
+    }
+
+    /**
+     * getAudioInputStream: open a mp3 file as a decoded audio stream.
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static Mp3AudioInputStream getAudioInputStream(File file) throws IOException, UnsupportedAudioFileException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return getAudioInputStream(inputStream);
+        } catch (IOException | UnsupportedAudioFileException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * getAudioInputStream: open a mp3 file as a decoded audio stream that starts at the given sample frame. The
+     * frame headers are indexed up to that position and the decoding starts a few mp3 frames before it, to fill
+     * the bit reservoir, so the samples are the same as in a decode from the start of the file.
+     * @param file
+     * @param startPosition position in sample frames of the decoded audio
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static Mp3AudioInputStream getAudioInputStream(File file, long startPosition) throws IOException, UnsupportedAudioFileException {
+        if(startPosition <= 0)
+            return getAudioInputStream(file);
+
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            Mp3FrameIndex index = Mp3FrameIndex.readToSample(channel, startPosition);
+            if(index.getFrameCount() == 0)
+                throw new UnsupportedAudioFileException("No mp3 frame found in the file");
+
+            int frame = (int) Math.min(startPosition / index.getSamplesPerFrame(), index.getFrameCount() - 1);
+            int warmUpFrame = index.getWarmUpFrame(frame);
+            channel.position(index.getFrameOffset(warmUpFrame));
+
+            Mp3AudioInputStream audioInputStream = getAudioInputStream(inputStream);
+            /*
+             jlayer gives no samples for a frame whose bit reservoir is missing, so the warm up frames are
+             discarded by count and not by number of samples.
+             */
+            audioInputStream.decodingInputStream.discardFrames(frame - warmUpFrame);
+
+            long bytesToSkip = (startPosition - (long) frame * index.getSamplesPerFrame()) * audioInputStream.getFormat().getFrameSize();
+            while(bytesToSkip > 0){
+                long skipped = audioInputStream.skip(bytesToSkip);
+                if(skipped <= 0)
+                    break;
+                bytesToSkip -= skipped;
+            }
+            return audioInputStream;
+
+        } catch (IOException | UnsupportedAudioFileException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * getAudioInputStream: wrap a mp3 stream as a decoded audio stream. The first frame header is read to
+     * know the format of the decoded samples.
+     * @param inputStream
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static Mp3AudioInputStream getAudioInputStream(InputStream inputStream) throws IOException, UnsupportedAudioFileException {
+        Bitstream bitstream = new Bitstream(new BufferedInputStream(inputStream));
+        Header header;
+        try {
+            header = bitstream.readFrame();
+        } catch (BitstreamException e) {
+            throw new UnsupportedAudioFileException(e.getMessage());
+        }
+
+        if(header == null)
+            throw new UnsupportedAudioFileException("No mp3 frame found in the stream");
+
+        int channels = (header.mode() == Header.SINGLE_CHANNEL) ? 1 : 2;
+        float sampleRate = header.frequency();
+        AudioFormat audioFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleRate, 16, channels, channels * 2, sampleRate, false);
+
+        return new Mp3AudioInputStream(new DecodingInputStream(bitstream, header), audioFormat);
+    }
+
+    /**
+     * DecodingInputStream: byte view of the decoded mp3 frames. Only one frame of samples is kept in memory.
+     */
+    private static class DecodingInputStream extends InputStream {
+
+        private final Bitstream bitstream;
+        private final Decoder decoder;
+        private Header nextHeader;
+
+        private byte[] frameBuffer = new byte[0];
+        private int framePosition;
+        private int frameLength;
+        private boolean endOfStream;
+
+        DecodingInputStream(Bitstream bitstream, Header firstHeader) {
+            this.bitstream = bitstream;
+            this.decoder = new Decoder();
+            this.nextHeader = firstHeader;
+        }
+
+        /**
+         * decodeNextFrame: decode the next mp3 frame into frameBuffer.
+         * @return false when there are no more frames
+         * @throws IOException
+         */
+        private boolean decodeNextFrame() throws IOException {
+            if(endOfStream)
+                return false;
+
+            try {
+                Header header = nextHeader;
+                nextHeader = null;
+                if(header == null)
+                    header = bitstream.readFrame();
+
+                if(header == null){
+                    endOfStream = true;
+                    return false;
+                }
+
+                SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                bitstream.closeFrame();
+
+                short[] samples = output.getBuffer();
+                int samplesLength = output.getBufferLength();
+                if(frameBuffer.length < samplesLength * 2)
+                    frameBuffer = new byte[samplesLength * 2];
+
+                for(int i = 0, j = 0; i < samplesLength; i++, j += 2){
+                    short sample = samples[i];
+                    frameBuffer[j] = (byte) sample;
+                    frameBuffer[j + 1] = (byte) (sample >>> 8);
+                }
+                framePosition = 0;
+                frameLength = samplesLength * 2;
+
+            } catch (BitstreamException | DecoderException e) {
+                throw new IOException("ERROR decoding MP3: " + e.getMessage(), e);
+            }
+
+            return true;
+        }
+
+        /**
+         * discardFrames: decode the next frames and drop their samples.
+         * @param frames
+         * @throws IOException
+         */
+        void discardFrames(int frames) throws IOException {
+            for(int i = 0; i < frames && decodeNextFrame(); i++){
+                framePosition = frameLength;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            while(framePosition >= frameLength){
+                if(!decodeNextFrame())
+                    return -1;
+            }
+            return frameBuffer[framePosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+
+            int total = 0;
+            while(total < len){
+                if(framePosition >= frameLength && !decodeNextFrame())
+                    break;
+
+                int count = Math.min(len - total, frameLength - framePosition);
+                System.arraycopy(frameBuffer, framePosition, b, off + total, count);
+                framePosition += count;
+                total += count;
+            }
+
+            return total == 0 ? -1 : total;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while(skipped < n){
+                if(framePosition >= frameLength && !decodeNextFrame())
+                    break;
+
+                int count = (int) Math.min(n - skipped, frameLength - framePosition);
+                framePosition += count;
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return frameLength - framePosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            endOfStream = true;
+            try {
+                bitstream.close();
+            } catch (BitstreamException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+}
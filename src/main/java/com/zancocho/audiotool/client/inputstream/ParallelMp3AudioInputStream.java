@@ -0,0 +1,299 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import com.zancocho.audiotool.mp3.Mp3FrameHeader;
+import com.zancocho.audiotool.mp3.Mp3FrameIndex;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * @author Jose A.H
+ *
+ * ParallelMp3AudioInputStream: decode a mp3 file on all the cores. The frame headers are indexed (Mp3FrameIndex),
+ * the frames are split in segments and every segment is decoded by a task of a ForkJoinPool. A segment starts to
+ * decode a few frames before its first frame (see Mp3FrameIndex.getWarmUpFrame), to fill the bit reservoir and the
+ * overlap of the synthesis filter, so the samples are bit exact with a decode from the start of the file
+ * (Mp3AudioInputStream).
+ *
+ * The segments are read in order and only a few of them are decoded ahead of the reader (two per thread of the
+ * pool), so the memory does not depend on the length of the file. The last segment is decoded to the end of the
+ * file, as a sequential decode does.
+ */
+public class ParallelMp3AudioInputStream extends AudioInputStream {
+
+    // 256 frames are 6.7 seconds at 44100 Hz, the warm up is a few frames
+    public static final int DEFAULT_SEGMENT_FRAMES = 256;
+
+    private final SegmentInputStream segmentInputStream;
+
+    private ParallelMp3AudioInputStream(SegmentInputStream segmentInputStream, AudioFormat audioFormat) {
+        super(segmentInputStream, audioFormat, AudioSystem.NOT_SPECIFIED);
+        this.segmentInputStream = segmentInputStream;
+    }
+
+    /**
+     * getAudioInputStream: decode the mp3 file on the common pool, in segments of DEFAULT_SEGMENT_FRAMES.
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static ParallelMp3AudioInputStream getAudioInputStream(File file) throws IOException, UnsupportedAudioFileException {
+        return getAudioInputStream(file, ForkJoinPool.commonPool(), DEFAULT_SEGMENT_FRAMES);
+    }
+
+    /**
+     * getAudioInputStream: decode the mp3 file on the pool, in segments of the given number of frames.
+     * @param file
+     * @param pool
+     * @param segmentFrames
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static ParallelMp3AudioInputStream getAudioInputStream(File file, ForkJoinPool pool, int segmentFrames) throws IOException, UnsupportedAudioFileException {
+        if(segmentFrames < 1)
+            throw new IllegalArgumentException("A segment must have at least one frame");
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            Mp3FrameIndex index = Mp3FrameIndex.read(channel, Long.MAX_VALUE);
+            if(index.getFrameCount() == 0)
+                throw new UnsupportedAudioFileException("No mp3 frame found in the file");
+
+            // the format of the samples of jlayer, see Mp3AudioInputStream
+            Mp3FrameHeader header = index.getFirstFrameHeader();
+            int channels = header.getChannels();
+            float sampleRate = header.getSampleRate();
+            AudioFormat audioFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleRate, 16, channels, channels * 2, sampleRate, false);
+
+            return new ParallelMp3AudioInputStream(new SegmentInputStream(channel, index, pool, segmentFrames), audioFormat);
+
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * getSegmentCount: number of segments decoded by the tasks.
+     * @return
+     */
+    public int getSegmentCount() {
+        return segmentInputStream.segmentCount;
+    }
+
+    /**
+     * SegmentInputStream: byte view of the decoded segments, in order. The tasks of the next segments are
+     * submitted while the current one is read.
+     */
+    private static class SegmentInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final Mp3FrameIndex index;
+        private final ForkJoinPool pool;
+        private final int segmentFrames;
+        private final int segmentCount;
+        private final int maxPendingSegments;
+        private final Deque<ForkJoinTask<byte[]>> pendingSegments = new ArrayDeque<>();
+        private int nextSegment;
+
+        private byte[] segment = new byte[0];
+        private int segmentPosition;
+        private boolean closed;
+
+        SegmentInputStream(FileChannel channel, Mp3FrameIndex index, ForkJoinPool pool, int segmentFrames) {
+            this.channel = channel;
+            this.index = index;
+            this.pool = pool;
+            this.segmentFrames = segmentFrames;
+            this.segmentCount = (index.getFrameCount() + segmentFrames - 1) / segmentFrames;
+            this.maxPendingSegments = Math.max(2, 2 * pool.getParallelism());
+        }
+
+        /**
+         * submitSegments: submit the tasks of the next segments, up to maxPendingSegments decoded ahead.
+         */
+        private void submitSegments() {
+            while(pendingSegments.size() < maxPendingSegments && nextSegment < segmentCount){
+                int first = nextSegment * segmentFrames;
+                int last = Math.min(first + segmentFrames, index.getFrameCount());
+                boolean toEnd = ++nextSegment == segmentCount;
+                pendingSegments.add(pool.submit(() -> decodeSegment(first, last, toEnd)));
+            }
+        }
+
+        /**
+         * nextSegment: wait for the next segment in order.
+         * @return false when all the segments were read
+         * @throws IOException
+         */
+        private boolean nextSegment() throws IOException {
+            if(closed)
+                return false;
+
+            submitSegments();
+            ForkJoinTask<byte[]> task = pendingSegments.poll();
+            if(task == null)
+                return false;
+
+            try {
+                segment = task.get();
+                segmentPosition = 0;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof IOException)
+                    throw (IOException) cause;
+                throw new IOException("ERROR decoding MP3: " + cause, cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("ERROR decoding MP3: interrupted", e);
+            }
+
+            submitSegments();
+            return true;
+        }
+
+        /**
+         * decodeSegment: decode the frames from first to last (excluded). The decoding starts at the warm up frame
+         * of first, the frames before first are decoded and dropped. The last segment is decoded to the end of the
+         * file.
+         * @param first
+         * @param last
+         * @param toEnd
+         * @return the samples of the segment
+         * @throws IOException
+         */
+        private byte[] decodeSegment(int first, int last, boolean toEnd) throws IOException {
+            int warmUpFrame = index.getWarmUpFrame(first);
+            long start = index.getFrameOffset(warmUpFrame);
+            long end = toEnd ? channel.size() : index.getFrameOffset(last);
+
+            // positional reads, the channel is shared by the tasks
+            ByteBuffer data = ByteBuffer.allocate((int) (end - start));
+            while(data.hasRemaining()){
+                if(channel.read(data, start + data.position()) < 0)
+                    break;
+            }
+
+            Bitstream bitstream = new Bitstream(new ByteArrayInputStream(data.array(), 0, data.position()));
+            Decoder decoder = new Decoder();
+            int frameSize = index.getFirstFrameHeader().getChannels() * 2;
+            byte[] samples = new byte[(last - first) * index.getSamplesPerFrame() * frameSize];
+            int length = 0;
+
+            try {
+                /*
+                 jlayer gives no samples for a frame whose bit reservoir is missing, so the warm up frames are
+                 dropped by count and not by number of samples, as in Mp3AudioInputStream.
+                 */
+                int frames = toEnd ? Integer.MAX_VALUE : last - warmUpFrame;
+                for(int frame = 0; frame < frames; frame++){
+                    Header header = bitstream.readFrame();
+                    if(header == null)
+                        break;
+
+                    SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                    bitstream.closeFrame();
+                    if(warmUpFrame + frame < first)
+                        continue;
+
+                    short[] buffer = output.getBuffer();
+                    int bufferLength = output.getBufferLength();
+                    if(length + bufferLength * 2 > samples.length)
+                        samples = Arrays.copyOf(samples, Math.max(samples.length * 2, length + bufferLength * 2));
+
+                    for(int i = 0; i < bufferLength; i++, length += 2){
+                        short sample = buffer[i];
+                        samples[length] = (byte) sample;
+                        samples[length + 1] = (byte) (sample >>> 8);
+                    }
+                }
+
+            } catch (BitstreamException | DecoderException e) {
+                throw new IOException("ERROR decoding MP3: " + e.getMessage(), e);
+            }
+
+            return length == samples.length ? samples : Arrays.copyOf(samples, length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            while(segmentPosition >= segment.length){
+                if(!nextSegment())
+                    return -1;
+            }
+            return segment[segmentPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+
+            int total = 0;
+            while(total < len){
+                if(segmentPosition >= segment.length && !nextSegment())
+                    break;
+
+                int count = Math.min(len - total, segment.length - segmentPosition);
+                System.arraycopy(segment, segmentPosition, b, off + total, count);
+                segmentPosition += count;
+                total += count;
+            }
+
+            return total == 0 ? -1 : total;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while(skipped < n){
+                if(segmentPosition >= segment.length && !nextSegment())
+                    break;
+
+                int count = (int) Math.min(n - skipped, segment.length - segmentPosition);
+                segmentPosition += count;
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return segment.length - segmentPosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            for(ForkJoinTask<byte[]> task : pendingSegments){
+                task.cancel(false);
+            }
+            pendingSegments.clear();
+            segment = new byte[0];
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * @author Jose A.H
+ *
+ * PcmFloatSource: the input of the float pipeline, reads the bytes of a PCM stream (a decoder, a wav file...) and
+ * converts them to float samples (see FloatSampleCodec). A frame split between two reads is kept for the next one.
+ */
+public class PcmFloatSource implements FloatAudioSource {
+
+    private final AudioInputStream audioInputStream;
+    private final FloatSampleCodec codec;
+    private final int frameSize;
+    private byte[] bytes = new byte[0];
+    // bytes of an incomplete frame at the start of bytes
+    private int pendingBytes;
+
+    public PcmFloatSource(AudioInputStream audioInputStream) {
+        this.audioInputStream = audioInputStream;
+        this.codec = FloatSampleCodec.forFormat(audioInputStream.getFormat());
+        this.frameSize = audioInputStream.getFormat().getFrameSize();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return audioInputStream.getFormat();
+    }
+
+    @Override
+    public long getFrameLength() {
+        return audioInputStream.getFrameLength();
+    }
+
+    @Override
+    public int read(FloatAudioBuffer buffer, int offset, int frames) throws IOException {
+        if(frames == 0)
+            return 0;
+
+        int length = frames * frameSize;
+        if(bytes.length < length)
+            bytes = Arrays.copyOf(bytes, length);
+
+        // read until there is a whole frame, the streams can return part of a frame
+        pendingBytes = ResamplingAudioInputStream.readFrames(audioInputStream, bytes, pendingBytes, length, frameSize);
+        if(pendingBytes < frameSize)
+            return -1;
+
+        int framesRead = pendingBytes / frameSize;
+        codec.decode(bytes, 0, buffer, offset, framesRead);
+
+        int rest = pendingBytes - framesRead * frameSize;
+        System.arraycopy(bytes, framesRead * frameSize, bytes, 0, rest);
+        pendingBytes = rest;
+        return framesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        audioInputStream.close();
+    }
+}
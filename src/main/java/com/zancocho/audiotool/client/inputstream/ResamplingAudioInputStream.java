@@ -0,0 +1,327 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * @author Jose A.H
+ *
+ * ResamplingAudioInputStream: streaming sample rate converter for 16 bit little endian PCM. The ratio of the rates is
+ * reduced to L/M (e.g. 44100 to 48000 is 160/147) and every output sample is the input filtered by one phase of a
+ * polyphase windowed-sinc low pass filter (Kaiser window), so the quality does not depend on the ratio.
+ *
+ * The filter has 16 zero crossings on each side and a cutoff at 95% of the lower Nyquist frequency, which keeps the
+ * aliasing below -80 dB. It is symmetric (zero phase), so the output is aligned with the input and has
+ * ceil(frames * L / M) frames. Only the filter window of every channel is kept in memory.
+ *
+ * The phases are computed once, when L is not above 4096 (all the usual rates). For other ratios the coefficients
+ * are computed for every output frame.
+ */
+public class ResamplingAudioInputStream extends AudioInputStream {
+
+    private static final int ZERO_CROSSINGS = 16;
+    private static final double ROLLOFF = 0.95;
+    private static final double KAISER_BETA = 8.6;
+    private static final int MAX_PHASES = 4096;
+    private static final int BLOCK_FRAMES = 4096;
+    // reads of 0 bytes in a row before a source is considered stalled
+    static final int MAX_EMPTY_READS = 1000;
+
+    private final AudioInputStream source;
+    private final int channels;
+    private final int upFactor;
+    private final int downFactor;
+    private final double cutoff;
+    private final int halfTaps;
+    private final float[][] phases;
+    private final float[] coefficients;
+
+    // input window of every channel: frames from inputOffset, the frames before the first one are zeros
+    private final float[][] input;
+    private long inputOffset;
+    private int inputLength;
+    private long totalInputFrames = -1;
+
+    private long outputPosition;
+    private byte[] readBuffer = new byte[0];
+
+    /**
+     * ResamplingAudioInputStream: resample the source to the sample rate.
+     * @param source 16 bit signed little endian PCM
+     * @param sampleRate
+     */
+    public ResamplingAudioInputStream(AudioInputStream source, float sampleRate) {
+        this(source, source.getFormat(), Math.round(source.getFormat().getSampleRate()), Math.round(sampleRate));
+    }
+
+    private ResamplingAudioInputStream(AudioInputStream source, AudioFormat sourceFormat, int sourceRate, int targetRate) {
+        super(new ByteArrayInputStream(new byte[0]),
+                new AudioFormat(targetRate, 16, sourceFormat.getChannels(), true, false),
+                getFrameLength(source.getFrameLength(), sourceRate, targetRate));
+
+        if(!isPcm16(sourceFormat))
+            throw new IllegalArgumentException("Only 16 bit little endian PCM can be resampled: " + sourceFormat);
+        if(sourceRate <= 0 || targetRate <= 0)
+            throw new IllegalArgumentException("Sample rate not supported: " + sourceRate + " to " + targetRate);
+
+        this.source = source;
+        this.channels = sourceFormat.getChannels();
+
+        int gcd = gcd(sourceRate, targetRate);
+        this.upFactor = targetRate / gcd;
+        this.downFactor = sourceRate / gcd;
+
+        this.cutoff = ROLLOFF * Math.min(1.0, (double) upFactor / downFactor);
+        this.halfTaps = (int) Math.ceil(ZERO_CROSSINGS / cutoff);
+
+        this.coefficients = new float[2 * halfTaps];
+        if(upFactor <= MAX_PHASES){
+            phases = new float[upFactor][];
+            for(int phase = 0; phase < upFactor; phase++){
+                phases[phase] = computePhase(phase, new float[2 * halfTaps]);
+            }
+        } else {
+            phases = null;
+        }
+
+        this.input = new float[channels][2 * halfTaps + 2 * BLOCK_FRAMES];
+        // the window of the first output frame starts halfTaps - 1 frames before the input
+        this.inputOffset = -(halfTaps - 1);
+        this.inputLength = halfTaps - 1;
+    }
+
+    /**
+     * readFrames: read the source into the buffer until it has at least one frame and only whole frames, or the
+     * source ends. A read of 0 bytes is retried after a yield, at most MAX_EMPTY_READS times in a row.
+     * @param source
+     * @param buffer
+     * @param bytes bytes already in the buffer
+     * @param length size of the buffer to fill, a multiple of frameSize
+     * @param frameSize
+     * @return the bytes in the buffer, less than a frame or not whole frames only at the end of the source
+     * @throws IOException if the source stalls
+     */
+    static int readFrames(AudioInputStream source, byte[] buffer, int bytes, int length, int frameSize) throws IOException {
+        int emptyReads = 0;
+        while(bytes < frameSize || bytes % frameSize != 0){
+            int read = source.read(buffer, bytes, length - bytes);
+            if(read < 0)
+                break;
+            if(read > 0){
+                emptyReads = 0;
+            } else if(++emptyReads > MAX_EMPTY_READS){
+                throw new IOException("ERROR reading audio: the source returns no data");
+            } else {
+                Thread.yield();
+            }
+            bytes += read;
+        }
+        return bytes;
+    }
+
+    static boolean isPcm16(AudioFormat audioFormat) {
+        return audioFormat.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED)
+                && audioFormat.getSampleSizeInBits() == 16
+                && audioFormat.getFrameSize() == 2 * audioFormat.getChannels()
+                && !audioFormat.isBigEndian();
+    }
+
+    private static long getFrameLength(long sourceFrameLength, int sourceRate, int targetRate) {
+        if(sourceFrameLength == AudioSystem.NOT_SPECIFIED)
+            return AudioSystem.NOT_SPECIFIED;
+
+        int gcd = gcd(sourceRate, targetRate);
+        long up = targetRate / gcd;
+        long down = sourceRate / gcd;
+        return (sourceFrameLength * up + down - 1) / down;
+    }
+
+    private static int gcd(int a, int b) {
+        while(b != 0){
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * computePhase: coefficients of the phase, for the input frames from (i - halfTaps + 1) to (i + halfTaps) of
+     * an output frame at the input position i + phase / L. They are normalized so the gain at DC is exactly 1.
+     * @param phase
+     * @param phaseCoefficients
+     * @return
+     */
+    private float[] computePhase(int phase, float[] phaseCoefficients) {
+        double fraction = (double) phase / upFactor;
+        double sum = 0;
+        double[] values = new double[phaseCoefficients.length];
+        for(int j = 0; j < values.length; j++){
+            double t = fraction + halfTaps - 1 - j;
+            values[j] = cutoff * sinc(cutoff * t) * kaiser(t / halfTaps);
+            sum += values[j];
+        }
+        for(int j = 0; j < values.length; j++){
+            phaseCoefficients[j] = (float) (values[j] / sum);
+        }
+        return phaseCoefficients;
+    }
+
+    private static double sinc(double x) {
+        if(x == 0)
+            return 1.0;
+        return Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+
+    private static double kaiser(double x) {
+        if(x <= -1 || x >= 1)
+            return 0;
+        return besselI0(KAISER_BETA * Math.sqrt(1 - x * x)) / besselI0(KAISER_BETA);
+    }
+
+    /**
+     * besselI0: modified Bessel function of the first kind, order 0 (power series).
+     * @param x
+     * @return
+     */
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double halfX = x / 2;
+        for(int k = 1; k < 50; k++){
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if(term < sum * 1e-12)
+                break;
+        }
+        return sum;
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new IOException("cannot read a single byte if frame size > 1");
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int frameSize = 2 * channels;
+        int frames = len / frameSize;
+        if(frames == 0)
+            return 0;
+
+        int written = 0;
+        while(written < frames){
+            long position = outputPosition * downFactor;
+            long center = position / upFactor;
+            int phase = (int) (position % upFactor);
+
+            if(totalInputFrames >= 0 && outputPosition >= getTotalOutputFrames())
+                break;
+
+            // the input frames up to center + halfTaps must be in the window, or the source must be finished
+            long last = center + halfTaps;
+            if(last >= inputOffset + inputLength && totalInputFrames < 0){
+                fill(center - halfTaps + 1);
+                continue;
+            }
+
+            float[] phaseCoefficients = phases != null ? phases[phase] : computePhase(phase, coefficients);
+            int start = (int) (center - halfTaps + 1 - inputOffset);
+            int taps = phaseCoefficients.length;
+            int available = Math.min(taps, inputLength - start);
+
+            int outputOffset = off + written * frameSize;
+            for(int channel = 0; channel < channels; channel++){
+                float[] samples = input[channel];
+                float sum = 0;
+                for(int j = 0; j < available; j++){
+                    sum += samples[start + j] * phaseCoefficients[j];
+                }
+
+                int sample = Math.round(sum);
+                if(sample > Short.MAX_VALUE)
+                    sample = Short.MAX_VALUE;
+                else if(sample < Short.MIN_VALUE)
+                    sample = Short.MIN_VALUE;
+
+                b[outputOffset + 2 * channel] = (byte) sample;
+                b[outputOffset + 2 * channel + 1] = (byte) (sample >> 8);
+            }
+
+            outputPosition++;
+            written++;
+        }
+
+        return written == 0 ? -1 : written * frameSize;
+    }
+
+    private long getTotalOutputFrames() {
+        return (totalInputFrames * upFactor + downFactor - 1) / downFactor;
+    }
+
+    /**
+     * fill: read the next block of the source into the window. The frames before windowStart are no longer needed
+     * and are discarded first. At the end of the source, totalInputFrames is set.
+     * @param windowStart
+     * @throws IOException
+     */
+    private void fill(long windowStart) throws IOException {
+        int discard = (int) Math.max(0, Math.min(windowStart - inputOffset, inputLength));
+        if(discard > 0){
+            for(int channel = 0; channel < channels; channel++){
+                System.arraycopy(input[channel], discard, input[channel], 0, inputLength - discard);
+            }
+            inputOffset += discard;
+            inputLength -= discard;
+        }
+
+        int frameSize = 2 * channels;
+        int frames = Math.min(BLOCK_FRAMES, input[0].length - inputLength);
+        if(readBuffer.length < frames * frameSize)
+            readBuffer = new byte[frames * frameSize];
+
+        int bytes = readFrames(source, readBuffer, 0, frames * frameSize, frameSize);
+        int framesRead = bytes / frameSize;
+        for(int frame = 0; frame < framesRead; frame++){
+            for(int channel = 0; channel < channels; channel++){
+                int index = frame * frameSize + 2 * channel;
+                input[channel][inputLength + frame] = (short) ((readBuffer[index] & 0xFF) | (readBuffer[index + 1] << 8));
+            }
+        }
+        inputLength += framesRead;
+
+        if(bytes < frameSize)
+            totalInputFrames = inputOffset + inputLength;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[Math.max(2 * channels, (int) Math.min(n, 64 * 1024)) / (2 * channels) * (2 * channels)];
+        long skipped = 0;
+        while(skipped < n){
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if(read <= 0)
+                break;
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
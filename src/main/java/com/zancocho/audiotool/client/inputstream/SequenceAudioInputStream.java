@@ -50,8 +50,6 @@ import javax.sound.sampled.AudioSystem;
 public class SequenceAudioInputStream
         extends AudioInputStream {
 
-    private static final boolean DEBUG = true;
-
     private List m_audioInputStreamList;
     private int m_nCurrentStream;
 
@@ -61,37 +59,6 @@ public class SequenceAudioInputStream
         m_nCurrentStream = 0;
     }
 
-    // TODO: remove
-    private boolean addAudioInputStream(AudioInputStream audioStream) {
-        if (DEBUG) {
-            out("SequenceAudioInputStream.addAudioInputStream(): called.");
-        }
-        // Contract.check(audioStream != null);
-        if (!getFormat().matches(audioStream.getFormat())) {
-            if (DEBUG) {
-                out("SequenceAudioInputStream.addAudioInputStream(): audio formats do not match, trying to convert.");
-            }
-            AudioInputStream asold = audioStream;
-            audioStream = AudioSystem.getAudioInputStream(getFormat(), asold);
-            if (audioStream == null) {
-                out("###  SequenceAudioInputStream.addAudioInputStream(): could not convert.");
-                return false;
-            }
-            if (DEBUG) {
-                out(" converted");
-            }
-        }
-        // Contract.check(audioStream != null);
-        synchronized (m_audioInputStreamList) {
-            m_audioInputStreamList.add(audioStream);
-            m_audioInputStreamList.notifyAll();
-        }
-        if (DEBUG) {
-            out("SequenceAudioInputStream.addAudioInputStream(): enqueued " + audioStream);
-        }
-        return true;
-    }
-
     private AudioInputStream getCurrentStream() {
         return (AudioInputStream) m_audioInputStreamList.get(m_nCurrentStream);
     }
@@ -117,8 +84,15 @@ public class SequenceAudioInputStream
         return lLengthInFrames;
     }
 
+    private boolean isFinished() {
+        return m_nCurrentStream >= m_audioInputStreamList.size();
+    }
+
     public int read()
             throws IOException {
+        if (isFinished()) {
+            return -1;
+        }
         AudioInputStream stream = getCurrentStream();
         int nByte = stream.read();
         if (nByte == -1) {
@@ -149,6 +123,12 @@ public class SequenceAudioInputStream
 
     public int read(byte[] abData, int nOffset, int nLength)
             throws IOException {
+        /*
+         EOF is signaled again if the stream is read after the end.
+         */
+        if (isFinished()) {
+            return -1;
+        }
         AudioInputStream stream = getCurrentStream();
         int nBytesRead = stream.read(abData, nOffset, nLength);
         if (nBytesRead == -1) {
@@ -184,7 +164,7 @@ public class SequenceAudioInputStream
 
     public int available()
             throws IOException {
-        return getCurrentStream().available();
+        return isFinished() ? 0 : getCurrentStream().available();
     }
 
     public void close()
@@ -204,8 +184,4 @@ public class SequenceAudioInputStream
     public boolean markSupported() {
         return false;
     }
-
-    private static void out(String strMessage) {
-        System.out.println(strMessage);
-    }
 }
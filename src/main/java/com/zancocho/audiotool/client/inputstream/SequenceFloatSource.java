@@ -0,0 +1,72 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Jose A.H
+ *
+ * SequenceFloatSource: play float stages one after the other, as SequenceAudioInputStream does with bytes. The
+ * sources must have the same sample rate and channels, the format of the first one is the format of the sequence.
+ */
+public class SequenceFloatSource implements FloatAudioSource {
+
+    private final List<FloatAudioSource> sources;
+    private int current;
+
+    public SequenceFloatSource(List<FloatAudioSource> sources) {
+        if(sources.isEmpty())
+            throw new IllegalArgumentException("A sequence needs at least one source");
+
+        int channels = sources.get(0).getFormat().getChannels();
+        for(FloatAudioSource source : sources){
+            if(source.getFormat().getChannels() != channels)
+                throw new IllegalArgumentException("The sources of a sequence must have the same channels: " + source.getFormat());
+        }
+        this.sources = new ArrayList<>(sources);
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return sources.get(0).getFormat();
+    }
+
+    @Override
+    public long getFrameLength() {
+        long length = 0;
+        for(FloatAudioSource source : sources){
+            if(source.getFrameLength() == AudioSystem.NOT_SPECIFIED)
+                return AudioSystem.NOT_SPECIFIED;
+            length += source.getFrameLength();
+        }
+        return length;
+    }
+
+    @Override
+    public int read(FloatAudioBuffer buffer, int offset, int frames) throws IOException {
+        while(current < sources.size()){
+            int read = sources.get(current).read(buffer, offset, frames);
+            if(read >= 0)
+                return read;
+            current++;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for(FloatAudioSource source : sources){
+            try {
+                source.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if(exception != null)
+            throw exception;
+    }
+}
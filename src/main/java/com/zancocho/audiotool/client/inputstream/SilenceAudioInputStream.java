@@ -0,0 +1,112 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * @author Jose A.H
+ *
+ * SilenceAudioInputStream: generate silence of any length in any PCM, A-law or u-law format. Nothing is read from
+ * disk, so padding an audio with silence costs no I/O. With a frame length of AudioSystem.NOT_SPECIFIED the
+ * silence never ends.
+ */
+public class SilenceAudioInputStream extends AudioInputStream {
+
+    public SilenceAudioInputStream(AudioFormat audioFormat, long frameLength) {
+        super(new SilenceInputStream(getSilentFrame(audioFormat)), audioFormat, frameLength);
+    }
+
+    /**
+     * ofSeconds: silence of the given duration in seconds.
+     * @param audioFormat
+     * @param seconds
+     * @return
+     */
+    public static SilenceAudioInputStream ofSeconds(AudioFormat audioFormat, float seconds) {
+        return new SilenceAudioInputStream(audioFormat, Math.round(seconds * audioFormat.getFrameRate()));
+    }
+
+    /**
+     * getSilentFrame: return the bytes of one frame of silence in the given format.
+     * @param audioFormat
+     * @return
+     */
+    static byte[] getSilentFrame(AudioFormat audioFormat) {
+        int frameSize = audioFormat.getFrameSize();
+        int channels = audioFormat.getChannels();
+        if(frameSize == AudioSystem.NOT_SPECIFIED || frameSize <= 0 || channels <= 0)
+            throw new IllegalArgumentException("Audio format without a frame size: " + audioFormat);
+
+        byte[] frame = new byte[frameSize];
+        int sampleSize = frameSize / channels;
+        AudioFormat.Encoding encoding = audioFormat.getEncoding();
+
+        if(encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)){
+            // The middle of the range: 0x80 in the most significant byte, 0 in the rest.
+            for(int channel = 0; channel < channels; channel++){
+                int msbOffset = channel * sampleSize + (audioFormat.isBigEndian() ? 0 : sampleSize - 1);
+                frame[msbOffset] = (byte) 0x80;
+            }
+        } else if(encoding.equals(AudioFormat.Encoding.ULAW)){
+            Arrays.fill(frame, (byte) 0xFF);
+        } else if(encoding.equals(AudioFormat.Encoding.ALAW)){
+            Arrays.fill(frame, (byte) 0xD5);
+        }
+
+        return frame;
+    }
+
+    /**
+     * SilenceInputStream: endless repetition of one silent frame.
+     */
+    private static class SilenceInputStream extends InputStream {
+
+        private final byte[] silentFrame;
+        private final boolean zero;
+        private int position;
+
+        SilenceInputStream(byte[] silentFrame) {
+            this.silentFrame = silentFrame;
+            boolean allZero = true;
+            for(byte b : silentFrame){
+                allZero &= b == 0;
+            }
+            this.zero = allZero;
+        }
+
+        @Override
+        public int read() {
+            int value = silentFrame[position] & 0xFF;
+            position = (position + 1) % silentFrame.length;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(zero){
+                Arrays.fill(b, off, off + len, (byte) 0);
+                return len;
+            }
+
+            for(int i = 0; i < len; i++){
+                b[off + i] = silentFrame[position];
+                position = (position + 1) % silentFrame.length;
+            }
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            position = (int) ((position + n) % silentFrame.length);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return Integer.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * @author Jose A.H
+ *
+ * SilenceFloatSource: silence as a float stage, as SilenceAudioInputStream does with bytes. With a frame length of
+ * AudioSystem.NOT_SPECIFIED the silence never ends.
+ */
+public class SilenceFloatSource implements FloatAudioSource {
+
+    private final AudioFormat audioFormat;
+    private final long frameLength;
+    private long position;
+
+    public SilenceFloatSource(AudioFormat audioFormat, long frameLength) {
+        this.audioFormat = audioFormat;
+        this.frameLength = frameLength;
+    }
+
+    /**
+     * ofSeconds: silence of the given duration in seconds.
+     * @param audioFormat
+     * @param seconds
+     * @return
+     */
+    public static SilenceFloatSource ofSeconds(AudioFormat audioFormat, float seconds) {
+        return new SilenceFloatSource(audioFormat, Math.round(seconds * audioFormat.getFrameRate()));
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return audioFormat;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    @Override
+    public int read(FloatAudioBuffer buffer, int offset, int frames) {
+        if(frames == 0)
+            return 0;
+
+        int read = frameLength == AudioSystem.NOT_SPECIFIED ? frames : (int) Math.min(frames, frameLength - position);
+        if(read <= 0)
+            return -1;
+
+        buffer.clear(offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,235 @@
+package com.zancocho.audiotool.client.inputstream;
+
+import java.util.Arrays;
+
+/**
+ * @author Jose A.H
+ *
+ * SoftLimiter: lookahead peak limiter used by MixingAudioInputStream and MixingFloatSource. The same gain is applied
+ * to all the channels of a frame, so the stereo image does not move.
+ *
+ * For every input frame the gain needed to keep its peak under the threshold is calculated. The gain applied is the
+ * minimum of those gains over the lookahead window, smoothed with a moving average of the same length, so it goes
+ * down gradually before a peak arrives and the peak never passes the threshold. After the peak the gain goes back
+ * to 1 with an exponential release. The output is delayed by getLatencyFrames() frames.
+ *
+ * A limiter keeps state between blocks, so an instance can only be used by one stream.
+ */
+public class SoftLimiter {
+
+    public static final float DEFAULT_THRESHOLD_DECIBELS = -1.0f;
+    public static final float DEFAULT_LOOKAHEAD_MILLIS = 5.0f;
+    public static final float DEFAULT_RELEASE_MILLIS = 50.0f;
+
+    private final float thresholdDecibels;
+    private final float lookaheadMillis;
+    private final float releaseMillis;
+
+    private int channels;
+    private int lookaheadFrames;
+    private float threshold;
+    private float releaseCoefficient;
+
+    // delay line of the samples, lookaheadFrames - 1 frames long
+    private float[] delayLine;
+    private int delayPosition;
+
+    // monotonic deque of the required gains of the last lookaheadFrames frames (sliding minimum)
+    private float[] minimumValues;
+    private long[] minimumIndexes;
+    private int minimumHead;
+    private int minimumSize;
+    private long frameIndex;
+
+    // moving average of the sliding minimum
+    private float[] averageWindow;
+    private int averagePosition;
+    private double averageSum;
+
+    private float envelope = 1.0f;
+
+    public SoftLimiter() {
+        this(DEFAULT_THRESHOLD_DECIBELS, DEFAULT_LOOKAHEAD_MILLIS, DEFAULT_RELEASE_MILLIS);
+    }
+
+    public SoftLimiter(float thresholdDecibels, float lookaheadMillis, float releaseMillis) {
+        if(thresholdDecibels > 0)
+            throw new IllegalArgumentException("The threshold must be <= 0 dBFS");
+        if(lookaheadMillis <= 0 || releaseMillis <= 0)
+            throw new IllegalArgumentException("Lookahead and release must be > 0");
+
+        this.thresholdDecibels = thresholdDecibels;
+        this.lookaheadMillis = lookaheadMillis;
+        this.releaseMillis = releaseMillis;
+    }
+
+    /**
+     * init: prepare the limiter for a stream. It is called by the mixer before the first block.
+     * @param channels
+     * @param frameRate
+     */
+    void init(int channels, float frameRate) {
+        this.channels = channels;
+        this.lookaheadFrames = Math.max(1, Math.round(lookaheadMillis * frameRate / 1000.0f));
+        this.threshold = (float) Math.pow(10.0, thresholdDecibels / 20.0);
+        this.releaseCoefficient = (float) (1.0 - Math.exp(-1.0 / (releaseMillis * frameRate / 1000.0)));
+
+        this.delayLine = new float[Math.max(1, (lookaheadFrames - 1) * channels)];
+        this.delayPosition = 0;
+        this.minimumValues = new float[lookaheadFrames];
+        this.minimumIndexes = new long[lookaheadFrames];
+        this.minimumHead = 0;
+        this.minimumSize = 0;
+        this.frameIndex = 0;
+        this.averageWindow = new float[lookaheadFrames];
+        Arrays.fill(averageWindow, 1.0f);
+        this.averagePosition = 0;
+        this.averageSum = lookaheadFrames;
+        this.envelope = 1.0f;
+    }
+
+    /**
+     * getLatencyFrames: number of frames the output is delayed.
+     * @return
+     */
+    public int getLatencyFrames() {
+        return lookaheadFrames - 1;
+    }
+
+    /**
+     * process: limit the interleaved samples in place. fullScale is the value of a sample at 0 dBFS in the units
+     * of the samples (e.g. 32768 for 16 bit samples stored as float).
+     * @param samples
+     * @param frames
+     * @param fullScale
+     */
+    void process(float[] samples, int frames, float fullScale) {
+        float ceiling = threshold * fullScale;
+        int delayFrames = lookaheadFrames - 1;
+
+        for(int frame = 0, offset = 0; frame < frames; frame++, offset += channels){
+            float peak = 0.0f;
+            for(int channel = 0; channel < channels; channel++){
+                peak = Math.max(peak, Math.abs(samples[offset + channel]));
+            }
+            float gain = nextGain(peak, ceiling);
+
+            if(delayFrames == 0){
+                for(int channel = 0; channel < channels; channel++){
+                    samples[offset + channel] *= gain;
+                }
+            } else {
+                int delayOffset = delayPosition * channels;
+                for(int channel = 0; channel < channels; channel++){
+                    float delayed = delayLine[delayOffset + channel];
+                    delayLine[delayOffset + channel] = samples[offset + channel];
+                    samples[offset + channel] = delayed * gain;
+                }
+                delayPosition = (delayPosition + 1) % delayFrames;
+            }
+        }
+    }
+
+    /**
+     * process: limit the planar samples of the buffer in place, from offset on, for the float stages. The samples
+     * are normalized, full scale is 1.0.
+     * @param buffer
+     * @param offset
+     * @param frames
+     */
+    void process(FloatAudioBuffer buffer, int offset, int frames) {
+        float[][] samples = buffer.getSamples();
+        int delayFrames = lookaheadFrames - 1;
+
+        for(int frame = offset; frame < offset + frames; frame++){
+            float peak = 0.0f;
+            for(int channel = 0; channel < channels; channel++){
+                peak = Math.max(peak, Math.abs(samples[channel][frame]));
+            }
+            float gain = nextGain(peak, threshold);
+
+            if(delayFrames == 0){
+                for(int channel = 0; channel < channels; channel++){
+                    samples[channel][frame] *= gain;
+                }
+            } else {
+                int delayOffset = delayPosition * channels;
+                for(int channel = 0; channel < channels; channel++){
+                    float delayed = delayLine[delayOffset + channel];
+                    delayLine[delayOffset + channel] = samples[channel][frame];
+                    samples[channel][frame] = delayed * gain;
+                }
+                delayPosition = (delayPosition + 1) % delayFrames;
+            }
+        }
+    }
+
+    /**
+     * nextGain: the gain of the next frame, from the peak of the frame that enters the lookahead window.
+     * @param peak
+     * @param ceiling the threshold in the units of the samples
+     * @return
+     */
+    private float nextGain(float peak, float ceiling) {
+        float requiredGain = peak > ceiling ? ceiling / peak : 1.0f;
+        float minimum = pushMinimum(requiredGain);
+
+        averageSum += minimum - averageWindow[averagePosition];
+        averageWindow[averagePosition] = minimum;
+        averagePosition = (averagePosition + 1) % lookaheadFrames;
+        float gain = (float) Math.min(1.0, averageSum / lookaheadFrames);
+
+        if(gain < envelope)
+            envelope = gain;
+        else
+            envelope += (gain - envelope) * releaseCoefficient;
+        return envelope;
+    }
+
+    /**
+     * pushMinimum: add the required gain of the current frame and return the minimum of the last lookaheadFrames.
+     * @param value
+     * @return
+     */
+    private float pushMinimum(float value) {
+        int capacity = minimumValues.length;
+
+        // drop the entry that left the window
+        if(minimumSize > 0 && minimumIndexes[minimumHead] <= frameIndex - lookaheadFrames){
+            minimumHead = (minimumHead + 1) % capacity;
+            minimumSize--;
+        }
+
+        // drop the entries that are not smaller than the new value
+        while(minimumSize > 0 && minimumValues[(minimumHead + minimumSize - 1) % capacity] >= value){
+            minimumSize--;
+        }
+        int tail = (minimumHead + minimumSize) % capacity;
+        minimumValues[tail] = value;
+        minimumIndexes[tail] = frameIndex;
+        minimumSize++;
+
+        frameIndex++;
+        return minimumValues[minimumHead];
+    }
+
+    /**
+     * copy: a new limiter with the same settings and no state.
+     * @return
+     */
+    public SoftLimiter copy() {
+        return new SoftLimiter(thresholdDecibels, lookaheadMillis, releaseMillis);
+    }
+
+    public float getThresholdDecibels() {
+        return thresholdDecibels;
+    }
+
+    public float getLookaheadMillis() {
+        return lookaheadMillis;
+    }
+
+    public float getReleaseMillis() {
+        return releaseMillis;
+    }
+}
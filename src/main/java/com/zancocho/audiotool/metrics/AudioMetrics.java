@@ -0,0 +1,51 @@
+package com.zancocho.audiotool.metrics;
+
+/**
+ * @author Jose A.H
+ *
+ * AudioMetrics: receives the measures of every operation of the client, so a slow operation can be split in the
+ * time spent decoding, cutting, padding, mixing or encoding. The operation is the name of the job (JOIN, BLEND,
+ * BLEND_WITH_OFFSET, CUT, CONVERT).
+ *
+ * The stages are measured by wrapping their streams, which is only done when isEnabled returns true: with
+ * NoOpAudioMetrics (the default) the streams of an operation are the same as without metrics. The methods are
+ * called by the thread of the operation, once per stage when the operation ends, so an implementation used by
+ * several threads at the same time must be thread safe.
+ */
+public interface AudioMetrics {
+
+    /**
+     * isEnabled: false to skip the measures, none of the record methods is called then.
+     * @return
+     */
+    boolean isEnabled();
+
+    /**
+     * recordStage: a stage of an operation (decode, read, cut, pad, join, mix, limit, gain, convert, encode, write,
+     * transfer). The time is the wall time of the stage alone, without the time of the stages it reads from.
+     * @param operation
+     * @param stage
+     * @param nanos
+     * @param frames sample frames produced by the stage
+     * @param bytes bytes produced by the stage
+     */
+    void recordStage(String operation, String stage, long nanos, long frames, long bytes);
+
+    /**
+     * recordOperation: an operation that ended without errors.
+     * @param operation
+     * @param nanos wall time of the whole operation
+     * @param bytesRead bytes read from the sources, decoded samples for mp3 sources
+     * @param bytesWritten bytes of the result
+     * @param tempFileBytes bytes written to temporary files (the job file that is moved to the result)
+     */
+    void recordOperation(String operation, long nanos, long bytesRead, long bytesWritten, long tempFileBytes);
+
+    /**
+     * recordEncoderRealTimeFactor: time spent by the mp3 encoder divided by the duration of the audio it encoded,
+     * below 1 when it is faster than real time.
+     * @param operation
+     * @param realTimeFactor
+     */
+    void recordEncoderRealTimeFactor(String operation, double realTimeFactor);
+}
@@ -0,0 +1,236 @@
+package com.zancocho.audiotool.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * @author Jose A.H
+ *
+ * HistogramAudioMetrics: keeps every measure in memory, in a histogram per series (a metric of an operation, or of
+ * a stage of an operation). The series are named as in the Prometheus text format, e.g.
+ * audiotool_stage_seconds{operation="BLEND",stage="decode"}, and format writes all of them with their count, sum
+ * and quantiles, so they can be scraped.
+ *
+ * The histograms have logarithmic buckets, 8 for every power of 2, so the quantiles are within 9% of the real
+ * value. Recording a value does not lock: the buckets are atomic counters.
+ *
+ * HistogramAudioMetrics metrics = new HistogramAudioMetrics();
+ * client.setMetrics(metrics);
+ * ...
+ * System.out.print(metrics.format());
+ */
+public class HistogramAudioMetrics implements AudioMetrics {
+
+    public static final String STAGE_SECONDS = "audiotool_stage_seconds";
+    public static final String STAGE_FRAMES = "audiotool_stage_frames";
+    public static final String STAGE_BYTES = "audiotool_stage_bytes";
+    public static final String OPERATION_SECONDS = "audiotool_operation_seconds";
+    public static final String OPERATION_BYTES_READ = "audiotool_operation_bytes_read";
+    public static final String OPERATION_BYTES_WRITTEN = "audiotool_operation_bytes_written";
+    public static final String OPERATION_TEMP_FILE_BYTES = "audiotool_operation_temp_file_bytes";
+    public static final String ENCODER_REAL_TIME_FACTOR = "audiotool_encoder_real_time_factor";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordStage(String operation, String stage, long nanos, long frames, long bytes) {
+        String labels = "{operation=\"" + operation + "\",stage=\"" + stage + "\"}";
+        getHistogram(STAGE_SECONDS + labels).record(nanos / 1e9);
+        getHistogram(STAGE_FRAMES + labels).record(frames);
+        getHistogram(STAGE_BYTES + labels).record(bytes);
+    }
+
+    @Override
+    public void recordOperation(String operation, long nanos, long bytesRead, long bytesWritten, long tempFileBytes) {
+        String labels = "{operation=\"" + operation + "\"}";
+        getHistogram(OPERATION_SECONDS + labels).record(nanos / 1e9);
+        getHistogram(OPERATION_BYTES_READ + labels).record(bytesRead);
+        getHistogram(OPERATION_BYTES_WRITTEN + labels).record(bytesWritten);
+        getHistogram(OPERATION_TEMP_FILE_BYTES + labels).record(tempFileBytes);
+    }
+
+    @Override
+    public void recordEncoderRealTimeFactor(String operation, double realTimeFactor) {
+        getHistogram(ENCODER_REAL_TIME_FACTOR + "{operation=\"" + operation + "\"}").record(realTimeFactor);
+    }
+
+    private Histogram getHistogram(String series) {
+        return histograms.computeIfAbsent(series, key -> new Histogram());
+    }
+
+    /**
+     * getHistogram: the histogram of a series, e.g. getHistogram(STAGE_SECONDS, "BLEND", "decode").
+     * @param metric
+     * @param operation
+     * @param stage null for the metrics of the operation
+     * @return null if nothing was recorded
+     */
+    public Histogram getHistogram(String metric, String operation, String stage) {
+        String labels = stage == null
+                ? "{operation=\"" + operation + "\"}"
+                : "{operation=\"" + operation + "\",stage=\"" + stage + "\"}";
+        return histograms.get(metric + labels);
+    }
+
+    /**
+     * snapshot: the histogram of every series, sorted by name.
+     * @return
+     */
+    public Map<String, Histogram> snapshot() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * reset: remove all the series.
+     */
+    public void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * format: all the series in the Prometheus text format, as summaries with their quantiles, count and sum.
+     * @return
+     */
+    public String format() {
+        StringBuilder builder = new StringBuilder();
+        String lastMetric = null;
+        for(Map.Entry<String, Histogram> entry : snapshot().entrySet()){
+            String series = entry.getKey();
+            int labelsStart = series.indexOf('{');
+            String metric = series.substring(0, labelsStart);
+            String labels = series.substring(labelsStart + 1, series.length() - 1);
+            Histogram histogram = entry.getValue();
+
+            if(!metric.equals(lastMetric))
+                builder.append("# TYPE ").append(metric).append(" summary\n");
+            lastMetric = metric;
+
+            for(double quantile : QUANTILES){
+                builder.append(metric).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                        .append(histogram.getQuantile(quantile)).append('\n');
+            }
+            builder.append(metric).append("_sum{").append(labels).append("} ").append(histogram.getSum()).append('\n');
+            builder.append(metric).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Histogram: count, sum, min, max and logarithmic buckets of non negative values. Bucket 0 counts the values
+     * below 2^MIN_EXPONENT, the last one the values above 2^MAX_EXPONENT.
+     */
+    public static class Histogram {
+
+        private static final int SUB_BUCKETS = 8;
+        private static final int MIN_EXPONENT = -30;
+        private static final int MAX_EXPONENT = 62;
+        private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS + 2;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final DoubleAdder sum = new DoubleAdder();
+        // the bits of non negative doubles sort as the doubles
+        private final AtomicLong minBits = new AtomicLong(Double.doubleToLongBits(Double.MAX_VALUE));
+        private final AtomicLong maxBits = new AtomicLong(Double.doubleToLongBits(0));
+
+        void record(double value) {
+            if(value < 0 || Double.isNaN(value))
+                value = 0;
+
+            buckets.incrementAndGet(getBucket(value));
+            sum.add(value);
+            count.incrementAndGet();
+
+            long bits = Double.doubleToLongBits(value);
+            long current;
+            while(bits < (current = minBits.get()) && !minBits.compareAndSet(current, bits)){
+            }
+            while(bits > (current = maxBits.get()) && !maxBits.compareAndSet(current, bits)){
+            }
+        }
+
+        private static int getBucket(double value) {
+            if(value < Math.scalb(1.0, MIN_EXPONENT))
+                return 0;
+
+            int exponent = Math.getExponent(value);
+            if(exponent > MAX_EXPONENT)
+                return BUCKETS - 1;
+
+            int subBucket = (int) ((value / Math.scalb(1.0, exponent) - 1) * SUB_BUCKETS);
+            return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + Math.min(subBucket, SUB_BUCKETS - 1);
+        }
+
+        /**
+         * getBucketMiddle: the value in the middle of the bucket, the estimate of the values counted in it.
+         * @param bucket
+         * @return
+         */
+        private static double getBucketMiddle(int bucket) {
+            if(bucket == 0)
+                return 0;
+
+            int exponent = (bucket - 1) / SUB_BUCKETS + MIN_EXPONENT;
+            int subBucket = (bucket - 1) % SUB_BUCKETS;
+            return Math.scalb(1.0 + (subBucket + 0.5) / SUB_BUCKETS, exponent);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getSum() {
+            return sum.sum();
+        }
+
+        public double getMean() {
+            long n = getCount();
+            return n == 0 ? 0 : getSum() / n;
+        }
+
+        public double getMin() {
+            return getCount() == 0 ? 0 : Double.longBitsToDouble(minBits.get());
+        }
+
+        public double getMax() {
+            return Double.longBitsToDouble(maxBits.get());
+        }
+
+        /**
+         * getQuantile: estimate of the value below which the given fraction of the values are, e.g. 0.99. It is
+         * never outside of the min and the max.
+         * @param quantile
+         * @return
+         */
+        public double getQuantile(double quantile) {
+            long n = getCount();
+            if(n == 0)
+                return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * n));
+            long seen = 0;
+            for(int bucket = 0; bucket < BUCKETS; bucket++){
+                seen += buckets.get(bucket);
+                if(seen >= rank)
+                    return Math.min(Math.max(getBucketMiddle(bucket), getMin()), getMax());
+            }
+            return getMax();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + " mean=" + getMean() + " p50=" + getQuantile(0.5) + " p99=" + getQuantile(0.99) + " max=" + getMax();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.zancocho.audiotool.metrics;
+
+/**
+ * @author Jose A.H
+ *
+ * NoOpAudioMetrics: the default metrics of the client, nothing is measured.
+ */
+public class NoOpAudioMetrics implements AudioMetrics {
+
+    private static final NoOpAudioMetrics instance = new NoOpAudioMetrics();
+
+    private NoOpAudioMetrics(){}
+
+    public static NoOpAudioMetrics getInstance(){
+        return instance;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public void recordStage(String operation, String stage, long nanos, long frames, long bytes) {
+    }
+
+    @Override
+    public void recordOperation(String operation, long nanos, long bytesRead, long bytesWritten, long tempFileBytes) {
+    }
+
+    @Override
+    public void recordEncoderRealTimeFactor(String operation, double realTimeFactor) {
+    }
+}
@@ -0,0 +1,241 @@
+package com.zancocho.audiotool.mp3;
+
+import de.sciss.jump3r.lowlevel.LameEncoder;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author Jose A.H
+ *
+ * Mp3Encoder: encode an AudioInputStream to mp3 in process with the jump3r encoder API
+ * (https://github.com/Sciss/jump3r). PCM blocks are read from the stream and the mp3 frames are written to the
+ * output as soon as they are produced, so no intermediate wav file is needed.
+ *
+ * When the target is a file, the Xing/LAME tag is written into the first frame once the encoding is finished.
+ *
+ * The speed and quality of the encoder is chosen with a Profile. The psychoacoustic search of lame (-q) takes most
+ * of the encoding time, so FAST is the profile for previews and BALANCED the default.
+ *
+ * The default is not the previous "--preset standard -q 0 -m s": the LameEncoder API takes a single quality value
+ * for -V and -q, so BALANCED keeps the VBR level of the preset (-V 2) with the faster -q 2 search. The quality is a
+ * bit lower than before, in exchange for a much faster encoding; ARCHIVE is the profile with the full -q 0 search.
+ * Stereo results are always encoded as plain stereo (-m s), as before.
+ *
+ * With a ForkJoinPool, the audio is encoded in chunks of frames on all the threads of the pool and the frames are
+ * joined in one stream (see ParallelMp3Encoder), so long results are encoded several times faster.
+ */
+public class Mp3Encoder {
+
+    public static enum Profile {
+        // CBR 128 kbps with -q 7: several times faster than the VBR profiles
+        FAST(128, LameEncoder.QUALITY_LOW, false),
+        // VBR -V 2 -q 2: the bitrate of the lame preset "standard", with the -q 2 search instead of the previous -q 0
+        BALANCED(LameEncoder.BITRATE_AUTO, LameEncoder.QUALITY_HIGH, true),
+        // VBR -V 0 -q 0, the highest quality and the slowest
+        ARCHIVE(LameEncoder.BITRATE_AUTO, 0, true);
+
+        private final int bitRate;
+        private final int quality;
+        private final boolean vbr;
+
+        Profile(int bitRate, int quality, boolean vbr) {
+            this.bitRate = bitRate;
+            this.quality = quality;
+            this.vbr = vbr;
+        }
+    };
+
+    // samples added by LAME at the start of the stream
+    private static final int ENCODER_DELAY = 576;
+    // jump3r is a port of lame 3.98.4, the tag has room for 5 characters
+    private static final String ENCODER_VERSION = "3.98r";
+
+    // 256 frames are 6.7 seconds at 44100 Hz, the overlap of a chunk is 6 frames
+    public static final int DEFAULT_CHUNK_FRAMES = 256;
+
+    private final Profile profile;
+    private final ForkJoinPool pool;
+    private final int chunkFrames;
+
+    /**
+     * Mp3Encoder: encoder with the BALANCED profile.
+     */
+    public Mp3Encoder() {
+        this(Profile.BALANCED);
+    }
+
+    public Mp3Encoder(Profile profile) {
+        this(profile, null, DEFAULT_CHUNK_FRAMES);
+    }
+
+    /**
+     * Mp3Encoder: encoder that encodes chunks of DEFAULT_CHUNK_FRAMES frames in parallel on the pool.
+     * @param profile
+     * @param pool null to encode in the calling thread
+     */
+    public Mp3Encoder(Profile profile, ForkJoinPool pool) {
+        this(profile, pool, DEFAULT_CHUNK_FRAMES);
+    }
+
+    /**
+     * Mp3Encoder: encoder that encodes chunks of the given number of frames in parallel on the pool.
+     * @param profile
+     * @param pool null to encode in the calling thread
+     * @param chunkFrames
+     */
+    public Mp3Encoder(Profile profile, ForkJoinPool pool, int chunkFrames) {
+        if(profile == null)
+            throw new IllegalArgumentException("The encoder profile is required");
+        if(chunkFrames < ParallelMp3Encoder.WARM_UP_FRAMES)
+            throw new IllegalArgumentException("A chunk must have at least " + ParallelMp3Encoder.WARM_UP_FRAMES + " frames");
+
+        this.profile = profile;
+        this.pool = pool;
+        this.chunkFrames = chunkFrames;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    /**
+     * encode: encode the stream to the target file and write the Xing/LAME tag.
+     * @param audioInputStream
+     * @param target
+     * @throws IOException
+     */
+    public void encode(AudioInputStream audioInputStream, File target) throws IOException {
+        encode(audioInputStream, new FileOutputStream(target), target);
+    }
+
+    /**
+     * encode: encode the stream to an output stream that writes the target file (e.g. a file of a TempWorkspace),
+     * close it and write the Xing/LAME tag to the file.
+     * @param audioInputStream
+     * @param fileOutputStream
+     * @param target
+     * @throws IOException
+     */
+    public void encode(AudioInputStream audioInputStream, OutputStream fileOutputStream, File target) throws IOException {
+        long samples;
+        boolean vbr = profile.vbr;
+        try (OutputStream outputStream = new BufferedOutputStream(fileOutputStream)) {
+            if(pool != null){
+                ParallelMp3Encoder parallelEncoder = new ParallelMp3Encoder(this, pool, chunkFrames);
+                samples = parallelEncoder.encode(toEncoderFormat(audioInputStream), outputStream);
+                vbr = vbr || parallelEncoder.hasBitrateChanges();
+            } else {
+                samples = encodeSequential(toEncoderFormat(audioInputStream), outputStream);
+            }
+        }
+
+        try {
+            XingTagWriter.write(target, samples, ENCODER_DELAY, vbr, ENCODER_VERSION);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("ERROR processing MP3: " + e.getMessage());
+        }
+    }
+
+    /**
+     * encode: encode the stream to the output stream. The output stream is not closed. The first frame is left
+     * empty for the Xing/LAME tag, which can only be written if the output is a file.
+     * @param audioInputStream
+     * @param outputStream
+     * @return the number of PCM samples per channel encoded
+     * @throws IOException
+     */
+    public long encode(AudioInputStream audioInputStream, OutputStream outputStream) throws IOException {
+        AudioInputStream pcmStream = toEncoderFormat(audioInputStream);
+        if(pool != null)
+            return new ParallelMp3Encoder(this, pool, chunkFrames).encode(pcmStream, outputStream);
+
+        return encodeSequential(pcmStream, outputStream);
+    }
+
+    /**
+     * encodeSequential: encode the PCM stream to the output stream in the calling thread.
+     * @param pcmStream 16 bit signed little endian PCM, mono or stereo
+     * @param outputStream
+     * @return the number of PCM samples per channel encoded
+     * @throws IOException
+     */
+    long encodeSequential(AudioInputStream pcmStream, OutputStream outputStream) throws IOException {
+        AudioFormat audioFormat = pcmStream.getFormat();
+        // plain stereo (-m s) as the previous command line encoder, never joint stereo
+        int channelMode = audioFormat.getChannels() == 1 ? LameEncoder.CHANNEL_MODE_MONO : LameEncoder.CHANNEL_MODE_STEREO;
+
+        LameEncoder encoder;
+        try {
+            encoder = new LameEncoder(audioFormat, profile.bitRate, channelMode, profile.quality, profile.vbr);
+        } catch (RuntimeException e) {
+            throw new IOException("ERROR processing MP3: " + e.getMessage());
+        }
+
+        try {
+            byte[] pcmBuffer = new byte[encoder.getPCMBufferSize() - encoder.getPCMBufferSize() % audioFormat.getFrameSize()];
+            byte[] mp3Buffer = new byte[encoder.getMP3BufferSize()];
+            long bytes = 0;
+
+            int length;
+            while((length = readFully(pcmStream, pcmBuffer)) > 0){
+                int encoded = encoder.encodeBuffer(pcmBuffer, 0, length, mp3Buffer);
+                outputStream.write(mp3Buffer, 0, encoded);
+                bytes += length;
+            }
+            int encoded = encoder.encodeFinish(mp3Buffer);
+            outputStream.write(mp3Buffer, 0, encoded);
+
+            return bytes / audioFormat.getFrameSize();
+
+        } finally {
+            encoder.close();
+        }
+    }
+
+    /**
+     * toEncoderFormat: the encoder takes 16 bit signed little endian PCM, mono or stereo. Other PCM formats are
+     * converted while they are read.
+     * @param audioInputStream
+     * @return
+     * @throws IOException
+     */
+    private static AudioInputStream toEncoderFormat(AudioInputStream audioInputStream) throws IOException {
+        AudioFormat audioFormat = audioInputStream.getFormat();
+        if(audioFormat.getChannels() > 2)
+            throw new IOException("ERROR processing MP3: only mono and stereo can be encoded");
+
+        if(audioFormat.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED) && audioFormat.getSampleSizeInBits() == 16 && !audioFormat.isBigEndian())
+            return audioInputStream;
+
+        AudioFormat targetFormat = new AudioFormat(audioFormat.getSampleRate(), 16, audioFormat.getChannels(), true, false);
+        try {
+            return AudioSystem.getAudioInputStream(targetFormat, audioInputStream);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("ERROR processing MP3: format not supported " + audioFormat);
+        }
+    }
+
+    private static int readFully(AudioInputStream audioInputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while(total < buffer.length){
+            int read = audioInputStream.read(buffer, total, buffer.length - total);
+            if(read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+}
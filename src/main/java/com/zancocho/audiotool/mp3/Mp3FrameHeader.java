@@ -0,0 +1,197 @@
+package com.zancocho.audiotool.mp3;
+
+/**
+ * @author Jose A.H
+ *
+ * Mp3FrameHeader: the 4 bytes header that starts every MPEG audio frame. It is parsed without touching the
+ * frame data, so it can be used to walk a mp3 file frame by frame without decoding any sample.
+ */
+public class Mp3FrameHeader {
+
+    public static final int HEADER_SIZE = 4;
+
+    public static final int MPEG1 = 3;
+    public static final int MPEG2 = 2;
+    public static final int MPEG25 = 0;
+
+    public static final int CHANNEL_MODE_MONO = 3;
+
+    private static final int[][] BITRATES_MPEG1 = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448}, // layer I
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},    // layer II
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},     // layer III
+    };
+
+    private static final int[][] BITRATES_MPEG2 = {
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},    // layer I
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},         // layer II
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},         // layer III
+    };
+
+    private static final int[] SAMPLE_RATES_MPEG1 = {44100, 48000, 32000};
+
+    private final int header;
+    private final int version;
+    private final int layer;
+    private final int bitrate;
+    private final int sampleRate;
+    private final boolean padding;
+    private final boolean protection;
+    private final int channelMode;
+
+    private Mp3FrameHeader(int header, int version, int layer, int bitrate, int sampleRate, boolean padding, boolean protection, int channelMode) {
+        this.header = header;
+        this.version = version;
+        this.layer = layer;
+        this.bitrate = bitrate;
+        this.sampleRate = sampleRate;
+        this.padding = padding;
+        this.protection = protection;
+        this.channelMode = channelMode;
+    }
+
+    /**
+     * parse: parse the 4 bytes at the given offset. Returns null if they are not a valid frame header (no sync,
+     * reserved values or free format bitrate).
+     * @param buffer
+     * @param offset
+     * @return
+     */
+    public static Mp3FrameHeader parse(byte[] buffer, int offset) {
+        if(offset < 0 || offset + HEADER_SIZE > buffer.length)
+            return null;
+
+        int header = ((buffer[offset] & 0xFF) << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+
+        return parse(header);
+    }
+
+    /**
+     * parse: parse a frame header stored as a big endian int. Returns null if it is not a valid frame header.
+     * @param header
+     * @return
+     */
+    public static Mp3FrameHeader parse(int header) {
+        if((header & 0xFFE00000) != 0xFFE00000)
+            return null;
+
+        int version = (header >>> 19) & 0x3;
+        int layerBits = (header >>> 17) & 0x3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 0x3;
+
+        if(version == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3)
+            return null;
+
+        int layer = 4 - layerBits;
+        int bitrate = (version == MPEG1 ? BITRATES_MPEG1 : BITRATES_MPEG2)[layer - 1][bitrateIndex] * 1000;
+
+        int sampleRate = SAMPLE_RATES_MPEG1[sampleRateIndex];
+        if(version == MPEG2)
+            sampleRate = sampleRate / 2;
+        else if(version == MPEG25)
+            sampleRate = sampleRate / 4;
+
+        boolean padding = ((header >>> 9) & 0x1) == 1;
+        boolean protection = ((header >>> 16) & 0x1) == 0;
+        int channelMode = (header >>> 6) & 0x3;
+
+        return new Mp3FrameHeader(header, version, layer, bitrate, sampleRate, padding, protection, channelMode);
+    }
+
+    /**
+     * isCompatible: true if both headers belong to the same stream (same version, layer and sample rate).
+     * @param other
+     * @return
+     */
+    public boolean isCompatible(Mp3FrameHeader other) {
+        return other != null && version == other.version && layer == other.layer && sampleRate == other.sampleRate;
+    }
+
+    /**
+     * getFrameSize: size in bytes of the whole frame, header included.
+     * @return
+     */
+    public int getFrameSize() {
+        int paddingSize = padding ? 1 : 0;
+        if(layer == 1)
+            return (12 * bitrate / sampleRate + paddingSize) * 4;
+        if(layer == 3 && version != MPEG1)
+            return 72 * bitrate / sampleRate + paddingSize;
+        return 144 * bitrate / sampleRate + paddingSize;
+    }
+
+    /**
+     * getSamplesPerFrame: number of samples (per channel) decoded from this frame.
+     * @return
+     */
+    public int getSamplesPerFrame() {
+        if(layer == 1)
+            return 384;
+        if(layer == 3 && version != MPEG1)
+            return 576;
+        return 1152;
+    }
+
+    /**
+     * getSideInfoSize: size in bytes of the layer III side information that follows the header (and the CRC).
+     * @return
+     */
+    public int getSideInfoSize() {
+        if(version == MPEG1)
+            return isMono() ? 17 : 32;
+        return isMono() ? 9 : 17;
+    }
+
+    /**
+     * getDataOffset: offset, from the start of the frame, of the bytes that follow the side information.
+     * This is where a Xing/Info tag is written.
+     * @return
+     */
+    public int getDataOffset() {
+        return HEADER_SIZE + (protection ? 2 : 0) + getSideInfoSize();
+    }
+
+    public int getHeader() {
+        return header;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getLayer() {
+        return layer;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public boolean hasPadding() {
+        return padding;
+    }
+
+    public boolean hasProtection() {
+        return protection;
+    }
+
+    public int getChannelMode() {
+        return channelMode;
+    }
+
+    public boolean isMono() {
+        return channelMode == CHANNEL_MODE_MONO;
+    }
+
+    public int getChannels() {
+        return isMono() ? 1 : 2;
+    }
+}
@@ -0,0 +1,141 @@
+package com.zancocho.audiotool.mp3;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * @author Jose A.H
+ *
+ * Mp3FrameIndex: file offset of every mp3 frame, built by walking the frame headers. The file is read in blocks and
+ * only the headers are parsed, nothing is decoded. The index can stop at a given frame, so seeking to a position only
+ * reads the file up to that position.
+ *
+ * Frame 0 is the first frame of the file (the Xing/Info frame if there is one), the same numbering as the frames
+ * decoded by Mp3AudioInputStream.
+ */
+public class Mp3FrameIndex {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    // max bytes of main data that a frame can take from the previous frames (main_data_begin)
+    private static final int MAX_RESERVOIR_MPEG1 = 511;
+    private static final int MAX_RESERVOIR_MPEG2 = 255;
+
+    private final Mp3FrameHeader firstFrameHeader;
+    private final long[] frameOffsets;
+    private final int frameCount;
+    private final long endOffset;
+
+    private Mp3FrameIndex(Mp3FrameHeader firstFrameHeader, long[] frameOffsets, int frameCount, long endOffset) {
+        this.firstFrameHeader = firstFrameHeader;
+        this.frameOffsets = frameOffsets;
+        this.frameCount = frameCount;
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * read: index the frames of the mp3 in the channel, up to lastFrame (included) or the end of the stream.
+     * Only positional reads are used.
+     * @param channel
+     * @param lastFrame
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static Mp3FrameIndex read(FileChannel channel, long lastFrame) throws IOException, UnsupportedAudioFileException {
+        long offset = Mp3Info.findFirstFrame(channel);
+        return read(channel, offset, Mp3Info.readHeader(channel, offset), lastFrame);
+    }
+
+    /**
+     * readToSample: index the frames of the mp3 in the channel up to the frame that contains the decoded sample.
+     * @param channel
+     * @param sample
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static Mp3FrameIndex readToSample(FileChannel channel, long sample) throws IOException, UnsupportedAudioFileException {
+        long offset = Mp3Info.findFirstFrame(channel);
+        Mp3FrameHeader firstFrameHeader = Mp3Info.readHeader(channel, offset);
+        return read(channel, offset, firstFrameHeader, sample / firstFrameHeader.getSamplesPerFrame());
+    }
+
+    private static Mp3FrameIndex read(FileChannel channel, long offset, Mp3FrameHeader firstFrameHeader, long lastFrame) throws IOException {
+        long fileLength = channel.size();
+        long[] frameOffsets = new long[(int) Math.max(16, Math.min(lastFrame + 1, 1 << 16))];
+        int frames = 0;
+
+        byte[] block = new byte[BLOCK_SIZE];
+        long blockOffset = offset;
+        int blockLength = 0;
+
+        while(frames <= lastFrame && offset + Mp3FrameHeader.HEADER_SIZE <= fileLength){
+            if(offset + Mp3FrameHeader.HEADER_SIZE > blockOffset + blockLength){
+                blockOffset = offset;
+                blockLength = Mp3Info.readFully(channel, block, blockOffset);
+                if(blockLength < Mp3FrameHeader.HEADER_SIZE)
+                    break;
+            }
+
+            Mp3FrameHeader header = Mp3FrameHeader.parse(block, (int) (offset - blockOffset));
+            if(!firstFrameHeader.isCompatible(header))
+                break;
+
+            if(frames == frameOffsets.length)
+                frameOffsets = Arrays.copyOf(frameOffsets, frames * 2);
+            frameOffsets[frames++] = offset;
+            offset += header.getFrameSize();
+        }
+
+        return new Mp3FrameIndex(firstFrameHeader, frameOffsets, frames, Math.min(offset, fileLength));
+    }
+
+    /**
+     * getWarmUpFrame: first frame to decode so that the given frame is decoded exactly as in a decode from the start
+     * of the file. A layer III frame can take its main data from the previous frames (bit reservoir), and its
+     * output depends on the overlap of the previous frame, so the frames before it are decoded and discarded.
+     * @param frame
+     * @return
+     */
+    public int getWarmUpFrame(int frame) {
+        int maxReservoir = firstFrameHeader.getVersion() == Mp3FrameHeader.MPEG1 ? MAX_RESERVOIR_MPEG1 : MAX_RESERVOIR_MPEG2;
+
+        // the previous frame must be exact too, so the reservoir is counted from it
+        int start = Math.max(0, frame - 1);
+        int bytes = 0;
+        while(start > 0 && bytes < maxReservoir){
+            start--;
+            bytes += getFrameSize(start) - firstFrameHeader.getDataOffset();
+        }
+        // one more frame, the first decoded frame has no overlap
+        return Math.max(0, start - 1);
+    }
+
+    public long getFrameOffset(int frame) {
+        return frameOffsets[frame];
+    }
+
+    public int getFrameSize(int frame) {
+        long next = frame + 1 < frameCount ? frameOffsets[frame + 1] : endOffset;
+        return (int) (next - frameOffsets[frame]);
+    }
+
+    /**
+     * getFrameCount: number of frames indexed.
+     * @return
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public Mp3FrameHeader getFirstFrameHeader() {
+        return firstFrameHeader;
+    }
+
+    public int getSamplesPerFrame() {
+        return firstFrameHeader.getSamplesPerFrame();
+    }
+}
@@ -0,0 +1,364 @@
+package com.zancocho.audiotool.mp3;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Jose A.H
+ *
+ * Mp3Info: stream information of a mp3 file read only from its headers. The ID3v2 tag is skipped, the first
+ * frame is checked for a Xing/Info or VBRI tag and, if there is none, the frame headers are walked in blocks of
+ * the file. No sample is decoded, so the cost is a few kilobytes of I/O instead of a full decode.
+ *
+ * The frame count includes the Xing/Info/VBRI frame because jlayer decodes it as a silent frame, so the
+ * duration matches the length of the PCM produced by Mp3AudioInputStream.
+ */
+public class Mp3Info {
+
+    private static final int ID3V2_HEADER_SIZE = 10;
+    private static final int SEARCH_BLOCK_SIZE = 8192;
+    // block of the header walk, it holds tens of frames so there is one read per block and not per frame
+    private static final int SCAN_BLOCK_SIZE = 64 * 1024;
+    private static final int VBRI_OFFSET = Mp3FrameHeader.HEADER_SIZE + 32;
+
+    private static final int XING_FLAG_FRAMES = 0x1;
+    private static final int XING_FLAG_BYTES = 0x2;
+    private static final int XING_FLAG_TOC = 0x4;
+    private static final int XING_FLAG_QUALITY = 0x8;
+
+    private final long fileLength;
+    private final long firstFrameOffset;
+    private final Mp3FrameHeader firstFrameHeader;
+    private long frameCount;
+    private long audioBytes;
+    private boolean vbrTag;
+    private byte[] toc;
+    private int encoderDelay;
+    private int encoderPadding;
+
+    private Mp3Info(long fileLength, long firstFrameOffset, Mp3FrameHeader firstFrameHeader) {
+        this.fileLength = fileLength;
+        this.firstFrameOffset = firstFrameOffset;
+        this.firstFrameHeader = firstFrameHeader;
+    }
+
+    /**
+     * read: read the stream information of a mp3 file.
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static Mp3Info read(File file) throws IOException, UnsupportedAudioFileException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * read: read the stream information of a mp3 file from a channel. Only positional reads are used, so the
+     * channel position is not changed.
+     * @param channel
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static Mp3Info read(FileChannel channel) throws IOException, UnsupportedAudioFileException {
+        long fileLength = channel.size();
+        long firstFrameOffset = findFirstFrame(channel);
+
+        Mp3FrameHeader firstFrameHeader = readHeader(channel, firstFrameOffset);
+        Mp3Info info = new Mp3Info(fileLength, firstFrameOffset, firstFrameHeader);
+
+        if(!info.readVbrTag(channel))
+            info.scanFrames(channel);
+
+        return info;
+    }
+
+    /**
+     * readFirstFrameHeader: the header of the first frame of a mp3 file, to know its format without reading the
+     * rest of the file.
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static Mp3FrameHeader readFirstFrameHeader(File file) throws IOException, UnsupportedAudioFileException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readHeader(channel, findFirstFrame(channel));
+        }
+    }
+
+    /**
+     * findFirstFrame: offset of the first frame, after the ID3v2 tag if there is one.
+     * @param channel
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    static long findFirstFrame(FileChannel channel) throws IOException, UnsupportedAudioFileException {
+        long firstFrameOffset = findFirstFrame(channel, skipId3v2Tag(channel), channel.size());
+        if(firstFrameOffset < 0)
+            throw new UnsupportedAudioFileException("No mp3 frame found in the file");
+
+        return firstFrameOffset;
+    }
+
+    /**
+     * skipId3v2Tag: return the offset of the first byte after the ID3v2 tag, or 0 if there is no tag.
+     * @param channel
+     * @return
+     * @throws IOException
+     */
+    private static long skipId3v2Tag(FileChannel channel) throws IOException {
+        byte[] id3 = new byte[ID3V2_HEADER_SIZE];
+        if(readFully(channel, id3, 0) < ID3V2_HEADER_SIZE)
+            return 0;
+
+        if(id3[0] != 'I' || id3[1] != 'D' || id3[2] != '3')
+            return 0;
+
+        int size = ((id3[6] & 0x7F) << 21) | ((id3[7] & 0x7F) << 14) | ((id3[8] & 0x7F) << 7) | (id3[9] & 0x7F);
+        boolean footer = (id3[5] & 0x10) != 0;
+
+        return ID3V2_HEADER_SIZE + size + (footer ? ID3V2_HEADER_SIZE : 0);
+    }
+
+    /**
+     * findFirstFrame: search the first valid frame header from the offset. A header is only accepted if the next
+     * frame header is valid too, to avoid false syncs inside tags.
+     * @param channel
+     * @param offset
+     * @param fileLength
+     * @return the offset of the first frame or -1
+     * @throws IOException
+     */
+    private static long findFirstFrame(FileChannel channel, long offset, long fileLength) throws IOException {
+        byte[] block = new byte[SEARCH_BLOCK_SIZE];
+
+        while(offset < fileLength){
+            int length = readFully(channel, block, offset);
+            if(length < Mp3FrameHeader.HEADER_SIZE)
+                return -1;
+
+            for(int i = 0; i + Mp3FrameHeader.HEADER_SIZE <= length; i++){
+                Mp3FrameHeader header = Mp3FrameHeader.parse(block, i);
+                if(header == null)
+                    continue;
+
+                long nextOffset = offset + i + header.getFrameSize();
+                if(nextOffset >= fileLength || header.isCompatible(readHeader(channel, nextOffset)))
+                    return offset + i;
+            }
+
+            offset += length - Mp3FrameHeader.HEADER_SIZE + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * readVbrTag: read the Xing/Info (and LAME extension) or VBRI tag of the first frame.
+     * @param channel
+     * @return true if a tag with the number of frames was found
+     * @throws IOException
+     */
+    private boolean readVbrTag(FileChannel channel) throws IOException {
+        byte[] frame = new byte[firstFrameHeader.getFrameSize()];
+        int length = readFully(channel, frame, firstFrameOffset);
+
+        int xingOffset = firstFrameHeader.getDataOffset();
+        if(matches(frame, length, xingOffset, "Xing") || matches(frame, length, xingOffset, "Info")){
+            int position = xingOffset + 4;
+            int flags = readInt(frame, position);
+            position += 4;
+
+            if((flags & XING_FLAG_FRAMES) != 0){
+                frameCount = (readInt(frame, position) & 0xFFFFFFFFL) + 1;
+                position += 4;
+            }
+            if((flags & XING_FLAG_BYTES) != 0){
+                audioBytes = readInt(frame, position) & 0xFFFFFFFFL;
+                position += 4;
+            }
+            if((flags & XING_FLAG_TOC) != 0){
+                toc = new byte[100];
+                System.arraycopy(frame, position, toc, 0, 100);
+                position += 100;
+            }
+            if((flags & XING_FLAG_QUALITY) != 0){
+                position += 4;
+            }
+
+            if(matches(frame, length, position, "LAME") || matches(frame, length, position, "Lavf") || matches(frame, length, position, "Lavc")){
+                int delayPosition = position + 21;
+                if(delayPosition + 3 <= length){
+                    encoderDelay = ((frame[delayPosition] & 0xFF) << 4) | ((frame[delayPosition + 1] & 0xFF) >>> 4);
+                    encoderPadding = ((frame[delayPosition + 1] & 0x0F) << 8) | (frame[delayPosition + 2] & 0xFF);
+                }
+            }
+
+            vbrTag = frameCount > 0;
+
+        } else if(matches(frame, length, VBRI_OFFSET, "VBRI")){
+            audioBytes = readInt(frame, VBRI_OFFSET + 10) & 0xFFFFFFFFL;
+            frameCount = (readInt(frame, VBRI_OFFSET + 14) & 0xFFFFFFFFL) + 1;
+            vbrTag = true;
+        }
+
+        if(vbrTag && audioBytes == 0)
+            audioBytes = fileLength - firstFrameOffset;
+
+        return vbrTag;
+    }
+
+    /**
+     * scanFrames: walk the frame headers from the first frame until the end of the stream. The file is read in
+     * blocks, as in Mp3FrameIndex, and only the headers are parsed.
+     * @param channel
+     * @throws IOException
+     */
+    private void scanFrames(FileChannel channel) throws IOException {
+        long offset = firstFrameOffset;
+        long frames = 0;
+
+        byte[] block = new byte[SCAN_BLOCK_SIZE];
+        long blockOffset = offset;
+        int blockLength = 0;
+
+        while(offset + Mp3FrameHeader.HEADER_SIZE <= fileLength){
+            if(offset + Mp3FrameHeader.HEADER_SIZE > blockOffset + blockLength){
+                blockOffset = offset;
+                blockLength = readFully(channel, block, blockOffset);
+                if(blockLength < Mp3FrameHeader.HEADER_SIZE)
+                    break;
+            }
+
+            Mp3FrameHeader header = Mp3FrameHeader.parse(block, (int) (offset - blockOffset));
+            if(!firstFrameHeader.isCompatible(header))
+                break;
+
+            frames++;
+            offset += header.getFrameSize();
+        }
+
+        frameCount = frames;
+        audioBytes = Math.min(offset, fileLength) - firstFrameOffset;
+    }
+
+    /**
+     * readHeader: read and parse the frame header at the offset. Returns null if there is no valid header.
+     * @param channel
+     * @param offset
+     * @return
+     * @throws IOException
+     */
+    static Mp3FrameHeader readHeader(FileChannel channel, long offset) throws IOException {
+        byte[] header = new byte[Mp3FrameHeader.HEADER_SIZE];
+        if(readFully(channel, header, offset) < Mp3FrameHeader.HEADER_SIZE)
+            return null;
+
+        return Mp3FrameHeader.parse(header, 0);
+    }
+
+    /**
+     * readFully: positional read of up to buffer.length bytes.
+     * @param channel
+     * @param buffer
+     * @param offset
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    static int readFully(FileChannel channel, byte[] buffer, long offset) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        while(byteBuffer.hasRemaining()){
+            int read = channel.read(byteBuffer, offset + byteBuffer.position());
+            if(read < 0)
+                break;
+        }
+        return byteBuffer.position();
+    }
+
+    private static boolean matches(byte[] buffer, int length, int offset, String tag) {
+        if(offset < 0 || offset + tag.length() > length)
+            return false;
+        return new String(buffer, offset, tag.length(), StandardCharsets.ISO_8859_1).equals(tag);
+    }
+
+    private static int readInt(byte[] buffer, int offset) throws EOFException {
+        if(offset + 4 > buffer.length)
+            throw new EOFException("Truncated mp3 tag");
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * getDurationInSeconds: duration of the decoded audio.
+     * @return
+     */
+    public float getDurationInSeconds() {
+        return (float) getTotalSamples() / firstFrameHeader.getSampleRate();
+    }
+
+    /**
+     * getTotalSamples: number of decoded samples per channel.
+     * @return
+     */
+    public long getTotalSamples() {
+        return frameCount * firstFrameHeader.getSamplesPerFrame();
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public long getFirstFrameOffset() {
+        return firstFrameOffset;
+    }
+
+    public Mp3FrameHeader getFirstFrameHeader() {
+        return firstFrameHeader;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getAudioBytes() {
+        return audioBytes;
+    }
+
+    public boolean hasVbrTag() {
+        return vbrTag;
+    }
+
+    /**
+     * getToc: the 100 entries table of contents of the Xing tag, or null if there is none.
+     * @return
+     */
+    public byte[] getToc() {
+        return toc;
+    }
+
+    public int getEncoderDelay() {
+        return encoderDelay;
+    }
+
+    public int getEncoderPadding() {
+        return encoderPadding;
+    }
+
+    public int getSampleRate() {
+        return firstFrameHeader.getSampleRate();
+    }
+
+    public int getChannels() {
+        return firstFrameHeader.getChannels();
+    }
+}
@@ -0,0 +1,365 @@
+package com.zancocho.audiotool.mp3;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Jose A.H
+ *
+ * Mp3Splicer: cut and join mp3 files frame by frame, without decoding or encoding them. The frames of the sources are
+ * copied to the target with FileChannel.transferTo, so the audio is not changed and there is no generation loss.
+ *
+ * The result starts with a new Xing/Info frame with the LAME delay and padding, so a gapless player plays exactly the
+ * requested samples. As in AudioPipeline.cut, the positions of a cut are positions in the decoded stream of the source,
+ * which starts with the tag frame and the delay of the encoder; the delay of the result is written in the convention
+ * of LAME (without the DECODER_DELAY samples), the same as the delay of the source kept by join. Decoders that ignore
+ * the tag (like jlayer) play whole frames.
+ *
+ * A layer III frame can take part of its main data from the previous frames (bit reservoir, main_data_begin). When a
+ * cut starts at a frame like that, a silent frame is written before it with those bytes at the end of its data, so
+ * the first frame is decoded with the right main data. The first frame still has no overlap from the frame before
+ * it, the samples are exact from the next frame.
+ */
+public class Mp3Splicer {
+
+    // version written in the LAME tag, the same as Mp3Encoder
+    private static final String ENCODER_VERSION = "3.98r";
+
+    // samples of delay of the decoder (the synthesis filterbank), the LAME delay does not count them
+    static final int DECODER_DELAY = 529;
+
+    // size of the Xing tag with all its fields and of the LAME extension
+    private static final int TAG_DATA_SIZE = 120 + 36;
+
+    private Mp3Splicer() {
+    }
+
+    /**
+     * cut: write the frames of the source that contain totalSeconds of audio from startSecond. The bounds are rounded
+     * to the nearest sample, as in AudioPipeline.cut, and the samples out of them are marked as delay and padding
+     * in the LAME tag.
+     * @param source
+     * @param startSecond
+     * @param totalSeconds
+     * @param target
+     * @return false if the source cannot be cut by frames (no audio to cut), nothing is written then
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static boolean cut(File source, double startSecond, double totalSeconds, File target) throws IOException, UnsupportedAudioFileException {
+        if(totalSeconds <= 0)
+            return false;
+
+        try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            Mp3Source mp3Source = new Mp3Source(source, sourceChannel);
+            Mp3FrameHeader template = mp3Source.getTemplate();
+            if(template == null)
+                return false;
+
+            int samplesPerFrame = template.getSamplesPerFrame();
+            long totalSamples = (long) mp3Source.index.getFrameCount() * samplesPerFrame;
+            long startSample = Math.min(Math.max(0, Math.round(startSecond * template.getSampleRate())), totalSamples);
+            long endSample = Math.min(startSample + Math.round(totalSeconds * template.getSampleRate()), totalSamples);
+            if(endSample <= startSample)
+                return false;
+
+            int startFrame = (int) (startSample / samplesPerFrame);
+            int endFrame = (int) ((endSample + samplesPerFrame - 1) / samplesPerFrame);
+
+            // a gapless player skips DECODER_DELAY samples more than the delay of the tag, so the frame before is kept
+            // when the cut starts closer than that to the start of its frame
+            int firstFrame = startFrame;
+            if(startSample - (long) firstFrame * samplesPerFrame < DECODER_DELAY && firstFrame > 0)
+                firstFrame--;
+
+            List<ByteBuffer> silentFrames = new ArrayList<>();
+            if(firstFrame == 0 && mp3Source.hasTag){
+                // the tag of the source is decoded as a silent frame, it is replaced by one
+                silentFrames.add(createFrame(template, 0, null));
+                firstFrame++;
+            } else {
+                byte[] reservoir = mp3Source.readReservoir(firstFrame);
+                if(reservoir.length > 0)
+                    silentFrames.add(createFrame(template, reservoir.length, reservoir));
+            }
+
+            // samples of the decoder output before startSample: the silent frames and the start of the first frame
+            long offset = (long) silentFrames.size() * samplesPerFrame + startSample - (long) firstFrame * samplesPerFrame;
+            if(offset < DECODER_DELAY){
+                // a cut in the first DECODER_DELAY samples of the file, there is no frame before to keep
+                silentFrames.add(0, createFrame(template, 0, null));
+                offset += samplesPerFrame;
+            }
+            int delay = (int) (offset - DECODER_DELAY);
+
+            try (FileChannel targetChannel = open(target)) {
+                writeFully(targetChannel, createFrame(template, TAG_DATA_SIZE, null));
+                for(ByteBuffer silentFrame : silentFrames){
+                    writeFully(targetChannel, silentFrame);
+                }
+
+                mp3Source.transferFrames(firstFrame, endFrame, targetChannel);
+                targetChannel.truncate(targetChannel.position());
+
+                long samples = endSample - startSample;
+                return XingTagWriter.write(targetChannel, samples, delay, mp3Source.isVbr(firstFrame, endFrame), ENCODER_VERSION);
+            }
+        }
+    }
+
+    /**
+     * join: write the frames of the sources one after the other to the target. The Xing/Info frames of the sources
+     * are not copied, the delay of the first source and the padding of the last one are kept in the new tag. The tag
+     * can only remove samples at the ends of the result, so the sources are not joined by frames when a source other
+     * than the first has a delay or a source other than the last has padding: they would be a gap at every joint.
+     * @param sources
+     * @param target
+     * @return false if the sources are not mp3 files of the same version, layer, sample rate and channels, or if
+     * there would be a gap between them, nothing is written then
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static boolean join(List<File> sources, File target) throws IOException, UnsupportedAudioFileException {
+        if(sources.isEmpty())
+            return false;
+
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            List<Mp3Source> mp3Sources = new ArrayList<>();
+            Mp3FrameHeader template = null;
+            for(File source : sources){
+                FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                channels.add(channel);
+
+                Mp3Source mp3Source = new Mp3Source(source, channel);
+                Mp3FrameHeader header = mp3Source.getTemplate();
+                if(template == null)
+                    template = header;
+                if(header == null || !template.isCompatible(header) || template.getChannels() != header.getChannels())
+                    return false;
+
+                mp3Sources.add(mp3Source);
+            }
+
+            // the delay and the padding at the joints cannot be marked in the tag
+            for(int i = 0; i < mp3Sources.size(); i++){
+                Mp3Info mp3Info = mp3Sources.get(i).mp3Info;
+                if((i > 0 && mp3Info.getEncoderDelay() != 0) || (i < mp3Sources.size() - 1 && mp3Info.getEncoderPadding() != 0))
+                    return false;
+            }
+
+            long frames = 0;
+            boolean vbr = false;
+            int bitrate = 0;
+            for(Mp3Source mp3Source : mp3Sources){
+                frames += mp3Source.getAudioFrameCount();
+                vbr = vbr || mp3Source.isVbr(mp3Source.getFirstAudioFrame(), mp3Source.index.getFrameCount());
+                int sourceBitrate = mp3Source.getTemplate().getBitrate();
+                if(bitrate != 0 && bitrate != sourceBitrate)
+                    vbr = true;
+                bitrate = sourceBitrate;
+            }
+            if(frames == 0)
+                return false;
+
+            Mp3Source first = mp3Sources.get(0);
+            Mp3Source last = mp3Sources.get(mp3Sources.size() - 1);
+            int delay = first.mp3Info.getEncoderDelay();
+            long samples = frames * template.getSamplesPerFrame() - delay - last.mp3Info.getEncoderPadding();
+
+            try (FileChannel targetChannel = open(target)) {
+                writeFully(targetChannel, createFrame(template, TAG_DATA_SIZE, null));
+                for(Mp3Source mp3Source : mp3Sources){
+                    mp3Source.transferFrames(mp3Source.getFirstAudioFrame(), mp3Source.index.getFrameCount(), targetChannel);
+                }
+                targetChannel.truncate(targetChannel.position());
+
+                return XingTagWriter.write(targetChannel, Math.max(0, samples), delay, vbr, ENCODER_VERSION);
+            }
+
+        } finally {
+            for(FileChannel channel : channels){
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * createFrame: frame with the header of the template and a side information of zeros, so it is decoded as
+     * silence. The bitrate is the lowest one with room for dataSize bytes after the side information, the data is
+     * stored at the end of the frame.
+     * @param template
+     * @param dataSize
+     * @param data bytes at the end of the frame, null for zeros
+     * @return
+     */
+    static ByteBuffer createFrame(Mp3FrameHeader template, int dataSize, byte[] data) {
+        // no CRC and no padding
+        int header = (template.getHeader() | 0x00010000) & ~0x00000200;
+
+        Mp3FrameHeader frameHeader = null;
+        for(int bitrateIndex = 1; bitrateIndex < 15; bitrateIndex++){
+            frameHeader = Mp3FrameHeader.parse((header & ~0x0000F000) | (bitrateIndex << 12));
+            if(frameHeader.getFrameSize() - frameHeader.getDataOffset() >= dataSize)
+                break;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(frameHeader.getFrameSize());
+        frame.putInt(frameHeader.getHeader());
+        if(data != null){
+            frame.position(frame.capacity() - data.length);
+            frame.put(data);
+        }
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * open: open the target without truncating it, so the bytes preallocated by a TempWorkspace are overwritten. It
+     * is truncated once the frames are written.
+     * @param target
+     * @return
+     * @throws IOException
+     */
+    private static FileChannel open(File target) throws IOException {
+        return FileChannel.open(target.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Mp3Source: frame index and stream information of a source file.
+     */
+    private static class Mp3Source {
+
+        private final File file;
+        private final FileChannel channel;
+        private final Mp3Info mp3Info;
+        private final Mp3FrameIndex index;
+        private final boolean hasTag;
+
+        Mp3Source(File file, FileChannel channel) throws IOException, UnsupportedAudioFileException {
+            this.file = file;
+            this.channel = channel;
+            this.mp3Info = Mp3Info.read(file);
+            this.index = Mp3FrameIndex.read(channel, Long.MAX_VALUE);
+            this.hasTag = mp3Info.hasVbrTag() || isInfoFrame();
+        }
+
+        private boolean isInfoFrame() throws IOException {
+            Mp3FrameHeader header = index.getFirstFrameHeader();
+            byte[] tag = new byte[4];
+            Mp3Info.readFully(channel, tag, index.getFrameOffset(0) + header.getDataOffset());
+            String name = new String(tag, StandardCharsets.ISO_8859_1);
+            return name.equals("Xing") || name.equals("Info");
+        }
+
+        int getFirstAudioFrame() {
+            return hasTag ? 1 : 0;
+        }
+
+        int getAudioFrameCount() {
+            return Math.max(0, index.getFrameCount() - getFirstAudioFrame());
+        }
+
+        /**
+         * getTemplate: header of the first audio frame, or null if it is not a layer III stream with audio frames.
+         * @return
+         * @throws IOException
+         */
+        Mp3FrameHeader getTemplate() throws IOException {
+            if(getAudioFrameCount() == 0)
+                return null;
+
+            Mp3FrameHeader header = Mp3Info.readHeader(channel, index.getFrameOffset(getFirstAudioFrame()));
+            return header != null && header.getLayer() == 3 ? header : null;
+        }
+
+        /**
+         * isVbr: true if the frames do not have all the same bitrate.
+         * @param fromFrame
+         * @param toFrame
+         * @return
+         */
+        boolean isVbr(int fromFrame, int toFrame) {
+            int minSize = Integer.MAX_VALUE;
+            int maxSize = 0;
+            for(int frame = fromFrame; frame < toFrame; frame++){
+                int size = index.getFrameSize(frame);
+                minSize = Math.min(minSize, size);
+                maxSize = Math.max(maxSize, size);
+            }
+            // the frames of a CBR stream only differ in the padding byte
+            return maxSize - minSize > 1;
+        }
+
+        /**
+         * readReservoir: main data that the frame takes from the previous frames (the last main_data_begin bytes of
+         * their data). The bytes that are not in the file are zeros.
+         * @param frame
+         * @return
+         * @throws IOException
+         */
+        byte[] readReservoir(int frame) throws IOException {
+            if(frame >= index.getFrameCount())
+                return new byte[0];
+
+            long frameOffset = index.getFrameOffset(frame);
+            Mp3FrameHeader header = Mp3Info.readHeader(channel, frameOffset);
+            byte[] sideInfo = new byte[2];
+            Mp3Info.readFully(channel, sideInfo, frameOffset + Mp3FrameHeader.HEADER_SIZE + (header.hasProtection() ? 2 : 0));
+
+            int mainDataBegin = header.getVersion() == Mp3FrameHeader.MPEG1
+                    ? ((sideInfo[0] & 0xFF) << 1) | ((sideInfo[1] & 0xFF) >>> 7)
+                    : sideInfo[0] & 0xFF;
+
+            byte[] reservoir = new byte[mainDataBegin];
+            int missing = mainDataBegin;
+            for(int previous = frame - 1; previous >= 0 && missing > 0; previous--){
+                Mp3FrameHeader previousHeader = Mp3Info.readHeader(channel, index.getFrameOffset(previous));
+                int dataOffset = previousHeader == null ? index.getFrameSize(previous) : previousHeader.getDataOffset();
+                int dataSize = Math.max(0, index.getFrameSize(previous) - dataOffset);
+
+                int count = Math.min(missing, dataSize);
+                byte[] data = new byte[count];
+                Mp3Info.readFully(channel, data, index.getFrameOffset(previous) + index.getFrameSize(previous) - count);
+                missing -= count;
+                System.arraycopy(data, 0, reservoir, missing, count);
+            }
+            return reservoir;
+        }
+
+        /**
+         * transferFrames: copy the frames from fromFrame (included) to toFrame (excluded) to the target.
+         * @param fromFrame
+         * @param toFrame
+         * @param target
+         * @throws IOException
+         */
+        void transferFrames(int fromFrame, int toFrame, FileChannel target) throws IOException {
+            if(toFrame <= fromFrame)
+                return;
+
+            long position = index.getFrameOffset(fromFrame);
+            long count = index.getFrameOffset(toFrame - 1) + index.getFrameSize(toFrame - 1) - position;
+            while(count > 0){
+                long transferred = channel.transferTo(position, count, target);
+                if(transferred <= 0)
+                    throw new IOException("Unexpected end of file " + file);
+                position += transferred;
+                count -= transferred;
+            }
+        }
+    }
+}
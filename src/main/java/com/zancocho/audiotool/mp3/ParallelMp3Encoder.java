@@ -0,0 +1,393 @@
+package com.zancocho.audiotool.mp3;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * @author Jose A.H
+ *
+ * ParallelMp3Encoder: encode the PCM in chunks of frames on a ForkJoinPool and join the frames of the chunks in one
+ * stream, as if a single encoder had produced it.
+ *
+ * The chunks start at a multiple of the samples of a frame, so the frames of every chunk are on the same grid as the
+ * frames of a sequential encode (the encoder delay is the same for every chunk). Every chunk but the first one starts
+ * WARM_UP_FRAMES frames before its first frame and every chunk but the last one ends TAIL_FRAMES frames after its
+ * last frame, so the psychoacoustic model and the MDCT of the frames that are kept see the audio around them. The
+ * frames of the overlap are dropped.
+ *
+ * The encoder of a chunk fills the bit reservoir with the frames before its first kept frame, which are dropped. So
+ * the main data of the kept frames is extracted and packed again in the joined stream (main_data_begin is rewritten),
+ * with the free space of the previous frames as the reservoir. If a frame does not fit, its bitrate is raised.
+ */
+class ParallelMp3Encoder {
+
+    // frames encoded before and after a chunk and dropped
+    static final int WARM_UP_FRAMES = 4;
+    static final int TAIL_FRAMES = 2;
+
+    // sample rates that lame encodes without resampling
+    private static final int[] SAMPLE_RATES = {8000, 11025, 12000, 16000, 22050, 24000, 32000, 44100, 48000};
+
+    private final Mp3Encoder encoder;
+    private final ForkJoinPool pool;
+    private final int chunkFrames;
+    private boolean bitrateChanged;
+
+    ParallelMp3Encoder(Mp3Encoder encoder, ForkJoinPool pool, int chunkFrames) {
+        this.encoder = encoder;
+        this.pool = pool;
+        this.chunkFrames = chunkFrames;
+    }
+
+    /**
+     * hasBitrateChanges: true if the bitrate of a frame was raised to join the chunks, so a CBR stream is not
+     * constant any more.
+     * @return
+     */
+    boolean hasBitrateChanges() {
+        return bitrateChanged;
+    }
+
+    /**
+     * encode: encode the stream to the output stream. The first frame is the empty frame of the first chunk,
+     * reserved for the Xing/LAME tag.
+     * @param pcmStream 16 bit signed little endian PCM, mono or stereo
+     * @param outputStream
+     * @return the number of PCM samples per channel encoded
+     * @throws IOException
+     */
+    long encode(AudioInputStream pcmStream, OutputStream outputStream) throws IOException {
+        AudioFormat audioFormat = pcmStream.getFormat();
+        int sampleRate = Math.round(audioFormat.getSampleRate());
+        if(Arrays.stream(SAMPLE_RATES).noneMatch(rate -> rate == sampleRate))
+            return encoder.encodeSequential(pcmStream, outputStream);
+
+        int frameSize = audioFormat.getFrameSize();
+        int samplesPerFrame = sampleRate >= 32000 ? 1152 : 576;
+        int chunkBytes = chunkFrames * samplesPerFrame * frameSize;
+        int overlapBytes = (WARM_UP_FRAMES + TAIL_FRAMES) * samplesPerFrame * frameSize;
+        int maxPendingChunks = Math.max(2, 2 * pool.getParallelism());
+
+        Deque<ForkJoinTask<List<Frame>>> pendingChunks = new ArrayDeque<>();
+        ReservoirPacker packer = null;
+        long bytes = 0;
+
+        try {
+            // chunk 0 has no warm up, its PCM starts at the start of the stream
+            byte[] pcm = new byte[chunkBytes + TAIL_FRAMES * samplesPerFrame * frameSize];
+            int length = readFully(pcmStream, pcm, 0);
+            bytes += length;
+            boolean last = length < pcm.length;
+            pendingChunks.add(submit(audioFormat, pcm, length, 0, last));
+
+            while(!pendingChunks.isEmpty()){
+                while(!last && pendingChunks.size() < maxPendingChunks){
+                    // the next chunk starts with the end of this one
+                    byte[] next = new byte[chunkBytes + overlapBytes];
+                    System.arraycopy(pcm, length - overlapBytes, next, 0, overlapBytes);
+                    int read = readFully(pcmStream, next, overlapBytes);
+                    bytes += read;
+                    pcm = next;
+                    length = overlapBytes + read;
+                    last = length < pcm.length;
+                    pendingChunks.add(submit(audioFormat, pcm, length, WARM_UP_FRAMES, last));
+                }
+
+                List<Frame> frames = join(pendingChunks.poll());
+                if(packer == null){
+                    // the tag frame of the first chunk is the tag frame of the stream
+                    Frame tagFrame = frames.get(0);
+                    outputStream.write(tagFrame.header);
+                    outputStream.write(tagFrame.sideInfo);
+                    outputStream.write(tagFrame.mainData);
+                    frames = frames.subList(1, frames.size());
+                    packer = new ReservoirPacker(outputStream, tagFrame.getHeader().getVersion() == Mp3FrameHeader.MPEG1 ? 511 : 255);
+                }
+                for(Frame frame : frames){
+                    packer.add(frame);
+                }
+            }
+            if(packer != null)
+                packer.finish();
+
+            bitrateChanged = packer != null && packer.bitrateChanged;
+            return bytes / frameSize;
+
+        } finally {
+            for(ForkJoinTask<List<Frame>> task : pendingChunks){
+                task.cancel(false);
+            }
+        }
+    }
+
+    private ForkJoinTask<List<Frame>> submit(AudioFormat audioFormat, byte[] pcm, int length, int warmUpFrames, boolean last) {
+        int keptFrames = last ? Integer.MAX_VALUE : chunkFrames;
+        return pool.submit(() -> encodeChunk(audioFormat, pcm, length, warmUpFrames, keptFrames));
+    }
+
+    private static List<Frame> join(ForkJoinTask<List<Frame>> task) throws IOException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("ERROR processing MP3: " + cause, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("ERROR processing MP3: interrupted", e);
+        }
+    }
+
+    /**
+     * encodeChunk: encode the PCM of a chunk and extract its frames, without the warm up and tail frames. The list of
+     * the first chunk starts with the empty frame reserved for the tag. The main data of the audio frames is
+     * complete, it does not depend on the dropped frames.
+     * @param audioFormat
+     * @param pcm
+     * @param length
+     * @param warmUpFrames frames to drop at the start
+     * @param keptFrames frames to keep after them
+     * @return
+     * @throws IOException
+     */
+    private List<Frame> encodeChunk(AudioFormat audioFormat, byte[] pcm, int length, int warmUpFrames, int keptFrames) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(length / 8);
+        encoder.encodeSequential(new AudioInputStream(new ByteArrayInputStream(pcm, 0, length), audioFormat, length / audioFormat.getFrameSize()), outputStream);
+        byte[] mp3 = outputStream.toByteArray();
+
+        // offsets of the frames, the first one is the tag frame
+        List<Integer> frameOffsets = new ArrayList<>();
+        int offset = 0;
+        while(offset + Mp3FrameHeader.HEADER_SIZE <= mp3.length){
+            Mp3FrameHeader header = Mp3FrameHeader.parse(mp3, offset);
+            if(header == null || header.getLayer() != 3 || header.hasProtection() || offset + header.getFrameSize() > mp3.length)
+                throw new IOException("ERROR processing MP3: unexpected encoder output");
+            frameOffsets.add(offset);
+            offset += header.getFrameSize();
+        }
+        int audioFrames = frameOffsets.size() - 1;
+        if(audioFrames < warmUpFrames + (keptFrames == Integer.MAX_VALUE ? 0 : keptFrames))
+            throw new IOException("ERROR processing MP3: the encoder returned " + audioFrames + " frames");
+
+        // the data of the audio frames, one after the other, as the decoder sees it
+        ByteArrayOutputStream slots = new ByteArrayOutputStream(mp3.length);
+        int[] slotStarts = new int[audioFrames];
+        for(int frame = 0; frame < audioFrames; frame++){
+            int frameOffset = frameOffsets.get(frame + 1);
+            Mp3FrameHeader header = Mp3FrameHeader.parse(mp3, frameOffset);
+            slotStarts[frame] = slots.size();
+            slots.write(mp3, frameOffset + header.getDataOffset(), header.getFrameSize() - header.getDataOffset());
+        }
+        byte[] slotData = slots.toByteArray();
+
+        List<Frame> frames = new ArrayList<>();
+        if(warmUpFrames == 0)
+            frames.add(Frame.read(mp3, frameOffsets.get(0)));
+
+        int end = (int) Math.min(audioFrames, (long) warmUpFrames + keptFrames);
+        for(int frame = warmUpFrames; frame < end; frame++){
+            Frame result = Frame.read(mp3, frameOffsets.get(frame + 1));
+            int mainDataStart = slotStarts[frame] - result.getMainDataBegin();
+            int mainDataSize = result.getMainDataSize();
+            if(mainDataStart < 0 || mainDataStart + mainDataSize > slotData.length)
+                throw new IOException("ERROR processing MP3: wrong main data in frame " + frame);
+            result.mainData = Arrays.copyOfRange(slotData, mainDataStart, mainDataStart + mainDataSize);
+            frames.add(result);
+        }
+        return frames;
+    }
+
+    private static int readFully(AudioInputStream audioInputStream, byte[] buffer, int offset) throws IOException {
+        int total = 0;
+        while(offset + total < buffer.length){
+            int read = audioInputStream.read(buffer, offset + total, buffer.length - offset - total);
+            if(read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Frame: header, side information and main data of a layer III frame (without CRC).
+     */
+    private static class Frame {
+
+        private byte[] header;
+        private byte[] sideInfo;
+        private byte[] mainData;
+
+        /**
+         * read: the frame at the offset, its main data is all the data after the side information.
+         * @param mp3
+         * @param offset
+         * @return
+         */
+        static Frame read(byte[] mp3, int offset) {
+            Mp3FrameHeader header = Mp3FrameHeader.parse(mp3, offset);
+            Frame frame = new Frame();
+            frame.header = Arrays.copyOfRange(mp3, offset, offset + Mp3FrameHeader.HEADER_SIZE);
+            frame.sideInfo = Arrays.copyOfRange(mp3, offset + Mp3FrameHeader.HEADER_SIZE, offset + header.getDataOffset());
+            frame.mainData = Arrays.copyOfRange(mp3, offset + header.getDataOffset(), offset + header.getFrameSize());
+            return frame;
+        }
+
+        Mp3FrameHeader getHeader() {
+            return Mp3FrameHeader.parse(header, 0);
+        }
+
+        boolean isMpeg1() {
+            return getHeader().getVersion() == Mp3FrameHeader.MPEG1;
+        }
+
+        /**
+         * getMainDataBegin: bytes of the main data that are in the previous frames.
+         * @return
+         */
+        int getMainDataBegin() {
+            return isMpeg1() ? readBits(sideInfo, 0, 9) : readBits(sideInfo, 0, 8);
+        }
+
+        void setMainDataBegin(int mainDataBegin) {
+            if(isMpeg1()){
+                sideInfo[0] = (byte) (mainDataBegin >>> 1);
+                sideInfo[1] = (byte) ((sideInfo[1] & 0x7F) | ((mainDataBegin & 1) << 7));
+            } else {
+                sideInfo[0] = (byte) mainDataBegin;
+            }
+        }
+
+        /**
+         * getMainDataSize: bytes of the scale factors and Huffman data of all the granules and channels
+         * (part2_3_length), the ancillary data that follows them is not needed.
+         * @return
+         */
+        int getMainDataSize() {
+            int channels = getHeader().getChannels();
+            boolean mpeg1 = isMpeg1();
+            // main_data_begin, private_bits and scfsi, then the fields of every granule and channel
+            int position = mpeg1 ? 9 + (channels == 1 ? 5 : 3) + 4 * channels : 8 + (channels == 1 ? 1 : 2);
+            int granules = mpeg1 ? 2 : 1;
+            int granuleBits = mpeg1 ? 59 : 63;
+
+            int bits = 0;
+            for(int granule = 0; granule < granules; granule++){
+                for(int channel = 0; channel < channels; channel++){
+                    bits += readBits(sideInfo, position, 12);
+                    position += granuleBits;
+                }
+            }
+            return (bits + 7) / 8;
+        }
+
+        private static int readBits(byte[] data, int position, int count) {
+            int value = 0;
+            for(int i = position; i < position + count; i++){
+                value = (value << 1) | ((data[i >>> 3] >>> (7 - (i & 7))) & 1);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * ReservoirPacker: write frames with their main data as early as the bit reservoir allows. The data of the
+     * frames after the side information is a single stream of slots, the main data of a frame can start up to
+     * maxReservoir bytes before its own slot and must end in it. The frames are written when no main data can be
+     * added to them any more.
+     */
+    private static class ReservoirPacker {
+
+        private final OutputStream outputStream;
+        private final int maxReservoir;
+        private final Deque<PackedFrame> pendingFrames = new ArrayDeque<>();
+        // positions in the stream of slots
+        private long slotEnd;
+        private long mainDataEnd;
+        private boolean bitrateChanged;
+
+        ReservoirPacker(OutputStream outputStream, int maxReservoir) {
+            this.outputStream = outputStream;
+            this.maxReservoir = maxReservoir;
+        }
+
+        void add(Frame frame) throws IOException {
+            int header = Mp3FrameHeader.parse(frame.header, 0).getHeader();
+            Mp3FrameHeader frameHeader = Mp3FrameHeader.parse(header);
+            long mainDataStart = Math.max(mainDataEnd, slotEnd - maxReservoir);
+
+            // a frame whose data does not fit in the reservoir and its own slot gets a higher bitrate
+            int bitrateIndex = (header >>> 12) & 0xF;
+            while(mainDataStart + frame.mainData.length > slotEnd + frameHeader.getFrameSize() - frameHeader.getDataOffset()){
+                if(++bitrateIndex > 14)
+                    throw new IOException("ERROR processing MP3: the frame does not fit in the stream");
+                frameHeader = Mp3FrameHeader.parse((header & ~0x0000F000) | (bitrateIndex << 12));
+                bitrateChanged = true;
+            }
+
+            frame.setMainDataBegin((int) (slotEnd - mainDataStart));
+            byte[] bytes = new byte[frameHeader.getFrameSize()];
+            int headerBits = frameHeader.getHeader();
+            bytes[0] = (byte) (headerBits >>> 24);
+            bytes[1] = (byte) (headerBits >>> 16);
+            bytes[2] = (byte) (headerBits >>> 8);
+            bytes[3] = (byte) headerBits;
+            System.arraycopy(frame.sideInfo, 0, bytes, Mp3FrameHeader.HEADER_SIZE, frame.sideInfo.length);
+
+            PackedFrame packedFrame = new PackedFrame(bytes, frameHeader.getDataOffset(), slotEnd);
+            pendingFrames.add(packedFrame);
+            slotEnd += bytes.length - packedFrame.dataOffset;
+
+            // copy the main data to the slots of the frames it covers
+            int copied = 0;
+            for(PackedFrame pendingFrame : pendingFrames){
+                long start = Math.max(mainDataStart + copied, pendingFrame.slotStart);
+                long end = Math.min(mainDataStart + frame.mainData.length, pendingFrame.getSlotEnd());
+                if(end <= start)
+                    continue;
+                System.arraycopy(frame.mainData, copied, pendingFrame.bytes, pendingFrame.dataOffset + (int) (start - pendingFrame.slotStart), (int) (end - start));
+                copied += end - start;
+            }
+            mainDataEnd = mainDataStart + frame.mainData.length;
+
+            // the next frames only write after mainDataEnd
+            while(!pendingFrames.isEmpty() && pendingFrames.peek().getSlotEnd() <= mainDataEnd){
+                outputStream.write(pendingFrames.poll().bytes);
+            }
+        }
+
+        void finish() throws IOException {
+            while(!pendingFrames.isEmpty()){
+                outputStream.write(pendingFrames.poll().bytes);
+            }
+        }
+
+        private static class PackedFrame {
+            private final byte[] bytes;
+            private final int dataOffset;
+            private final long slotStart;
+
+            PackedFrame(byte[] bytes, int dataOffset, long slotStart) {
+                this.bytes = bytes;
+                this.dataOffset = dataOffset;
+                this.slotStart = slotStart;
+            }
+
+            long getSlotEnd() {
+                return slotStart + bytes.length - dataOffset;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.zancocho.audiotool.mp3;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @author Jose A.H
+ *
+ * XingTagWriter: write the Xing/Info tag and its LAME extension into the first frame of a mp3 file. An encoder that
+ * writes to a stream cannot know the number of frames until the end, so it leaves an empty first frame that is
+ * filled here once the file is complete. The tag gives players the exact duration, a seek table (TOC) and the
+ * encoder delay and padding for gapless playback.
+ *
+ * Only the frame headers are read to build the tag.
+ */
+public class XingTagWriter {
+
+    private static final int XING_FLAGS = 0x0F;
+    private static final int XING_SIZE = 4 + 4 + 4 + 4 + 100 + 4;
+    private static final int LAME_TAG_SIZE = 36;
+    private static final int LAME_TAG_CRC_LENGTH = 190;
+    private static final int TOC_ENTRIES = 100;
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        // CRC-16 with the reversed 0x8005 polynomial, the one used by the LAME tag
+        for(int i = 0; i < 256; i++){
+            int crc = i;
+            for(int bit = 0; bit < 8; bit++){
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+            }
+            CRC16_TABLE[i] = crc;
+        }
+    }
+
+    private XingTagWriter() {
+    }
+
+    /**
+     * write: fill the first frame of the file with the tag. The first frame must be empty (the frame reserved by
+     * the encoder) or already hold a Xing/Info tag, otherwise nothing is written.
+     * @param file
+     * @param samples number of PCM samples per channel that were encoded
+     * @param encoderDelay samples added by the encoder at the start
+     * @param vbr true for a Xing tag, false for an Info tag (CBR)
+     * @param encoderVersion version written after "LAME", e.g. "3.98r"
+     * @return true if the tag was written
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static boolean write(File file, long samples, int encoderDelay, boolean vbr, String encoderVersion) throws IOException, UnsupportedAudioFileException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return write(channel, samples, encoderDelay, vbr, encoderVersion);
+        }
+    }
+
+    /**
+     * write: fill the first frame of the mp3 in the channel with the tag.
+     * @param channel
+     * @param samples
+     * @param encoderDelay
+     * @param vbr
+     * @param encoderVersion
+     * @return true if the tag was written
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static boolean write(FileChannel channel, long samples, int encoderDelay, boolean vbr, String encoderVersion) throws IOException, UnsupportedAudioFileException {
+        long tagOffset = Mp3Info.findFirstFrame(channel);
+        Mp3FrameHeader tagHeader = Mp3Info.readHeader(channel, tagOffset);
+
+        byte[] frame = new byte[tagHeader.getFrameSize()];
+        if(Mp3Info.readFully(channel, frame, tagOffset) < frame.length)
+            return false;
+
+        int xingOffset = tagHeader.getDataOffset();
+        if(xingOffset + XING_SIZE + LAME_TAG_SIZE > frame.length || !isReserved(frame, xingOffset))
+            return false;
+
+        // offsets of the audio frames, relative to the tag frame
+        long[] frameOffsets = new long[1024];
+        int frames = 0;
+        int minimumBitrate = Integer.MAX_VALUE;
+        long offset = tagOffset + frame.length;
+        long fileLength = channel.size();
+        while(offset + Mp3FrameHeader.HEADER_SIZE <= fileLength){
+            Mp3FrameHeader header = Mp3Info.readHeader(channel, offset);
+            if(!tagHeader.isCompatible(header))
+                break;
+
+            if(frames == frameOffsets.length)
+                frameOffsets = Arrays.copyOf(frameOffsets, frames * 2);
+            frameOffsets[frames++] = offset - tagOffset;
+            minimumBitrate = Math.min(minimumBitrate, header.getBitrate());
+            offset += header.getFrameSize();
+        }
+        long bytes = Math.min(offset, fileLength) - tagOffset;
+
+        Arrays.fill(frame, xingOffset, frame.length, (byte) 0);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.position(xingOffset);
+
+        buffer.put((vbr ? "Xing" : "Info").getBytes(StandardCharsets.ISO_8859_1));
+        buffer.putInt(XING_FLAGS);
+        buffer.putInt(frames);
+        buffer.putInt((int) bytes);
+        for(int i = 0; i < TOC_ENTRIES; i++){
+            long frameOffset = frames == 0 ? 0 : frameOffsets[(int) ((long) i * frames / TOC_ENTRIES)];
+            buffer.put((byte) Math.min(255, frameOffset * 256 / bytes));
+        }
+        buffer.putInt(0); // quality indicator
+
+        int lameTagOffset = buffer.position();
+        byte[] version = Arrays.copyOf(("LAME" + encoderVersion).getBytes(StandardCharsets.ISO_8859_1), 9);
+        buffer.put(version);
+        buffer.put((byte) (vbr ? 4 : 1)); // tag revision 0, vbr method (4: vbr-mtrh, 1: cbr)
+        buffer.put((byte) 0);             // lowpass
+        buffer.putInt(0);                 // replay gain: peak
+        buffer.putShort((short) 0);       // replay gain: radio
+        buffer.putShort((short) 0);       // replay gain: audiophile
+        buffer.put((byte) 0);             // encoding flags and ath type
+        // the bitrate for CBR, the minimum bitrate for VBR, in kbps
+        buffer.put((byte) (frames == 0 ? 0 : Math.min(255, minimumBitrate / 1000)));
+
+        long padding = (long) frames * tagHeader.getSamplesPerFrame() - encoderDelay - samples;
+        int delay = Math.max(0, Math.min(0xFFF, encoderDelay));
+        int pad = (int) Math.max(0, Math.min(0xFFF, padding));
+        buffer.put((byte) (delay >>> 4));
+        buffer.put((byte) (((delay & 0x0F) << 4) | (pad >>> 8)));
+        buffer.put((byte) pad);
+
+        buffer.put((byte) 0);             // misc
+        buffer.put((byte) 0);             // mp3 gain
+        buffer.putShort((short) 0);       // surround and preset
+        buffer.putInt((int) bytes);       // music length
+        buffer.putShort((short) 0);       // music crc, not computed
+        buffer.putShort((short) crc16(frame, LAME_TAG_CRC_LENGTH));
+
+        if(lameTagOffset + LAME_TAG_SIZE != buffer.position())
+            throw new IllegalStateException("Wrong LAME tag size");
+
+        ByteBuffer out = ByteBuffer.wrap(frame);
+        while(out.hasRemaining()){
+            channel.write(out, tagOffset + out.position());
+        }
+        return true;
+    }
+
+    /**
+     * isReserved: true if the data of the frame is empty or holds a Xing/Info tag.
+     * @param frame
+     * @param xingOffset
+     * @return
+     */
+    private static boolean isReserved(byte[] frame, int xingOffset) {
+        String tag = new String(frame, xingOffset, 4, StandardCharsets.ISO_8859_1);
+        if(tag.equals("Xing") || tag.equals("Info"))
+            return true;
+
+        for(int i = Mp3FrameHeader.HEADER_SIZE; i < frame.length; i++){
+            if(frame[i] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static int crc16(byte[] data, int length) {
+        int crc = 0;
+        for(int i = 0; i < length; i++){
+            crc = (crc >>> 8) ^ CRC16_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+}
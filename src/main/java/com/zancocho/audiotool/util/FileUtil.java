@@ -1,8 +1,14 @@
 package com.zancocho.audiotool.util;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -55,13 +61,65 @@ public class FileUtil {
     }
 
     /**
-     * deleteFilesFromDirectory: delete files from a local directory
+     * createJobFile: create an empty file with a unique name in the folder of the target. A job writes its result
+     * there and moves it to the target at the end, so two jobs never write the same file and a result is never
+     * seen half written.
+     * @param target
+     * @return
+     * @throws IOException
+     */
+    public File createJobFile(File target) throws IOException {
+        File directory = target.getAbsoluteFile().getParentFile();
+        return Files.createTempFile(directory.toPath(), "." + target.getName() + ".", ".part").toFile();
+    }
+
+    /**
+     * commitJobFile: move the file of a job to its target, replacing it. If the job file is in another file system
+     * (e.g. a workspace in a RAM disk), it is copied next to the target first, so the move to the target is still
+     * atomic when the file system supports it.
+     * @param jobFile
+     * @param target
+     * @throws IOException
+     */
+    public void commitJobFile(File jobFile, File target) throws IOException {
+        Path source = jobFile.toPath();
+        try {
+            Files.move(source, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            if(jobFile.getAbsoluteFile().getParentFile().equals(target.getAbsoluteFile().getParentFile())){
+                Files.move(source, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+        }
+
+        File copy = createJobFile(target);
+        try {
+            Files.copy(source, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            commitJobFile(copy, target);
+            copy = null;
+        } finally {
+            if(copy != null)
+                copy.delete();
+        }
+        Files.delete(source);
+    }
+
+    /**
+     * deleteFilesFromDirectory: delete files from a local directory. The files that cannot be deleted now are
+     * deleted when the JVM exits.
      * @param filePaths
+     * @return the paths of the files that could not be deleted
      */
-    public void deleteFilesFromDirectory(List<String> filePaths) {
+    public List<String> deleteFilesFromDirectory(List<String> filePaths) {
+        List<String> undeleted = new ArrayList<>();
         for(String filePath : filePaths){
             File file = new File(filePath);
-            file.delete();
+            if(!file.delete() && file.exists()){
+                file.deleteOnExit();
+                undeleted.add(filePath);
+            }
         }
+        return undeleted;
     }
 }
@@ -0,0 +1,352 @@
+package com.zancocho.audiotool.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Jose A.H
+ *
+ * TempWorkspace: the files that the operations write before they are moved to their result (job files). The
+ * workspace knows every file it created, so the files of an operation that fails are deleted, and the files that are
+ * left when the workspace is closed are deleted too.
+ *
+ * The default workspace creates the files next to their targets, as FileUtil.createJobFile. A workspace with a
+ * directory (e.g. /dev/shm, a RAM disk) creates them in a folder of its own inside that directory, which is removed
+ * when it is closed. The folder can be shared by all the operations of a client, it is thread safe.
+ *
+ * The quota limits the bytes of all the files of the workspace at the same time. An operation reserves the bytes it
+ * expects to write when it creates its file and fails at once if they do not fit. The files are written with
+ * openOutputStream, which reserves the bytes written past the reservation (e.g. a stream of unknown length) while
+ * they are written, so a write that does not fit in the quota fails and the file never takes more than the quota.
+ * Files written by other means are checked before they are moved to their target.
+ *
+ * With preallocation, the reserved bytes are written as zeros when the file is created. openOutputStream writes
+ * over them and truncates the file to the bytes written when it is closed, so a full disk makes the operation fail
+ * before the work is done and not half way, as long as the result is not bigger than expected.
+ */
+public class TempWorkspace implements Closeable {
+
+    public static final long NO_QUOTA = Long.MAX_VALUE;
+
+    private static final int PREALLOCATION_BLOCK_SIZE = 64 * 1024;
+    // bytes reserved at a time while a file is written past its reservation
+    private static final long RESERVATION_BLOCK_SIZE = 1024 * 1024;
+
+    private final File directory;
+    private final long quotaBytes;
+    private final boolean preallocate;
+    // reserved bytes of every file of the workspace
+    private final Map<File, Long> files = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * TempWorkspace: the files are created next to their targets, without quota or preallocation.
+     */
+    public TempWorkspace() {
+        this.directory = null;
+        this.quotaBytes = NO_QUOTA;
+        this.preallocate = false;
+    }
+
+    /**
+     * TempWorkspace: the files are created in a new folder inside the directory, which is created if it does not
+     * exist.
+     * @param directory
+     * @param quotaBytes maximum bytes of the files at the same time, NO_QUOTA for no limit
+     * @param preallocate write the reserved bytes when a file is created
+     * @throws IOException
+     */
+    public TempWorkspace(File directory, long quotaBytes, boolean preallocate) throws IOException {
+        if(directory == null)
+            throw new IllegalArgumentException("The directory of the workspace is required");
+        if(quotaBytes <= 0)
+            throw new IllegalArgumentException("The quota must be positive: " + quotaBytes);
+
+        Files.createDirectories(directory.toPath());
+        this.directory = Files.createTempDirectory(directory.toPath(), "audio-tool-").toFile();
+        this.quotaBytes = quotaBytes;
+        this.preallocate = preallocate;
+    }
+
+    /**
+     * createFile: create an empty file with a unique name for the given target and reserve the bytes that will be
+     * written to it.
+     * @param target
+     * @param expectedBytes 0 if the size is not known
+     * @return
+     * @throws IOException if the workspace is closed or the bytes do not fit in the quota
+     */
+    public File createFile(File target, long expectedBytes) throws IOException {
+        if(closed)
+            throw new IOException("The workspace is closed");
+
+        long reservedBytes = Math.max(0, expectedBytes);
+        reserve(reservedBytes);
+
+        File file;
+        try {
+            File folder = directory != null ? directory : target.getAbsoluteFile().getParentFile();
+            file = Files.createTempFile(folder.toPath(), "." + target.getName() + ".", ".part").toFile();
+        } catch (IOException e) {
+            usedBytes.addAndGet(-reservedBytes);
+            throw e;
+        }
+        files.put(file, reservedBytes);
+
+        if(preallocate && reservedBytes > 0){
+            try {
+                preallocate(file, reservedBytes);
+            } catch (IOException e) {
+                delete(file);
+                throw new IOException("Cannot preallocate " + reservedBytes + " bytes in " + file.getParent() + ": " + e.getMessage());
+            }
+        }
+        return file;
+    }
+
+    /**
+     * openOutputStream: output stream that writes a file of the workspace from its start. The file is not truncated
+     * when it is opened, so the preallocated bytes are overwritten, and it is truncated to the bytes written when the
+     * stream is closed. The bytes written past the reservation of the file are reserved while they are written.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public OutputStream openOutputStream(File file) throws IOException {
+        Long reservedBytes = files.get(file);
+        if(reservedBytes == null)
+            throw new IllegalArgumentException("The file is not in the workspace: " + file);
+
+        return new WorkspaceOutputStream(file, FileChannel.open(file.toPath(), StandardOpenOption.WRITE), reservedBytes);
+    }
+
+    /**
+     * grow: reserve the bytes of a file past its reservation, with RESERVATION_BLOCK_SIZE bytes at least when they
+     * fit in the quota.
+     * @param file
+     * @param length new length of the file
+     * @return the reserved bytes of the file
+     * @throws IOException if the bytes do not fit in the quota or the file is no longer in the workspace
+     */
+    private long grow(File file, long length) throws IOException {
+        Long reservedBytes = files.get(file);
+        if(reservedBytes == null)
+            throw new IOException("The file is not in the workspace: " + file);
+        if(length <= reservedBytes)
+            return reservedBytes;
+
+        long bytes = length - reservedBytes;
+        try {
+            reserve(Math.max(bytes, RESERVATION_BLOCK_SIZE));
+            bytes = Math.max(bytes, RESERVATION_BLOCK_SIZE);
+        } catch (IOException e) {
+            reserve(bytes);
+        }
+
+        long extraBytes = bytes;
+        Long newReservedBytes = files.computeIfPresent(file, (key, value) -> value + extraBytes);
+        if(newReservedBytes == null){
+            usedBytes.addAndGet(-extraBytes);
+            throw new IOException("The file is not in the workspace: " + file);
+        }
+        return newReservedBytes;
+    }
+
+    /**
+     * commit: move a file of the workspace to its target, replacing it (see FileUtil.commitJobFile). Its bytes are
+     * released from the quota.
+     * @param file
+     * @param target
+     * @throws IOException if the file is bigger than its reservation and the rest does not fit in the quota, the
+     * file is deleted then
+     */
+    public void commit(File file, File target) throws IOException {
+        Long reservedBytes = files.get(file);
+        if(reservedBytes == null)
+            throw new IllegalArgumentException("The file is not in the workspace: " + file);
+
+        long length = file.length();
+        try {
+            if(length > reservedBytes){
+                reserve(length - reservedBytes);
+                files.put(file, length);
+            }
+        } catch (IOException e) {
+            delete(file);
+            throw e;
+        }
+
+        FileUtil.getInstance().commitJobFile(file, target);
+        release(file);
+    }
+
+    /**
+     * delete: delete a file of the workspace and release its bytes. A file that cannot be deleted now is deleted
+     * when the JVM exits.
+     * @param file
+     * @return false if the file could not be deleted
+     */
+    public boolean delete(File file) {
+        release(file);
+        return FileUtil.getInstance().deleteFilesFromDirectory(Collections.singletonList(file.getPath())).isEmpty();
+    }
+
+    private void release(File file) {
+        Long reservedBytes = files.remove(file);
+        if(reservedBytes != null)
+            usedBytes.addAndGet(-reservedBytes);
+    }
+
+    /**
+     * reserve: add the bytes to the used bytes if they fit in the quota.
+     * @param bytes
+     * @throws IOException
+     */
+    private void reserve(long bytes) throws IOException {
+        long used;
+        do {
+            used = usedBytes.get();
+            if(bytes > quotaBytes - used)
+                throw new IOException("Workspace quota exceeded: " + bytes + " bytes requested, " + (quotaBytes - used) + " available");
+        } while(!usedBytes.compareAndSet(used, used + bytes));
+    }
+
+    /**
+     * preallocate: write the bytes as zeros, so the file system allocates them now (a full disk fails the write).
+     * Setting the length is not enough, most file systems would create a sparse file.
+     * @param file
+     * @param bytes
+     * @throws IOException
+     */
+    private static void preallocate(File file, long bytes) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(PREALLOCATION_BLOCK_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            long position = 0;
+            while(position < bytes){
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), bytes - position));
+                while(zeros.hasRemaining()){
+                    position += channel.write(zeros, position);
+                }
+            }
+        }
+    }
+
+    /**
+     * getDirectory: the folder of the files, null if they are created next to their targets.
+     * @return
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    /**
+     * getUsedBytes: bytes reserved by the files of the workspace.
+     * @return
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * getFileCount: number of files of the workspace that were not committed or deleted yet.
+     * @return
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * close: delete the files that are left and the folder of the workspace. No file can be created after it.
+     * @throws IOException if a file or the folder could not be deleted, they are deleted when the JVM exits
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+
+        List<String> undeleted = new ArrayList<>();
+        for(File file : new ArrayList<>(files.keySet())){
+            if(!delete(file))
+                undeleted.add(file.getPath());
+        }
+
+        if(directory != null && !directory.delete() && directory.exists()){
+            directory.deleteOnExit();
+            undeleted.add(directory.getPath());
+        }
+
+        if(!undeleted.isEmpty())
+            throw new IOException("Cannot delete the files of the workspace: " + undeleted);
+    }
+
+    /**
+     * WorkspaceOutputStream: writes a file of the workspace and reserves the bytes written past its reservation.
+     */
+    private class WorkspaceOutputStream extends OutputStream {
+
+        private final File file;
+        private final FileChannel channel;
+        private long reservedBytes;
+        private long position;
+        private boolean closed;
+
+        private WorkspaceOutputStream(File file, FileChannel channel, long reservedBytes) {
+            this.file = file;
+            this.channel = channel;
+            this.reservedBytes = reservedBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(closed)
+                throw new IOException("The output stream is closed");
+            if(position + len > reservedBytes)
+                reservedBytes = grow(file, position + len);
+
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while(buffer.hasRemaining()){
+                position += channel.write(buffer, position);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed)
+                return;
+
+            closed = true;
+            try {
+                // the preallocated bytes that were not written
+                channel.truncate(position);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
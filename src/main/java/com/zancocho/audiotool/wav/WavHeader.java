@@ -0,0 +1,228 @@
+package com.zancocho.audiotool.wav;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Jose A.H
+ *
+ * WavHeader: the RIFF header of a wav file. Only the chunk headers are read until the "data" chunk is found,
+ * so the sample data is never touched.
+ */
+public class WavHeader {
+
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_IEEE_FLOAT = 3;
+    public static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private static final int RIFF_HEADER_SIZE = 12;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int FMT_CHUNK_MIN_SIZE = 16;
+    // WAVE_FORMAT_EXTENSIBLE: cbSize, valid bits, channel mask and the SubFormat GUID, whose first 2 bytes are the
+    // format code of the samples
+    private static final int FMT_CHUNK_EXTENSIBLE_SIZE = 40;
+    private static final int SUB_FORMAT_OFFSET = 24;
+
+    private int formatTag;
+    private int subFormat;
+    private int channels;
+    private int sampleRate;
+    private int byteRate;
+    private int blockAlign;
+    private int bitsPerSample;
+    private long dataOffset;
+    private long dataLength;
+
+    private WavHeader() {
+    }
+
+    /**
+     * read: read the RIFF header of a wav file.
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static WavHeader read(File file) throws IOException, UnsupportedAudioFileException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * read: read the RIFF header of a wav file from a channel. Only positional reads are used, so the channel
+     * position is not changed.
+     * @param channel
+     * @return
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static WavHeader read(FileChannel channel) throws IOException, UnsupportedAudioFileException {
+        long fileLength = channel.size();
+
+        ByteBuffer riff = readBuffer(channel, 0, RIFF_HEADER_SIZE);
+        if(riff.remaining() < RIFF_HEADER_SIZE || !"RIFF".equals(readTag(riff, 0)) || !"WAVE".equals(readTag(riff, 8)))
+            throw new UnsupportedAudioFileException("Not a RIFF/WAVE file");
+
+        WavHeader wavHeader = new WavHeader();
+        boolean fmtFound = false;
+        long offset = RIFF_HEADER_SIZE;
+
+        while(offset + CHUNK_HEADER_SIZE <= fileLength){
+            ByteBuffer chunkHeader = readBuffer(channel, offset, CHUNK_HEADER_SIZE);
+            if(chunkHeader.remaining() < CHUNK_HEADER_SIZE)
+                break;
+
+            String chunkId = readTag(chunkHeader, 0);
+            long chunkSize = chunkHeader.getInt(4) & 0xFFFFFFFFL;
+            long chunkDataOffset = offset + CHUNK_HEADER_SIZE;
+
+            if("fmt ".equals(chunkId)){
+                if(chunkSize < FMT_CHUNK_MIN_SIZE)
+                    throw new UnsupportedAudioFileException("Invalid fmt chunk");
+
+                int fmtSize = chunkSize >= FMT_CHUNK_EXTENSIBLE_SIZE ? FMT_CHUNK_EXTENSIBLE_SIZE : FMT_CHUNK_MIN_SIZE;
+                ByteBuffer fmt = readBuffer(channel, chunkDataOffset, fmtSize);
+                wavHeader.formatTag = fmt.getShort(0) & 0xFFFF;
+                wavHeader.subFormat = wavHeader.formatTag;
+                if(wavHeader.formatTag == FORMAT_EXTENSIBLE)
+                    wavHeader.subFormat = fmt.remaining() >= FMT_CHUNK_EXTENSIBLE_SIZE ? fmt.getShort(SUB_FORMAT_OFFSET) & 0xFFFF : 0;
+                wavHeader.channels = fmt.getShort(2) & 0xFFFF;
+                wavHeader.sampleRate = fmt.getInt(4);
+                wavHeader.byteRate = fmt.getInt(8);
+                wavHeader.blockAlign = fmt.getShort(12) & 0xFFFF;
+                wavHeader.bitsPerSample = fmt.getShort(14) & 0xFFFF;
+                if(wavHeader.channels == 0 || wavHeader.sampleRate <= 0 || wavHeader.blockAlign == 0)
+                    throw new UnsupportedAudioFileException("Invalid fmt chunk");
+                fmtFound = true;
+
+            } else if("data".equals(chunkId)){
+                if(!fmtFound)
+                    throw new UnsupportedAudioFileException("data chunk found before the fmt chunk");
+
+                wavHeader.dataOffset = chunkDataOffset;
+                // Streamed wav files may have a 0 or 0xFFFFFFFF size: the data goes until the end of the file.
+                long available = fileLength - chunkDataOffset;
+                wavHeader.dataLength = (chunkSize == 0 || chunkSize > available) ? available : chunkSize;
+                return wavHeader;
+            }
+
+            offset = chunkDataOffset + chunkSize + (chunkSize & 1);
+        }
+
+        throw new UnsupportedAudioFileException("No data chunk found in the wav file");
+    }
+
+    private static ByteBuffer readBuffer(FileChannel channel, long offset, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, offset + buffer.position()) < 0)
+                break;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String readTag(ByteBuffer buffer, int offset) {
+        char[] tag = new char[4];
+        for(int i = 0; i < 4; i++){
+            tag[i] = (char) (buffer.get(offset + i) & 0xFF);
+        }
+        return new String(tag);
+    }
+
+    /**
+     * getDurationInSeconds: duration of the samples in the data chunk. The header bytes are not counted.
+     * @return
+     */
+    public float getDurationInSeconds() {
+        return (float) getFrameLength() / sampleRate;
+    }
+
+    /**
+     * getFrameLength: number of sample frames in the data chunk.
+     * @return
+     */
+    public long getFrameLength() {
+        return dataLength / blockAlign;
+    }
+
+    /**
+     * isPcm: true for integer PCM samples (also when they are stored with WAVE_FORMAT_EXTENSIBLE).
+     * @return
+     */
+    public boolean isPcm() {
+        return subFormat == FORMAT_PCM;
+    }
+
+    /**
+     * isFloat: true for IEEE float samples (also when they are stored with WAVE_FORMAT_EXTENSIBLE).
+     * @return
+     */
+    public boolean isFloat() {
+        return subFormat == FORMAT_IEEE_FLOAT;
+    }
+
+    /**
+     * getAudioFormat: the javax.sound format of the samples.
+     * @return
+     */
+    public AudioFormat getAudioFormat() {
+        AudioFormat.Encoding encoding;
+        if(isFloat())
+            encoding = AudioFormat.Encoding.PCM_FLOAT;
+        else if(bitsPerSample <= 8)
+            encoding = AudioFormat.Encoding.PCM_UNSIGNED;
+        else
+            encoding = AudioFormat.Encoding.PCM_SIGNED;
+
+        return new AudioFormat(encoding, sampleRate, bitsPerSample, channels, blockAlign, sampleRate, false);
+    }
+
+    public int getFormatTag() {
+        return formatTag;
+    }
+
+    /**
+     * getSubFormat: the format code of the samples, the SubFormat of a WAVE_FORMAT_EXTENSIBLE file or the format tag
+     * of any other file.
+     * @return
+     */
+    public int getSubFormat() {
+        return subFormat;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getByteRate() {
+        return byteRate;
+    }
+
+    public int getBlockAlign() {
+        return blockAlign;
+    }
+
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+}
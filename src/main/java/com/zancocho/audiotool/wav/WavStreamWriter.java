@@ -0,0 +1,173 @@
+package com.zancocho.audiotool.wav;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @author Jose A.H
+ *
+ * WavStreamWriter: write an audio stream as a wav file to an OutputStream that cannot seek, like the body of a HTTP
+ * response. AudioSystem.write needs the length of the stream to write the header first, this writer does not: when
+ * the length is not known, the sizes of the header are 0xFFFFFFFF, as streaming encoders do, and the readers stop at
+ * the end of the stream.
+ *
+ * The result has the canonical 44 bytes header, the same as AudioSystem.write. When the output stream writes a
+ * file, the sizes of the header are written once the stream is closed.
+ */
+public class WavStreamWriter {
+
+    private static final int HEADER_SIZE = 44;
+    private static final long UNKNOWN_SIZE = 0xFFFFFFFFL;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int RIFF_SIZE_OFFSET = 4;
+    private static final int DATA_SIZE_OFFSET = 40;
+
+    private WavStreamWriter() {
+    }
+
+    /**
+     * write: write the header and the samples of the stream. The output stream is not closed. Samples that are not
+     * little endian PCM or float are converted to 16 bit PCM while they are read.
+     * @param audioInputStream
+     * @param outputStream
+     * @return the number of bytes of samples written
+     * @throws IOException
+     */
+    public static long write(AudioInputStream audioInputStream, OutputStream outputStream) throws IOException {
+        AudioInputStream wavStream = toWavFormat(audioInputStream);
+        int frameSize = wavStream.getFormat().getFrameSize();
+
+        long dataLength = wavStream.getFrameLength() == AudioSystem.NOT_SPECIFIED
+                ? UNKNOWN_SIZE
+                : wavStream.getFrameLength() * frameSize;
+        if(HEADER_SIZE - 8 + dataLength > UNKNOWN_SIZE)
+            dataLength = UNKNOWN_SIZE;
+
+        return write(wavStream, outputStream, dataLength);
+    }
+
+    /**
+     * write: write the stream to an output stream that writes the file (e.g. a file of a TempWorkspace), close it
+     * and write the sizes of the samples written in the header, as AudioSystem.write does with a file. The samples
+     * are not completed with silence when the stream ends before its length.
+     * @param audioInputStream
+     * @param fileOutputStream
+     * @param file
+     * @return the number of bytes of samples written
+     * @throws IOException
+     */
+    public static long write(AudioInputStream audioInputStream, OutputStream fileOutputStream, File file) throws IOException {
+        long bytes;
+        try (OutputStream outputStream = fileOutputStream) {
+            bytes = write(toWavFormat(audioInputStream), outputStream, UNKNOWN_SIZE);
+        }
+
+        long riffSize = HEADER_SIZE - 8 + bytes + (bytes & 1);
+        if(riffSize < UNKNOWN_SIZE){
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                writeSize(channel, RIFF_SIZE_OFFSET, riffSize);
+                writeSize(channel, DATA_SIZE_OFFSET, bytes);
+            }
+        }
+        return bytes;
+    }
+
+    private static long write(AudioInputStream wavStream, OutputStream outputStream, long dataLength) throws IOException {
+        AudioFormat audioFormat = wavStream.getFormat();
+        int frameSize = audioFormat.getFrameSize();
+        outputStream.write(createHeader(audioFormat, dataLength));
+
+        byte[] buffer = new byte[BUFFER_SIZE - BUFFER_SIZE % frameSize];
+        long bytes = 0;
+        int read;
+        while((read = wavStream.read(buffer)) > 0){
+            outputStream.write(buffer, 0, read);
+            bytes += read;
+        }
+
+        if(dataLength != UNKNOWN_SIZE){
+            // the header gives the length, a stream that ends before it is completed with silence
+            byte[] silence = new byte[buffer.length];
+            if(audioFormat.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED))
+                Arrays.fill(silence, (byte) 0x80);
+            while(bytes < dataLength){
+                int count = (int) Math.min(silence.length, dataLength - bytes);
+                outputStream.write(silence, 0, count);
+                bytes += count;
+            }
+        }
+        // the data chunk is padded to an even size
+        if((bytes & 1) != 0)
+            outputStream.write(0);
+
+        outputStream.flush();
+        return bytes;
+    }
+
+    private static void writeSize(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt((int) size);
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * toWavFormat: wav files store little endian samples, 8 bit samples are unsigned. Other formats are converted to
+     * 16 bit PCM.
+     * @param audioInputStream
+     * @return
+     * @throws IOException
+     */
+    private static AudioInputStream toWavFormat(AudioInputStream audioInputStream) throws IOException {
+        AudioFormat audioFormat = audioInputStream.getFormat();
+        AudioFormat.Encoding encoding = audioFormat.getEncoding();
+        int bits = audioFormat.getSampleSizeInBits();
+
+        if(encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED) && bits == 8)
+            return audioInputStream;
+        if((encoding.equals(AudioFormat.Encoding.PCM_SIGNED) && bits > 8 || encoding.equals(AudioFormat.Encoding.PCM_FLOAT)) && !audioFormat.isBigEndian())
+            return audioInputStream;
+
+        AudioFormat targetFormat = new AudioFormat(audioFormat.getSampleRate(), 16, audioFormat.getChannels(), true, false);
+        try {
+            return AudioSystem.getAudioInputStream(targetFormat, audioInputStream);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("ERROR processing WAV: format not supported " + audioFormat);
+        }
+    }
+
+    private static byte[] createHeader(AudioFormat audioFormat, long dataLength) {
+        int formatTag = audioFormat.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT) ? WavHeader.FORMAT_IEEE_FLOAT : WavHeader.FORMAT_PCM;
+        int sampleRate = Math.round(audioFormat.getSampleRate());
+        int blockAlign = audioFormat.getFrameSize();
+        long riffSize = dataLength == UNKNOWN_SIZE ? UNKNOWN_SIZE : HEADER_SIZE - 8 + dataLength + (dataLength & 1);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+        header.putInt((int) Math.min(riffSize, UNKNOWN_SIZE));
+        header.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        header.put("fmt ".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(16);
+        header.putShort((short) formatTag);
+        header.putShort((short) audioFormat.getChannels());
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) audioFormat.getSampleSizeInBits());
+        header.put("data".getBytes(StandardCharsets.US_ASCII));
+        header.putInt((int) dataLength);
+        return header.array();
+    }
+}
@@ -0,0 +1,172 @@
+package com.zancocho.audiotool.wav;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Jose A.H
+ *
+ * WavTransfer: cut and join PCM wav files without decoding them. When the inputs have the same format, the result is
+ * a new RIFF header followed by byte ranges of the inputs, so the samples are copied by the kernel with
+ * FileChannel.transferTo and never go through the Java heap.
+ *
+ * The result has the canonical 44 bytes header, the same as AudioSystem.write.
+ */
+public class WavTransfer {
+
+    private static final int HEADER_SIZE = 44;
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    private WavTransfer() {
+    }
+
+    /**
+     * cut: write totalSeconds of the source from startSecond to the target. The bounds are rounded to the nearest
+     * sample frame, as in AudioPipeline.cut.
+     * @param source
+     * @param startSecond
+     * @param totalSeconds
+     * @param target
+     * @return false if the source is not a PCM wav file, nothing is written then
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static boolean cut(File source, double startSecond, double totalSeconds, File target) throws IOException, UnsupportedAudioFileException {
+        WavHeader wavHeader = WavHeader.read(source);
+        if(wavHeader.getFormatTag() != WavHeader.FORMAT_PCM || totalSeconds < 0)
+            return false;
+
+        long startFrame = Math.min(Math.max(0, Math.round(startSecond * wavHeader.getSampleRate())), wavHeader.getFrameLength());
+        long frames = Math.min(Math.round(totalSeconds * wavHeader.getSampleRate()), wavHeader.getFrameLength() - startFrame);
+
+        return write(wavHeader, Collections.singletonList(new Region(source, wavHeader, startFrame, frames)), target);
+    }
+
+    /**
+     * join: write the sources one after the other to the target.
+     * @param sources
+     * @param target
+     * @return false if the sources are not PCM wav files with the same format, nothing is written then
+     * @throws IOException
+     * @throws UnsupportedAudioFileException
+     */
+    public static boolean join(List<File> sources, File target) throws IOException, UnsupportedAudioFileException {
+        if(sources.isEmpty())
+            return false;
+
+        List<Region> regions = new ArrayList<>();
+        WavHeader first = null;
+        for(File source : sources){
+            WavHeader wavHeader = WavHeader.read(source);
+            if(first == null)
+                first = wavHeader;
+            if(wavHeader.getFormatTag() != WavHeader.FORMAT_PCM || !isSameFormat(first, wavHeader))
+                return false;
+
+            regions.add(new Region(source, wavHeader, 0, wavHeader.getFrameLength()));
+        }
+
+        return write(first, regions, target);
+    }
+
+    /**
+     * isSameFormat: true if the samples of both files can be copied to the same data chunk.
+     * @param wavHeader1
+     * @param wavHeader2
+     * @return
+     */
+    public static boolean isSameFormat(WavHeader wavHeader1, WavHeader wavHeader2) {
+        return wavHeader1.getFormatTag() == wavHeader2.getFormatTag()
+                && wavHeader1.getChannels() == wavHeader2.getChannels()
+                && wavHeader1.getSampleRate() == wavHeader2.getSampleRate()
+                && wavHeader1.getBitsPerSample() == wavHeader2.getBitsPerSample()
+                && wavHeader1.getBlockAlign() == wavHeader2.getBlockAlign();
+    }
+
+    private static boolean write(WavHeader format, List<Region> regions, File target) throws IOException {
+        long dataLength = 0;
+        for(Region region : regions){
+            dataLength += region.frames * region.wavHeader.getBlockAlign();
+        }
+        // the data chunk is padded to an even size
+        long pad = dataLength & 1;
+        if(HEADER_SIZE - 8 + dataLength + pad > MAX_RIFF_SIZE)
+            return false;
+
+        // the target is truncated after it is written, so the bytes preallocated by a TempWorkspace are overwritten
+        try (FileChannel targetChannel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            writeFully(targetChannel, createHeader(format, dataLength, pad));
+
+            for(Region region : regions){
+                try (FileChannel sourceChannel = FileChannel.open(region.file.toPath(), StandardOpenOption.READ)) {
+                    long position = region.wavHeader.getDataOffset() + region.startFrame * region.wavHeader.getBlockAlign();
+                    long count = region.frames * region.wavHeader.getBlockAlign();
+                    while(count > 0){
+                        long transferred = sourceChannel.transferTo(position, count, targetChannel);
+                        if(transferred <= 0)
+                            throw new IOException("Unexpected end of file " + region.file);
+                        position += transferred;
+                        count -= transferred;
+                    }
+                }
+            }
+
+            if(pad > 0)
+                writeFully(targetChannel, ByteBuffer.allocate(1));
+            targetChannel.truncate(targetChannel.position());
+        }
+        return true;
+    }
+
+    private static ByteBuffer createHeader(WavHeader format, long dataLength, long pad) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+        header.putInt((int) (HEADER_SIZE - 8 + dataLength + pad));
+        header.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        header.put("fmt ".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(16);
+        header.putShort((short) format.getFormatTag());
+        header.putShort((short) format.getChannels());
+        header.putInt(format.getSampleRate());
+        header.putInt(format.getSampleRate() * format.getBlockAlign());
+        header.putShort((short) format.getBlockAlign());
+        header.putShort((short) format.getBitsPerSample());
+        header.put("data".getBytes(StandardCharsets.US_ASCII));
+        header.putInt((int) dataLength);
+        header.flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Region: frames of a source file.
+     */
+    private static class Region {
+
+        private final File file;
+        private final WavHeader wavHeader;
+        private final long startFrame;
+        private final long frames;
+
+        Region(File file, WavHeader wavHeader, long startFrame, long frames) {
+            this.file = file;
+            this.wavHeader = wavHeader;
+            this.startFrame = startFrame;
+            this.frames = frames;
+        }
+    }
+}
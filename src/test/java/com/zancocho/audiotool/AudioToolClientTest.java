@@ -1,11 +1,58 @@
 package com.zancocho.audiotool;
 
+import com.zancocho.audiotool.client.AudioBatch;
+import com.zancocho.audiotool.client.AudioJob;
+import com.zancocho.audiotool.client.AudioJobResult;
+import com.zancocho.audiotool.client.AudioPipeline;
 import com.zancocho.audiotool.client.AudioToolClient;
+import com.zancocho.audiotool.client.DecodedAudioCache;
+import com.zancocho.audiotool.client.inputstream.AudioFormatConverter;
+import com.zancocho.audiotool.client.inputstream.FloatAudioBuffer;
+import com.zancocho.audiotool.client.inputstream.FloatAudioBufferPool;
+import com.zancocho.audiotool.client.inputstream.FloatSampleCodec;
+import com.zancocho.audiotool.client.inputstream.LiveMixingAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.MappedWavAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.MixingAudioInputStream;
+import com.zancocho.audiotool.client.inputstream.Mp3AudioInputStream;
+import com.zancocho.audiotool.client.inputstream.ParallelMp3AudioInputStream;
 import com.zancocho.audiotool.exception.AudioToolException;
+import com.zancocho.audiotool.metrics.HistogramAudioMetrics;
+import com.zancocho.audiotool.mp3.Mp3Encoder;
+import com.zancocho.audiotool.mp3.Mp3Info;
+import com.zancocho.audiotool.mp3.Mp3Splicer;
+import com.zancocho.audiotool.util.TempWorkspace;
+import com.zancocho.audiotool.wav.WavHeader;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
 public class AudioToolClientTest {
 
     private static AudioToolClient client = AudioToolClient.getInstance();
@@ -13,12 +60,16 @@ public class AudioToolClientTest {
     private static String TEMP_FOLDER = "temporal/";
     private static String AUDIO_1 = "audio1";
     private static String AUDIO_2 = "audio2";
+    private static String AUDIO_MP3_1 = "audio1_mp3";
+    private static String AUDIO_MP3_2 = "audio2_mp3";
 
     @BeforeAll
     public static void convertMp3ToWavTest(){
         try {
             client.convertMp3ToWavFromResources(AUDIO_1, AUDIO_1, TEMP_FOLDER);
             client.convertMp3ToWavFromResources(AUDIO_2, AUDIO_2, TEMP_FOLDER);
+            client.convertInputStreamToMp3(AudioToolClientTest.class.getClassLoader().getResourceAsStream(AUDIO_1 + ".mp3"), AUDIO_MP3_1, TEMP_FOLDER);
+            client.convertInputStreamToMp3(AudioToolClientTest.class.getClassLoader().getResourceAsStream(AUDIO_2 + ".mp3"), AUDIO_MP3_2, TEMP_FOLDER);
         } catch (AudioToolException e) {
             Assertions.fail();
         }
@@ -33,6 +84,37 @@ public class AudioToolClientTest {
         }
     }
 
+    @Test
+    public void joinAudioMp3Test(){
+        try {
+            client.joinAudio(AUDIO_MP3_1, AUDIO_MP3_2, "joinmp3test", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+
+            Assertions.assertEquals(false, new File(TEMP_FOLDER + AUDIO_MP3_1 + ".wav").exists());
+            Assertions.assertEquals(false, new File(TEMP_FOLDER + AUDIO_MP3_2 + ".wav").exists());
+
+            float durationInSeconds = client.getDurationAudio("joinmp3test", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            float expectedDuration = client.getDurationAudio(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER)
+                    + client.getDurationAudio(AUDIO_2, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(expectedDuration, durationInSeconds, 0.01f);
+        } catch (AudioToolException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void joinAudioListTest(){
+        try {
+            client.joinAudio(Arrays.asList(AUDIO_MP3_1, AUDIO_MP3_2, AUDIO_MP3_1), "joinlisttest", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+
+            float durationInSeconds = client.getDurationAudio("joinlisttest", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            float expectedDuration = 2 * client.getDurationAudio(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER)
+                    + client.getDurationAudio(AUDIO_2, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(expectedDuration, durationInSeconds, 0.001f);
+        } catch (AudioToolException e) {
+            Assertions.fail();
+        }
+    }
+
     @Test
     public void blendAudioTest(){
         try {
@@ -42,10 +124,40 @@ public class AudioToolClientTest {
         }
     }
 
+    @Test
+    public void blendAudioListTest(){
+        try {
+            client.blendAudio(Arrays.asList(AUDIO_1, AUDIO_2, AUDIO_1), "blendlisttest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+
+            float durationInSeconds = client.getDurationAudio("blendlisttest", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            float expectedDuration = Math.max(client.getDurationAudio(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER),
+                    client.getDurationAudio(AUDIO_2, AudioToolClient.AudioType.WAV, TEMP_FOLDER));
+            Assertions.assertEquals(expectedDuration, durationInSeconds, 0.001f);
+        } catch (AudioToolException e) {
+            Assertions.fail();
+        }
+    }
+
     @Test
     public void blendAudioWithOffsetTest(){
         try {
             client.blendAudioWithOffset(AUDIO_2, AUDIO_1, "blendoffsettest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, TEMP_FOLDER, 4, 1);
+
+            float durationInSeconds = client.getDurationAudio("blendoffsettest", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(5.0f, durationInSeconds, 0.001f);
+            Assertions.assertEquals(false, new File(TEMP_FOLDER + AUDIO_1 + "_modif.wav").exists());
+        } catch (AudioToolException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void blendAudioWithOffsetMp3Test(){
+        try {
+            client.blendAudioWithOffset(AUDIO_MP3_2, AUDIO_MP3_1, "blendoffsetmp3test", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER, 13, 2);
+
+            float durationInSeconds = client.getDurationAudio("blendoffsetmp3test", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(15.0f, durationInSeconds, 0.001f);
         } catch (AudioToolException e) {
             Assertions.fail();
         }
@@ -62,6 +174,74 @@ public class AudioToolClientTest {
         }
     }
 
+    @Test
+    public void durationAudioMp3Test(){
+        try {
+            float durationInSeconds = client.getDurationAudio(AUDIO_MP3_1, AudioToolClient.AudioType.MP3, TEMP_FOLDER);
+            Assertions.assertEquals(true, durationInSeconds > 5.59 && durationInSeconds < 6.0);
+            Assertions.assertEquals(false, new File(TEMP_FOLDER + AUDIO_MP3_1 + ".wav").exists());
+
+        } catch (AudioToolException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void durationAudioMp3MatchesDecodedWavTest(){
+        try {
+            float mp3Duration = client.getDurationAudio(AUDIO_MP3_2, AudioToolClient.AudioType.MP3, TEMP_FOLDER);
+            float wavDuration = client.getDurationAudio(AUDIO_2, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(wavDuration, mp3Duration, 0.0001f);
+
+        } catch (AudioToolException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void encodeMp3Test(){
+        try {
+            client.joinAudio(AUDIO_1, AUDIO_2, "encodemp3test", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.MP3, TEMP_FOLDER);
+
+            Assertions.assertEquals(false, new File(TEMP_FOLDER + "encodemp3test.wav").exists());
+
+            Mp3Info info = Mp3Info.read(new File(TEMP_FOLDER + "encodemp3test.mp3"));
+            Assertions.assertTrue(info.hasVbrTag());
+            Assertions.assertEquals(576, info.getEncoderDelay());
+
+            // the tag gives the length of the decoded audio
+            client.convertMp3ToWav("encodemp3test", "encodemp3test_decoded", TEMP_FOLDER);
+            float wavDuration = client.getDurationAudio("encodemp3test_decoded", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(wavDuration, info.getDurationInSeconds(), 0.0001f);
+
+            // the encoded samples plus the delay and the padding fill the audio frames
+            float expectedDuration = client.getDurationAudio(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER)
+                    + client.getDurationAudio(AUDIO_2, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            long audioSamples = info.getTotalSamples() - info.getFirstFrameHeader().getSamplesPerFrame();
+            Assertions.assertEquals(expectedDuration, (float) (audioSamples - info.getEncoderDelay() - info.getEncoderPadding()) / info.getSampleRate(), 0.0001f);
+        } catch (AudioToolException | IOException | UnsupportedAudioFileException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void encodeMp3ProfileTest(){
+        try {
+            client.setEncoderProfile(Mp3Encoder.Profile.FAST);
+            client.cutAudio(AUDIO_1, "encodeprofiletest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.MP3, TEMP_FOLDER, 0, 2);
+
+            // FAST is CBR 128 kbps, so the tag is an Info tag in a 128 kbps frame
+            Mp3Info info = Mp3Info.read(new File(TEMP_FOLDER + "encodeprofiletest.mp3"));
+            Assertions.assertTrue(info.hasVbrTag());
+            Assertions.assertEquals(128000, info.getFirstFrameHeader().getBitrate());
+            Assertions.assertEquals(info.getFrameCount() * info.getFirstFrameHeader().getFrameSize(), info.getAudioBytes(), info.getFrameCount());
+        } catch (AudioToolException | IOException | UnsupportedAudioFileException e) {
+            Assertions.fail();
+        } finally {
+            client.setEncoderProfile(Mp3Encoder.Profile.BALANCED);
+        }
+    }
+
     @Test
     public void cutAudioTest(){
         try {
@@ -71,6 +251,805 @@ public class AudioToolClientTest {
         }
     }
 
+    @Test
+    public void cutAudioSampleAccurateTest(){
+        try {
+            client.cutAudio(AUDIO_MP3_1, "cutmp3accuratetest", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER, 1.2345, 0.5);
+            client.cutAudio(AUDIO_1, "cutwavaccuratetest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, TEMP_FOLDER, 1.2345, 0.5);
+
+            // audio1.wav is the full decode of audio1.mp3, so the seek must give the same samples
+            byte[] expected = readSamples(TEMP_FOLDER + AUDIO_1 + ".wav");
+            int frameSize = 4;
+            int from = (int) Math.round(1.2345 * 44100) * frameSize;
+            expected = Arrays.copyOfRange(expected, from, from + (int) Math.round(0.5 * 44100) * frameSize);
+
+            Assertions.assertArrayEquals(expected, readSamples(TEMP_FOLDER + "cutmp3accuratetest.wav"));
+            Assertions.assertArrayEquals(expected, readSamples(TEMP_FOLDER + "cutwavaccuratetest.wav"));
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void asyncJobsTest(){
+        try {
+            // jobs on the same sources at the same time must give the same result as one job alone
+            client.joinAudio(AUDIO_MP3_1, AUDIO_MP3_2, "asyncjointest", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.MP3, TEMP_FOLDER);
+            byte[] expected = Files.readAllBytes(Paths.get(TEMP_FOLDER + "asyncjointest.mp3"));
+
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for(int i = 0; i < 4; i++){
+                futures.add(client.joinAudioAsync(AUDIO_MP3_1, AUDIO_MP3_2, "asyncjointest" + i, AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.MP3, TEMP_FOLDER));
+                futures.add(client.cutAudioAsync(AUDIO_MP3_1, "asynccuttest", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER, 1.2345, 0.5));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+            for(int i = 0; i < 4; i++){
+                Assertions.assertArrayEquals(expected, Files.readAllBytes(Paths.get(TEMP_FOLDER + "asyncjointest" + i + ".mp3")));
+            }
+            Assertions.assertEquals(0.5f, client.getDurationAudioAsync("asynccuttest", AudioToolClient.AudioType.WAV, TEMP_FOLDER).get(), 0.001f);
+
+            // no job file is left behind
+            File[] jobFiles = new File(TEMP_FOLDER).listFiles((dir, name) -> name.endsWith(".part"));
+            Assertions.assertEquals(0, jobFiles.length);
+        } catch (AudioToolException | IOException | InterruptedException | ExecutionException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void asyncJobErrorTest(){
+        CompletableFuture<Float> future = client.getDurationAudioAsync(AUDIO_1, null, TEMP_FOLDER);
+
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class, future::get);
+        Assertions.assertTrue(exception.getCause() instanceof AudioToolException);
+    }
+
+    @Test
+    public void runBatchTest(){
+        try {
+            client.blendAudio(AUDIO_MP3_1, AUDIO_MP3_2, "batchexpected", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            byte[] expected = readSamples(TEMP_FOLDER + "batchexpected.wav");
+
+            // audio2_mp3 is shared by every blend and decoded once, the limit only allows one decoded file at a time
+            List<AudioJob> jobs = new ArrayList<>();
+            for(int i = 0; i < 6; i++){
+                jobs.add(AudioJob.blend(Arrays.asList(AUDIO_MP3_1, AUDIO_MP3_2), "batchtest" + i, AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER));
+                jobs.add(AudioJob.cut(AUDIO_MP3_2, "batchcuttest" + i, AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER, i * 0.25, 0.5));
+            }
+            jobs.add(AudioJob.join(Arrays.asList(AUDIO_MP3_1, "missing"), "batcherrortest", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER));
+
+            long decodedBytes = new File(TEMP_FOLDER + AUDIO_2 + ".wav").length();
+            List<AudioJobResult> results = new AudioBatch(4, decodedBytes, Mp3Encoder.Profile.BALANCED).run(jobs);
+
+            Assertions.assertEquals(jobs.size(), results.size());
+            for(int i = 0; i < 6; i++){
+                Assertions.assertTrue(results.get(2 * i).isSuccess());
+                Assertions.assertArrayEquals(expected, readSamples(results.get(2 * i).getResult()));
+                Assertions.assertEquals(0.5f, client.getDurationAudio("batchcuttest" + i, AudioToolClient.AudioType.WAV, TEMP_FOLDER), 0.001f);
+            }
+            Assertions.assertSame(jobs.get(jobs.size() - 1), results.get(jobs.size() - 1).getJob());
+            Assertions.assertFalse(results.get(jobs.size() - 1).isSuccess());
+            Assertions.assertNotNull(results.get(jobs.size() - 1).getError());
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void decodedAudioCacheTest(){
+        try {
+            client.blendAudioWithOffset(AUDIO_MP3_1, AUDIO_MP3_2, "cacheexpected", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER, 1, 3);
+            byte[] expected = readSamples(TEMP_FOLDER + "cacheexpected.wav");
+
+            // room for audio1 or audio2, not for both
+            long maxBytes = new File(TEMP_FOLDER + AUDIO_1 + ".wav").length();
+            for(DecodedAudioCache.Storage storage : DecodedAudioCache.Storage.values()){
+                DecodedAudioCache cache = new DecodedAudioCache(maxBytes, storage, new File(TEMP_FOLDER));
+                AudioPipeline background = AudioPipeline.source(new File(TEMP_FOLDER + AUDIO_MP3_2 + ".mp3"), AudioToolClient.AudioType.MP3, cache);
+                for(int i = 0; i < 3; i++){
+                    background.cut(0, 3).pad(1)
+                            .render("cachetest", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+                }
+                Assertions.assertEquals(1, cache.getMissCount());
+                Assertions.assertEquals(2, cache.getHitCount());
+
+                client.setDecodedAudioCache(cache);
+                client.blendAudioWithOffset(AUDIO_MP3_1, AUDIO_MP3_2, "cachetest", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER, 1, 3);
+                Assertions.assertArrayEquals(expected, readSamples(TEMP_FOLDER + "cachetest.wav"));
+
+                // audio1 evicts audio2, which is decoded again and evicts audio1
+                Assertions.assertEquals(3, cache.getMissCount());
+                Assertions.assertEquals(2, cache.getHitCount());
+                Assertions.assertEquals(2, cache.getEvictionCount());
+                Assertions.assertEquals(1, cache.getEntryCount());
+                Assertions.assertTrue(cache.getSize() <= maxBytes);
+            }
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        } finally {
+            client.setDecodedAudioCache(null);
+        }
+    }
+
+    @Test
+    public void mappedWavTest(){
+        byte[] expected;
+        try {
+            expected = readSamples(TEMP_FOLDER + AUDIO_1 + ".wav");
+        } catch (UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+            return;
+        }
+
+        try (MappedWavAudioInputStream audioInputStream = MappedWavAudioInputStream.getAudioInputStream(new File(TEMP_FOLDER + AUDIO_1 + ".wav"))) {
+            int frameSize = audioInputStream.getFormat().getFrameSize();
+            Assertions.assertEquals(expected.length / frameSize, audioInputStream.getFrameLength());
+
+            // skip, mark and reset only move the position
+            Assertions.assertEquals(1000 * frameSize, audioInputStream.skip(1000 * frameSize));
+            audioInputStream.mark(0);
+            byte[] data = new byte[10 * frameSize];
+            new DataInputStream(audioInputStream).readFully(data);
+            Assertions.assertArrayEquals(Arrays.copyOfRange(expected, 1000 * frameSize, 1010 * frameSize), data);
+            audioInputStream.reset();
+
+            ByteBuffer buffer = audioInputStream.getBuffer();
+            Assertions.assertTrue(buffer.isDirect());
+            Assertions.assertEquals(expected.length - 1000 * frameSize, buffer.remaining());
+            Assertions.assertEquals(ByteBuffer.wrap(expected, 1000 * frameSize, buffer.remaining()), buffer);
+
+            data = new byte[expected.length - 1000 * frameSize];
+            new DataInputStream(audioInputStream).readFully(data);
+            Assertions.assertArrayEquals(Arrays.copyOfRange(expected, 1000 * frameSize, expected.length), data);
+            Assertions.assertEquals(-1, audioInputStream.read(data));
+        } catch (UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void wavHeaderExtensibleTest(){
+        // WAVE_FORMAT_EXTENSIBLE header with the IEEE float SubFormat and 10 stereo frames
+        ByteBuffer header = ByteBuffer.allocate(68 + 80).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes()).putInt(60 + 80).put("WAVE".getBytes());
+        header.put("fmt ".getBytes()).putInt(40);
+        header.putShort((short) 0xFFFE).putShort((short) 2).putInt(44100).putInt(44100 * 8).putShort((short) 8).putShort((short) 32);
+        header.putShort((short) 22).putShort((short) 32).putInt(3);
+        header.putShort((short) 3).put(new byte[]{0, 0, 0, 0, 0x10, 0, (byte) 0x80, 0, 0, (byte) 0xAA, 0, 0x38, (byte) 0x9B, 0x71});
+        header.put("data".getBytes()).putInt(80);
+        File file = new File(TEMP_FOLDER + "extensiblefloat.wav");
+        try {
+            Files.write(file.toPath(), header.array());
+            WavHeader wavHeader = WavHeader.read(file);
+            Assertions.assertFalse(wavHeader.isPcm());
+            Assertions.assertTrue(wavHeader.isFloat());
+            Assertions.assertEquals(AudioFormat.Encoding.PCM_FLOAT, wavHeader.getAudioFormat().getEncoding());
+            Assertions.assertEquals(10, wavHeader.getFrameLength());
+        } catch (UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void wavTransferTest(){
+        try {
+            // the result of the kernel copy must be the same as the result of the pipeline
+            client.joinAudio(AUDIO_1, AUDIO_2, "transferjointest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            AudioPipeline.source(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER)
+                    .concat(AudioPipeline.source(AUDIO_2, AudioToolClient.AudioType.WAV, TEMP_FOLDER))
+                    .render("transferjoinexpected", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertArrayEquals(readSamples(TEMP_FOLDER + "transferjoinexpected.wav"), readSamples(TEMP_FOLDER + "transferjointest.wav"));
+
+            client.cutAudio(AUDIO_2, "transfercuttest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, TEMP_FOLDER, 0.75, 100);
+            AudioPipeline.source(AUDIO_2, AudioToolClient.AudioType.WAV, TEMP_FOLDER)
+                    .cut(0.75, 100)
+                    .render("transfercutexpected", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertArrayEquals(Files.readAllBytes(Paths.get(TEMP_FOLDER + "transfercutexpected.wav")), Files.readAllBytes(Paths.get(TEMP_FOLDER + "transfercuttest.wav")));
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void mp3SplicerTest(){
+        try {
+            client.cutAudio(AUDIO_MP3_1, "splicecuttest", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.MP3, TEMP_FOLDER, 1.2345, 2);
+
+            Mp3Info source = Mp3Info.read(new File(TEMP_FOLDER + AUDIO_MP3_1 + ".mp3"));
+            Mp3Info cut = Mp3Info.read(new File(TEMP_FOLDER + "splicecuttest.mp3"));
+            int samplesPerFrame = (int) (source.getTotalSamples() / source.getFrameCount());
+            long startSample = Math.round(1.2345 * source.getSampleRate());
+            long endSample = startSample + 2 * source.getSampleRate();
+            long startFrame = startSample / samplesPerFrame;
+            long endFrame = (endSample + samplesPerFrame - 1) / samplesPerFrame;
+            // the frame before is kept if the start is in the delay of the decoder
+            long firstFrame = startSample - startFrame * samplesPerFrame < 529 ? startFrame - 1 : startFrame;
+
+            // the tag frame, a silent frame if the first frame takes bytes from the bit reservoir, and the frames
+            long silentFrames = cut.getFrameCount() - 1 - (endFrame - firstFrame);
+            Assertions.assertTrue(silentFrames == 0 || silentFrames == 1);
+            // LAME delay and padding: a gapless player skips 529 more samples at the start and 529 less at the end
+            Assertions.assertEquals(silentFrames * samplesPerFrame + startSample - firstFrame * samplesPerFrame - 529, cut.getEncoderDelay());
+            Assertions.assertEquals(endFrame * samplesPerFrame - endSample + 529, cut.getEncoderPadding());
+
+            // the frames are copied, so they are decoded as in the source from the second frame
+            AudioPipeline.source(AUDIO_MP3_1, AudioToolClient.AudioType.MP3, TEMP_FOLDER).render("splicesourcedecoded", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            AudioPipeline.source("splicecuttest", AudioToolClient.AudioType.MP3, TEMP_FOLDER).render("splicecutdecoded", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            byte[] sourceSamples = readSamples(TEMP_FOLDER + "splicesourcedecoded.wav");
+            byte[] cutSamples = readSamples(TEMP_FOLDER + "splicecutdecoded.wav");
+            int frameBytes = samplesPerFrame * source.getChannels() * 2;
+            int length = (int) (endFrame - firstFrame - 1) * frameBytes;
+            Assertions.assertArrayEquals(Arrays.copyOfRange(sourceSamples, (int) (firstFrame + 1) * frameBytes, (int) (firstFrame + 1) * frameBytes + length),
+                    Arrays.copyOfRange(cutSamples, (int) (silentFrames + 2) * frameBytes, (int) (silentFrames + 2) * frameBytes + length));
+
+            // the frames are copied with the delay and the padding of the source in a new tag
+            File sourceFile = new File(TEMP_FOLDER + AUDIO_MP3_1 + ".mp3");
+            File joinFile = new File(TEMP_FOLDER + "splicejointest.mp3");
+            Assertions.assertTrue(Mp3Splicer.join(Arrays.asList(sourceFile), joinFile));
+            Mp3Info join = Mp3Info.read(joinFile);
+            Assertions.assertEquals(source.getTotalSamples(), join.getTotalSamples());
+            Assertions.assertEquals(source.getEncoderDelay(), join.getEncoderDelay());
+            Assertions.assertEquals(source.getEncoderPadding(), join.getEncoderPadding());
+
+            // the padding and the delay at the joint of two encoded files would be a gap, they are joined by the pipeline
+            Assertions.assertTrue(source.getEncoderPadding() > 0);
+            Assertions.assertFalse(Mp3Splicer.join(Arrays.asList(sourceFile, new File(TEMP_FOLDER + AUDIO_MP3_2 + ".mp3")), joinFile));
+            String path = client.joinAudio(Arrays.asList(AUDIO_MP3_1, AUDIO_MP3_2), "splicejointest", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.MP3, TEMP_FOLDER);
+            Assertions.assertTrue(new File(path).length() > 0);
+            float expectedDuration = client.getDurationAudio(AUDIO_MP3_1, AudioToolClient.AudioType.MP3, TEMP_FOLDER)
+                    + client.getDurationAudio(AUDIO_MP3_2, AudioToolClient.AudioType.MP3, TEMP_FOLDER);
+            Assertions.assertTrue(client.getDurationAudio("splicejointest", AudioToolClient.AudioType.MP3, TEMP_FOLDER) >= expectedDuration);
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void streamTest(){
+        try {
+            // the same samples as the join of the files, the header has the sizes of a stream of unknown length
+            client.joinAudio(AUDIO_MP3_1, AUDIO_MP3_2, "streamjoinexpected", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            ByteArrayOutputStream joinStream = new ByteArrayOutputStream();
+            try (InputStream audioStream1 = new FileInputStream(TEMP_FOLDER + AUDIO_MP3_1 + ".mp3");
+                 InputStream audioStream2 = new FileInputStream(TEMP_FOLDER + AUDIO_MP3_2 + ".mp3")) {
+                client.joinAudio(Arrays.asList(audioStream1, audioStream2), AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, joinStream);
+            }
+            byte[] join = joinStream.toByteArray();
+            Assertions.assertArrayEquals(readSamples(TEMP_FOLDER + "streamjoinexpected.wav"), Arrays.copyOfRange(join, 44, join.length));
+
+            ByteArrayOutputStream cutStream = new ByteArrayOutputStream();
+            try (FileChannel audioChannel = FileChannel.open(Paths.get(TEMP_FOLDER + AUDIO_1 + ".wav"))) {
+                client.cutAudio(audioChannel, AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, Channels.newChannel(cutStream), 1, 2);
+            }
+            Assertions.assertEquals(2.0f, client.getDurationAudio(new ByteArrayInputStream(cutStream.toByteArray()), AudioToolClient.AudioType.WAV), 0.001f);
+
+            ByteArrayOutputStream mp3Stream = new ByteArrayOutputStream();
+            client.cutAudio(new ByteArrayInputStream(cutStream.toByteArray()), AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.MP3, mp3Stream, 0, 1);
+            float mp3Duration = client.getDurationAudio(new ByteArrayInputStream(mp3Stream.toByteArray()), AudioToolClient.AudioType.MP3);
+            // the encoder delay, the padding and the empty first frame are decoded too
+            Assertions.assertTrue(mp3Duration >= 1.0f && mp3Duration < 1.2f);
+
+            // the streams have async variants too
+            ByteArrayOutputStream asyncCutStream = new ByteArrayOutputStream();
+            client.cutAudioAsync(new ByteArrayInputStream(cutStream.toByteArray()), AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, asyncCutStream, 0, 1).get();
+            Assertions.assertEquals(1.0f, client.getDurationAudioAsync(new ByteArrayInputStream(asyncCutStream.toByteArray()), AudioToolClient.AudioType.WAV).get(), 0.001f);
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException | InterruptedException | ExecutionException e) {
+            Assertions.fail();
+        }
+
+        Assertions.assertThrows(AudioToolException.class, () -> client.joinAudio(new ArrayList<InputStream>(), AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.WAV, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void formatConversionTest(){
+        try {
+            // 2 seconds of a 1 kHz sine, mono at 22050 Hz
+            AudioFormat monoFormat = new AudioFormat(22050, 16, 1, true, false);
+            byte[] sine = new byte[2 * 22050 * 2];
+            for(int i = 0; i < sine.length / 2; i++){
+                short sample = (short) Math.round(10000 * Math.sin(2 * Math.PI * 1000 * i / 22050.0));
+                sine[2 * i] = (byte) sample;
+                sine[2 * i + 1] = (byte) (sample >> 8);
+            }
+            AudioPipeline.source(monoFormat, sine).render("monosine", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+
+            AudioFormat stereoFormat = new AudioFormat(44100, 16, 2, true, false);
+            byte[] converted;
+            try (AudioInputStream audioInputStream = AudioFormatConverter.convert(new AudioInputStream(new ByteArrayInputStream(sine), monoFormat, sine.length / 2), stereoFormat)) {
+                Assertions.assertTrue(audioInputStream.getFormat().matches(stereoFormat));
+                Assertions.assertEquals(2 * 44100, audioInputStream.getFrameLength());
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while((read = audioInputStream.read(buffer)) > 0){
+                    outputStream.write(buffer, 0, read);
+                }
+                converted = outputStream.toByteArray();
+            }
+            Assertions.assertEquals(2 * 44100 * 4, converted.length);
+
+            // away from the edges, the resampled sine is the sine at the new rate in both channels
+            int maxError = 0;
+            for(int i = 1000; i < 2 * 44100 - 1000; i++){
+                int expected = (int) Math.round(10000 * Math.sin(2 * Math.PI * 1000 * i / 44100.0));
+                for(int channel = 0; channel < 2; channel++){
+                    int index = 4 * i + 2 * channel;
+                    maxError = Math.max(maxError, Math.abs((short) ((converted[index] & 0xFF) | (converted[index + 1] << 8)) - expected));
+                }
+            }
+            Assertions.assertTrue(maxError <= 4, "max error " + maxError);
+
+            // the inputs in another format are converted to the format of the first one
+            client.joinAudio(AUDIO_1, "monosine", "conversionjointest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            float durationInSeconds = client.getDurationAudio("conversionjointest", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(client.getDurationAudio(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER) + 2, durationInSeconds, 0.001f);
+            Assertions.assertTrue(AudioSystem.getAudioFileFormat(new File(TEMP_FOLDER + "conversionjointest.wav")).getFormat()
+                    .matches(AudioSystem.getAudioFileFormat(new File(TEMP_FOLDER + AUDIO_1 + ".wav")).getFormat()));
+
+            client.blendAudio("monosine", AUDIO_1, "conversionblendtest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(Math.max(2, client.getDurationAudio(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER)),
+                    client.getDurationAudio("conversionblendtest", AudioToolClient.AudioType.WAV, TEMP_FOLDER), 0.001f);
+            Assertions.assertEquals(22050f, AudioSystem.getAudioFileFormat(new File(TEMP_FOLDER + "conversionblendtest.wav")).getFormat().getSampleRate());
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void channelMixPartialReadTest(){
+        AudioFormat stereoFormat = new AudioFormat(44100, 16, 2, true, false);
+        byte[] samples = new byte[400];
+        for(int i = 0; i < samples.length; i++){
+            samples[i] = (byte) i;
+        }
+
+        // a source that skips 3 bytes at most and returns 0 bytes every other read
+        AudioInputStream source = new AudioInputStream(new ByteArrayInputStream(samples), stereoFormat, samples.length / 4) {
+            private int position;
+            private boolean empty;
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                empty = !empty;
+                if(position == samples.length)
+                    return -1;
+                if(empty)
+                    return 0;
+                int count = Math.min(len, Math.min(5, samples.length - position));
+                System.arraycopy(samples, position, b, off, count);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public long skip(long n) {
+                int count = (int) Math.min(n, Math.min(3, samples.length - position));
+                position += count;
+                return count;
+            }
+        };
+
+        try (AudioInputStream audioInputStream = AudioFormatConverter.convert(source, new AudioFormat(44100, 16, 1, true, false))) {
+            // 10 mono frames skipped are 10 whole stereo frames
+            Assertions.assertEquals(20, audioInputStream.skip(20));
+            byte[] data = new byte[2];
+            Assertions.assertEquals(2, audioInputStream.read(data));
+            int left = (short) ((samples[40] & 0xFF) | (samples[41] << 8));
+            int right = (short) ((samples[42] & 0xFF) | (samples[43] << 8));
+            Assertions.assertEquals(Math.round((left + right) / 2.0f), (short) ((data[0] & 0xFF) | (data[1] << 8)));
+        } catch (IOException e) {
+            Assertions.fail();
+        }
+
+        // a source that only returns 0 bytes is reported instead of read forever
+        AudioInputStream stalled = new AudioInputStream(new ByteArrayInputStream(samples), stereoFormat, samples.length / 4) {
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return 0;
+            }
+        };
+        Assertions.assertThrows(IOException.class, () -> AudioFormatConverter.convert(stalled, new AudioFormat(44100, 16, 1, true, false)).read(new byte[2]));
+        Assertions.assertThrows(IOException.class, () -> new MixingAudioInputStream(stereoFormat, Arrays.asList(stalled)).read(new byte[4]));
+    }
+
+    @Test
+    public void metricsTest(){
+        HistogramAudioMetrics metrics = new HistogramAudioMetrics();
+        client.setMetrics(metrics);
+        try {
+            String path = client.blendAudioWithOffset(AUDIO_MP3_1, AUDIO_MP3_2, "metricstest", AudioToolClient.AudioType.MP3, AudioToolClient.AudioType.MP3, TEMP_FOLDER, 2, 5);
+            String operation = AudioJob.Type.BLEND_WITH_OFFSET.name();
+
+            for(String stage : Arrays.asList("decode", "cut", "pad", "mix", "encode")){
+                HistogramAudioMetrics.Histogram histogram = metrics.getHistogram(HistogramAudioMetrics.STAGE_SECONDS, operation, stage);
+                Assertions.assertNotNull(histogram, stage);
+                Assertions.assertEquals(stage.equals("decode") ? 2 : 1, histogram.getCount(), stage);
+            }
+            // the background is cut (it is shorter than 5 seconds) and padded with 2 seconds of silence
+            Assertions.assertEquals(2 * 44100 + metrics.getHistogram(HistogramAudioMetrics.STAGE_FRAMES, operation, "cut").getMax(),
+                    metrics.getHistogram(HistogramAudioMetrics.STAGE_FRAMES, operation, "pad").getMax());
+
+            long fileLength = new File(path).length();
+            Assertions.assertEquals(fileLength, metrics.getHistogram(HistogramAudioMetrics.OPERATION_BYTES_WRITTEN, operation, null).getSum());
+            Assertions.assertEquals(fileLength, metrics.getHistogram(HistogramAudioMetrics.OPERATION_TEMP_FILE_BYTES, operation, null).getSum());
+            Assertions.assertTrue(metrics.getHistogram(HistogramAudioMetrics.OPERATION_BYTES_READ, operation, null).getSum() > 0);
+            Assertions.assertTrue(metrics.getHistogram(HistogramAudioMetrics.ENCODER_REAL_TIME_FACTOR, operation, null).getMax() > 0);
+
+            // the time of every stage is its own, so together they are not longer than the operation
+            double stageSeconds = 0;
+            for(Map.Entry<String, HistogramAudioMetrics.Histogram> entry : metrics.snapshot().entrySet()){
+                if(entry.getKey().startsWith(HistogramAudioMetrics.STAGE_SECONDS + "{operation=\"" + operation + "\""))
+                    stageSeconds += entry.getValue().getSum();
+            }
+            Assertions.assertTrue(stageSeconds <= metrics.getHistogram(HistogramAudioMetrics.OPERATION_SECONDS, operation, null).getSum());
+
+            // a wav cut is a copy of the samples
+            client.cutAudio(AUDIO_1, "metricscuttest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, TEMP_FOLDER, 1, 2);
+            Assertions.assertNotNull(metrics.getHistogram(HistogramAudioMetrics.STAGE_SECONDS, AudioJob.Type.CUT.name(), "transfer"));
+
+            String text = metrics.format();
+            Assertions.assertTrue(text.contains("# TYPE " + HistogramAudioMetrics.STAGE_SECONDS + " summary"));
+            Assertions.assertTrue(text.contains(HistogramAudioMetrics.OPERATION_SECONDS + "_count{operation=\"CUT\"} 1"));
+
+            // the quantiles are within 9% of the values
+            HistogramAudioMetrics quantiles = new HistogramAudioMetrics();
+            for(int i = 1; i <= 1000; i++){
+                quantiles.recordOperation("TEST", i * 1000000L, 0, 0, 0);
+            }
+            HistogramAudioMetrics.Histogram histogram = quantiles.getHistogram(HistogramAudioMetrics.OPERATION_SECONDS, "TEST", null);
+            Assertions.assertEquals(0.5, histogram.getQuantile(0.5), 0.5 * 0.09);
+            Assertions.assertEquals(0.99, histogram.getQuantile(0.99), 0.99 * 0.09);
+            Assertions.assertEquals(1.0, histogram.getMax(), 1e-9);
+
+        } catch (AudioToolException e) {
+            Assertions.fail();
+        } finally {
+            client.setMetrics(null);
+        }
+    }
+
+    @Test
+    public void parallelMp3DecoderTest(){
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            File mp3File = new File(TEMP_FOLDER + AUDIO_MP3_1 + ".mp3");
+            AudioFormat expectedFormat;
+            byte[] expected;
+            try (AudioInputStream audioInputStream = Mp3AudioInputStream.getAudioInputStream(mp3File)) {
+                expectedFormat = audioInputStream.getFormat();
+                expected = readAll(audioInputStream);
+            }
+
+            // small segments, so every segment but the first one needs the frames before it
+            for(int segmentFrames : new int[]{1, 8, ParallelMp3AudioInputStream.DEFAULT_SEGMENT_FRAMES}){
+                try (ParallelMp3AudioInputStream audioInputStream = ParallelMp3AudioInputStream.getAudioInputStream(mp3File, pool, segmentFrames)) {
+                    Assertions.assertTrue(audioInputStream.getFormat().matches(expectedFormat));
+                    Assertions.assertArrayEquals(expected, readAll(audioInputStream), "segments of " + segmentFrames + " frames");
+                }
+            }
+
+            client.convertMp3ToWav(AUDIO_MP3_1, "parallelmp3test", TEMP_FOLDER);
+            Assertions.assertArrayEquals(expected, readSamples(TEMP_FOLDER + "parallelmp3test.wav"));
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelMp3EncoderTest(){
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            File wavFile = new File(TEMP_FOLDER + AUDIO_1 + ".wav");
+            File sequentialFile = new File(TEMP_FOLDER + "parallelencodetest_sequential.mp3");
+            File parallelFile = new File(TEMP_FOLDER + "parallelencodetest.mp3");
+            new Mp3Encoder(Mp3Encoder.Profile.BALANCED).encode(AudioSystem.getAudioInputStream(wavFile), sequentialFile);
+            // small chunks, so there are many joins
+            new Mp3Encoder(Mp3Encoder.Profile.BALANCED, pool, 16).encode(AudioSystem.getAudioInputStream(wavFile), parallelFile);
+
+            // the same frames, delay and padding as a single encoder
+            Mp3Info sequentialInfo = Mp3Info.read(sequentialFile);
+            Mp3Info info = Mp3Info.read(parallelFile);
+            Assertions.assertTrue(info.hasVbrTag());
+            Assertions.assertEquals(sequentialInfo.getFrameCount(), info.getFrameCount());
+            Assertions.assertEquals(sequentialInfo.getEncoderDelay(), info.getEncoderDelay());
+            Assertions.assertEquals(sequentialInfo.getEncoderPadding(), info.getEncoderPadding());
+            Assertions.assertEquals(sequentialInfo.getDurationInSeconds(), info.getDurationInSeconds(), 0.0001f);
+
+            // the frames decode to the same audio, up to the noise of the encoder
+            byte[] expected;
+            byte[] decoded;
+            try (AudioInputStream audioInputStream = Mp3AudioInputStream.getAudioInputStream(sequentialFile)) {
+                expected = readAll(audioInputStream);
+            }
+            try (AudioInputStream audioInputStream = Mp3AudioInputStream.getAudioInputStream(parallelFile)) {
+                decoded = readAll(audioInputStream);
+            }
+            Assertions.assertEquals(expected.length, decoded.length);
+
+            double signal = 0;
+            double noise = 0;
+            for(int i = 0; i < expected.length; i += 2){
+                int expectedSample = (short) ((expected[i] & 0xFF) | (expected[i + 1] << 8));
+                int sample = (short) ((decoded[i] & 0xFF) | (decoded[i + 1] << 8));
+                signal += (double) expectedSample * expectedSample;
+                noise += (double) (expectedSample - sample) * (expectedSample - sample);
+            }
+            Assertions.assertTrue(10 * Math.log10(signal / noise) > 30, "SNR " + 10 * Math.log10(signal / noise));
+
+            // the results of the client, in two chunks of the default size
+            client.joinAudio(AUDIO_1, AUDIO_2, "parallelencodejointest_sequential", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.MP3, TEMP_FOLDER);
+            client.setParallelEncoding(true);
+            client.joinAudio(AUDIO_1, AUDIO_2, "parallelencodejointest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.MP3, TEMP_FOLDER);
+            sequentialInfo = Mp3Info.read(new File(TEMP_FOLDER + "parallelencodejointest_sequential.mp3"));
+            info = Mp3Info.read(new File(TEMP_FOLDER + "parallelencodejointest.mp3"));
+            Assertions.assertEquals(sequentialInfo.getFrameCount(), info.getFrameCount());
+            Assertions.assertEquals(sequentialInfo.getDurationInSeconds(), info.getDurationInSeconds(), 0.0001f);
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        } finally {
+            client.setParallelEncoding(false);
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void workspaceTest(){
+        File directory = new File(TEMP_FOLDER + "workspace");
+        File result = new File(TEMP_FOLDER + "workspacequotatest.wav");
+        File file = null;
+        TempWorkspace closedWorkspace = null;
+        try (TempWorkspace workspace = new TempWorkspace(directory, 64L * 1024 * 1024, true);
+             TempWorkspace smallWorkspace = new TempWorkspace(directory, 1024, false)) {
+            closedWorkspace = workspace;
+            // the job files are created in the folder of the workspace and moved to the results
+            client.setWorkspace(workspace);
+            String path = client.joinAudio(AUDIO_1, AUDIO_2, "workspacetest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.MP3, TEMP_FOLDER);
+            Assertions.assertTrue(new File(path).length() > 0);
+            path = client.convertMp3ToWav(AUDIO_MP3_1, "workspacetest", TEMP_FOLDER);
+            Assertions.assertTrue(new File(path).length() > 0);
+            Assertions.assertEquals(0, workspace.getFileCount());
+            Assertions.assertEquals(0, workspace.getUsedBytes());
+            Assertions.assertEquals(0, workspace.getDirectory().list().length);
+
+            // the result does not fit in the quota, nothing is written
+            result.delete();
+            client.setWorkspace(smallWorkspace);
+            Assertions.assertThrows(AudioToolException.class,
+                    () -> client.joinAudio(AUDIO_1, AUDIO_2, "workspacequotatest", AudioToolClient.AudioType.WAV, AudioToolClient.AudioType.WAV, TEMP_FOLDER));
+            Assertions.assertFalse(result.exists());
+            Assertions.assertEquals(0, smallWorkspace.getFileCount());
+            Assertions.assertEquals(0, smallWorkspace.getDirectory().list().length);
+
+            // a stream of unknown length fails when it is written past the quota
+            File mp3Result = new File(TEMP_FOLDER + "workspacequotatest.mp3");
+            mp3Result.delete();
+            Assertions.assertThrows(AudioToolException.class,
+                    () -> client.convertInputStreamToMp3(new FileInputStream(TEMP_FOLDER + AUDIO_MP3_1 + ".mp3"), "workspacequotatest", TEMP_FOLDER));
+            Assertions.assertFalse(mp3Result.exists());
+            Assertions.assertEquals(0, smallWorkspace.getUsedBytes());
+            Assertions.assertEquals(0, smallWorkspace.getDirectory().list().length);
+
+            // the reserved bytes are written when the file is created, the output stream writes over them and
+            // truncates the file, and reserves the bytes written past them
+            file = workspace.createFile(result, 100000);
+            Assertions.assertEquals(100000, file.length());
+            Assertions.assertEquals(100000, workspace.getUsedBytes());
+            try (OutputStream outputStream = workspace.openOutputStream(file)) {
+                outputStream.write(new byte[10]);
+            }
+            Assertions.assertEquals(10, file.length());
+            try (OutputStream outputStream = workspace.openOutputStream(file)) {
+                outputStream.write(new byte[200000]);
+            }
+            Assertions.assertEquals(200000, file.length());
+            Assertions.assertTrue(workspace.getUsedBytes() >= 200000);
+        } catch (AudioToolException | IOException e) {
+            Assertions.fail();
+        } finally {
+            client.setWorkspace(null);
+        }
+
+        // the files are deleted on close
+        TempWorkspace workspace = closedWorkspace;
+        Assertions.assertFalse(file.exists());
+        Assertions.assertFalse(workspace.getDirectory().exists());
+        Assertions.assertThrows(IOException.class, () -> workspace.createFile(result, 0));
+    }
+
+    @Test
+    public void liveMixingTest(){
+        AudioFormat audioFormat = new AudioFormat(44100, 16, 2, true, false);
+        int blockFrames = 441;
+        byte[] block = new byte[blockFrames * 4];
+        byte[] voiceBlock = new byte[blockFrames * 4];
+        byte[] musicBlock = new byte[blockFrames * 4];
+        for(int i = 0; i < blockFrames * 2; i++){
+            voiceBlock[2 * i] = (byte) 1000;
+            voiceBlock[2 * i + 1] = (byte) (1000 >> 8);
+            musicBlock[2 * i] = (byte) 2000;
+            musicBlock[2 * i + 1] = (byte) (2000 >> 8);
+        }
+
+        try (LiveMixingAudioInputStream mixer = new LiveMixingAudioInputStream(audioFormat, blockFrames, false)) {
+            // a block of silence without inputs
+            Assertions.assertEquals(block.length, mixer.read(block));
+            Assertions.assertEquals(0, getSample(block, 0));
+
+            LiveMixingAudioInputStream.LiveInput voice = mixer.addInput(blockFrames * 2, 1.0f);
+            Assertions.assertEquals(voiceBlock.length, voice.write(voiceBlock, 0, voiceBlock.length));
+            Assertions.assertEquals(block.length, mixer.read(block));
+            Assertions.assertEquals(1000, getSample(block, 0));
+            Assertions.assertEquals(1000, getSample(block, blockFrames * 2 - 1));
+
+            // an underrun is silence, the mix goes on
+            Assertions.assertEquals(block.length, mixer.read(block));
+            Assertions.assertEquals(0, getSample(block, 0));
+            Assertions.assertEquals(blockFrames, voice.getUnderrunFrames());
+
+            // the queue holds two blocks, the rest is rejected without blocking
+            voice.write(voiceBlock, 0, voiceBlock.length);
+            voice.write(voiceBlock, 0, voiceBlock.length);
+            Assertions.assertEquals(0, voice.write(voiceBlock, 0, voiceBlock.length));
+            Assertions.assertEquals(blockFrames * 2, voice.getQueuedFrames());
+
+            LiveMixingAudioInputStream.LiveInput music = mixer.addInput(blockFrames, 1.0f);
+            music.write(musicBlock, 0, musicBlock.length);
+            Assertions.assertEquals(2, mixer.getInputCount());
+            mixer.read(block);
+            Assertions.assertEquals(3000, getSample(block, 0));
+
+            // removed at once, the voice keeps its last block
+            mixer.removeInput(music);
+            music.write(musicBlock, 0, musicBlock.length);
+            mixer.read(block);
+            Assertions.assertEquals(1000, getSample(block, 0));
+            Assertions.assertEquals(1, mixer.getInputCount());
+
+            // a closed input plays its queue and ends
+            voice.write(voiceBlock, 0, 200 * 4);
+            voice.close();
+            mixer.read(block);
+            Assertions.assertEquals(1000, getSample(block, 200 * 2 - 1));
+            Assertions.assertEquals(0, getSample(block, 200 * 2));
+            Assertions.assertEquals(0, mixer.getInputCount());
+            Assertions.assertEquals(6, mixer.getBlockCount());
+        } catch (IOException e) {
+            Assertions.fail();
+        }
+
+        // paced: 10 blocks of 10 ms are not mixed in less than 90 ms
+        try (LiveMixingAudioInputStream mixer = new LiveMixingAudioInputStream(audioFormat, blockFrames, true)) {
+            long startNanos = System.nanoTime();
+            for(int i = 0; i < 10; i++){
+                Assertions.assertEquals(block.length, mixer.read(block));
+            }
+            Assertions.assertTrue(System.nanoTime() - startNanos >= 89_000_000L);
+        } catch (IOException e) {
+            Assertions.fail();
+        }
+    }
+
+    private static int getSample(byte[] bytes, int sample) {
+        return (short) ((bytes[2 * sample] & 0xFF) | (bytes[2 * sample + 1] << 8));
+    }
+
+    @Test
+    public void floatPipelineTest(){
+        // the bytes of every PCM format are the same after a round trip through float
+        AudioFormat[] audioFormats = {
+                new AudioFormat(44100, 16, 2, true, false),
+                new AudioFormat(44100, 16, 2, true, true),
+                new AudioFormat(44100, 24, 2, true, false),
+                new AudioFormat(44100, 8, 2, false, false)};
+        Random random = new Random(7);
+        for(AudioFormat audioFormat : audioFormats){
+            byte[] pcm = new byte[100 * audioFormat.getFrameSize()];
+            random.nextBytes(pcm);
+            FloatSampleCodec codec = FloatSampleCodec.forFormat(audioFormat);
+            FloatAudioBuffer buffer = new FloatAudioBuffer(2, 100);
+            codec.decode(pcm, 0, buffer, 0, 100);
+            byte[] encoded = new byte[pcm.length];
+            codec.encode(buffer, 0, 100, encoded, 0);
+            Assertions.assertArrayEquals(pcm, encoded, audioFormat.toString());
+        }
+
+        // the sum of the mix is not clamped before the gain that follows it, there is headroom between the stages
+        AudioFormat audioFormat = audioFormats[0];
+        byte[] loud = new byte[1000 * 4];
+        for(int i = 0; i < loud.length; i += 2){
+            loud[i] = (byte) 30000;
+            loud[i + 1] = (byte) (30000 >> 8);
+        }
+        try (AudioInputStream audioInputStream = AudioPipeline.source(audioFormat, loud)
+                .mix(AudioPipeline.source(audioFormat, loud))
+                .gain(0.5f)
+                .open()) {
+            byte[] result = readAll(audioInputStream);
+            Assertions.assertEquals(loud.length, result.length);
+            Assertions.assertEquals(30000, getSample(result, 0));
+            Assertions.assertEquals(30000, getSample(result, 1999));
+        } catch (AudioToolException | IOException e) {
+            Assertions.fail();
+        }
+
+        // the cut, pad and concat of a float stage stay in float, the samples over full scale are not clamped either
+        try (AudioInputStream audioInputStream = AudioPipeline.source(audioFormat, loud)
+                .gain(2.0f)
+                .mix(AudioPipeline.silence(audioFormat, 0.001f))
+                .cut(100 / 44100.0, 500 / 44100.0)
+                .pad(44 / 44100.0f)
+                .concat(AudioPipeline.source(audioFormat, loud))
+                .gain(0.5f)
+                .open()) {
+            byte[] result = readAll(audioInputStream);
+            Assertions.assertEquals((44 + 500 + 1000) * 4, result.length);
+            Assertions.assertEquals(0, getSample(result, 87));
+            Assertions.assertEquals(30000, getSample(result, 88));
+            Assertions.assertEquals(30000, getSample(result, 1087));
+            Assertions.assertEquals(15000, getSample(result, 1088));
+            Assertions.assertEquals(15000, getSample(result, 3087));
+        } catch (AudioToolException | IOException e) {
+            Assertions.fail();
+        }
+
+        // 32 bit PCM does not fit in a float, it stays on the byte stages
+        Assertions.assertFalse(FloatSampleCodec.isSupported(new AudioFormat(44100, 32, 2, true, false)));
+
+        // the buffers are reused
+        FloatAudioBufferPool pool = FloatAudioBufferPool.getInstance();
+        FloatAudioBuffer buffer = pool.acquire(2, 16);
+        pool.release(buffer);
+        Assertions.assertSame(buffer, pool.acquire(2, 16));
+    }
+
+    @Test
+    public void audioPipelineTest(){
+        try {
+            AudioPipeline.source(AUDIO_MP3_1, AudioToolClient.AudioType.MP3, TEMP_FOLDER)
+                    .cut(1.5f, 2)
+                    .pad(0.5f)
+                    .concat(AudioPipeline.source(AUDIO_2, AudioToolClient.AudioType.WAV, TEMP_FOLDER).gain(0.5f))
+                    .mix(AudioPipeline.source(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER).cut(0, 1))
+                    .render("pipelinetest", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+
+            float durationInSeconds = client.getDurationAudio("pipelinetest", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            float expectedDuration = 2.5f + client.getDurationAudio(AUDIO_2, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(expectedDuration, durationInSeconds, 0.001f);
+        } catch (AudioToolException e) {
+            Assertions.fail();
+        }
+    }
+
+    @Test
+    public void audioPipelineLimitTest(){
+        try {
+            AudioPipeline.source(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER).gain(2)
+                    .mix(AudioPipeline.source(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER).gain(2))
+                    .limit(1)
+                    .render("limittest", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+
+            float durationInSeconds = client.getDurationAudio("limittest", AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            float expectedDuration = client.getDurationAudio(AUDIO_1, AudioToolClient.AudioType.WAV, TEMP_FOLDER);
+            Assertions.assertEquals(expectedDuration, durationInSeconds, 0.001f);
+
+            byte[] data = readSamples(TEMP_FOLDER + "limittest.wav");
+
+            // 16 bit little endian, the default limiter threshold is -1 dBFS
+            int peak = 0;
+            for(int i = 0; i < data.length; i += 2){
+                peak = Math.max(peak, Math.abs((short) ((data[i] & 0xFF) | (data[i + 1] << 8))));
+            }
+            Assertions.assertTrue(peak <= Math.round(32768 * Math.pow(10, -1 / 20.0)));
+        } catch (AudioToolException | UnsupportedAudioFileException | IOException e) {
+            Assertions.fail();
+        }
+    }
+
     @Test
     public void getArrayAudioSilentTest(){
         int[] arr = AudioToolClient.getArrayAudioSilent(16);
@@ -81,4 +1060,22 @@ public class AudioToolClientTest {
         Assertions.assertEquals(0, arr[1]);
         Assertions.assertEquals(1, arr[0]);
     }
+
+    private static byte[] readSamples(String fileName) throws UnsupportedAudioFileException, IOException {
+        try (AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new File(fileName))) {
+            byte[] data = new byte[(int) (audioInputStream.getFrameLength() * audioInputStream.getFormat().getFrameSize())];
+            new DataInputStream(audioInputStream).readFully(data);
+            return data;
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while((read = inputStream.read(buffer)) > 0){
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
 }